@@ -6,6 +6,7 @@ package com.exametrika.common.compartment.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.exametrika.common.compartment.ICompartment;
 import com.exametrika.common.compartment.ICompartmentDispatcher;
@@ -53,8 +54,10 @@ public final class Compartment implements ICompartment, Runnable
     private volatile long dispatchPeriod;
     private final ICompartmentQueue queue;
     private final boolean enableDirectCalls;
-    private int minLockQueueCapacity;
-    private int maxUnlockQueueCapacity;
+    private final boolean concurrentQueue;
+    private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+    private volatile int minLockQueueCapacity;
+    private volatile int maxUnlockQueueCapacity;
     private volatile int taskBatchSize;
     private final IFlowController flowController;
     private final ICompartmentSizeEstimator sizeEstimator;
@@ -64,8 +67,9 @@ public final class Compartment implements ICompartment, Runnable
     private volatile boolean started;
     private volatile boolean stopped;
     private volatile boolean stopRequested;
-    private boolean flowLocked;
-    private int lockCount;
+    private volatile boolean flowLocked;
+    private volatile int lockCount;
+    private volatile int waitCount;
     private long lastTimerTime;
     
     public Compartment(ICompartmentFactory.Parameters parameters)
@@ -93,7 +97,8 @@ public final class Compartment implements ICompartment, Runnable
         flowController = parameters.flowController;
         sizeEstimator = parameters.sizeEstimator;
         queue = parameters.queue;
-        enableDirectCalls = queue instanceof SimpleCompartmentQueue;
+        concurrentQueue = queue instanceof ConcurrentCompartmentQueue;
+        enableDirectCalls = queue instanceof SimpleCompartmentQueue || concurrentQueue;
         if (parameters.group != null)
         {
             group = (CompartmentGroup)parameters.group;
@@ -439,10 +444,18 @@ public final class Compartment implements ICompartment, Runnable
     private void dispatch()
     {
         int capacity;
-        synchronized (this)
+        if (concurrentQueue)
         {
+            wakeupRequested.set(false);
             capacity = queue.getCapacity();
         }
+        else
+        {
+            synchronized (this)
+            {
+                capacity = queue.getCapacity();
+            }
+        }
         
         dispatcher.block(capacity == 0 ? dispatchPeriod : 0);
     }
@@ -608,103 +621,132 @@ public final class Compartment implements ICompartment, Runnable
             return null;
     }
 
-    private synchronized void offerFromCompartmentThread(ICompartmentTask task, ICompartment compartment)
+    private void offerFromCompartmentThread(ICompartmentTask task, ICompartment compartment)
     {
         int size = sizeEstimator.estimateSize(task);
-        queue.offer(new Event(task, compartment, size));
-        
-        if (!flowLocked && queue.getCapacity() >= minLockQueueCapacity)
-        {
-            flowLocked = true;
-            flowController.lockFlow(null);
-        }
-        
-        dispatcher.wakeup();
+        offerFromCompartmentThread(new Event(task, compartment, size));
     }
 
-    private synchronized void offerFromCompartmentThread(Runnable task)
+    private void offerFromCompartmentThread(Runnable task)
     {
         int size = estimateSize(task);
-        queue.offer(new Event(task, null, size));
-        
-        if (!flowLocked && queue.getCapacity() >= minLockQueueCapacity)
-        {
-            flowLocked = true;
-            flowController.lockFlow(null);
-        }
-        
-        dispatcher.wakeup();
+        offerFromCompartmentThread(new Event(task, null, size));
     }
 
-    private synchronized void offerFromCompartmentThread(List<?> tasks, ICompartment compartment, boolean runnable)
+    private void offerFromCompartmentThread(List<?> tasks, ICompartment compartment, boolean runnable)
     {
         int size = estimateSize(tasks, runnable);
-        queue.offer(new Event(new CompartmentTaskList(tasks, runnable), compartment, size));
-        
-        if (!flowLocked && queue.getCapacity() >= minLockQueueCapacity)
-        {
-            flowLocked = true;
-            flowController.lockFlow(null);
-        }
-        
-        dispatcher.wakeup();
+        offerFromCompartmentThread(new Event(new CompartmentTaskList(tasks, runnable), compartment, size));
     }
 
-    private synchronized void offerFromExternalThread(Runnable task)
+    private void offerFromCompartmentThread(Event event)
     {
-        int size = estimateSize(task);
-        Assert.isTrue(size < minLockQueueCapacity);
-        
-        while (!stopRequested && queue.getCapacity() + size >= minLockQueueCapacity)
+        if (concurrentQueue)
         {
-            try
-            {
-                wait();
-            }
-            catch (InterruptedException e)
+            queue.offer(event);
+            
+            if (!flowLocked && queue.getCapacity() >= minLockQueueCapacity)
+                lockFlowController();
+        }
+        else
+        {
+            synchronized (this)
             {
-                throw new ThreadInterruptedException(e);
+                queue.offer(event);
+                lockFlowController();
             }
         }
         
-        if (!stopRequested)
-        {
-            queue.offer(new Event(task, null, size));
-            dispatcher.wakeup();
-        }
+        wakeupDispatcher();
     }
 
-    private synchronized void offerFromExternalThread(List<?> tasks)
+    private void offerFromExternalThread(Runnable task)
+    {
+        int size = estimateSize(task);
+        offerFromExternalThread(new Event(task, null, size));
+    }
+
+    private void offerFromExternalThread(List<?> tasks)
     {
         int size = estimateSize(tasks, true);
-        Assert.isTrue(size < minLockQueueCapacity);
+        offerFromExternalThread(new Event(new CompartmentTaskList(tasks, true), null, size));
+    }
+
+    private void offerFromExternalThread(Event event)
+    {
+        Assert.isTrue(event.size < minLockQueueCapacity);
         
-        while (!stopRequested && queue.getCapacity() + size >= minLockQueueCapacity)
+        if (concurrentQueue && !stopRequested && queue.getCapacity() + event.size < minLockQueueCapacity)
+            queue.offer(event);
+        else
         {
-            try
+            synchronized (this)
             {
-                wait();
-            }
-            catch (InterruptedException e)
-            {
-                throw new ThreadInterruptedException(e);
+                waitCount++;
+                
+                try
+                {
+                    while (!stopRequested && queue.getCapacity() + event.size >= minLockQueueCapacity)
+                        wait();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ThreadInterruptedException(e);
+                }
+                finally
+                {
+                    waitCount--;
+                }
+                
+                if (stopRequested)
+                    return;
+                
+                queue.offer(event);
             }
         }
         
-        if (!stopRequested)
-        {
-            queue.offer(new Event(new CompartmentTaskList(tasks, true), null, size));
-            dispatcher.wakeup();
-        }
+        wakeupDispatcher();
     }
 
-    private synchronized Event poll(boolean firstInBatch)
+    private Event poll(boolean firstInBatch)
     {
+        if (!concurrentQueue)
+        {
+            synchronized (this)
+            {
+                if (lockCount > 0)
+                    return null;
+                
+                Event event = queue.poll(firstInBatch);
+                unlockFlowController();
+                
+                return event;
+            }
+        }
+        
         if (lockCount > 0)
             return null;
         
         Event event = queue.poll(firstInBatch);
-     
+        
+        // Monitor of compartment is taken only if flow is locked or some external producers are waiting
+        if ((flowLocked || waitCount > 0) && queue.getCapacity() <= maxUnlockQueueCapacity)
+            unlockFlowController();
+
+        return event;
+    }
+    
+    private synchronized void lockFlowController()
+    {
+        if (!flowLocked && queue.getCapacity() >= minLockQueueCapacity)
+        {
+            flowLocked = true;
+            flowController.lockFlow(null);
+        }
+    }
+    
+    private synchronized void unlockFlowController()
+    {
         if (queue.getCapacity() <= maxUnlockQueueCapacity)
         {
             if (flowLocked)
@@ -715,8 +757,18 @@ public final class Compartment implements ICompartment, Runnable
             
             notifyAll();
         }
-
-        return event;
+    }
+    
+    private void wakeupDispatcher()
+    {
+        // Only first producer after last drain cycle of main thread wakes up dispatcher
+        if (concurrentQueue)
+        {
+            if (!wakeupRequested.get() && wakeupRequested.compareAndSet(false, true))
+                dispatcher.wakeup();
+        }
+        else
+            dispatcher.wakeup();
     }
     
     private int estimateSize(Runnable task)
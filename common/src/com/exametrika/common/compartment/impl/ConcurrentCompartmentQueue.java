@@ -0,0 +1,48 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+
+package com.exametrika.common.compartment.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.exametrika.common.compartment.ICompartmentQueue;
+
+
+
+/**
+ * The {@link ConcurrentCompartmentQueue} is a lock-free compartment queue, which allows many producer threads to offer
+ * events without taking compartment monitor. Events are polled by single consumer - main thread of compartment.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class ConcurrentCompartmentQueue implements ICompartmentQueue
+{
+    private final ConcurrentLinkedQueue<Event> queue = new ConcurrentLinkedQueue<Event>();
+    private final AtomicInteger capacity = new AtomicInteger();
+
+    @Override
+    public int getCapacity()
+    {
+        return capacity.get();
+    }
+
+    @Override
+    public void offer(Event event)
+    {
+        capacity.addAndGet(event.size);
+        queue.offer(event);
+    }
+
+    @Override
+    public Event poll(boolean firstInBatch)
+    {
+        Event event = queue.poll();
+        if (event != null)
+            capacity.addAndGet(-event.size);
+
+        return event;
+    }
+}
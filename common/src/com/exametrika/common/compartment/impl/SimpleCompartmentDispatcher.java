@@ -18,6 +18,8 @@ import com.exametrika.common.tasks.ThreadInterruptedException;
  */
 public final class SimpleCompartmentDispatcher implements ICompartmentDispatcher
 {
+    private boolean wakeupRequested;
+
     @Override
     public void setCompartment(ICompartment compartment)
     {
@@ -31,17 +33,21 @@ public final class SimpleCompartmentDispatcher implements ICompartmentDispatcher
         
         try
         {
-            wait(period);
+            if (!wakeupRequested)
+                wait(period);
         }
         catch (InterruptedException e)
         {
             throw new ThreadInterruptedException(e);
         }
+        
+        wakeupRequested = false;
     }
 
     @Override
     public synchronized void wakeup()
     {
+        wakeupRequested = true;
         notify();
     }
 
@@ -0,0 +1,176 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.expression;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Pair;
+
+
+/**
+ * The {@link ExpressionCache} is a bounded cache of compiled expressions keyed by expression text and compile context.
+ * Compile contexts are compared by identity. Cache is split into independently locked segments selected by key hash, so
+ * that concurrent lookups of different expressions do not contend for single lock. When segment is full, least recently 
+ * used expression of segment is evicted.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class ExpressionCache
+{
+    private static final int MAX_SEGMENT_COUNT = 16;
+    private static final int MIN_SEGMENT_SIZE = 32;
+    private final int maxSize;
+    private final Segment[] segments;
+
+    /**
+     * Creates a new object.
+     *
+     * @param maxSize maximal number of cached expressions
+     */
+    public ExpressionCache(int maxSize)
+    {
+        Assert.isTrue(maxSize > 0);
+
+        this.maxSize = maxSize;
+        
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENT_COUNT && segmentCount * 2 * MIN_SEGMENT_SIZE <= maxSize)
+            segmentCount *= 2;
+        
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new Segment(maxSize / segmentCount + (i < maxSize % segmentCount ? 1 : 0));
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public int getSize()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                size += segment.size();
+            }
+        }
+        
+        return size;
+    }
+
+    public long getHitCount()
+    {
+        long hitCount = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                hitCount += segment.hitCount;
+            }
+        }
+        
+        return hitCount;
+    }
+
+    public long getMissCount()
+    {
+        long missCount = 0;
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                missCount += segment.missCount;
+            }
+        }
+        
+        return missCount;
+    }
+
+    /**
+     * Returns compiled expression from cache or compiles expression and adds it to cache.
+     *
+     * @param expression expression
+     * @param context compile context
+     * @return compiled expression
+     */
+    public IExpression compile(String expression, CompileContext context)
+    {
+        Assert.notNull(expression);
+        Assert.notNull(context);
+
+        Pair<String, CompileContext> key = new Pair<String, CompileContext>(expression, context);
+        Segment segment = getSegment(key);
+        synchronized (segment)
+        {
+            IExpression compiledExpression = segment.get(key);
+            if (compiledExpression != null)
+            {
+                segment.hitCount++;
+                return compiledExpression;
+            }
+
+            segment.missCount++;
+        }
+
+        IExpression compiledExpression = Expressions.compile(expression, context);
+
+        synchronized (segment)
+        {
+            IExpression existingExpression = segment.get(key);
+            if (existingExpression != null)
+                return existingExpression;
+
+            segment.put(key, compiledExpression);
+            return compiledExpression;
+        }
+    }
+
+    /**
+     * Removes all expressions from cache.
+     */
+    public void clear()
+    {
+        for (Segment segment : segments)
+        {
+            synchronized (segment)
+            {
+                segment.clear();
+            }
+        }
+    }
+    
+    private Segment getSegment(Pair<String, CompileContext> key)
+    {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[hash & (segments.length - 1)];
+    }
+    
+    private static final class Segment extends LinkedHashMap<Pair<String, CompileContext>, IExpression>
+    {
+        private static final long serialVersionUID = -3517265946236484470L;
+        private final int maxSize;
+        private long hitCount;
+        private long missCount;
+        
+        public Segment(int maxSize)
+        {
+            super(16, 0.75f, true);
+            
+            this.maxSize = maxSize;
+        }
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Pair<String, CompileContext>, IExpression> eldest)
+        {
+            return size() > maxSize;
+        }
+    }
+}
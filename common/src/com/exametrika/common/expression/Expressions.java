@@ -27,7 +27,10 @@ import com.exametrika.common.utils.Immutables;
 public final class Expressions
 {
     private static final String DEBUG_PROPERTY = "com.exametrika.expressions.debug";
+    private static final int CACHE_SIZE = 1000;
+    private static final ExpressionCache cache = new ExpressionCache(CACHE_SIZE);
     private static volatile DebugContext debugContext;
+    private static volatile CompileContext defaultCompileContext;
     
     static
     {
@@ -45,10 +48,22 @@ public final class Expressions
     public static void setDebugContext(IDebugContext debugContext)
     {
         Expressions.debugContext = (DebugContext)debugContext;
+        cache.clear();
     }
     
     /**
-     * Evaluates expression.
+     * Returns cache of compiled expressions used by {@link #compileCached(String, CompileContext)}.
+     *
+     * @return cache of compiled expressions
+     */
+    public static ExpressionCache getCache()
+    {
+        return cache;
+    }
+    
+    /**
+     * Evaluates expression. Expression is compiled in default compile context, created from services, compiled expressions
+     * are cached.
      *
      * @param expression expression
      * @param context context. Can be null
@@ -57,7 +72,23 @@ public final class Expressions
      */
     public static <T> T evaluate(String expression, Object context, Map<String, ? extends Object> variables)
     {
-        return compile(expression, createCompileContext(null)).execute(context, variables);
+        return compileCached(expression, getDefaultCompileContext()).execute(context, variables);
+    }
+    
+    /**
+     * Returns compiled expression from cache or compiles expression and adds it to cache. Expressions are not cached
+     * if debug context is set.
+     *
+     * @param expression expression
+     * @param context compile context
+     * @return compiled expression
+     */
+    public static IExpression compileCached(String expression, CompileContext context)
+    {
+        if (debugContext != null)
+            return compile(expression, context);
+        else
+            return cache.compile(expression, context);
     }
     
     /**
@@ -96,6 +127,23 @@ public final class Expressions
         return context;
     }
     
+    /**
+     * Returns default compile context, created from services without qualifiers on first call.
+     *
+     * @return default compile context
+     */
+    public static CompileContext getDefaultCompileContext()
+    {
+        CompileContext context = defaultCompileContext;
+        if (context == null)
+        {
+            context = createCompileContext(null);
+            defaultCompileContext = context;
+        }
+        
+        return context;
+    }
+    
     /**
      * Creates and initializes runtime context from services.
      *
@@ -5,6 +5,7 @@ package com.exametrika.common.expression.impl.nodes;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -64,7 +65,7 @@ public final class ConstructorExpressionNode implements IExpressionNode
         
         try
         {
-            return info.handle.invokeWithArguments(parameters);
+            return (Object)info.handle.invokeExact(parameters);
         }
         catch (Throwable e)
         {
@@ -170,7 +171,8 @@ public final class ConstructorExpressionNode implements IExpressionNode
             
             this.clazz = clazz;
             this.parameterTypes = parameterTypes;
-            this.handle = handle;
+            this.handle = handle.asSpreader(Object[].class, parameterTypes.length).asType(
+                MethodType.methodType(Object.class, Object[].class));
         }
         
         public boolean matches(Class clazz, int parameterCount)
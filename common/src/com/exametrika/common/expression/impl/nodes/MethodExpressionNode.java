@@ -5,6 +5,7 @@ package com.exametrika.common.expression.impl.nodes;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -97,7 +98,7 @@ public final class MethodExpressionNode implements IExpressionNode
         
         try
         {
-            return info.handle.invokeWithArguments(parameters);
+            return (Object)info.handle.invokeExact(parameters);
         }
         catch (Throwable e)
         {
@@ -229,7 +230,8 @@ public final class MethodExpressionNode implements IExpressionNode
             this.clazz = clazz;
             this.methodName = methodName;
             this.parameterTypes = parameterTypes;
-            this.handle = handle;
+            this.handle = handle.asSpreader(Object[].class, handle.type().parameterCount()).asType(
+                MethodType.methodType(Object.class, Object[].class));
             this.isStatic = isStatic;
         }
         
@@ -5,6 +5,7 @@ package com.exametrika.common.expression.impl.nodes;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -86,9 +87,9 @@ public final class PropertyAssignmentExpressionNode implements IExpressionNode
             value = context.getConversionProvider().cast(value, info.type);
             
             if (!staticProperty && !info.isStatic)
-                info.handle.invoke(self, value);
+                info.handle.invokeExact(self, value);
             else
-                info.handle.invoke(value);
+                info.handle.invokeExact(value);
             
             return value;
         }
@@ -258,7 +259,10 @@ public final class PropertyAssignmentExpressionNode implements IExpressionNode
             this.clazz = clazz;
             this.propertyName = propertyName;
             this.type = type;
-            this.handle = handle;
+            if (isStatic)
+                this.handle = handle.asType(MethodType.methodType(void.class, Object.class));
+            else
+                this.handle = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
             this.isStatic = isStatic;
         }
     }
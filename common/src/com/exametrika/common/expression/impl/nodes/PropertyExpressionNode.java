@@ -5,6 +5,7 @@ package com.exametrika.common.expression.impl.nodes;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -76,9 +77,9 @@ public final class PropertyExpressionNode implements IExpressionNode
         try
         {
             if (!staticProperty && !info.isStatic)
-                return info.handle.invoke(self);
+                return (Object)info.handle.invokeExact(self);
             else
-                return info.handle.invoke();
+                return (Object)info.handle.invokeExact();
         }
         catch (Throwable e)
         {
@@ -247,7 +248,10 @@ public final class PropertyExpressionNode implements IExpressionNode
             
             this.clazz = clazz;
             this.propertyName = propertyName;
-            this.handle = handle;
+            if (isStatic)
+                this.handle = handle.asType(MethodType.methodType(Object.class));
+            else
+                this.handle = handle.asType(MethodType.methodType(Object.class, Object.class));
             this.isStatic = isStatic;
         }
     }
@@ -88,5 +88,14 @@ public interface ISerialization extends IDataSerialization
      */
     void writeRegion(ByteArray buffer);
     
+    /**
+     * Writes header of region, which data are not written to this serialization but appended by caller to serialized
+     * data externally (for example as separate buffer of gathering write). Used to reference shared region data
+     * without copying.
+     *
+     * @param length length of region data
+     */
+    void writeRegionHeader(int length);
+    
 }
 
@@ -87,6 +87,12 @@ public final class MultiByteOutputStream extends ByteOutputStream
         return null;
     }
     
+    @Override
+    public void reset()
+    {
+        Assert.supports(false);
+    }
+    
     @Override
     public void close()
     {
@@ -127,6 +127,14 @@ public class ByteOutputStream extends OutputStream
         this.length = newLength;
     }
 
+    /**
+     * Resets length of stream to zero, retaining allocated buffer.
+     */
+    public void reset()
+    {
+        length = 0;
+    }
+
     /**
      * Returns a copy of byte array.
      *
@@ -41,7 +41,9 @@ public final class Deserialization extends DataDeserialization implements IDeser
     private static final byte OBJECT = 0x8;
     private static final byte PRESERVE_IDENTITY_FLAG = 0x10;
     private static final byte REGION = 0x20;
+    private static final byte OBJECT_DICTIONARY_TYPEID = 0x40;
     private final ISerializationRegistry serializationRegistry;
+    private final SerializationTypeDictionary typeDictionary;
     private final ByteInputStream inputStream;
     private List<ISerializationInfo> typeList = new ArrayList<ISerializationInfo>();
     private List<Object> identityList = new ArrayList<Object>();
@@ -55,6 +57,19 @@ public final class Deserialization extends DataDeserialization implements IDeser
      * @param inputStream data input stream
      */
     public Deserialization(ISerializationRegistry serializationRegistry, ByteInputStream inputStream)
+    {
+        this(serializationRegistry, null, inputStream);
+    }
+    
+    /**
+     * Creates a new object.
+     *
+     * @param serializationRegistry serialization registry
+     * @param typeDictionary type dictionary used to resolve compact type identifiers or null if type dictionary is not used
+     * @param inputStream data input stream
+     */
+    public Deserialization(ISerializationRegistry serializationRegistry, SerializationTypeDictionary typeDictionary, 
+        ByteInputStream inputStream)
     {
         super(inputStream);
         
@@ -62,6 +77,7 @@ public final class Deserialization extends DataDeserialization implements IDeser
         Assert.notNull(inputStream);
         
         this.serializationRegistry = serializationRegistry;
+        this.typeDictionary = typeDictionary;
         this.inputStream = inputStream;
         stack = new Stack(0, false, 0, null);
     }
@@ -84,6 +100,7 @@ public final class Deserialization extends DataDeserialization implements IDeser
         Assert.notNull(inputStream);
         
         this.serializationRegistry = serializationRegistry;
+        this.typeDictionary = null;
         this.inputStream = inputStream;
         stack = new Stack(0, false, 0, null);
         
@@ -133,6 +150,15 @@ public final class Deserialization extends DataDeserialization implements IDeser
             int typeId = readInt();
             info = typeList.get(typeId);
         }
+        else if ((recordType & OBJECT_DICTIONARY_TYPEID) == OBJECT_DICTIONARY_TYPEID)
+        {
+            int typeId = Serializers.readVarInt(this);
+            UUID id = typeDictionary != null ? typeDictionary.getType(typeId) : null;
+            if (id == null)
+                throw new UnsupportedStreamFormatException(messages.typeNotFound(typeId));
+            
+            info = serializationRegistry.getInfo(id);
+        }
         else
             throw new UnsupportedStreamFormatException();
         
@@ -333,6 +359,8 @@ public final class Deserialization extends DataDeserialization implements IDeser
         ILocalizedMessage endOfRegion();
         @DefaultMessage("Identity is not supported for object ''{0}''.")
         ILocalizedMessage identityNotSupported(Object object);
+        @DefaultMessage("Type ''{0}'' is not found in type dictionary.")
+        ILocalizedMessage typeNotFound(int typeId);
         @DefaultMessage("Unsupported stream format ''{0}''.")
         ILocalizedMessage unsupportedStreamFormat(int header);
         @DefaultMessage("Stream version ''{0}'' is incompatible with deserializer. Deserializer supports stream versions from range ''[{1}..{2}]''.")
@@ -35,10 +35,13 @@ public final class Serialization extends DataSerialization implements ISerializa
     private static final byte OBJECT = 0x8;
     private static final byte PRESERVE_IDENTITY_FLAG = 0x10;
     private static final byte REGION = 0x20;
+    private static final byte OBJECT_DICTIONARY_TYPEID = 0x40;
     private final ISerializationRegistry serializationRegistry;
+    private final SerializationTypeDictionary typeDictionary;
     private final ByteOutputStream outputStream;
     private final boolean defaultPreserveIdentity;
     private Map<Class, TypeInfo> typeMap = new HashMap<Class, TypeInfo>();
+    private Map<Class, TypeInfo> dictionaryTypeMap;
     private TObjectIntMap<Object> identityMap = new TObjectIntCustomHashMap<Object>(new IdentityHashingStrategy<Object>(), 
         10, 0.5f, Integer.MAX_VALUE);
     private int typeCounter;
@@ -54,6 +57,21 @@ public final class Serialization extends DataSerialization implements ISerializa
      * @param outputStream output stream to serialize into
      */
     public Serialization(ISerializationRegistry serializationRegistry, boolean preserveIdentity, ByteOutputStream outputStream)
+    {
+        this(serializationRegistry, preserveIdentity, null, outputStream);
+    }
+    
+    /**
+     * Creates a new object.
+     *
+     * @param serializationRegistry serialization registry
+     * @param preserveIdentity if true preserves object identity in serialized data, if false makes a copy of each object occurence
+     * @param typeDictionary type dictionary used to write compact type identifiers instead of serialization identifiers
+     * or null if type dictionary is not used. Deserialization must use the same type dictionary contents
+     * @param outputStream output stream to serialize into
+     */
+    public Serialization(ISerializationRegistry serializationRegistry, boolean preserveIdentity, 
+        SerializationTypeDictionary typeDictionary, ByteOutputStream outputStream)
     {
         super(outputStream);
         
@@ -61,9 +79,13 @@ public final class Serialization extends DataSerialization implements ISerializa
         Assert.notNull(outputStream);
 
         this.serializationRegistry = serializationRegistry;
+        this.typeDictionary = typeDictionary;
         this.outputStream = outputStream;
         this.stack = new Stack(0, preserveIdentity, null);
         this.defaultPreserveIdentity = preserveIdentity;
+        
+        if (typeDictionary != null)
+            dictionaryTypeMap = new HashMap<Class, TypeInfo>();
     }
     
     /**
@@ -84,6 +106,7 @@ public final class Serialization extends DataSerialization implements ISerializa
         Assert.notNull(outputStream);
 
         this.serializationRegistry = serializationRegistry;
+        this.typeDictionary = null;
         this.outputStream = outputStream;
         this.stack = new Stack(0, preserveIdentity, null);
         this.defaultPreserveIdentity = preserveIdentity;
@@ -139,8 +162,26 @@ public final class Serialization extends DataSerialization implements ISerializa
             }
             
             Class clazz = value.getClass();
-            TypeInfo typeInfo = typeMap.get(clazz);
-            if (typeInfo == null)
+            TypeInfo typeInfo;
+            if (typeDictionary != null)
+            {
+                // Type dictionary outlives regions, write object header with dictionary typeId
+                typeInfo = dictionaryTypeMap.get(clazz);
+                if (typeInfo == null)
+                {
+                    ISerializationInfo info = serializationRegistry.getInfo(clazz);
+                    typeInfo = new TypeInfo(info, typeDictionary.getTypeId(info.getId()));
+                    dictionaryTypeMap.put(clazz, typeInfo);
+                }
+                
+                byte recordType = OBJECT_DICTIONARY_TYPEID;
+                if (stack.preserveIdentity)
+                    recordType |= PRESERVE_IDENTITY_FLAG;
+                
+                writeByte(recordType);
+                Serializers.writeVarInt(this, typeInfo.typeId);
+            }
+            else if ((typeInfo = typeMap.get(clazz)) == null)
             {
                 // If serializer UUID is not written yet, write object header with serializer UUID
                 ISerializationInfo info = serializationRegistry.getInfo(clazz);
@@ -309,6 +350,16 @@ public final class Serialization extends DataSerialization implements ISerializa
         outputStream.write(buffer.getBuffer(), buffer.getOffset(), buffer.getLength());
     }
     
+    @Override
+    public void writeRegionHeader(int length)
+    {
+        if (region != null)
+            throw new InvalidStateException();
+        
+        writeByte(REGION);
+        writeInt(length);
+    }
+    
     private void writeInt(byte[] buffer, int offset, int value)
     {
         unsafe.putInt(buffer, byteArrayOffset + offset, value);
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.io.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.exametrika.common.utils.Assert;
+
+
+
+/**
+ * The {@link SerializationTypeDictionary} is a dictionary of serialization identifiers shared by many serializations
+ * (deserializations), which maps serialization identifiers to compact type identifiers. Type identifiers are assigned
+ * sequentially starting from 0 and are never reassigned, so that dictionary can be safely used by deserializations
+ * performed after dictionary has been extended.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SerializationTypeDictionary
+{
+    private final Map<UUID, Integer> typeIds = new HashMap<UUID, Integer>();
+    private final List<UUID> types = new ArrayList<UUID>();
+
+    /**
+     * Returns type identifier of specified serialization identifier. If serialization identifier is not found in
+     * dictionary it is added to dictionary with next type identifier.
+     *
+     * @param id serialization identifier
+     * @return type identifier
+     */
+    public synchronized int getTypeId(UUID id)
+    {
+        Assert.notNull(id);
+
+        Integer typeId = typeIds.get(id);
+        if (typeId == null)
+        {
+            typeId = types.size();
+            typeIds.put(id, typeId);
+            types.add(id);
+        }
+
+        return typeId;
+    }
+
+    /**
+     * Returns serialization identifier of specified type identifier.
+     *
+     * @param typeId type identifier
+     * @return serialization identifier or null if type identifier is not found in dictionary
+     */
+    public synchronized UUID getType(int typeId)
+    {
+        if (typeId >= 0 && typeId < types.size())
+            return types.get(typeId);
+        else
+            return null;
+    }
+
+    /**
+     * Returns number of types in dictionary.
+     *
+     * @return number of types in dictionary
+     */
+    public synchronized int getSize()
+    {
+        return types.size();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.log;
+
+
+
+
+/**
+ * The {@link ILoggingServiceMXBean} is a management interface of logging service.
+ *
+ * @threadsafety Implementations of this interface and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public interface ILoggingServiceMXBean
+{
+    /** Name of MXBean of logging service.*/
+    final String MBEAN_NAME = "com.exametrika.common:type=LoggingService";
+
+    /**
+     * Returns capacity of queue of log events.
+     *
+     * @return capacity of queue of log events
+     */
+    int getQueueCapacity();
+
+    /**
+     * Returns number of log events in queue.
+     *
+     * @return number of log events in queue
+     */
+    int getQueueSize();
+
+    /**
+     * Returns overflow policy of queue of log events.
+     *
+     * @return overflow policy of queue of log events
+     */
+    String getOverflowPolicy();
+
+    /**
+     * Returns number of log events dropped because queue of log events has been full or sampled out.
+     *
+     * @return number of dropped log events
+     */
+    long getDroppedEventCount();
+
+    /**
+     * Returns number of log events, whose callers have been blocked because queue of log events has been full.
+     *
+     * @return number of log events, whose callers have been blocked
+     */
+    long getBlockedEventCount();
+}
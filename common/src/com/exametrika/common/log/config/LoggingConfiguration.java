@@ -35,7 +35,23 @@ public final class LoggingConfiguration extends Configuration
     private final LoggerConfiguration rootLogger;
     private final List<LoggerConfiguration> loggers;
     private final List<AppenderConfiguration> appenders;
+    private final OverflowPolicy overflowPolicy;
 
+    /**
+     * Overflow policy of queue of log events.
+     */
+    public enum OverflowPolicy
+    {
+        /** Log events are dropped when queue is full. */
+        DROP,
+        
+        /** Only part of log events is accepted when queue is more than half full, log events are dropped when queue is full. */
+        SAMPLE,
+        
+        /** Callers are blocked until queue has free space. */
+        BLOCK
+    }
+    
     public LoggingConfiguration()
     {
         this(RuntimeMode.DEVELOPMENT, Arrays.<AppenderConfiguration>asList(new ConsoleAppenderConfiguration("console", LogLevel.TRACE, 
@@ -54,11 +70,18 @@ public final class LoggingConfiguration extends Configuration
     
     public LoggingConfiguration(RuntimeMode runtimeMode, List<AppenderConfiguration> appenders, 
         LoggerConfiguration rootLogger, List<LoggerConfiguration> loggers)
+    {
+        this(runtimeMode, appenders, rootLogger, loggers, OverflowPolicy.BLOCK);
+    }
+    
+    public LoggingConfiguration(RuntimeMode runtimeMode, List<AppenderConfiguration> appenders, 
+        LoggerConfiguration rootLogger, List<LoggerConfiguration> loggers, OverflowPolicy overflowPolicy)
     {
         Assert.notNull(runtimeMode);
         Assert.notNull(appenders);
         Assert.notNull(rootLogger);
         Assert.notNull(loggers);
+        Assert.notNull(overflowPolicy);
         
         Set<String> set = new HashSet<String>();
         for (AppenderConfiguration appender : appenders)
@@ -71,6 +94,7 @@ public final class LoggingConfiguration extends Configuration
         this.rootLogger = rootLogger;
         this.loggers = Immutables.wrap(loggers);
         this.appenders = Immutables.wrap(appenders);
+        this.overflowPolicy = overflowPolicy;
         checkAppenders(appenders, rootLogger.getAppenders());
         for (LoggerConfiguration logger : loggers)
             checkAppenders(appenders, logger.getAppenders());
@@ -96,6 +120,11 @@ public final class LoggingConfiguration extends Configuration
         return appenders;
     }
     
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return overflowPolicy;
+    }
+    
     public LoggerConfiguration getLogger(String name)
     {
         LogLevel level = rootLogger.getLevel();
@@ -144,13 +173,14 @@ public final class LoggingConfiguration extends Configuration
         
         LoggingConfiguration configuration = (LoggingConfiguration)o;
         return runtimeMode.equals(configuration.runtimeMode) && appenders.equals(configuration.appenders) && 
-            rootLogger.equals(configuration.rootLogger) && loggers.equals(configuration.loggers);
+            rootLogger.equals(configuration.rootLogger) && loggers.equals(configuration.loggers) && 
+            overflowPolicy == configuration.overflowPolicy;
     }
     
     @Override
     public int hashCode()
     {
-        return Objects.hashCode(runtimeMode, appenders, rootLogger, loggers);
+        return Objects.hashCode(runtimeMode, appenders, rootLogger, loggers, overflowPolicy);
     }
     
     private void checkAppenders(List<AppenderConfiguration> appenders, List<String> appenderNames)
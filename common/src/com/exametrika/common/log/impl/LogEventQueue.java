@@ -0,0 +1,107 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.log.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.exametrika.common.utils.Assert;
+
+
+
+/**
+ * The {@link LogEventQueue} is a bounded multi-producer single-consumer queue of log events, based on preallocated ring
+ * buffer. Producers claim slots of ring buffer by atomic increment of tail sequence and never block or allocate, if
+ * queue is full event is rejected. Single consumer drains published events in batches.
+ *
+ * @threadsafety This class and its methods are thread safe. Only one thread at a time can drain queue.
+ * @author Medvedev_A
+ */
+public final class LogEventQueue
+{
+    private final AtomicReferenceArray<LogEvent> events;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+
+    /**
+     * Creates a new object.
+     *
+     * @param capacity queue capacity. Must be power of two
+     */
+    public LogEventQueue(int capacity)
+    {
+        Assert.isTrue(capacity > 0 && Integer.bitCount(capacity) == 1);
+
+        this.events = new AtomicReferenceArray<LogEvent>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public int getCapacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * Returns approximate number of events in queue.
+     *
+     * @return number of events in queue
+     */
+    public int getSize()
+    {
+        long size = tail.get() - head;
+        return (int)Math.max(0, Math.min(size, mask + 1));
+    }
+
+    /**
+     * Adds event to queue.
+     *
+     * @param event event
+     * @return true if event has been added, false if queue is full
+     */
+    public boolean offer(LogEvent event)
+    {
+        Assert.notNull(event);
+
+        while (true)
+        {
+            long sequence = tail.get();
+            if (sequence - head > mask)
+                return false;
+
+            if (tail.compareAndSet(sequence, sequence + 1))
+            {
+                events.set((int)sequence & mask, event);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes published events from queue.
+     *
+     * @param batch batch where removed events are stored
+     * @return number of removed events
+     */
+    public int drain(LogEvent[] batch)
+    {
+        long sequence = head;
+        int count = 0;
+        while (count < batch.length)
+        {
+            int index = (int)(sequence + count) & mask;
+            LogEvent event = events.get(index);
+            if (event == null)
+                break;
+
+            events.set(index, null);
+            batch[count++] = event;
+        }
+
+        if (count > 0)
+            head = sequence + count;
+
+        return count;
+    }
+}
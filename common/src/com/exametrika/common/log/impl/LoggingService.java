@@ -3,12 +3,19 @@
  */
 package com.exametrika.common.log.impl;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.exametrika.common.config.ConfigurationLoader;
 import com.exametrika.common.config.ILoadContext;
@@ -20,36 +27,46 @@ import com.exametrika.common.expression.IExpression;
 import com.exametrika.common.expression.ITemplateRegistry;
 import com.exametrika.common.expression.Templates;
 import com.exametrika.common.log.ILogger;
+import com.exametrika.common.log.ILoggingServiceMXBean;
 import com.exametrika.common.log.IMarker;
 import com.exametrika.common.log.LogLevel;
 import com.exametrika.common.log.config.AppenderConfiguration;
 import com.exametrika.common.log.config.LoggerConfiguration;
 import com.exametrika.common.log.config.LoggingConfiguration;
+import com.exametrika.common.log.config.LoggingConfiguration.OverflowPolicy;
 import com.exametrika.common.services.IService;
 import com.exametrika.common.services.IServiceRegistry;
-import com.exametrika.common.tasks.impl.RunnableTaskHandler;
-import com.exametrika.common.tasks.impl.TaskExecutor;
-import com.exametrika.common.tasks.impl.TaskQueue;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.Threads;
 
 
 
 /**
- * The {@link LoggingService} is a simple logger factory implementation.
+ * The {@link LoggingService} is a simple logger factory implementation. Log events are passed to single handler thread
+ * through preallocated ring buffer, handler thread appends (and formats) log events in batches. When ring buffer is full,
+ * log events are handled according to overflow policy of logging configuration.
  *
  * @see ILogger
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev_A
  */
-public final class LoggingService implements ILoggingService, IService
+public final class LoggingService implements ILoggingService, IService, ILoggingServiceMXBean
 {
     public static final LoggingService instance = new LoggingService();
+    private static final int QUEUE_CAPACITY = 16384;
+    private static final int BATCH_SIZE = 256;
+    private static final int SAMPLE_RATE = 10;
+    private static final long IDLE_PERIOD = 100000000;
+    private static final long BLOCK_PERIOD = 100000;
     private volatile LoggingConfiguration configuration;
+    private volatile OverflowPolicy overflowPolicy;
     private Map<String, IAppender> appenders = new LinkedHashMap<String, IAppender>();
     private Map<String, Logger> loggers = new LinkedHashMap<String, Logger>();
-    private final TaskExecutor executor;
-    private final TaskQueue<LogEvent> queue;
+    private final LogEventQueue queue = new LogEventQueue(QUEUE_CAPACITY);
+    private final HandlerThread handlerThread = new HandlerThread();
+    private final AtomicLong droppedEventCount = new AtomicLong();
+    private final AtomicLong blockedEventCount = new AtomicLong();
+    private final AtomicInteger sampleCounter = new AtomicInteger();
     private final CompileContext compileContext;
     private final ITemplateRegistry templateRegistry;
     private final LogContext context;
@@ -58,6 +75,21 @@ public final class LoggingService implements ILoggingService, IService
     private volatile boolean stopped;
     private long lastFlushTime;
 
+    static
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(instance, name);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+    
     public LoggingService()
     {
         this(loadDefaultConfiguration());
@@ -67,16 +99,13 @@ public final class LoggingService implements ILoggingService, IService
     {
         Assert.notNull(configuration);
         
-        TaskQueue<LogEvent> queue = new TaskQueue<LogEvent>(10000, 0);
-        executor = new TaskExecutor<LogEvent>(1, queue, new RunnableTaskHandler<LogEvent>(), "Logging service handler thread", false, null);
-        this.queue = queue;
         Set<String> qualifiers = Collections.singleton("logging");
         compileContext = Expressions.createCompileContext(qualifiers);
         this.context = new LogContext();
         this.runtimeContext = Expressions.createRuntimeContext(qualifiers, true);
         this.templateRegistry = createTemplateRegistry(qualifiers);
 
-        executor.start();
+        handlerThread.start();
 
         setConfiguration(configuration);
         
@@ -87,8 +116,69 @@ public final class LoggingService implements ILoggingService, IService
     {
         LogInterceptor.INSTANCE.onLog(task);
         
-        if (!stopped)
-            queue.put(task);
+        if (stopped)
+            return;
+        
+        OverflowPolicy overflowPolicy = this.overflowPolicy;
+        if (overflowPolicy == OverflowPolicy.SAMPLE && queue.getSize() > QUEUE_CAPACITY / 2 && 
+            sampleCounter.incrementAndGet() % SAMPLE_RATE != 0)
+        {
+            droppedEventCount.incrementAndGet();
+            return;
+        }
+        
+        if (!queue.offer(task))
+        {
+            if (overflowPolicy != OverflowPolicy.BLOCK || Thread.currentThread() == handlerThread)
+            {
+                droppedEventCount.incrementAndGet();
+                return;
+            }
+            
+            blockedEventCount.incrementAndGet();
+            
+            do
+            {
+                if (stopped)
+                    return;
+                
+                handlerThread.wakeUp();
+                LockSupport.parkNanos(BLOCK_PERIOD);
+            }
+            while (!queue.offer(task));
+        }
+        
+        handlerThread.wakeUp();
+    }
+    
+    @Override
+    public int getQueueCapacity()
+    {
+        return queue.getCapacity();
+    }
+    
+    @Override
+    public int getQueueSize()
+    {
+        return queue.getSize();
+    }
+    
+    @Override
+    public String getOverflowPolicy()
+    {
+        return overflowPolicy.toString();
+    }
+    
+    @Override
+    public long getDroppedEventCount()
+    {
+        return droppedEventCount.get();
+    }
+    
+    @Override
+    public long getBlockedEventCount()
+    {
+        return blockedEventCount.get();
     }
     
     @Override
@@ -143,7 +233,16 @@ public final class LoggingService implements ILoggingService, IService
     {
         Threads.sleep(1000);
         stopped = true;
-        executor.stop();
+        handlerThread.requestToStop();
+        
+        try
+        {
+            handlerThread.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
 
         synchronized (this)
         {
@@ -176,6 +275,7 @@ public final class LoggingService implements ILoggingService, IService
         
         appenders.clear();
         this.configuration = configuration;
+        this.overflowPolicy = configuration.getOverflowPolicy();
         
         for (AppenderConfiguration appenderConfiguration : configuration.getAppenders())
             appenders.put(appenderConfiguration.getName(), appenderConfiguration.createAppender(compileContext, context, 
@@ -257,6 +357,65 @@ public final class LoggingService implements ILoggingService, IService
         return templateRegistry;
     }
     
+    private class HandlerThread extends Thread
+    {
+        private volatile boolean waiting;
+        private volatile boolean stopRequested;
+        
+        public HandlerThread()
+        {
+            super("Logging service handler thread");
+            setDaemon(true);
+        }
+        
+        public void wakeUp()
+        {
+            if (waiting)
+                LockSupport.unpark(this);
+        }
+        
+        public void requestToStop()
+        {
+            stopRequested = true;
+            LockSupport.unpark(this);
+        }
+        
+        @Override
+        public void run()
+        {
+            LogEvent[] batch = new LogEvent[BATCH_SIZE];
+            while (true)
+            {
+                int count = queue.drain(batch);
+                if (count == 0)
+                {
+                    if (stopRequested)
+                        break;
+                    
+                    waiting = true;
+                    if (queue.getSize() == 0 && !stopRequested)
+                        LockSupport.parkNanos(IDLE_PERIOD);
+                    waiting = false;
+                    continue;
+                }
+                
+                for (int i = 0; i < count; i++)
+                {
+                    try
+                    {
+                        batch[i].run();
+                    }
+                    catch (Exception e)
+                    {
+                        e.printStackTrace();
+                    }
+                    
+                    batch[i] = null;
+                }
+            }
+        }
+    }
+    
     private class Stopper extends Thread
     {
         @Override
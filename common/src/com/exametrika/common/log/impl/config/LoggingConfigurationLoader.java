@@ -19,6 +19,7 @@ import com.exametrika.common.log.config.ConsoleAppenderConfiguration.Target;
 import com.exametrika.common.log.config.FileAppenderConfiguration;
 import com.exametrika.common.log.config.LoggerConfiguration;
 import com.exametrika.common.log.config.LoggingConfiguration;
+import com.exametrika.common.log.config.LoggingConfiguration.OverflowPolicy;
 import com.exametrika.common.utils.Assert;
 
 
@@ -53,6 +54,10 @@ public final class LoggingConfigurationLoader extends AbstractElementLoader
             for (Map.Entry<String, Object> entry : loggers)
                 loggingContext.addLogger(loadLogger(entry.getKey(), (JsonObject)entry.getValue()));
         }
+        
+        String overflowPolicy = element.get("overflowPolicy", null);
+        if (overflowPolicy != null)
+            loggingContext.setOverflowPolicy(loadOverflowPolicy(overflowPolicy));
     }
     
     private AppenderConfiguration loadAppender(String name, JsonObject element, ILoadContext loadContext)
@@ -109,6 +114,18 @@ public final class LoggingConfigurationLoader extends AbstractElementLoader
         return new LoggerConfiguration(name, level, appenders, filters, recordStackTrace);
     }
 
+    private OverflowPolicy loadOverflowPolicy(String overflowPolicy)
+    {
+        if (overflowPolicy.equals("drop"))
+            return OverflowPolicy.DROP;
+        else if (overflowPolicy.equals("sample"))
+            return OverflowPolicy.SAMPLE;
+        else if (overflowPolicy.equals("block"))
+            return OverflowPolicy.BLOCK;
+        else
+            return Assert.error();
+    }
+    
     private LogLevel loadLogLevel(String level)
     {
         if (level == null)
@@ -15,6 +15,7 @@ import com.exametrika.common.config.common.ICommonLoadContext;
 import com.exametrika.common.log.config.AppenderConfiguration;
 import com.exametrika.common.log.config.LoggerConfiguration;
 import com.exametrika.common.log.config.LoggingConfiguration;
+import com.exametrika.common.log.config.LoggingConfiguration.OverflowPolicy;
 import com.exametrika.common.utils.Assert;
 
 
@@ -32,6 +33,7 @@ public final class LoggingLoadContext implements ILoggingLoadContext, IContextFa
     private Map<String, AppenderConfiguration> appenders = new LinkedHashMap<String, AppenderConfiguration>();
     private LoggerConfiguration rootLogger = new LoggerConfiguration();
     private Map<String, LoggerConfiguration> loggers = new LinkedHashMap<String, LoggerConfiguration>();
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
     
     public void setRootLogger(LoggerConfiguration rootLogger)
     {
@@ -40,6 +42,13 @@ public final class LoggingLoadContext implements ILoggingLoadContext, IContextFa
         this.rootLogger = rootLogger;
     }
     
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy)
+    {
+        Assert.notNull(overflowPolicy);
+        
+        this.overflowPolicy = overflowPolicy;
+    }
+    
     @Override
     public void addAppender(AppenderConfiguration appender)
     {
@@ -61,7 +70,7 @@ public final class LoggingLoadContext implements ILoggingLoadContext, IContextFa
     {
         ICommonLoadContext commonContext = context.get(CommonConfiguration.SCHEMA);
         return new LoggingConfiguration(commonContext.getRuntimeMode(), new ArrayList<AppenderConfiguration>(appenders.values()), 
-            rootLogger, new ArrayList<LoggerConfiguration>(loggers.values()));
+            rootLogger, new ArrayList<LoggerConfiguration>(loggers.values()), overflowPolicy);
     }
     
     @Override
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.lz4;
+
+import java.util.Arrays;
+
+import com.exametrika.common.lz4.impl.LZ4Compressor;
+import com.exametrika.common.lz4.impl.LZ4Exception;
+
+
+/**
+ * The {@link LZ4StreamCompressor} is a streaming LZ4 compressor. Stream compressor compresses sequence of blocks, each
+ * block can reference up to {@link #WINDOW_SIZE} bytes of preceding blocks of stream and optional dictionary as history,
+ * which considerably improves compression ratio of small similar blocks. Blocks must be decompressed by
+ * {@link LZ4StreamDecompressor} having the same dictionary in the same order as they have been compressed. Stream is
+ * restarted from dictionary when stream buffer is exhausted or stream is reset, stream position of block is 0 for the
+ * first block of restarted stream.
+ *
+ * @threadsafety This class and its methods are not thread safe.
+ * @author Medvedev-A
+ */
+public final class LZ4StreamCompressor
+{
+    public static final int WINDOW_SIZE = 0x10000;
+    public static final int DEFAULT_BUFFER_SIZE = 0x40000;
+    private final int bufferSize;
+    private final int dictionaryLength;
+    private final int[] dictionaryHashTable = new int[LZ4Compressor.HASH_TABLE_SIZE];
+    private final int[] hashTable = new int[LZ4Compressor.HASH_TABLE_SIZE];
+    private byte[] buffer;
+    private int position;
+    private int blockPosition;
+
+    /**
+     * Creates a new object.
+     *
+     * @param dictionary dictionary or null if dictionary is not used. Only last {@link #WINDOW_SIZE} bytes of dictionary
+     * are used
+     */
+    public LZ4StreamCompressor(byte[] dictionary)
+    {
+        this(dictionary, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new object.
+     *
+     * @param dictionary dictionary or null if dictionary is not used. Only last {@link #WINDOW_SIZE} bytes of dictionary
+     * are used
+     * @param bufferSize size of stream buffer, stream is restarted when stream buffer is exhausted
+     */
+    public LZ4StreamCompressor(byte[] dictionary, int bufferSize)
+    {
+        dictionaryLength = dictionary != null ? Math.min(dictionary.length, WINDOW_SIZE) : 0;
+        if (bufferSize < dictionaryLength + WINDOW_SIZE)
+            throw new IllegalArgumentException("Buffer size is too small.");
+
+        this.bufferSize = bufferSize;
+        this.buffer = new byte[bufferSize];
+
+        Arrays.fill(dictionaryHashTable, -1);
+        if (dictionaryLength > 0)
+        {
+            System.arraycopy(dictionary, dictionary.length - dictionaryLength, buffer, 0, dictionaryLength);
+            LZ4Compressor.INSTANCE.addHistory(buffer, 0, dictionaryLength, dictionaryHashTable);
+        }
+
+        reset();
+    }
+
+    /**
+     * Returns stream position of last compressed block.
+     *
+     * @return stream position of last compressed block. Position 0 means that stream has been restarted by this block
+     */
+    public int getBlockPosition()
+    {
+        return blockPosition;
+    }
+
+    /**
+     * Restarts stream from dictionary, so that next block is compressed at stream position 0.
+     */
+    public void reset()
+    {
+        System.arraycopy(dictionaryHashTable, 0, hashTable, 0, hashTable.length);
+        position = 0;
+
+        if (buffer.length > bufferSize)
+        {
+            byte[] buffer = new byte[bufferSize];
+            System.arraycopy(this.buffer, 0, buffer, 0, dictionaryLength);
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Compresses <code>src[srcOff:srcOff+srcLen]</code> as next block of stream into
+     * <code>dest[destOff:destOff+destLen]</code> and return the compressed length. Block is compressed at stream position
+     * returned by {@link #getBlockPosition()}.
+     *
+     * @param src source buffer
+     * @param srcOff source buffer offset
+     * @param srcLen source buffer length
+     * @param dest destination buffer
+     * @param destOff destination buffer offset
+     * @param maxDestLen maximum destination length, must be at least {@link LZ4#maxCompressedLength(int)} of srcLen
+     * @return the compressed size
+     * @exception LZ4Exception if maxDestLen is too small
+     */
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dest, int destOff, int maxDestLen)
+    {
+        if (dictionaryLength + position + srcLen > buffer.length)
+        {
+            reset();
+
+            if (dictionaryLength + srcLen > buffer.length)
+                buffer = Arrays.copyOf(buffer, dictionaryLength + srcLen);
+        }
+
+        int offset = dictionaryLength + position;
+        System.arraycopy(src, srcOff, buffer, offset, srcLen);
+
+        int compressedLength = LZ4Compressor.INSTANCE.compress(buffer, Math.max(0, offset - WINDOW_SIZE + 1), offset, srcLen,
+            dest, destOff, maxDestLen, hashTable);
+
+        blockPosition = position;
+        position += srcLen;
+        return compressedLength;
+    }
+}
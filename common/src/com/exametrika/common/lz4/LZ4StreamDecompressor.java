@@ -0,0 +1,99 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.lz4;
+
+import java.util.Arrays;
+
+import com.exametrika.common.lz4.impl.LZ4Decompressor;
+import com.exametrika.common.lz4.impl.LZ4Exception;
+
+
+/**
+ * The {@link LZ4StreamDecompressor} is a streaming LZ4 decompressor of blocks compressed by {@link LZ4StreamCompressor}.
+ *
+ * @threadsafety This class and its methods are not thread safe.
+ * @author Medvedev-A
+ */
+public final class LZ4StreamDecompressor
+{
+    private final int bufferSize;
+    private final int dictionaryLength;
+    private byte[] buffer;
+    private int position;
+
+    /**
+     * Creates a new object.
+     *
+     * @param dictionary dictionary or null if dictionary is not used. Must be equal to dictionary of stream compressor
+     */
+    public LZ4StreamDecompressor(byte[] dictionary)
+    {
+        this(dictionary, LZ4StreamCompressor.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new object.
+     *
+     * @param dictionary dictionary or null if dictionary is not used. Must be equal to dictionary of stream compressor
+     * @param bufferSize initial size of stream buffer
+     */
+    public LZ4StreamDecompressor(byte[] dictionary, int bufferSize)
+    {
+        dictionaryLength = dictionary != null ? Math.min(dictionary.length, LZ4StreamCompressor.WINDOW_SIZE) : 0;
+        if (bufferSize < dictionaryLength + LZ4StreamCompressor.WINDOW_SIZE)
+            throw new IllegalArgumentException("Buffer size is too small.");
+
+        this.bufferSize = bufferSize;
+        this.buffer = new byte[bufferSize];
+
+        if (dictionaryLength > 0)
+            System.arraycopy(dictionary, dictionary.length - dictionaryLength, buffer, 0, dictionaryLength);
+    }
+
+    /**
+     * Returns stream position of next block.
+     *
+     * @return stream position of next block
+     */
+    public int getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Decompresses next block of stream from <code>src[srcOff:]</code> into <code>dest[destOff:destOff+destLen]</code> and
+     * return the number of bytes read from <code>src</code>.
+     *
+     * @param src source buffer
+     * @param srcOff source buffer offset
+     * @param dest destination buffer
+     * @param destOff destination buffer offset
+     * @param destLen the <b>exact</b> size of the original block
+     * @param blockPosition stream position of block, returned by {@link LZ4StreamCompressor#getBlockPosition()}
+     * @return the number of bytes read to restore the original block
+     * @exception LZ4Exception if block position does not match position of decompressor, i.e. some preceding blocks
+     * of stream have been missed
+     */
+    public int decompress(byte[] src, int srcOff, byte[] dest, int destOff, int destLen, int blockPosition)
+    {
+        if (blockPosition == 0)
+        {
+            position = 0;
+            if (buffer.length > bufferSize)
+                buffer = Arrays.copyOf(buffer, bufferSize);
+        }
+        else if (blockPosition != position)
+            throw new LZ4Exception("Block position " + blockPosition + " does not match stream position " + position + ".");
+
+        int offset = dictionaryLength + position;
+        if (offset + destLen > buffer.length)
+            buffer = Arrays.copyOf(buffer, offset + destLen);
+
+        int compressedLength = LZ4Decompressor.INSTANCE.decompress(src, srcOff, buffer, 0, offset, destLen);
+        System.arraycopy(buffer, offset, dest, destOff, destLen);
+
+        position += destLen;
+        return compressedLength;
+    }
+}
@@ -11,7 +11,6 @@ import static com.exametrika.common.lz4.impl.LZ4UnsafeUtils.readIntEquals;
 import static com.exametrika.common.lz4.impl.LZ4UnsafeUtils.wildArraycopy;
 import static com.exametrika.common.lz4.impl.LZ4UnsafeUtils.writeLen;
 import static com.exametrika.common.lz4.impl.LZ4UnsafeUtils.writeShortLittleEndian;
-import static com.exametrika.common.lz4.impl.LZ4Utils.HASH_TABLE_SIZE;
 import static com.exametrika.common.lz4.impl.LZ4Utils.HASH_TABLE_SIZE_64K;
 import static com.exametrika.common.lz4.impl.LZ4Utils.LAST_LITERALS;
 import static com.exametrika.common.lz4.impl.LZ4Utils.LZ4_64K_LIMIT;
@@ -45,6 +44,7 @@ import com.exametrika.common.lz4.LZ4;
 public final class LZ4Compressor
 {
     public static final LZ4Compressor INSTANCE = new LZ4Compressor();
+    public static final int HASH_TABLE_SIZE = LZ4Utils.HASH_TABLE_SIZE;
 
     /** Returns the maximum compressed length for an input of size <code>length</code>. 
      *
@@ -80,6 +80,63 @@ public final class LZ4Compressor
         if (srcLen < LZ4_64K_LIMIT)
             return compress64k(src, srcOff, srcLen, dest, destOff, destEnd);
 
+        final int[] hashTable = new int[HASH_TABLE_SIZE];
+        Arrays.fill(hashTable, srcOff);
+
+        return doCompress(src, srcOff, srcOff, srcLen, dest, destOff, destEnd, hashTable);
+    }
+    
+    /**
+     * Compresses <code>src[srcOff:srcOff+srcLen]</code> into <code>dest[destOff:destOff+destLen]</code> using
+     * <code>src[prefixOff:srcOff]</code> as history, i.e. matches can reference up to 64K bytes preceding compressed block.
+     * Compressed block can be decompressed only by {@link LZ4Decompressor#decompress(byte[], int, byte[], int, int, int)}
+     * having the same history preceding decompressed block.
+     *
+     * @param src source buffer
+     * @param prefixOff offset of history in source buffer
+     * @param srcOff source buffer offset
+     * @param srcLen source buffer length
+     * @param dest destination buffer
+     * @param destOff destination buffer offset
+     * @param maxDestLen maximum destination length
+     * @param hashTable hash table of {@link #HASH_TABLE_SIZE} elements containing offsets of history in source buffer.
+     * Hash table is updated by compressed block and can be used to compress subsequent blocks
+     * @return the compressed size
+     * @exception LZ4Exception if maxDestLen is too small
+     */
+    public int compress(byte[] src, int prefixOff, int srcOff, int srcLen, byte[] dest, int destOff, int maxDestLen,
+        int[] hashTable)
+    {
+        checkRange(src, prefixOff, srcOff + srcLen - prefixOff);
+        checkRange(dest, destOff, maxDestLen);
+        if (hashTable.length != HASH_TABLE_SIZE)
+            throw new IllegalArgumentException("Invalid hash table size.");
+
+        return doCompress(src, prefixOff, srcOff, srcLen, dest, destOff, destOff + maxDestLen, hashTable);
+    }
+    
+    /**
+     * Adds offsets of <code>src[srcOff:srcOff+srcLen]</code> to hash table, so that subsequently compressed blocks can
+     * reference it as history.
+     *
+     * @param src source buffer
+     * @param srcOff source buffer offset
+     * @param srcLen source buffer length
+     * @param hashTable hash table of {@link #HASH_TABLE_SIZE} elements
+     */
+    public void addHistory(byte[] src, int srcOff, int srcLen, int[] hashTable)
+    {
+        checkRange(src, srcOff, srcLen);
+        if (hashTable.length != HASH_TABLE_SIZE)
+            throw new IllegalArgumentException("Invalid hash table size.");
+        
+        for (int i = srcOff; i <= srcOff + srcLen - MIN_MATCH; i++)
+            writeInt(hashTable, hash(src, i), i);
+    }
+    
+    private int doCompress(byte[] src, int prefixOff, int srcOff, int srcLen, byte[] dest, int destOff, int destEnd,
+        int[] hashTable)
+    {
         final int srcEnd = srcOff + srcLen;
         final int srcLimit = srcEnd - LAST_LITERALS;
         final int mflimit = srcEnd - MF_LIMIT;
@@ -87,9 +144,6 @@ public final class LZ4Compressor
         int sOff = srcOff, dOff = destOff;
         int anchor = sOff++;
 
-        final int[] hashTable = new int[HASH_TABLE_SIZE];
-        Arrays.fill(hashTable, anchor);
-
         main: while (true)
         {
             // find a match
@@ -111,9 +165,9 @@ public final class LZ4Compressor
                 back = sOff - ref;
                 writeInt(hashTable, h, sOff);
             }
-            while (back >= MAX_DISTANCE || !readIntEquals(src, ref, sOff));
+            while (back <= 0 || back >= MAX_DISTANCE || ref < prefixOff || !readIntEquals(src, ref, sOff));
 
-            final int excess = commonBytesBackward(src, ref, sOff, srcOff, anchor);
+            final int excess = commonBytesBackward(src, ref, sOff, prefixOff, anchor);
             sOff -= excess;
             ref -= excess;
 
@@ -177,7 +231,7 @@ public final class LZ4Compressor
                 writeInt(hashTable, h, sOff);
                 back = sOff - ref;
 
-                if (back >= MAX_DISTANCE || !readIntEquals(src, ref, sOff))
+                if (back <= 0 || back >= MAX_DISTANCE || ref < prefixOff || !readIntEquals(src, ref, sOff))
                     break;
 
                 tokenOff = dOff++;
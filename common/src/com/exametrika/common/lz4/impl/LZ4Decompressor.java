@@ -38,9 +38,27 @@ public final class LZ4Decompressor
      * @return the number of bytes read to restore the original input
      */
     public int decompress(byte[] src, final int srcOff, byte[] dest, final int destOff, int destLen)
+    {
+        return decompress(src, srcOff, dest, destOff, destOff, destLen);
+    }
+    
+    /**
+     * Uncompress <code>src[srcOff:]</code> into <code>dest[destOff:destOff+destLen]</code> using
+     * <code>dest[prefixOff:destOff]</code> as history, and return the number of bytes read from <code>src</code>.
+     * <code>destLen</code> must be exactly the size of the decompressed data.
+     * 
+     * @param src source buffer
+     * @param srcOff source buffer offset
+     * @param dest destination buffer
+     * @param prefixOff offset of history in destination buffer
+     * @param destOff destination buffer offset
+     * @param destLen the <b>exact</b> size of the original input
+     * @return the number of bytes read to restore the original input
+     */
+    public int decompress(byte[] src, final int srcOff, byte[] dest, final int prefixOff, final int destOff, int destLen)
     {
         checkRange(src, srcOff);
-        checkRange(dest, destOff, destLen);
+        checkRange(dest, prefixOff, destOff + destLen - prefixOff);
 
         if (destLen == 0)
         {
@@ -92,7 +110,7 @@ public final class LZ4Decompressor
             sOff += 2;
             int matchOff = dOff - matchDec;
 
-            if (matchOff < destOff)
+            if (matchOff < prefixOff)
                 throw new LZ4Exception("Malformed input at " + sOff);
 
             int matchLen = token & ML_MASK;
@@ -55,6 +55,7 @@ import com.exametrika.common.net.nio.TcpNioDispatcher;
 import com.exametrika.common.net.nio.socket.ITcpSocketChannelFactory;
 import com.exametrika.common.net.nio.socket.TcpSocketChannelFactory;
 import com.exametrika.common.net.nio.ssl.TcpSslSocketChannelFactory;
+import com.exametrika.common.net.utils.TcpNoPacketDiscardPolicy;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.IOs;
 import com.exametrika.common.utils.Serializers;
@@ -118,9 +119,14 @@ public abstract class AbstractChannelFactory
             factoryParameters.sendQueueIdlePeriod, factoryParameters.receiveMessageList);
         protocols.add(bundlingProtocol);
         
-        CompressionProtocol compressionProtocol = new CompressionProtocol(channelName, factoryParameters.compressionLevel, messageFactory, 
-            serializationRegistry);
+        // Compression streams require lossless transport, so that streaming is disabled if transport can discard packets
+        boolean compressionStreaming = factoryParameters.compressionStreaming && (parameters.discardPolicy == null ||
+            parameters.discardPolicy instanceof TcpNoPacketDiscardPolicy);
+        CompressionProtocol compressionProtocol = new CompressionProtocol(channelName, null, factoryParameters.compressionLevel, 
+            CompressionProtocol.DEFAULT_MIN_COMPRESSION_SIZE, factoryParameters.compressionDictionary, 
+            compressionStreaming, messageFactory, serializationRegistry);
         protocols.add(compressionProtocol);
+        failureObservers.add(compressionProtocol);
         
         createProtocols(parameters, channelName, messageFactory, serializationRegistry, liveNodeManager, failureObservers, protocols);
         
@@ -133,7 +139,9 @@ public abstract class AbstractChannelFactory
         
         HeartbeatProtocol heartbeatProtocol = new HeartbeatProtocol(channelName, createNodeTrackingStrategy(), messageFactory, 
             factoryParameters.heartbeatTrackPeriod, factoryParameters.heartbeatStartPeriod, factoryParameters.heartbeatPeriod, 
-            factoryParameters.heartbeatFailureDetectionPeriod);
+            factoryParameters.heartbeatFailureDetectionPeriod, factoryParameters.heartbeatPhiThreshold, 
+            factoryParameters.heartbeatPhiMaxSampleSize, factoryParameters.heartbeatPhiMinStdDeviation, 
+            factoryParameters.heartbeatPhiAcceptablePause);
         protocols.add(heartbeatProtocol);
         
         TracingProtocol lowTracingProtocol = new TracingProtocol(channelName, TracingProtocol.class.getName() + ".Low", messageFactory);
@@ -175,6 +183,7 @@ public abstract class AbstractChannelFactory
         transportParameters.maxUnlockSendQueueCapacity = factoryParameters.transportMaxUnlockSendQueueCapacity;
         transportParameters.minLockSendQueueCapacity = factoryParameters.transportMinLockSendQueueCapacity;
         transportParameters.maxPacketSize = factoryParameters.transportMaxPacketSize;
+        transportParameters.maxWriteBatchSize = factoryParameters.transportMaxWriteBatchSize;
         transportParameters.failureObserver = liveNodeManager;
         transportParameters.connectionObserver = liveNodeManager;
         transportParameters.localNodeInitializer = liveNodeManager;
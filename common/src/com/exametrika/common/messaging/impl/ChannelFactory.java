@@ -10,6 +10,7 @@ import java.util.List;
 import com.exametrika.common.compartment.ICompartment;
 import com.exametrika.common.compartment.ICompartmentFactory;
 import com.exametrika.common.compartment.impl.CompartmentFactory;
+import com.exametrika.common.compartment.impl.ConcurrentCompartmentQueue;
 import com.exametrika.common.messaging.IChannel;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.ChannelObserver;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.IFailureObserver;
@@ -52,13 +53,15 @@ public class ChannelFactory extends AbstractChannelFactory
         LiveNodeManager liveNodeManager = new LiveNodeManager(channelName, failureObservers, channelObserver);
        
         TcpNioDispatcher dispatcher = new TcpNioDispatcher(factoryParameters.transportChannelTimeout, 
-            factoryParameters.transportMaxChannelIdlePeriod, channelName);
+            factoryParameters.transportMaxChannelIdlePeriod, channelName, factoryParameters.transportMaxPooledBufferSize,
+            factoryParameters.transportMaxBufferPoolSize, parameters.multiThreaded ? factoryParameters.transportSelectorThreadCount : 0);
         
         ICompartmentFactory.Parameters compartmentParameters = new ICompartmentFactory.Parameters();
         compartmentParameters.name = channelName;
         compartmentParameters.dispatchPeriod = factoryParameters.selectionPeriod;
         compartmentParameters.dispatcher = dispatcher;
         compartmentParameters.flowController = new NoFlowController();
+        compartmentParameters.queue = new ConcurrentCompartmentQueue();
         compartmentParameters.minLockQueueCapacity = factoryParameters.compartmentMinLockQueueCapacity;
         compartmentParameters.minLockQueueCapacity = factoryParameters.compartmentMinLockQueueCapacity;
         
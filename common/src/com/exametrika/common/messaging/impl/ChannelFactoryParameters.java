@@ -15,18 +15,28 @@ public class ChannelFactoryParameters
     public long cleanupPeriod = 1000;
     public long nodeCleanupPeriod = 30000;
     public int compressionLevel = 5;
+    public byte[] compressionDictionary;
+    public boolean compressionStreaming;
     public int streamingMaxFragmentSize = 10000; 
     public long heartbeatTrackPeriod = 500;
     public long heartbeatStartPeriod = 10000;
     public long heartbeatPeriod = 1000;
     public long heartbeatFailureDetectionPeriod = 60000;
+    public double heartbeatPhiThreshold = 8;
+    public int heartbeatPhiMaxSampleSize = 200;
+    public long heartbeatPhiMinStdDeviation = 500;
+    public long heartbeatPhiAcceptablePause = 3000;
     public long transportChannelTimeout = 10000;
     public long transportMaxChannelIdlePeriod = 600000;
     public Integer transportReceiveThreadCount = null;
     public int transportMaxUnlockSendQueueCapacity = 700000;
     public int transportMinLockSendQueueCapacity = 1000000;
     public int transportMaxPacketSize = 1000000;
+    public int transportMaxWriteBatchSize = 0x10000;
     public long transportMinReconnectPeriod = 60000;
+    public int transportMaxPooledBufferSize = 0x10000;
+    public long transportMaxBufferPoolSize = 0x1000000;
+    public int transportSelectorThreadCount = 0;
     public int compartmentMaxUnlockQueueCapacity = 7000000;
     public int compartmentMinLockQueueCapacity = 10000000;
     public int maxBundlingMessageSize = 10000;
@@ -45,6 +55,7 @@ public class ChannelFactoryParameters
         int timeMultiplier = !debug ? 1 : 1000; 
         heartbeatFailureDetectionPeriod *= timeMultiplier;
         heartbeatStartPeriod *= timeMultiplier;
+        heartbeatPhiAcceptablePause *= timeMultiplier;
         transportChannelTimeout *= timeMultiplier;
         transportMaxChannelIdlePeriod *= timeMultiplier;
     }
@@ -10,6 +10,7 @@ import java.util.List;
 import com.exametrika.common.compartment.ICompartment;
 import com.exametrika.common.compartment.ICompartmentFactory;
 import com.exametrika.common.compartment.impl.CompartmentFactory;
+import com.exametrika.common.compartment.impl.ConcurrentCompartmentQueue;
 import com.exametrika.common.log.ILogger;
 import com.exametrika.common.log.Loggers;
 import com.exametrika.common.messaging.IChannel;
@@ -63,14 +64,23 @@ public class CompositeChannelFactory
         failureObservers.add(channelObserver);
         LiveNodeManager liveNodeManager = new LiveNodeManager(channelName, failureObservers, channelObserver);
        
+        boolean multiThreaded = true;
+        for (ChannelParameters subChannelParameters : parameters)
+        {
+            if (!subChannelParameters.multiThreaded)
+                multiThreaded = false;
+        }
+        
         TcpNioDispatcher dispatcher = new TcpNioDispatcher(factoryParameters.transportChannelTimeout, 
-            factoryParameters.transportMaxChannelIdlePeriod, channelName);
+            factoryParameters.transportMaxChannelIdlePeriod, channelName, factoryParameters.transportMaxPooledBufferSize,
+            factoryParameters.transportMaxBufferPoolSize, multiThreaded ? factoryParameters.transportSelectorThreadCount : 0);
         
         ICompartmentFactory.Parameters compartmentParameters = new ICompartmentFactory.Parameters();
         compartmentParameters.name = channelName;
         compartmentParameters.dispatchPeriod = factoryParameters.selectionPeriod;
         compartmentParameters.dispatcher = dispatcher;
         compartmentParameters.flowController = new NoFlowController();
+        compartmentParameters.queue = new ConcurrentCompartmentQueue();
         compartmentParameters.minLockQueueCapacity = factoryParameters.compartmentMinLockQueueCapacity;
         compartmentParameters.minLockQueueCapacity = factoryParameters.compartmentMinLockQueueCapacity;
         
@@ -5,14 +5,9 @@ package com.exametrika.common.messaging.impl.message;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import com.exametrika.common.io.ISerializationRegistry;
-import com.exametrika.common.io.impl.ByteInputStream;
-import com.exametrika.common.io.impl.ByteOutputStream;
-import com.exametrika.common.io.impl.Deserialization;
-import com.exametrika.common.io.impl.Serialization;
 import com.exametrika.common.l10n.DefaultMessage;
 import com.exametrika.common.l10n.ILocalizedMessage;
 import com.exametrika.common.l10n.Messages;
@@ -20,7 +15,6 @@ import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.IMessage;
 import com.exametrika.common.messaging.IMessagePart;
 import com.exametrika.common.utils.Assert;
-import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.IVisitor;
 import com.exametrika.common.utils.Immutables;
 import com.exametrika.common.utils.Strings;
@@ -150,7 +144,13 @@ public final class Message implements IMessage
     @Override
     public <T extends IMessagePart> T getPart()
     {
-        return partsHead != null ? (T)partsHead.part : null;
+        if (partsHead == null)
+            return null;
+        
+        if (partsHead.part instanceof SerializedMessagePart && ((SerializedMessagePart)partsHead.part).getMessagePart() != null)
+            return (T)((SerializedMessagePart)partsHead.part).getMessagePart();
+        
+        return (T)partsHead.part;
     }
     
     @Override
@@ -299,47 +299,13 @@ public final class Message implements IMessage
     
     private SerializedMessagePart serialize(IMessagePart part)
     {
-        Assert.isTrue(part != null && !(part instanceof SerializedMessagePart));
-        
-        //MultiByteOutputStream outputStream = new MultiByteOutputStream();
-        ByteOutputStream outputStream = new ByteOutputStream();
-        Serialization serialization = new Serialization(serializationRegistry, true, outputStream);
-        serialization.writeObject(part);
-        //outputStream.close();
-        
-        //return new SerializedMessagePart(serializationRegistry, outputStream.getBuffers(), outputStream.getLength());
-        return new SerializedMessagePart(serializationRegistry, 
-            Collections.singletonList(new ByteArray(outputStream.getBuffer(), 0, outputStream.getLength())), outputStream.getLength(), part);
+        return MessageSerializers.serialize(serializationRegistry, part);
     }
     
     private IMessagePart deserialize(IMessagePart part)
     {
         if (part instanceof SerializedMessagePart)
-        {
-            SerializedMessagePart serializedPart = (SerializedMessagePart)part;
-            if (serializedPart.getMessagePart() != null)
-                return serializedPart.getMessagePart();
-            
-            ByteArray buffer;
-            if (serializedPart.getBuffers().size() > 1)
-            {
-                byte[] buf = new byte[serializedPart.getSize()];
-                int pos = 0;
-                for (ByteArray partBuffer : serializedPart.getBuffers())
-                {
-                    System.arraycopy(partBuffer.getBuffer(), partBuffer.getOffset(), buf, pos, partBuffer.getLength());
-                    pos += partBuffer.getLength();
-                }
-                
-                buffer = new ByteArray(buf);
-            }
-            else
-                buffer = serializedPart.getBuffers().get(0);
-            
-            ByteInputStream inputStream = new ByteInputStream(buffer.getBuffer(), buffer.getOffset(), buffer.getLength());
-            Deserialization deserialization = new Deserialization(serializedPart.getRegistry(), inputStream);
-            return deserialization.readObject();
-        }
+            return MessageSerializers.deserialize((SerializedMessagePart)part);
         
         return part;
     }
@@ -15,6 +15,7 @@ import com.exametrika.common.io.impl.ByteInputStream;
 import com.exametrika.common.io.impl.ByteOutputStream;
 import com.exametrika.common.io.impl.Deserialization;
 import com.exametrika.common.io.impl.Serialization;
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.IMessagePart;
 import com.exametrika.common.net.TcpPacket;
@@ -30,76 +31,149 @@ import com.exametrika.common.utils.IVisitor;
  */
 public final class MessageSerializers
 {
+    /**
+     * Minimal size of serialized message part whose buffers are referenced by serialized packet directly instead of copying. 
+     */
+    public static final int MIN_SHARED_PART_SIZE = 0x200;
+    
+    /**
+     * Serializes message into packet. Data buffers of serialized message parts of at least {@link #MIN_SHARED_PART_SIZE}
+     * are not copied but referenced by packet, so that parts serialized once can be shared by packets of many destinations.
+     *
+     * @param registry serialization registry
+     * @param message message
+     * @param headerOverhead size of packet header reserved at the beginning of first packet buffer
+     * @param digest packet digest or null if not used
+     * @return packet
+     */
     public static TcpPacket serialize(ISerializationRegistry registry, Message message, int headerOverhead, Object digest)
+    {
+        return serialize(registry, null, message, headerOverhead, digest);
+    }
+    
+    /**
+     * Serializes message into packet using specified type dictionary. Types of message parts are written as compact 
+     * type identifiers of type dictionary, receiver must deserialize packet using type dictionary with the same contents.
+     *
+     * @param registry serialization registry
+     * @param typeDictionary type dictionary or null if type dictionary is not used
+     * @param message message
+     * @param headerOverhead size of packet header reserved at the beginning of first packet buffer
+     * @param digest packet digest or null if not used
+     * @return packet
+     */
+    public static TcpPacket serialize(ISerializationRegistry registry, SerializationTypeDictionary typeDictionary, 
+        Message message, int headerOverhead, Object digest)
     {
         //MultiByteOutputStream stream = new MultiByteOutputStream(0x1000);
         ByteOutputStream stream = new ByteOutputStream(0x1000);
         stream.grow(headerOverhead);
-        final ISerialization serialization = new Serialization(registry, true, stream);
+        final ISerialization serialization = new Serialization(registry, true, typeDictionary, stream);
         
-        serialize(serialization, message);
+        List<SharedRegion> sharedRegions = new ArrayList<SharedRegion>(1);
+        serialize(serialization, stream, message, sharedRegions);
         //stream.close();
 
         //return new TcpPacket(stream.getBuffers(), message.getFiles());
-        return new TcpPacket(Collections.singletonList(new ByteArray(stream.getBuffer(), 0, stream.getLength())), 
-            message.getFiles(), digest);
+        if (sharedRegions.isEmpty())
+            return new TcpPacket(Collections.singletonList(new ByteArray(stream.getBuffer(), 0, stream.getLength())), 
+                message.getFiles(), digest);
+        
+        List<ByteArray> buffers = new ArrayList<ByteArray>(sharedRegions.size() * 2 + 1);
+        int start = 0;
+        for (SharedRegion region : sharedRegions)
+        {
+            if (region.position > start)
+                buffers.add(new ByteArray(stream.getBuffer(), start, region.position - start));
+            
+            buffers.addAll(region.buffers);
+            start = region.position;
+        }
+        
+        if (stream.getLength() > start)
+            buffers.add(new ByteArray(stream.getBuffer(), start, stream.getLength() - start));
+        
+        return new TcpPacket(buffers, message.getFiles(), digest);
     }
 
     public static void serialize(final ISerialization serialization, Message message)
     {
-        serialization.writeInt(message.getFlags());
-        serialization.writeInt(message.getPartCount());
+        serialize(serialization, null, message, null);
+    }
+    
+    /**
+     * Serializes message part once. Returned part can be shared between messages of different destinations.
+     *
+     * @param registry serialization registry
+     * @param part message part
+     * @return serialized message part, referencing original message part
+     */
+    public static SerializedMessagePart serialize(ISerializationRegistry registry, IMessagePart part)
+    {
+        Assert.isTrue(part != null && !(part instanceof SerializedMessagePart));
         
-        message.visitParts(new IVisitor<IMessagePart>()
-        {
-            @Override
-            public boolean visit(IMessagePart element)
-            {
-                serialization.beginWriteRegion();
-                
-                if (element instanceof SerializedMessagePart)
-                {
-                    SerializedMessagePart part = (SerializedMessagePart)element;
-                    for (ByteArray buffer : part.getBuffers())
-                        serialization.writeRegion(buffer);
-                }
-                else
-                    serialization.writeObject(element);
-                
-                serialization.endWriteRegion();
-                
-                return true;
-            }
-        });
+        ByteOutputStream outputStream = new ByteOutputStream();
+        Serialization serialization = new Serialization(registry, true, outputStream);
+        serialization.writeObject(part);
+        
+        return new SerializedMessagePart(registry, 
+            Collections.singletonList(new ByteArray(outputStream.getBuffer(), 0, outputStream.getLength())), 
+            outputStream.getLength(), part);
     }
     
     public static Message deserialize(ISerializationRegistry registry, IAddress source, IAddress destination, 
         TcpPacket packet, int headerOverhead)
+    {
+        return deserialize(registry, null, source, destination, packet, headerOverhead);
+    }
+    
+    public static Message deserialize(ISerializationRegistry registry, SerializationTypeDictionary typeDictionary, 
+        IAddress source, IAddress destination, TcpPacket packet, int headerOverhead)
     {
         Assert.isTrue(packet.getBuffers().size() == 1);
         ByteArray buffer = packet.getBuffers().get(0);
         ByteInputStream stream = new ByteInputStream(buffer.getBuffer(), buffer.getOffset() + headerOverhead, 
             buffer.getLength() - headerOverhead);
-        Deserialization deserialization = new Deserialization(registry, stream);
+        Deserialization deserialization = new Deserialization(registry, typeDictionary, stream);
 
-        return deserialize(deserialization, source, destination, packet.getFiles());
+        return deserialize(deserialization, typeDictionary, source, destination, packet.getFiles());
     }
 
     public static Message deserialize(IDeserialization deserialization, IAddress source, IAddress destination, List<File> files)
     {
-        int flags = deserialization.readInt();
-        
-        int count = deserialization.readInt();
-        List<IMessagePart> parts = new ArrayList<IMessagePart>(count);
+        return deserialize(deserialization, null, source, destination, files);
+    }
+    
+    /**
+     * Deserializes message part.
+     *
+     * @param part serialized message part
+     * @return message part
+     */
+    public static IMessagePart deserialize(SerializedMessagePart part)
+    {
+        if (part.getMessagePart() != null)
+            return part.getMessagePart();
         
-        for (int i = 0; i < count; i++)
+        ByteArray buffer;
+        if (part.getBuffers().size() > 1)
         {
-            ByteArray buffer = deserialization.readRegion();
-            IMessagePart part = new SerializedMessagePart(deserialization.getRegistry(), Collections.singletonList(buffer), buffer.getLength(), null);
-            parts.add(part);
+            byte[] buf = new byte[part.getSize()];
+            int pos = 0;
+            for (ByteArray partBuffer : part.getBuffers())
+            {
+                System.arraycopy(partBuffer.getBuffer(), partBuffer.getOffset(), buf, pos, partBuffer.getLength());
+                pos += partBuffer.getLength();
+            }
+            
+            buffer = new ByteArray(buf);
         }
+        else
+            buffer = part.getBuffers().get(0);
         
-        return new Message(source, destination, parts, flags, files, deserialization.getRegistry());
+        ByteInputStream inputStream = new ByteInputStream(buffer.getBuffer(), buffer.getOffset(), buffer.getLength());
+        Deserialization deserialization = new Deserialization(part.getRegistry(), part.getTypeDictionary(), inputStream);
+        return deserialization.readObject();
     }
 
     public static void serializeFully(ISerialization serialization, Message message)
@@ -119,6 +193,84 @@ public final class MessageSerializers
         return deserialize(deserialization, source, destination, null);
     }
     
+    private static void serialize(final ISerialization serialization, final ByteOutputStream stream, Message message,
+        final List<SharedRegion> sharedRegions)
+    {
+        serialization.writeInt(message.getFlags());
+        serialization.writeInt(message.getPartCount());
+        
+        message.visitParts(new IVisitor<IMessagePart>()
+        {
+            @Override
+            public boolean visit(IMessagePart element)
+            {
+                if (element instanceof SerializedMessagePart && 
+                    ((SerializedMessagePart)element).getTypeDictionary() != null)
+                {
+                    // Type identifiers of received part are meaningful only in type dictionary of receiving connection
+                    serialization.beginWriteRegion();
+                    serialization.writeObject(deserialize((SerializedMessagePart)element));
+                    serialization.endWriteRegion();
+                }
+                else if (element instanceof SerializedMessagePart)
+                {
+                    SerializedMessagePart part = (SerializedMessagePart)element;
+                    if (sharedRegions != null && part.getSize() >= MIN_SHARED_PART_SIZE)
+                    {
+                        serialization.writeRegionHeader(part.getSize());
+                        sharedRegions.add(new SharedRegion(stream.getLength(), part.getBuffers()));
+                    }
+                    else
+                    {
+                        serialization.beginWriteRegion();
+                        for (ByteArray buffer : part.getBuffers())
+                            serialization.writeRegion(buffer);
+                        serialization.endWriteRegion();
+                    }
+                }
+                else
+                {
+                    serialization.beginWriteRegion();
+                    serialization.writeObject(element);
+                    serialization.endWriteRegion();
+                }
+                
+                return true;
+            }
+        });
+    }
+    
+    private static Message deserialize(IDeserialization deserialization, SerializationTypeDictionary typeDictionary,
+        IAddress source, IAddress destination, List<File> files)
+    {
+        int flags = deserialization.readInt();
+        
+        int count = deserialization.readInt();
+        List<IMessagePart> parts = new ArrayList<IMessagePart>(count);
+        
+        for (int i = 0; i < count; i++)
+        {
+            ByteArray buffer = deserialization.readRegion();
+            IMessagePart part = new SerializedMessagePart(deserialization.getRegistry(), typeDictionary, 
+                Collections.singletonList(buffer), buffer.getLength(), null);
+            parts.add(part);
+        }
+        
+        return new Message(source, destination, parts, flags, files, deserialization.getRegistry());
+    }
+    
+    private static class SharedRegion
+    {
+        private final int position;
+        private final List<ByteArray> buffers;
+        
+        public SharedRegion(int position, List<ByteArray> buffers)
+        {
+            this.position = position;
+            this.buffers = buffers;
+        }
+    }
+    
     private MessageSerializers()
     {
     }
@@ -6,6 +6,7 @@ package com.exametrika.common.messaging.impl.message;
 import java.util.List;
 
 import com.exametrika.common.io.ISerializationRegistry;
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
 import com.exametrika.common.messaging.IMessagePart;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ByteArray;
@@ -22,6 +23,7 @@ import com.exametrika.common.utils.Immutables;
 public final class SerializedMessagePart implements IMessagePart
 {
     private final ISerializationRegistry serializationRegistry;
+    private final SerializationTypeDictionary typeDictionary;
     private final List<ByteArray> buffers;
     private final int size;
     private final IMessagePart originalMessagePart;
@@ -35,11 +37,27 @@ public final class SerializedMessagePart implements IMessagePart
      * @param originalMessagePart original message part or null if not set
      */
     public SerializedMessagePart(ISerializationRegistry serializationRegistry, List<ByteArray> buffers, int size, IMessagePart originalMessagePart)
+    {
+        this(serializationRegistry, null, buffers, size, originalMessagePart);
+    }
+    
+    /**
+     * Creates a new object.
+     *
+     * @param serializationRegistry serialization registry
+     * @param typeDictionary type dictionary message part has been serialized with or null if type dictionary is not used
+     * @param buffers data buffers of serialized message part
+     * @param size size of data buffers
+     * @param originalMessagePart original message part or null if not set
+     */
+    public SerializedMessagePart(ISerializationRegistry serializationRegistry, SerializationTypeDictionary typeDictionary, 
+        List<ByteArray> buffers, int size, IMessagePart originalMessagePart)
     {
         Assert.notNull(serializationRegistry);
         Assert.notNull(buffers);
 
         this.serializationRegistry = serializationRegistry;
+        this.typeDictionary = typeDictionary;
         this.buffers = Immutables.wrap(buffers);
         this.size = size;
         this.originalMessagePart = originalMessagePart;
@@ -55,6 +73,17 @@ public final class SerializedMessagePart implements IMessagePart
         return serializationRegistry;
     }
     
+    /**
+     * Returns type dictionary message part has been serialized with. Data buffers of message part serialized with type
+     * dictionary can not be copied to streams using other type dictionaries.
+     *
+     * @return type dictionary or null if type dictionary is not used
+     */
+    public SerializationTypeDictionary getTypeDictionary()
+    {
+        return typeDictionary;
+    }
+    
     /**
      * Returns data buffers of serialized message part.
      *
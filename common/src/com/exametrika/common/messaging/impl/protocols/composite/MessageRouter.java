@@ -57,7 +57,7 @@ public abstract class MessageRouter extends AbstractProtocol
         stopped = true;
         
         for (AbstractProtocol protocol : protocols)
-            protocol.stop();
+            doStop(protocol);
         
         super.stop();
     }
@@ -87,6 +87,11 @@ public abstract class MessageRouter extends AbstractProtocol
         this.registry = registry;
     }
     
+    protected void doStop(AbstractProtocol protocol)
+    {
+        protocol.stop();
+    }
+    
     protected void doWire(AbstractProtocol protocol)
     {
         protocol.setSender(getSender());
@@ -115,7 +120,7 @@ public abstract class MessageRouter extends AbstractProtocol
         Assert.notNull(protocol);
         Assert.checkState(started && !stopped);
         
-        protocol.stop();
+        doStop(protocol);
         protocols.remove(protocol);
         
         if (registry != null && protocols.isEmpty())
@@ -22,13 +22,20 @@ public final class CompressionMessagePart implements IWrapperMessagePart
     private static final IMessages messages = Messages.get(IMessages.class);
     private final ByteArray compressedMessage;
     private final int decompressedSize;
+    private final int streamPosition;
     private final IMessage originalMessage;
 
     public CompressionMessagePart(int decompressedSize, ByteArray compressedMessage, IMessage originalMessage)
+    {
+        this(decompressedSize, -1, compressedMessage, originalMessage);
+    }
+    
+    public CompressionMessagePart(int decompressedSize, int streamPosition, ByteArray compressedMessage, IMessage originalMessage)
     {
         Assert.notNull(compressedMessage);
 
         this.decompressedSize = decompressedSize;
+        this.streamPosition = streamPosition;
         this.compressedMessage = compressedMessage;
         this.originalMessage = originalMessage;
     }
@@ -38,6 +45,17 @@ public final class CompressionMessagePart implements IWrapperMessagePart
         return decompressedSize;
     }
     
+    /**
+     * Returns position of compressed message in compression stream.
+     *
+     * @return position of compressed message in compression stream or -1 if message has been compressed without
+     * compression stream
+     */
+    public int getStreamPosition()
+    {
+        return streamPosition;
+    }
+    
     public ByteArray getCompressedMessage()
     {
         return compressedMessage;
@@ -52,7 +70,7 @@ public final class CompressionMessagePart implements IWrapperMessagePart
     @Override
     public int getSize()
     {
-        return 4 + compressedMessage.getLength();
+        return 8 + compressedMessage.getLength();
     }
     
     @Override 
@@ -7,11 +7,17 @@ import java.util.UUID;
 
 import com.exametrika.common.io.IDeserialization;
 import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.IncompatibleStreamVersionException;
 import com.exametrika.common.io.impl.AbstractSerializer;
+import com.exametrika.common.l10n.DefaultMessage;
+import com.exametrika.common.l10n.ILocalizedMessage;
+import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.utils.ByteArray;
 
 /**
- * The {@link CompressionMessagePartSerializer} is a serializer for {@link CompressionMessagePart}.
+ * The {@link CompressionMessagePartSerializer} is a serializer for {@link CompressionMessagePart}. Part compressed
+ * without compression stream is serialized in original format. Part compressed by compression stream is prefixed by
+ * stream format marker (which is never a valid decompressed size) and stream format version.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -19,6 +25,9 @@ import com.exametrika.common.utils.ByteArray;
 public final class CompressionMessagePartSerializer extends AbstractSerializer
 {
     public static final UUID ID = UUID.fromString("1613ceaa-58a2-41d4-b8f8-6d25ac5b9d87");
+    private static final IMessages messages = Messages.get(IMessages.class);
+    private static final int STREAM_FORMAT_MARKER = Integer.MIN_VALUE;
+    private static final byte STREAM_FORMAT_VERSION = 1;
  
     public CompressionMessagePartSerializer()
     {
@@ -30,7 +39,16 @@ public final class CompressionMessagePartSerializer extends AbstractSerializer
     {
         CompressionMessagePart part = (CompressionMessagePart)object;
 
-        serialization.writeInt(part.getDecompressedSize());
+        if (part.getStreamPosition() >= 0)
+        {
+            serialization.writeInt(STREAM_FORMAT_MARKER);
+            serialization.writeByte(STREAM_FORMAT_VERSION);
+            serialization.writeInt(part.getDecompressedSize());
+            serialization.writeInt(part.getStreamPosition());
+        }
+        else
+            serialization.writeInt(part.getDecompressedSize());
+        
         serialization.writeByteArray(part.getCompressedMessage());
     }
     
@@ -38,8 +56,25 @@ public final class CompressionMessagePartSerializer extends AbstractSerializer
     public Object deserialize(IDeserialization deserialization, UUID id)
     {
         int decompressedSize = deserialization.readInt();
+        int streamPosition = -1;
+        if (decompressedSize == STREAM_FORMAT_MARKER)
+        {
+            byte version = deserialization.readByte();
+            if (version != STREAM_FORMAT_VERSION)
+                throw new IncompatibleStreamVersionException(messages.incompatibleStreamVersion(version, STREAM_FORMAT_VERSION));
+            
+            decompressedSize = deserialization.readInt();
+            streamPosition = deserialization.readInt();
+        }
+        
         ByteArray compressedMessage = deserialization.readByteArray();
         
-        return new CompressionMessagePart(decompressedSize, compressedMessage, null);
+        return new CompressionMessagePart(decompressedSize, streamPosition, compressedMessage, null);
+    }
+    
+    private interface IMessages
+    {
+        @DefaultMessage("Compression stream format version ''{0}'' is incompatible with deserializer. Deserializer supports version ''{1}''.")
+        ILocalizedMessage incompatibleStreamVersion(int version, int supportedVersion);
     }
 }
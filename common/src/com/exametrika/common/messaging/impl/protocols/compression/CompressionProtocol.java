@@ -4,6 +4,13 @@
 package com.exametrika.common.messaging.impl.protocols.compression;
 
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
 import com.exametrika.common.io.ISerializationRegistry;
 import com.exametrika.common.io.impl.ByteInputStream;
 import com.exametrika.common.io.impl.ByteOutputStream;
@@ -14,7 +21,13 @@ import com.exametrika.common.l10n.ILocalizedMessage;
 import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.log.LogLevel;
 import com.exametrika.common.lz4.LZ4;
+import com.exametrika.common.lz4.LZ4StreamCompressor;
+import com.exametrika.common.lz4.LZ4StreamDecompressor;
+import com.exametrika.common.lz4.impl.LZ4Decompressor;
+import com.exametrika.common.lz4.impl.LZ4Exception;
+import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.IFeed;
+import com.exametrika.common.messaging.ILiveNodeProvider;
 import com.exametrika.common.messaging.IMessage;
 import com.exametrika.common.messaging.IMessageFactory;
 import com.exametrika.common.messaging.IReceiver;
@@ -23,23 +36,56 @@ import com.exametrika.common.messaging.ISink;
 import com.exametrika.common.messaging.MessageFlags;
 import com.exametrika.common.messaging.impl.message.Message;
 import com.exametrika.common.messaging.impl.message.MessageSerializers;
+import com.exametrika.common.messaging.impl.message.SerializedMessagePart;
 import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.ICleanupManager;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.IFailureObserver;
+import com.exametrika.common.messaging.impl.transports.UnicastAddress;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.Strings;
 
 
 /**
- * The {@link CompressionProtocol} is used to compress/decompress messages.
+ * The {@link CompressionProtocol} is used to compress/decompress messages. Messages smaller than minimal compression size
+ * and messages which do not shrink at least by 1/16 of their size on compression are sent uncompressed. Compressed message
+ * part is serialized once by protocol, so that transport copies (or shares) its serialized data without serializing
+ * compressed message again. Scratch buffers used to serialize and compress messages are reused by each sending thread.
+ * <p>
+ * Optional dictionary (the same on all nodes) is used as history of each compressed message. In streaming mode messages
+ * sent to unicast destination are compressed as blocks of single compression stream per destination, so that each message
+ * can reference preceding messages sent to the same destination. Messages of compression stream are compressed under
+ * lock of stream, but are passed to sender outside of lock in the order of their stream positions.
+ * <p>
+ * Compression stream requires that its messages are delivered in the order of their stream positions without losses.
+ * Therefore only messages delivered in order of sending, i.e. messages without high priority, low priority and parallel
+ * flags, are compressed by stream, other messages are compressed as independent blocks (with dictionary if any). Streaming
+ * must not be used with transport discarding messages of live connections. Compression and decompression streams of node
+ * are removed when node fails or leaves, so that stream of new connection to node begins from position 0. Message received
+ * after a gap in compression stream can not be decompressed and is dropped, and receiver requests sender to restart
+ * compression stream. Restarted stream begins from position 0, which resets decompression stream of receiver. Reset
+ * request is repeated if stream has not been restarted during reset request period.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
  */
-public final class CompressionProtocol extends AbstractProtocol
+public final class CompressionProtocol extends AbstractProtocol implements IFailureObserver
 {
     private static final IMessages messages = Messages.get(IMessages.class);
+    public static final int DEFAULT_MIN_COMPRESSION_SIZE = 0x100;
+    private static final int MIN_COMPRESSION_RATIO_SHIFT = 4;
+    private static final int MAX_SCRATCH_BUFFER_SIZE = 0x100000;
+    private static final int PART_HEADER_SIZE = 0x40;
+    private static final long RESET_REQUEST_PERIOD = 1000;
+    private static final int UNORDERED_FLAGS = MessageFlags.HIGH_PRIORITY | MessageFlags.LOW_PRIORITY | MessageFlags.PARALLEL;
     private final int compressionLevel;
+    private final int minCompressionSize;
     private final ISerializationRegistry serializationRegistry;
+    private final byte[] dictionary;
+    private final boolean streaming;
+    private final ThreadLocal<ScratchBuffers> scratchBuffers = new ThreadLocal<ScratchBuffers>();
+    private final Map<IAddress, CompressionStream> compressors = new HashMap<IAddress, CompressionStream>();
+    private final Map<IAddress, DecompressionStream> decompressors = new HashMap<IAddress, DecompressionStream>();
 
     public CompressionProtocol(String channelName, int compressionLevel, IMessageFactory messageFactory,
         ISerializationRegistry serializationRegistry)
@@ -49,50 +95,163 @@ public final class CompressionProtocol extends AbstractProtocol
     
     public CompressionProtocol(String channelName, String loggerName, int compressionLevel, IMessageFactory messageFactory,
         ISerializationRegistry serializationRegistry)
+    {
+        this(channelName, loggerName, compressionLevel, DEFAULT_MIN_COMPRESSION_SIZE, messageFactory, serializationRegistry);
+    }
+    
+    public CompressionProtocol(String channelName, String loggerName, int compressionLevel, int minCompressionSize, 
+        IMessageFactory messageFactory, ISerializationRegistry serializationRegistry)
+    {
+        this(channelName, loggerName, compressionLevel, minCompressionSize, null, false, messageFactory, serializationRegistry);
+    }
+    
+    public CompressionProtocol(String channelName, String loggerName, int compressionLevel, int minCompressionSize, 
+        byte[] dictionary, boolean streaming, IMessageFactory messageFactory, ISerializationRegistry serializationRegistry)
     {
         super(channelName, loggerName, messageFactory);
         
         Assert.notNull(serializationRegistry);
+        Assert.isTrue(minCompressionSize >= 0);
         
         this.compressionLevel = compressionLevel;
+        this.minCompressionSize = minCompressionSize;
         this.serializationRegistry = serializationRegistry;
+        
+        if (dictionary != null && dictionary.length > LZ4StreamCompressor.WINDOW_SIZE)
+            dictionary = Arrays.copyOfRange(dictionary, dictionary.length - LZ4StreamCompressor.WINDOW_SIZE, dictionary.length);
+        this.dictionary = dictionary != null && dictionary.length > 0 ? dictionary : null;
+        this.streaming = streaming;
     }
     
     @Override
     public void register(ISerializationRegistry registry)
     {
         registry.register(new CompressionMessagePartSerializer());
+        registry.register(new CompressionResetMessagePartSerializer());
     }
     
     @Override
     public void unregister(ISerializationRegistry registry)
     {
         registry.unregister(CompressionMessagePartSerializer.ID);
+        registry.unregister(CompressionResetMessagePartSerializer.ID);
     }
 
+    @Override
+    public void cleanup(ICleanupManager cleanupManager, ILiveNodeProvider liveNodeProvider, long currentTime)
+    {
+        if (!streaming)
+            return;
+        
+        synchronized (compressors)
+        {
+            for (Iterator<IAddress> it = compressors.keySet().iterator(); it.hasNext(); )
+            {
+                if (cleanupManager.canCleanup(it.next()))
+                    it.remove();
+            }
+        }
+        
+        synchronized (decompressors)
+        {
+            for (Iterator<IAddress> it = decompressors.keySet().iterator(); it.hasNext(); )
+            {
+                if (cleanupManager.canCleanup(it.next()))
+                    it.remove();
+            }
+        }
+    }
+    
+    @Override
+    public void onNodesFailed(Set<IAddress> nodes)
+    {
+        removeStreams(nodes);
+    }
+
+    @Override
+    public void onNodesLeft(Set<IAddress> nodes)
+    {
+        removeStreams(nodes);
+    }
+    
     @Override
     protected void doSend(ISender sender, IMessage message)
     {
-        if (!message.hasFlags(MessageFlags.NO_COMPRESS))
-            message = compress(message);
+        if (message.hasFlags(MessageFlags.NO_COMPRESS) || message.getSize() < minCompressionSize)
+        {
+            super.doSend(sender, message);
+            return;
+        }
         
-        super.doSend(sender, message);
+        CompressionStream compressionStream = findCompressionStream(message);
+        if (compressionStream != null)
+        {
+            long ticket;
+            synchronized (compressionStream)
+            {
+                message = compress(message, compressionStream.compressor);
+                ticket = compressionStream.nextTicket++;
+            }
+            
+            compressionStream.beginSend(ticket);
+            try
+            {
+                super.doSend(sender, message);
+            }
+            finally
+            {
+                compressionStream.endSend();
+            }
+        }
+        else
+            super.doSend(sender, compress(message, null));
     }
     
     @Override
     protected boolean doSend(IFeed feed, ISink sink, IMessage message)
     {
-        if (!message.hasFlags(MessageFlags.NO_COMPRESS))
-            message = compress(message);
+        if (message.hasFlags(MessageFlags.NO_COMPRESS) || message.getSize() < minCompressionSize)
+            return super.doSend(feed, sink, message);
         
-        return super.doSend(feed, sink, message);
+        CompressionStream compressionStream = findCompressionStream(message);
+        if (compressionStream != null)
+        {
+            long ticket;
+            synchronized (compressionStream)
+            {
+                message = compress(message, compressionStream.compressor);
+                ticket = compressionStream.nextTicket++;
+            }
+            
+            compressionStream.beginSend(ticket);
+            try
+            {
+                return super.doSend(feed, sink, message);
+            }
+            finally
+            {
+                compressionStream.endSend();
+            }
+        }
+        else
+            return super.doSend(feed, sink, compress(message, null));
     }
 
     @Override
     protected void doReceive(IReceiver receiver, IMessage message)
     {
-        if (message.getPart() instanceof CompressionMessagePart)
+        if (message.getPart() instanceof CompressionResetMessagePart)
+        {
+            resetCompressionStream(message.getSource());
+            return;
+        }
+        else if (message.getPart() instanceof CompressionMessagePart)
+        {
             message = decompress(message);
+            if (message == null)
+                return;
+        }
+        
         super.doReceive(receiver, message);
     }
 
@@ -102,24 +261,122 @@ public final class CompressionProtocol extends AbstractProtocol
         return true;
     }
 
-    private IMessage compress(IMessage message)
+    private CompressionStream findCompressionStream(IMessage message)
+    {
+        if (!streaming || !(message.getDestination() instanceof UnicastAddress) || message.hasOneOfFlags(UNORDERED_FLAGS))
+            return null;
+        
+        synchronized (compressors)
+        {
+            CompressionStream compressionStream = compressors.get(message.getDestination());
+            if (compressionStream == null)
+            {
+                compressionStream = new CompressionStream(new LZ4StreamCompressor(dictionary));
+                compressors.put(message.getDestination(), compressionStream);
+            }
+            
+            return compressionStream;
+        }
+    }
+    
+    private void removeStreams(Set<IAddress> nodes)
+    {
+        if (!streaming)
+            return;
+        
+        synchronized (compressors)
+        {
+            compressors.keySet().removeAll(nodes);
+        }
+        
+        synchronized (decompressors)
+        {
+            decompressors.keySet().removeAll(nodes);
+        }
+    }
+    
+    private void resetCompressionStream(IAddress destination)
+    {
+        CompressionStream compressionStream;
+        synchronized (compressors)
+        {
+            compressionStream = compressors.get(destination);
+        }
+        
+        if (compressionStream == null)
+            return;
+        
+        synchronized (compressionStream)
+        {
+            compressionStream.compressor.reset();
+        }
+        
+        if (logger.isLogEnabled(LogLevel.DEBUG))
+            logger.log(LogLevel.DEBUG, marker, messages.streamReset(destination));
+    }
+    
+    private IMessage compress(IMessage message, LZ4StreamCompressor streamCompressor)
     {
-        ByteOutputStream stream = new ByteOutputStream();
+        ScratchBuffers scratchBuffers = this.scratchBuffers.get();
+        if (scratchBuffers == null)
+        {
+            scratchBuffers = new ScratchBuffers();
+            this.scratchBuffers.set(scratchBuffers);
+        }
+        
+        ByteOutputStream stream = scratchBuffers.stream;
+        stream.reset();
         Serialization serialization = new Serialization(serializationRegistry, true, stream);
         MessageSerializers.serialize(serialization, (Message)message);
         
-        int maxCompressedLength = LZ4.maxCompressedLength(stream.getLength());
-        byte[] buffer = new byte[maxCompressedLength];
+        int length = stream.getLength();
+        byte[] buffer = scratchBuffers.getCompressionBuffer(LZ4.maxCompressedLength(length));
+        int compressedLength;
+        int streamPosition = -1;
+        if (streamCompressor != null)
+        {
+            compressedLength = streamCompressor.compress(stream.getBuffer(), 0, length, buffer, 0, buffer.length);
+            streamPosition = streamCompressor.getBlockPosition();
+        }
+        else if (dictionary != null)
+        {
+            LZ4StreamCompressor dictionaryCompressor = scratchBuffers.getDictionaryCompressor(dictionary);
+            dictionaryCompressor.reset();
+            compressedLength = dictionaryCompressor.compress(stream.getBuffer(), 0, length, buffer, 0, buffer.length);
+        }
+        else
+            compressedLength = LZ4.compress(compressionLevel <= 5, stream.getBuffer(), 0, length, 
+                buffer, 0, buffer.length);
         
-        int compressedLength = LZ4.compress(compressionLevel <= 5, stream.getBuffer(), 0, stream.getLength(), 
-            buffer, 0, maxCompressedLength);
+        scratchBuffers.trim();
+        
+        // Message compressed by compression stream can not be sent uncompressed, because it is a part of stream history
+        if (streamCompressor == null && compressedLength > length - (length >>> MIN_COMPRESSION_RATIO_SHIFT))
+        {
+            if (logger.isLogEnabled(LogLevel.TRACE))
+                logger.log(LogLevel.TRACE, marker, messages.messageIncompressible(Strings.wrap(message.toString(), 4, 120),
+                    length, compressedLength));
+            
+            return message;
+        }
+        
+        // Serialize compressed part once, compressed data are the last field of serialized part
+        ByteOutputStream partStream = new ByteOutputStream(compressedLength + PART_HEADER_SIZE);
+        Serialization partSerialization = new Serialization(serializationRegistry, true, partStream);
+        partSerialization.writeObject(new CompressionMessagePart(length, streamPosition, 
+            new ByteArray(buffer, 0, compressedLength), null));
+        
+        ByteArray data = new ByteArray(partStream.getBuffer(), 0, partStream.getLength());
+        CompressionMessagePart part = new CompressionMessagePart(length, streamPosition, new ByteArray(partStream.getBuffer(), 
+            partStream.getLength() - compressedLength, compressedLength), message);
         
         if (logger.isLogEnabled(LogLevel.TRACE))
             logger.log(LogLevel.TRACE, marker, messages.messageCompressed(Strings.wrap(message.toString(), 4, 120),
-                stream.getLength(), compressedLength));
+                length, compressedLength));
         
-        return messageFactory.create(message.getDestination(), new CompressionMessagePart(stream.getLength(),
-            new ByteArray(buffer, 0, compressedLength), message), message.getFlags() | MessageFlags.NO_COMPRESS, message.getFiles());
+        return messageFactory.create(message.getDestination(), new SerializedMessagePart(serializationRegistry, 
+            Collections.singletonList(data), data.getLength(), part), message.getFlags() | MessageFlags.NO_COMPRESS, 
+            message.getFiles());
     }
 
     private IMessage decompress(IMessage message)
@@ -127,10 +384,71 @@ public final class CompressionProtocol extends AbstractProtocol
         CompressionMessagePart part = message.getPart();
         
         ByteArray compressedMessage = part.getCompressedMessage();
-        byte[] buffer = new byte[part.getDecompressedSize()];
-        LZ4.decompress(compressedMessage.getBuffer(), compressedMessage.getOffset(), buffer, 0, buffer.length);
+        // Decompression buffer is not reused, because lazily deserialized parts of output message reference it
+        ByteInputStream stream;
+        if (part.getStreamPosition() >= 0)
+        {
+            byte[] buffer = new byte[part.getDecompressedSize()];
+            DecompressionStream decompressionStream = ensureDecompressionStream(message.getSource());
+            boolean decompressed = false;
+            boolean requestReset = false;
+            synchronized (decompressionStream)
+            {
+                LZ4StreamDecompressor decompressor = decompressionStream.decompressor;
+                try
+                {
+                    decompressor.decompress(compressedMessage.getBuffer(), compressedMessage.getOffset(), buffer, 0, 
+                        buffer.length, part.getStreamPosition());
+                    
+                    decompressed = true;
+                    if (part.getStreamPosition() == 0)
+                        decompressionStream.resetRequested = false;
+                }
+                catch (LZ4Exception e)
+                {
+                    if (logger.isLogEnabled(LogLevel.ERROR))
+                        logger.log(LogLevel.ERROR, marker, messages.messageDropped(message.getSource(), 
+                            part.getStreamPosition(), decompressor.getPosition()));
+                    
+                    long currentTime = timeService.getCurrentTime();
+                    if (!decompressionStream.resetRequested || 
+                        currentTime >= decompressionStream.resetRequestTime + RESET_REQUEST_PERIOD)
+                    {
+                        decompressionStream.resetRequested = true;
+                        decompressionStream.resetRequestTime = currentTime;
+                        requestReset = true;
+                    }
+                }
+            }
+            
+            if (!decompressed)
+            {
+                if (requestReset)
+                    send(messageFactory.create(message.getSource(), new CompressionResetMessagePart(), 
+                        MessageFlags.HIGH_PRIORITY | MessageFlags.NO_COMPRESS));
+                
+                return null;
+            }
+            
+            stream = new ByteInputStream(buffer, 0, buffer.length);
+        }
+        else if (dictionary != null)
+        {
+            byte[] buffer = new byte[dictionary.length + part.getDecompressedSize()];
+            System.arraycopy(dictionary, 0, buffer, 0, dictionary.length);
+            LZ4Decompressor.INSTANCE.decompress(compressedMessage.getBuffer(), compressedMessage.getOffset(), buffer, 0, 
+                dictionary.length, part.getDecompressedSize());
+            
+            stream = new ByteInputStream(buffer, dictionary.length, part.getDecompressedSize());
+        }
+        else
+        {
+            byte[] buffer = new byte[part.getDecompressedSize()];
+            LZ4.decompress(compressedMessage.getBuffer(), compressedMessage.getOffset(), buffer, 0, buffer.length);
+            
+            stream = new ByteInputStream(buffer, 0, buffer.length);
+        }
         
-        ByteInputStream stream = new ByteInputStream(buffer, 0, buffer.length);
         Deserialization deserialization = new Deserialization(serializationRegistry, stream);
 
         IMessage outputMessage = MessageSerializers.deserialize(deserialization, message.getSource(), message.getDestination(),
@@ -143,11 +461,113 @@ public final class CompressionProtocol extends AbstractProtocol
         return outputMessage;
     }
     
+    private DecompressionStream ensureDecompressionStream(IAddress source)
+    {
+        synchronized (decompressors)
+        {
+            DecompressionStream decompressionStream = decompressors.get(source);
+            if (decompressionStream == null)
+            {
+                decompressionStream = new DecompressionStream(new LZ4StreamDecompressor(dictionary));
+                decompressors.put(source, decompressionStream);
+            }
+            
+            return decompressionStream;
+        }
+    }
+    
+    private static class CompressionStream
+    {
+        private final LZ4StreamCompressor compressor;
+        private long nextTicket;
+        private long sendTicket;
+        
+        public CompressionStream(LZ4StreamCompressor compressor)
+        {
+            this.compressor = compressor;
+        }
+        
+        public synchronized void beginSend(long ticket)
+        {
+            // Messages must be passed to sender in the order of their compression stream positions
+            boolean interrupted = false;
+            while (sendTicket != ticket)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+        
+        public synchronized void endSend()
+        {
+            sendTicket++;
+            notifyAll();
+        }
+    }
+    
+    private static class DecompressionStream
+    {
+        private final LZ4StreamDecompressor decompressor;
+        private boolean resetRequested;
+        private long resetRequestTime;
+        
+        public DecompressionStream(LZ4StreamDecompressor decompressor)
+        {
+            this.decompressor = decompressor;
+        }
+    }
+    
+    private static class ScratchBuffers
+    {
+        private ByteOutputStream stream = new ByteOutputStream(0x1000);
+        private byte[] compressionBuffer = new byte[0x1000];
+        private LZ4StreamCompressor dictionaryCompressor;
+        
+        public LZ4StreamCompressor getDictionaryCompressor(byte[] dictionary)
+        {
+            if (dictionaryCompressor == null)
+                dictionaryCompressor = new LZ4StreamCompressor(dictionary);
+            
+            return dictionaryCompressor;
+        }
+        
+        public byte[] getCompressionBuffer(int length)
+        {
+            if (compressionBuffer.length < length)
+                compressionBuffer = new byte[length];
+            
+            return compressionBuffer;
+        }
+        
+        public void trim()
+        {
+            if (stream.getBuffer().length > MAX_SCRATCH_BUFFER_SIZE)
+                stream = new ByteOutputStream(0x1000);
+            if (compressionBuffer.length > MAX_SCRATCH_BUFFER_SIZE)
+                compressionBuffer = new byte[0x1000];
+        }
+    }
+    
     private interface IMessages
     {
         @DefaultMessage("Message has been compressed, size: {1}, compressed size: {2}, message:\n{0}.")
         ILocalizedMessage messageCompressed(String message, int size, int compressedSize);
+        @DefaultMessage("Message is incompressible and is sent uncompressed, size: {1}, compressed size: {2}, message:\n{0}.")
+        ILocalizedMessage messageIncompressible(String message, int size, int compressedSize);
         @DefaultMessage("Message has been decompressed, size: {2}, compressed size: {1}, message:\n{0}.")
         ILocalizedMessage messageDecompressed(String outputMessage, int compressedSize, int size);
+        @DefaultMessage("Message from ''{0}'' has been dropped, because compression stream position {1} of message does not match expected position {2}.")
+        ILocalizedMessage messageDropped(IAddress source, int streamPosition, int expectedPosition);
+        @DefaultMessage("Compression stream to ''{0}'' has been restarted on request of receiver.")
+        ILocalizedMessage streamReset(IAddress destination);
     }
 }
@@ -0,0 +1,39 @@
+/**
+ * Copyright 2010 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.messaging.impl.protocols.compression;
+
+import com.exametrika.common.l10n.DefaultMessage;
+import com.exametrika.common.l10n.ILocalizedMessage;
+import com.exametrika.common.l10n.Messages;
+import com.exametrika.common.messaging.IMessagePart;
+
+/**
+ * The {@link CompressionResetMessagePart} is a message part, which requests sender of compression stream to restart
+ * stream, because receiver has missed or failed to decompress some blocks of stream.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class CompressionResetMessagePart implements IMessagePart
+{
+    private static final IMessages messages = Messages.get(IMessages.class);
+
+    @Override
+    public int getSize()
+    {
+        return 0;
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return messages.resetRequest().toString();
+    }
+    
+    private interface IMessages
+    {
+        @DefaultMessage("compression stream reset request")
+        ILocalizedMessage resetRequest();
+    }
+}
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.messaging.impl.protocols.compression;
+
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+
+/**
+ * The {@link CompressionResetMessagePartSerializer} is a serializer for {@link CompressionResetMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class CompressionResetMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("ca0adf77-4b90-4d38-b6d4-ad1d2c1c75d9");
+ 
+    public CompressionResetMessagePartSerializer()
+    {
+        super(ID, CompressionResetMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        return new CompressionResetMessagePart();
+    }
+}
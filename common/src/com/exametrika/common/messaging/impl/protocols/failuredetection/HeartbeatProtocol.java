@@ -24,7 +24,9 @@ import com.exametrika.common.utils.Assert;
 
 
 /**
- * The {@link HeartbeatProtocol} is a failure detection protocol based on heartbeats.
+ * The {@link HeartbeatProtocol} is a failure detection protocol based on heartbeats. Tracked node is considered failed
+ * if it does not respond during failure detection period or, if adaptive failure detection is enabled, if suspicion
+ * level of node computed by {@link PhiAccrualFailureDetector} reaches phi threshold.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -37,6 +39,10 @@ public final class HeartbeatProtocol extends AbstractProtocol
     private final long heartbeatStartPeriod;
     private final long heartbeatPeriod;
     private final long failureDetectionPeriod;
+    private final double phiThreshold;
+    private final int phiMaxSampleSize;
+    private final long phiMinStdDeviation;
+    private final long phiAcceptablePause;
     private IFailureObserver failureObserver;
     private INodeAccessTimeProvider accessTimeProvider;
     private IChannel channel;
@@ -58,17 +64,46 @@ public final class HeartbeatProtocol extends AbstractProtocol
      */
     public HeartbeatProtocol(String channelName, INodeTrackingStrategy nodeTrackingStrategy,
         IMessageFactory messageFactory, long trackPeriod, long heartbeatStartPeriod, long heartbeatPeriod, long failureDetectionPeriod)
+    {
+        this(channelName, nodeTrackingStrategy, messageFactory, trackPeriod, heartbeatStartPeriod, heartbeatPeriod, 
+            failureDetectionPeriod, 0, 0, 0, 0);
+    }
+    
+    /**
+     * Creates a new object.
+     * 
+     * @param channelName channel name
+     * @param nodeTrackingStrategy node tracking strategy
+     * @param messageFactory message factory
+     * @param trackPeriod period in milliseconds of node tracking timer
+     * @param heartbeatStartPeriod period in milliseconds since last tracked node response after which protocol begin to send heartbeats
+     *        to that node
+     * @param heartbeatPeriod period in milliseconds between subsequent heartbeats
+     * @param failureDetectionPeriod maximal period of failure detection in milliseconds
+     * @param phiThreshold phi threshold of adaptive failure detection or 0 if adaptive failure detection is disabled
+     * @param phiMaxSampleSize maximal number of heartbeat inter-arrival times kept by adaptive failure detector
+     * @param phiMinStdDeviation minimal standard deviation of heartbeat inter-arrival times in milliseconds
+     * @param phiAcceptablePause acceptable pause of tracked node in milliseconds
+     */
+    public HeartbeatProtocol(String channelName, INodeTrackingStrategy nodeTrackingStrategy,
+        IMessageFactory messageFactory, long trackPeriod, long heartbeatStartPeriod, long heartbeatPeriod, long failureDetectionPeriod,
+        double phiThreshold, int phiMaxSampleSize, long phiMinStdDeviation, long phiAcceptablePause)
     {
         super(channelName, messageFactory);
         
         Assert.notNull(nodeTrackingStrategy);
         Assert.isTrue (failureDetectionPeriod >= heartbeatStartPeriod);
+        Assert.isTrue(phiThreshold >= 0);
 
         this.nodeTrackingStrategy = nodeTrackingStrategy;
         this.trackPeriod = trackPeriod;
         this.heartbeatStartPeriod = heartbeatStartPeriod;
         this.heartbeatPeriod = heartbeatPeriod;
         this.failureDetectionPeriod = failureDetectionPeriod;
+        this.phiThreshold = phiThreshold;
+        this.phiMaxSampleSize = phiMaxSampleSize;
+        this.phiMinStdDeviation = phiMinStdDeviation;
+        this.phiAcceptablePause = phiAcceptablePause;
     }
 
     public void setFailureObserver(IFailureObserver failureObserver)
@@ -127,6 +162,10 @@ public final class HeartbeatProtocol extends AbstractProtocol
                 {
                     info = new HeartbeatInfo();
                     info.lastRequestTime = currentTime;
+                    
+                    if (phiThreshold > 0)
+                        info.failureDetector = new PhiAccrualFailureDetector(phiThreshold, phiMaxSampleSize, 
+                            phiMinStdDeviation, phiAcceptablePause, heartbeatStartPeriod + trackPeriod);
                 }
                     
                 heartbeats.put(node, info);
@@ -156,7 +195,13 @@ public final class HeartbeatProtocol extends AbstractProtocol
             else
                 send(response);
         }
-        else if (!message.hasFlags(MessageFlags.HEARTBEAT_RESPONSE))
+        else if (message.hasFlags(MessageFlags.HEARTBEAT_RESPONSE))
+        {
+            HeartbeatInfo info = heartbeats.get(message.getSource());
+            if (info != null && info.failureDetector != null)
+                info.failureDetector.onHeartbeat(accessTimeProvider.getLastReadTime(message.getSource()));
+        }
+        else
             receiver.receive(message);
     }
 
@@ -174,6 +219,9 @@ public final class HeartbeatProtocol extends AbstractProtocol
             if (lastResponseTime == 0)
                 continue;
             
+            if (info.failureDetector != null && lastResponseTime > info.failureDetector.getLastHeartbeatTime())
+                info.failureDetector.reset();
+            
             if (currentTime - lastResponseTime >= failureDetectionPeriod)
             {
                 if (logger.isLogEnabled(LogLevel.DEBUG))
@@ -181,6 +229,14 @@ public final class HeartbeatProtocol extends AbstractProtocol
                     
                 failureObserver.onNodesFailed(Collections.singleton(node));
             }
+            else if (info.failureDetector != null && !info.failureDetector.isAvailable(lastResponseTime, currentTime))
+            {
+                if (logger.isLogEnabled(LogLevel.DEBUG))
+                    logger.log(LogLevel.DEBUG, marker, messages.suspectedNode(node, 
+                        info.failureDetector.getPhi(lastResponseTime, currentTime)));
+                    
+                failureObserver.onNodesFailed(Collections.singleton(node));
+            }
             else if (currentTime - lastResponseTime >= heartbeatStartPeriod && currentTime - info.lastRequestTime >= heartbeatPeriod)
             {
                 info.lastRequestTime = currentTime;
@@ -193,11 +249,14 @@ public final class HeartbeatProtocol extends AbstractProtocol
     private static final class HeartbeatInfo
     {
         private long lastRequestTime;
+        private PhiAccrualFailureDetector failureDetector;
     }
     
     private interface IMessages
     {
         @DefaultMessage("Failed node ''{0}'' has been detected.")
         ILocalizedMessage failedNode(IAddress node);
+        @DefaultMessage("Failed node ''{0}'' has been detected by adaptive failure detector, phi: {1}.")
+        ILocalizedMessage suspectedNode(IAddress node, double phi);
     }
 }
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2008 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.messaging.impl.protocols.failuredetection;
+
+import com.exametrika.common.utils.Assert;
+
+
+/**
+ * The {@link PhiAccrualFailureDetector} is an adaptive failure detector of single node, based on phi accrual failure
+ * detector of Hayashibara et al. Detector keeps sliding window of inter-arrival times of heartbeat responses of node.
+ * Heartbeats are requested from node only when node is silent, so consecutive heartbeat responses of idle node
+ * are separated by maximal normal silence of node. Series of heartbeat responses is interrupted by any other
+ * activity of node, interval between heartbeat responses of different series is not registered. Suspicion level
+ * phi is -log10 of probability that node is silent longer than elapsed time since last response of node, assuming
+ * normal distribution of heartbeat inter-arrival times. Acceptable pause is added to mean of distribution in order
+ * to tolerate occasional pauses (i.e. GC pauses) of node. History of detector is bootstrapped with first interval
+ * estimate, so that detector can be used before real heartbeat intervals are collected.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class PhiAccrualFailureDetector
+{
+    private final double threshold;
+    private final long minStdDeviation;
+    private final long acceptablePause;
+    private final long[] intervals;
+    private int head;
+    private int count;
+    private double sum;
+    private double squareSum;
+    private long lastHeartbeatTime;
+
+    /**
+     * Creates a new object.
+     *
+     * @param threshold phi threshold, above which node is considered failed
+     * @param maxSampleSize maximal number of heartbeat inter-arrival times in history
+     * @param minStdDeviation minimal standard deviation of heartbeat inter-arrival times in milliseconds
+     * @param acceptablePause acceptable pause of node in milliseconds
+     * @param firstIntervalEstimate estimate of first heartbeat inter-arrival time in milliseconds
+     */
+    public PhiAccrualFailureDetector(double threshold, int maxSampleSize, long minStdDeviation, long acceptablePause,
+        long firstIntervalEstimate)
+    {
+        Assert.isTrue(threshold > 0);
+        Assert.isTrue(maxSampleSize >= 2);
+        Assert.isTrue(minStdDeviation > 0);
+        Assert.isTrue(acceptablePause >= 0);
+        Assert.isTrue(firstIntervalEstimate > 0);
+
+        this.threshold = threshold;
+        this.minStdDeviation = minStdDeviation;
+        this.acceptablePause = acceptablePause;
+        this.intervals = new long[maxSampleSize];
+
+        long deviation = firstIntervalEstimate / 4;
+        addInterval(firstIntervalEstimate - deviation);
+        addInterval(firstIntervalEstimate + deviation);
+    }
+
+    public double getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Returns arrival time of last heartbeat response of current series.
+     *
+     * @return arrival time of last heartbeat response of current series or 0 if series is not started
+     */
+    public synchronized long getLastHeartbeatTime()
+    {
+        return lastHeartbeatTime;
+    }
+
+    /**
+     * Registers arrival of heartbeat response of node.
+     *
+     * @param arrivalTime arrival time of heartbeat response. Responses having time not greater than time of last
+     *        heartbeat response are ignored
+     */
+    public synchronized void onHeartbeat(long arrivalTime)
+    {
+        if (arrivalTime <= lastHeartbeatTime)
+            return;
+
+        if (lastHeartbeatTime != 0)
+            addInterval(arrivalTime - lastHeartbeatTime);
+
+        lastHeartbeatTime = arrivalTime;
+    }
+
+    /**
+     * Interrupts current series of heartbeat responses. Must be called when other activity of node is detected.
+     */
+    public synchronized void reset()
+    {
+        lastHeartbeatTime = 0;
+    }
+
+    /**
+     * Returns suspicion level of node.
+     *
+     * @param lastResponseTime time of last response of node
+     * @param currentTime current time
+     * @return suspicion level of node
+     */
+    public synchronized double getPhi(long lastResponseTime, long currentTime)
+    {
+        double mean = sum / count;
+        double variance = squareSum / count - mean * mean;
+        double deviation = Math.max(Math.sqrt(Math.max(variance, 0)), minStdDeviation);
+
+        return computePhi(currentTime - lastResponseTime, mean + acceptablePause, deviation);
+    }
+
+    /**
+     * Is node considered available by detector?
+     *
+     * @param lastResponseTime time of last response of node
+     * @param currentTime current time
+     * @return true if suspicion level of node is less than threshold
+     */
+    public boolean isAvailable(long lastResponseTime, long currentTime)
+    {
+        return getPhi(lastResponseTime, currentTime) < threshold;
+    }
+
+    private void addInterval(long interval)
+    {
+        if (count == intervals.length)
+        {
+            long removed = intervals[head];
+            sum -= removed;
+            squareSum -= (double)removed * removed;
+        }
+        else
+            count++;
+
+        intervals[head] = interval;
+        head = (head + 1) % intervals.length;
+
+        sum += interval;
+        squareSum += (double)interval * interval;
+    }
+
+    private static double computePhi(long delay, double mean, double deviation)
+    {
+        // Logistic approximation of cumulative normal distribution
+        double y = (delay - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (delay > mean)
+            return -Math.log10(e / (1.0 + e));
+        else
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+}
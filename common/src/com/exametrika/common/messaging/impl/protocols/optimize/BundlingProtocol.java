@@ -27,12 +27,15 @@ import com.exametrika.common.messaging.impl.message.MessageSerializers;
 import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.ICleanupManager;
 import com.exametrika.common.messaging.impl.transports.UnicastAddress;
+import com.exametrika.common.tasks.impl.TimingWheel;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.Serializers;
 
 /**
  * The {@link BundlingProtocol} is a bundling protocol. Protocol requires unicast reliable FIFO transport (like TCP).
+ * Each send queue registers its bundling or idle deadline in timing wheel, so that timer processes only expired send
+ * queues instead of scanning all send queues.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
@@ -46,6 +49,8 @@ public final class BundlingProtocol extends AbstractProtocol
     private final long sendQueueIdlePeriod;
     private final boolean receiveMessageList;
     private final Map<IAddress, SendQueue> sendQueues = new LinkedHashMap<IAddress, SendQueue>();
+    private final List<SendQueue> expiredQueues = new ArrayList<SendQueue>();
+    private TimingWheel<SendQueue> timeouts;
     
     public BundlingProtocol(String channelName, IMessageFactory messageFactory, ISerializationRegistry serializationRegistry,
         int maxBundlingMessageSize, long maxBundlingPeriod, int maxBundleSize, long sendQueueIdlePeriod, boolean receiveMessageList)
@@ -62,26 +67,31 @@ public final class BundlingProtocol extends AbstractProtocol
         this.receiveMessageList = receiveMessageList;
     }
     
+    @Override
+    public void start()
+    {
+        super.start();
+        
+        timeouts = new TimingWheel<SendQueue>(timeService.getCurrentTime());
+    }
+    
     @Override
     public void onTimer(long currentTime)
     {
-        for (Iterator<Map.Entry<IAddress, SendQueue>> it = sendQueues.entrySet().iterator(); it.hasNext(); )
+        timeouts.advance(currentTime, expiredQueues);
+        
+        for (SendQueue sendQueue : expiredQueues)
         {
-            Map.Entry<IAddress, SendQueue> entry = it.next();
-            IAddress destination = entry.getKey();
-            SendQueue sendQueue = entry.getValue();
-            
-            if (currentTime > sendQueue.bundleCreationTime + maxBundlingPeriod && !sendQueue.isEmpty())
+            if (!sendQueue.isEmpty())
             {
-                IMessage message = createBundle(destination, sendQueue);
+                IMessage message = createBundle(sendQueue.destination, sendQueue);
                 getSender().send(message);
             }
-            else if (currentTime > sendQueue.bundleCreationTime + sendQueueIdlePeriod)
-            {
-                Assert.checkState(sendQueue.isEmpty());
-                it.remove();
-            }
+            else
+                sendQueues.remove(sendQueue.destination);
         }
+        
+        expiredQueues.clear();
     }
 
     @Override
@@ -103,7 +113,10 @@ public final class BundlingProtocol extends AbstractProtocol
         {
             Map.Entry<IAddress, SendQueue> entry = it.next();
             if (cleanupManager.canCleanup(entry.getKey()))
+            {
+                timeouts.cancel(entry.getValue().timeout);
                 it.remove();
+            }
         }
     }
     
@@ -141,10 +154,13 @@ public final class BundlingProtocol extends AbstractProtocol
         {
             if (sendQueue == null)
             {
-                sendQueue = new SendQueue();
+                sendQueue = new SendQueue(message.getDestination());
                 sendQueues.put(message.getDestination(), sendQueue);
             }
             
+            if (sendQueue.isEmpty())
+                scheduleTimeout(sendQueue, timeService.getCurrentTime() + maxBundlingPeriod);
+            
             sendQueue.offer(message, timeService.getCurrentTime());
         }
     }
@@ -181,6 +197,7 @@ public final class BundlingProtocol extends AbstractProtocol
     private IMessage createBundle(IAddress destination, SendQueue sendQueue)
     {
         List<IMessage> bundledMessages = sendQueue.createBundle();
+        scheduleTimeout(sendQueue, sendQueue.bundleCreationTime + sendQueueIdlePeriod);
         
         ByteOutputStream stream = new ByteOutputStream(0x1000);
         ISerialization serialization = new Serialization(serializationRegistry, true, stream);
@@ -194,11 +211,26 @@ public final class BundlingProtocol extends AbstractProtocol
         return messageFactory.create(destination, bundlePart);
     }
     
+    private void scheduleTimeout(SendQueue sendQueue, long time)
+    {
+        if (sendQueue.timeout == null)
+            sendQueue.timeout = timeouts.schedule(sendQueue, time + 1);
+        else
+            timeouts.reschedule(sendQueue.timeout, time + 1);
+    }
+    
     private static class SendQueue
     {
+        private final IAddress destination;
         private List<IMessage> queue = new ArrayList<IMessage>(128);
         private long bundleCreationTime;
         private int size;
+        private TimingWheel.Timeout<SendQueue> timeout;
+
+        public SendQueue(IAddress destination)
+        {
+            this.destination = destination;
+        }
 
         public boolean isEmpty()
         {
@@ -139,7 +139,8 @@ public final class TcpChannelHandshaker implements ITcpChannelHandshaker<TcpPack
     public boolean canDisconnect(TcpPacket packet)
     {
         Assert.isTrue(packet.getBuffers().size() == 1);
-        byte flags = packet.getBuffers().get(0).getBuffer()[0];
+        ByteArray buffer = packet.getBuffers().get(0);
+        byte flags = buffer.getBuffer()[buffer.getOffset()];
         if ((flags & TcpTransport.FLAG_DUPLICATE) == TcpTransport.FLAG_DUPLICATE)
             connection.setDuplicate();
         
@@ -174,7 +175,8 @@ public final class TcpChannelHandshaker implements ITcpChannelHandshaker<TcpPack
                     return false;
                 
                 Assert.isTrue(packet.getBuffers().size() == 1);
-                byte flags = packet.getBuffers().get(0).getBuffer()[0];
+                ByteArray buffer = packet.getBuffers().get(0);
+        byte flags = buffer.getBuffer()[buffer.getOffset()];
                 
                 if ((flags & TcpTransport.FLAG_DISCONNECT_RESPONSE) == TcpTransport.FLAG_DISCONNECT_RESPONSE)
                 {
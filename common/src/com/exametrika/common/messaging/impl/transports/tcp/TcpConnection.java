@@ -5,9 +5,14 @@ package com.exametrika.common.messaging.impl.transports.tcp;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import com.exametrika.common.io.ISerializationRegistry;
+import com.exametrika.common.io.UnsupportedStreamFormatException;
+import com.exametrika.common.io.impl.ByteInputStream;
+import com.exametrika.common.io.impl.DataDeserialization;
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
 import com.exametrika.common.json.Json;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.IFeed;
@@ -25,7 +30,9 @@ import com.exametrika.common.net.nio.TcpNioPacketChannel;
 import com.exametrika.common.net.utils.ITcpPacketDiscardPolicy;
 import com.exametrika.common.tasks.IFlowController;
 import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.Debug;
+import com.exametrika.common.utils.Serializers;
 
 /**
  * The {@link TcpConnection} represents a tcp connection.
@@ -40,6 +47,7 @@ public final class TcpConnection implements ITcpChannelAware
     private final ISerializationRegistry serializationRegistry;
     private final IMessageFactory messageFactory;
     private final ITcpReceiveQueue receiveQueue;
+    private SerializationTypeDictionary receiveTypeDictionary = new SerializationTypeDictionary();
     private ITcpSendQueue sendQueue;
     private final SwitchableChannelWriter channelWriter = new SwitchableChannelWriter();
     private volatile ArrayList<TcpSink> sinks = new ArrayList<TcpSink>();
@@ -57,7 +65,7 @@ public final class TcpConnection implements ITcpChannelAware
     
     public TcpConnection(TcpTransport transport, ITcpIncomingMessageHandler incomingMessageHandler,  
         ISerializationRegistry serializationRegistry, IMessageFactory messageFactory, ITcpThreadingModel threadingModel,
-        int maxUnlockSendQueueCapacity, int minLockSendQueueCapacity, boolean client,
+        int maxUnlockSendQueueCapacity, int minLockSendQueueCapacity, int maxWriteBatchSize, boolean client,
         IFlowController<IAddress> flowController, ITcpPacketDiscardPolicy<IMessage> discardPolicy)
     {
         Assert.notNull(transport);
@@ -69,8 +77,10 @@ public final class TcpConnection implements ITcpChannelAware
         this.transportId = transport.getTransportId();
         this.serializationRegistry = serializationRegistry;
         this.receiveQueue = threadingModel.createReceiveQueue(this, incomingMessageHandler);
-        this.sendQueue = new TcpStSendQueue(this, maxUnlockSendQueueCapacity, minLockSendQueueCapacity, flowController, discardPolicy);
+        this.sendQueue = new TcpStSendQueue(this, maxUnlockSendQueueCapacity, minLockSendQueueCapacity, maxWriteBatchSize, 
+            flowController, discardPolicy);
         this.channelWriter.sendQueue = sendQueue;
+        this.channelWriter.synchronizedWrite = transport.hasSelectorThreads();
         this.client = client;
         this.messageFactory = messageFactory;
     }
@@ -268,12 +278,72 @@ public final class TcpConnection implements ITcpChannelAware
         return channelWriter;
     }
     
+    /**
+     * Returns type dictionary of packets being received. Must be called from channel reader after 
+     * {@link #readTypeDefinitions(TcpPacket)}.
+     *
+     * @return type dictionary of received packets
+     */
+    public SerializationTypeDictionary getReceiveTypeDictionary()
+    {
+        return receiveTypeDictionary;
+    }
+    
+    /**
+     * Reads type definitions of received packet and adds them to receive type dictionary. Must be called from channel reader
+     * for each received packet in order of receiving.
+     *
+     * @param packet received packet
+     * @return packet without type definitions
+     */
+    public TcpPacket readTypeDefinitions(TcpPacket packet)
+    {
+        Assert.isTrue(packet.getBuffers().size() == 1);
+        ByteArray buffer = packet.getBuffers().get(0);
+        byte[] buf = buffer.getBuffer();
+        int offset = buffer.getOffset();
+        byte flags = buf[offset];
+        if ((flags & TcpTransport.FLAG_TYPE_DEFINITIONS) != TcpTransport.FLAG_TYPE_DEFINITIONS)
+            return packet;
+        
+        ByteInputStream stream = new ByteInputStream(buf, offset + TcpTransport.HEADER_OVERHEAD, 
+            buffer.getLength() - TcpTransport.HEADER_OVERHEAD);
+        DataDeserialization deserialization = new DataDeserialization(stream);
+        int startTypeId = Serializers.readVarInt(deserialization);
+        int count = Serializers.readVarInt(deserialization);
+        
+        // Sender starts definitions from scratch when its send queue is moved to this connection
+        if (startTypeId == 0)
+            receiveTypeDictionary = new SerializationTypeDictionary();
+        else if (startTypeId != receiveTypeDictionary.getSize())
+            throw new UnsupportedStreamFormatException();
+        
+        for (int i = 0; i < count; i++)
+        {
+            if (receiveTypeDictionary.getTypeId(Serializers.readUUID(deserialization)) != startTypeId + i)
+                throw new UnsupportedStreamFormatException();
+        }
+        
+        // Moves packet header to the beginning of packet body
+        int start = stream.getPosition() - TcpTransport.HEADER_OVERHEAD;
+        buf[start] = (byte)(flags & ~TcpTransport.FLAG_TYPE_DEFINITIONS);
+        
+        return new TcpPacket(Collections.singletonList(new ByteArray(buf, start, offset + buffer.getLength() - start)), 
+            packet.getFiles(), packet.getDigest());
+    }
+    
     public void enqueue(IMessage message)
     {
-        if (message.hasOneOfFlags(MessageFlags.PARALLEL | MessageFlags.HIGH_PRIORITY))
-            sendQueue.offer(message);
+        if (channelWriter.synchronizedWrite)
+        {
+            // Channel is written by selector thread of dispatcher
+            synchronized (channel)
+            {
+                doEnqueue(message);
+            }
+        }
         else
-            sendQueue.put(message);
+            doEnqueue(message);
     }
     
     public void updateReadStatus()
@@ -370,9 +440,18 @@ public final class TcpConnection implements ITcpChannelAware
         Debug.print(json.toObject().toString());
     }
 
+    private void doEnqueue(IMessage message)
+    {
+        if (message.hasOneOfFlags(MessageFlags.PARALLEL | MessageFlags.HIGH_PRIORITY))
+            sendQueue.offer(message);
+        else
+            sendQueue.put(message);
+    }
+    
     private static class SwitchableChannelWriter implements ITcpChannelWriter
     {
         private ITcpSendQueue sendQueue;
+        private boolean synchronizedWrite;
         
         @Override
         public boolean canWrite(ITcpChannel channel)
@@ -383,7 +462,15 @@ public final class TcpConnection implements ITcpChannelAware
         @Override
         public void onWrite(ITcpChannel channel)
         {
-            sendQueue.onWrite(channel);
+            if (synchronizedWrite)
+            {
+                synchronized (channel)
+                {
+                    sendQueue.onWrite(channel);
+                }
+            }
+            else
+                sendQueue.onWrite(channel);
         }
     }
 }
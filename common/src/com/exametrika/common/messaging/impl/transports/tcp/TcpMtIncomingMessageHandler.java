@@ -59,8 +59,9 @@ public final class TcpMtIncomingMessageHandler implements ITcpIncomingMessageHan
     public void handle(TcpMtReceiveTask task)
     {
         TcpPacket packet = task.getPacket();
-        IMessage message = MessageSerializers.deserialize(serializationRegistry, task.getConnection().getRemoteAddress(), 
-            task.getConnection().getLocalAddress(), packet, TcpTransport.HEADER_OVERHEAD);
+        IMessage message = MessageSerializers.deserialize(serializationRegistry, task.getTypeDictionary(), 
+            task.getConnection().getRemoteAddress(), task.getConnection().getLocalAddress(), packet, 
+            TcpTransport.HEADER_OVERHEAD);
         receiver.receive(message);
     }
     
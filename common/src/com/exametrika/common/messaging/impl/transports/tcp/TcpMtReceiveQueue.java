@@ -22,7 +22,7 @@ public final class TcpMtReceiveQueue extends TcpMtReceiveTask implements ITcpRec
     
     public TcpMtReceiveQueue(TcpConnection connection, ITaskQueue<TcpMtReceiveTask> messageQueue)
     {
-        super(connection, null);
+        super(connection, null, null);
         
         Assert.notNull(messageQueue);
         
@@ -52,15 +52,18 @@ public final class TcpMtReceiveQueue extends TcpMtReceiveTask implements ITcpRec
         if (packet == null)
             return;
         
+        packet = connection.readTypeDefinitions(packet);
+        
         Assert.isTrue(packet.getBuffers().size() == 1);
         ByteArray buffer = packet.getBuffers().get(0);
         byte flags = buffer.getBuffer()[buffer.getOffset()];
         
         if ((flags & TcpTransport.FLAG_PARALLEL) == TcpTransport.FLAG_PARALLEL)
-            messageQueue.offer(new TcpMtReceiveTask(connection, packet));
+            messageQueue.offer(new TcpMtReceiveTask(connection, packet, connection.getReceiveTypeDictionary()));
         else
         {
             this.packet = packet;
+            this.typeDictionary = connection.getReceiveTypeDictionary();
             channel.updateReadStatus();
             
             messageQueue.offer(this);
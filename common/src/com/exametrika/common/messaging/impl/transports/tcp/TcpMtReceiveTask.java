@@ -3,6 +3,7 @@
  */
 package com.exametrika.common.messaging.impl.transports.tcp;
 
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
 import com.exametrika.common.net.TcpPacket;
 import com.exametrika.common.utils.Assert;
 
@@ -16,13 +17,15 @@ public class TcpMtReceiveTask
 {
     protected final TcpConnection connection;
     protected volatile TcpPacket packet;
+    protected volatile SerializationTypeDictionary typeDictionary;
     
-    public TcpMtReceiveTask(TcpConnection connection, TcpPacket packet)
+    public TcpMtReceiveTask(TcpConnection connection, TcpPacket packet, SerializationTypeDictionary typeDictionary)
     {
         Assert.notNull(connection);
         
         this.connection = connection;
         this.packet = packet;
+        this.typeDictionary = typeDictionary;
     }
     
     public TcpConnection getConnection()
@@ -35,6 +38,11 @@ public class TcpMtReceiveTask
         return packet;
     }
     
+    public SerializationTypeDictionary getTypeDictionary()
+    {
+        return typeDictionary;
+    }
+    
     public void onCompleted()
     {
     }
@@ -66,8 +66,10 @@ public final class TcpStReceiveQueue implements ITcpReceiveQueue
         if (packet == null)
             return;
         
-        IMessage message = MessageSerializers.deserialize(serializationRegistry, connection.getRemoteAddress(), 
-            connection.getLocalAddress(), packet, TcpTransport.HEADER_OVERHEAD);
+        packet = connection.readTypeDefinitions(packet);
+        
+        IMessage message = MessageSerializers.deserialize(serializationRegistry, connection.getReceiveTypeDictionary(), 
+            connection.getRemoteAddress(), connection.getLocalAddress(), packet, TcpTransport.HEADER_OVERHEAD);
         
         receiver.receive(message);
     }
@@ -3,7 +3,13 @@
  */
 package com.exametrika.common.messaging.impl.transports.tcp;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.exametrika.common.io.ISerializationRegistry;
+import com.exametrika.common.io.impl.ByteOutputStream;
+import com.exametrika.common.io.impl.DataSerialization;
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.IMessage;
 import com.exametrika.common.messaging.MessageFlags;
@@ -16,6 +22,7 @@ import com.exametrika.common.net.utils.ITcpPacketDiscardPolicy;
 import com.exametrika.common.tasks.IFlowController;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ByteArray;
+import com.exametrika.common.utils.Serializers;
 import com.exametrika.common.utils.SimpleDeque;
 
 /**
@@ -29,17 +36,23 @@ public final class TcpStSendQueue implements ITcpSendQueue
     private TcpConnection connection;
     private final int maxUnlockQueueCapacity;
     private final int minLockQueueCapacity;
+    private final int maxWriteBatchSize;
     private final IFlowController<IAddress> flowController;
     private final ITcpPacketDiscardPolicy<IMessage> discardPolicy;
     private final ISerializationRegistry serializationRegistry;
+    private final SerializationTypeDictionary typeDictionary = new SerializationTypeDictionary();
+    private int sentTypeCount;
     private final SimpleDeque<TcpPacket> highQueue = new SimpleDeque<TcpPacket>();
     private final SimpleDeque<TcpPacket> queue = new SimpleDeque<TcpPacket>();
     private final SimpleDeque<TcpPacket> lowQueue = new SimpleDeque<TcpPacket>();
+    private final List<TcpPacket> batch = new ArrayList<TcpPacket>();
+    private int batchSize;
+    private boolean batchFull;
     private volatile int queueCapacity;
     private boolean flowLocked;
     private boolean closed;
     
-    public TcpStSendQueue(TcpConnection connection, int maxUnlockQueueCapacity, int minLockQueueCapacity, 
+    public TcpStSendQueue(TcpConnection connection, int maxUnlockQueueCapacity, int minLockQueueCapacity, int maxWriteBatchSize,
         IFlowController<IAddress> flowController, ITcpPacketDiscardPolicy<IMessage> discardPolicy)
     {
         Assert.notNull(connection);
@@ -49,6 +62,7 @@ public final class TcpStSendQueue implements ITcpSendQueue
         this.connection = connection;
         this.maxUnlockQueueCapacity = maxUnlockQueueCapacity;
         this.minLockQueueCapacity = minLockQueueCapacity;
+        this.maxWriteBatchSize = maxWriteBatchSize;
         this.flowController = flowController;
         this.discardPolicy = discardPolicy;
         this.serializationRegistry = connection.getSerializationRegistry();
@@ -61,6 +75,9 @@ public final class TcpStSendQueue implements ITcpSendQueue
         Assert.notNull(connection.getChannel());
         
         this.connection = connection;
+        
+        // Type definitions have not been sent to the channel of new connection yet
+        sentTypeCount = 0;
     }
     
     @Override
@@ -88,7 +105,7 @@ public final class TcpStSendQueue implements ITcpSendQueue
             return false;
         
         Object digest = discardPolicy.createDigest(message);
-        TcpPacket packet = MessageSerializers.serialize(serializationRegistry, (Message)message, 
+        TcpPacket packet = MessageSerializers.serialize(serializationRegistry, typeDictionary, (Message)message, 
             TcpTransport.HEADER_OVERHEAD, digest);
         byte flags = getFlags(message);
         
@@ -150,6 +167,9 @@ public final class TcpStSendQueue implements ITcpSendQueue
     @Override
     public void onWrite(ITcpChannel channel)
     {
+        if (maxWriteBatchSize > 0 && queueCapacity > 0 && writeBatch(channel))
+            return;
+        
         TcpPacket packet = highQueue.peekIgnoreNulls();
         if (packet != null)
         {
@@ -186,15 +206,122 @@ public final class TcpStSendQueue implements ITcpSendQueue
     
     private void write(ITcpChannel channel, TcpPacket packet, SimpleDeque<TcpPacket> queue)
     {
-        if (((ITcpPacketChannel<TcpPacket>)channel).write(packet))
+        int typeCount = typeDictionary.getSize();
+        if (((ITcpPacketChannel<TcpPacket>)channel).write(addTypeDefinitions(packet, typeCount)))
         {
+            sentTypeCount = typeCount;
             queue.poll();
             queueCapacity -= packet.getSize();
-            if (flowLocked && queueCapacity <= maxUnlockQueueCapacity)
+            checkUnlockFlow();
+        }
+    }
+    
+    private boolean writeBatch(ITcpChannel channel)
+    {
+        batchSize = 0;
+        batchFull = false;
+        
+        int highCount = collectBatch(highQueue);
+        int normalCount = collectBatch(queue);
+        int lowCount = collectBatch(lowQueue);
+        
+        if (batch.size() <= 1)
+        {
+            batch.clear();
+            return false;
+        }
+        
+        int typeCount = typeDictionary.getSize();
+        for (int i = 0; i < batch.size(); i++)
+            batch.set(i, addTypeDefinitions(batch.get(i), i == 0 ? typeCount : sentTypeCount));
+        
+        if (((ITcpPacketChannel<TcpPacket>)channel).write(batch))
+        {
+            sentTypeCount = typeCount;
+            
+            removeBatch(highQueue, highCount);
+            removeBatch(queue, normalCount);
+            removeBatch(lowQueue, lowCount);
+            
+            queueCapacity -= batchSize;
+            checkUnlockFlow();
+        }
+        
+        batch.clear();
+        return true;
+    }
+    
+    private TcpPacket addTypeDefinitions(TcpPacket packet, int typeCount)
+    {
+        // Definitions of types added to dictionary since last written packet are inserted between packet header and body
+        ByteArray buffer = packet.getBuffers().get(0);
+        byte[] buf = buffer.getBuffer();
+        int offset = buffer.getOffset();
+        
+        if (typeCount == sentTypeCount)
+        {
+            buf[offset] &= ~TcpTransport.FLAG_TYPE_DEFINITIONS;
+            return packet;
+        }
+        
+        buf[offset] |= TcpTransport.FLAG_TYPE_DEFINITIONS;
+        
+        ByteOutputStream stream = new ByteOutputStream();
+        DataSerialization serialization = new DataSerialization(stream);
+        Serializers.writeVarInt(serialization, sentTypeCount);
+        Serializers.writeVarInt(serialization, typeCount - sentTypeCount);
+        for (int i = sentTypeCount; i < typeCount; i++)
+            Serializers.writeUUID(serialization, typeDictionary.getType(i));
+        
+        List<ByteArray> buffers = new ArrayList<ByteArray>(packet.getBuffers().size() + 2);
+        buffers.add(new ByteArray(buf, offset, TcpTransport.HEADER_OVERHEAD));
+        buffers.add(new ByteArray(stream.getBuffer(), 0, stream.getLength()));
+        if (buffer.getLength() > TcpTransport.HEADER_OVERHEAD)
+            buffers.add(new ByteArray(buf, offset + TcpTransport.HEADER_OVERHEAD, buffer.getLength() - TcpTransport.HEADER_OVERHEAD));
+        buffers.addAll(packet.getBuffers().subList(1, packet.getBuffers().size()));
+        
+        return new TcpPacket(buffers, packet.getFiles(), packet.getDigest());
+    }
+    
+    private int collectBatch(SimpleDeque<TcpPacket> queue)
+    {
+        int count = 0;
+        for (int i = 0; !batchFull && i < queue.size(); i++)
+        {
+            TcpPacket packet = queue.get(i);
+            if (packet != null)
             {
-                flowLocked = false;
-                flowController.unlockFlow(connection.getRemoteAddress());
+                if (packet.getFiles() != null || (!batch.isEmpty() && batchSize + packet.getSize() > maxWriteBatchSize))
+                {
+                    batchFull = true;
+                    break;
+                }
+                
+                batch.add(packet);
+                batchSize += packet.getSize();
+                
+                if (batchSize >= maxWriteBatchSize)
+                    batchFull = true;
             }
+            
+            count = i + 1;
+        }
+        
+        return count;
+    }
+    
+    private void removeBatch(SimpleDeque<TcpPacket> queue, int count)
+    {
+        for (int i = 0; i < count; i++)
+            queue.poll();
+    }
+    
+    private void checkUnlockFlow()
+    {
+        if (flowLocked && queueCapacity <= maxUnlockQueueCapacity)
+        {
+            flowLocked = false;
+            flowController.unlockFlow(connection.getRemoteAddress());
         }
     }
     
@@ -73,6 +73,7 @@ public final class TcpTransport implements ITransport, ITcpChannelAcceptor, ITcp
     public static final byte FLAG_DUPLICATE = 0x8;
     public static final byte FLAG_DISCONNECT_REQUEST = 0x10;
     public static final byte FLAG_DISCONNECT_RESPONSE = 0x20;
+    public static final byte FLAG_TYPE_DEFINITIONS = 0x40;
     public static final byte HEADER_OVERHEAD = 1;//flags(byte)
     private static final IMessages messages = Messages.get(IMessages.class);
     private final ILogger logger = Loggers.get(TcpTransport.class);
@@ -117,6 +118,7 @@ public final class TcpTransport implements ITransport, ITcpChannelAcceptor, ITcp
         public int maxUnlockSendQueueCapacity;
         public int minLockSendQueueCapacity;
         public int maxPacketSize;
+        public int maxWriteBatchSize;
         public IFailureObserver failureObserver;
         public IConnectionObserver connectionObserver;
         public ILocalNodeAware localNodeInitializer; 
@@ -183,6 +185,11 @@ public final class TcpTransport implements ITransport, ITcpChannelAcceptor, ITcp
         return dispatcher;
     }
     
+    public boolean hasSelectorThreads()
+    {
+        return dispatcher.getSelectorThreadCount() > 0;
+    }
+    
     public IMarker getMarker()
     {
         return marker;
@@ -673,8 +680,8 @@ public final class TcpTransport implements ITransport, ITcpChannelAcceptor, ITcp
     private ITcpPacketChannel.Parameters createChannelParameters(boolean client)
     {
         TcpConnection connection = new TcpConnection(this, incomingMessageHandler, parameters.serializationRegistry, 
-            parameters.messageFactory, threadingModel, parameters.maxUnlockSendQueueCapacity, parameters.minLockSendQueueCapacity, client,
-            flowController, discardPolicy);
+            parameters.messageFactory, threadingModel, parameters.maxUnlockSendQueueCapacity, parameters.minLockSendQueueCapacity, 
+            parameters.maxWriteBatchSize, client, flowController, discardPolicy);
         
         ITcpPacketChannel.Parameters channelParameters = new ITcpPacketChannel.Parameters();
         TcpChannelHandshaker channelHandshaker = new TcpChannelHandshaker(connection);
@@ -3,6 +3,8 @@
  */
 package com.exametrika.common.net;
 
+import java.util.List;
+
 import com.exametrika.common.utils.ByteArray;
 
 
@@ -50,4 +52,15 @@ public interface ITcpPacketChannel<T> extends ITcpChannel
      * {@link ITcpChannelHandshaker#handshake} or {@link ITcpChannelHandshaker#disconnect} only.
      */
     boolean write(T packet);
+    
+    /**
+     * Writes specified packets to channel using single gathering write. Packets are written in list order, packets must
+     * not contain files.
+     *
+     * @param packets packets to write
+     * @return true if packets can be written to channel, false if packets can not be written to channel yet
+     * @threadsafety Implementation of this method is not thread safe. Must be called from {@link ITcpChannelWriter#onWrite},
+     * {@link ITcpChannelHandshaker#handshake} or {@link ITcpChannelHandshaker#disconnect} only.
+     */
+    boolean write(List<T> packets);
 }
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.net.nio;
+
+import java.nio.ByteBuffer;
+
+import com.exametrika.common.json.Json;
+import com.exametrika.common.l10n.DefaultMessage;
+import com.exametrika.common.l10n.ILocalizedMessage;
+import com.exametrika.common.l10n.Messages;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.ByteArray;
+import com.exametrika.common.utils.SimpleDeque;
+
+
+
+
+/**
+ * The {@link TcpBufferPool} is a size-classed pool of direct buffers used by channels of single selector thread. Buffer
+ * sizes are rounded up to power of two, buffers larger than maximal buffer size are not pooled. Direct buffers are
+ * explicitly acquired and released by channel. Received packet payloads can outlive packet, because lazily deserialized
+ * message parts reference them, so payloads are copied to shared heap slabs instead, slab is reclaimed by garbage
+ * collector when all payloads allocated from it become unreachable. Slabs are sized to payload size class and hold at
+ * most 8 payloads of that class, so single payload retained by upper layers (pending or unacknowledged message queues,
+ * state transfer logs) pins at most 8 times its size class instead of whole shared slab. Payloads larger than 4KB are
+ * copied to exact-size arrays. Receive path is therefore not allocation-free, it still allocates one slab per 8 small
+ * payloads, avoiding payload copies would require reference counted message parts.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class TcpBufferPool
+{
+    private static final IMessages messages = Messages.get(IMessages.class);
+    private static final int MIN_BUFFER_SIZE_SHIFT = 8;
+    private static final int SLAB_PAYLOAD_COUNT = 8;
+    private static final int MAX_SLAB_PAYLOAD_SIZE = 0x1000;
+    private final int maxBufferSize;
+    private final long maxPoolSize;
+    private final SimpleDeque<ByteBuffer>[] buffers;
+    private long poolSize;
+    private long hitCount;
+    private long missCount;
+    private long releaseCount;
+    private long discardCount;
+    private int borrowedCount;
+    private final byte[][] slabs = new byte[getSizeClass(MAX_SLAB_PAYLOAD_SIZE) + 1][];
+    private final int[] slabPositions = new int[slabs.length];
+    private long slabCount;
+
+    /**
+     * Creates a new object.
+     *
+     * @param maxBufferSize maximal size of pooled buffer. Must be power of two
+     * @param maxPoolSize maximal total size of free buffers retained by pool
+     */
+    public TcpBufferPool(int maxBufferSize, long maxPoolSize)
+    {
+        Assert.isTrue(maxBufferSize >= (1 << MIN_BUFFER_SIZE_SHIFT) && Integer.bitCount(maxBufferSize) == 1);
+        Assert.isTrue(maxPoolSize >= 0);
+
+        this.maxBufferSize = maxBufferSize;
+        this.maxPoolSize = maxPoolSize;
+        this.buffers = createBuffers(getSizeClass(maxBufferSize) + 1);
+    }
+
+    public int getMaxBufferSize()
+    {
+        return maxBufferSize;
+    }
+
+    public synchronized long getPoolSize()
+    {
+        return poolSize;
+    }
+
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    public synchronized int getBorrowedCount()
+    {
+        return borrowedCount;
+    }
+
+    /**
+     * Acquires buffer from pool. Buffer position is set to 0 and limit is set to requested size.
+     *
+     * @param size requested buffer size. Must not exceed maximal buffer size
+     * @return buffer
+     */
+    public synchronized ByteBuffer acquire(int size)
+    {
+        Assert.isTrue(size >= 0 && size <= maxBufferSize);
+
+        int sizeClass = getSizeClass(size);
+        ByteBuffer buffer = buffers[sizeClass].removeLast();
+        if (buffer != null)
+        {
+            hitCount++;
+            poolSize -= buffer.capacity();
+        }
+        else
+        {
+            missCount++;
+            buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_BUFFER_SIZE_SHIFT));
+        }
+
+        borrowedCount++;
+
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns buffer previously acquired from this pool.
+     *
+     * @param buffer buffer
+     */
+    public synchronized void release(ByteBuffer buffer)
+    {
+        Assert.notNull(buffer);
+        Assert.isTrue(buffer.isDirect() && buffer.capacity() <= maxBufferSize);
+
+        releaseCount++;
+        borrowedCount--;
+
+        if (poolSize + buffer.capacity() > maxPoolSize)
+        {
+            discardCount++;
+            return;
+        }
+
+        buffers[getSizeClass(buffer.capacity())].offer(buffer);
+        poolSize += buffer.capacity();
+    }
+
+    public synchronized long getSlabCount()
+    {
+        return slabCount;
+    }
+
+    /**
+     * Copies remaining contents of specified buffer to payload. Small payloads are allocated from current heap slab of
+     * their size class, large payloads are allocated separately.
+     *
+     * @param buffer buffer
+     * @return payload
+     */
+    public synchronized ByteArray copyPayload(ByteBuffer buffer)
+    {
+        Assert.notNull(buffer);
+
+        int length = buffer.remaining();
+        if (length > MAX_SLAB_PAYLOAD_SIZE)
+        {
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            return new ByteArray(payload);
+        }
+
+        int sizeClass = getSizeClass(length);
+        byte[] slab = slabs[sizeClass];
+        int offset = slabPositions[sizeClass];
+        if (slab == null || offset + length > slab.length)
+        {
+            slab = new byte[SLAB_PAYLOAD_COUNT << (sizeClass + MIN_BUFFER_SIZE_SHIFT)];
+            slabs[sizeClass] = slab;
+            offset = 0;
+            slabCount++;
+        }
+
+        buffer.get(slab, offset, length);
+        slabPositions[sizeClass] = offset + length;
+
+        return new ByteArray(slab, offset, length);
+    }
+
+    public synchronized void clear()
+    {
+        for (int i = 0; i < buffers.length; i++)
+            buffers[i].clear();
+
+        poolSize = 0;
+        for (int i = 0; i < slabs.length; i++)
+        {
+            slabs[i] = null;
+            slabPositions[i] = 0;
+        }
+    }
+
+    public synchronized void dump(Json json)
+    {
+        json.put("poolSize", poolSize)
+            .put("hitCount", hitCount)
+            .put("missCount", missCount)
+            .put("releaseCount", releaseCount)
+            .put("discardCount", discardCount)
+            .put("borrowedCount", borrowedCount)
+            .put("slabCount", slabCount);
+    }
+
+    public synchronized String printStatistics()
+    {
+        return messages.statistics(poolSize, hitCount, missCount, releaseCount, discardCount, borrowedCount, slabCount).toString();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static SimpleDeque<ByteBuffer>[] createBuffers(int count)
+    {
+        SimpleDeque<ByteBuffer>[] buffers = new SimpleDeque[count];
+        for (int i = 0; i < count; i++)
+            buffers[i] = new SimpleDeque<ByteBuffer>();
+
+        return buffers;
+    }
+
+    private static int getSizeClass(int size)
+    {
+        if (size <= (1 << MIN_BUFFER_SIZE_SHIFT))
+            return 0;
+
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_BUFFER_SIZE_SHIFT;
+    }
+
+    private interface IMessages
+    {
+        @DefaultMessage("pool size: {0}, hits: {1}, misses: {2}, releases: {3}, discards: {4}, borrowed: {5}, slabs: {6}")
+        ILocalizedMessage statistics(long poolSize, long hitCount, long missCount, long releaseCount, long discardCount,
+            int borrowedCount, long slabCount);
+    }
+}
@@ -42,6 +42,8 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
     private static final IMessages messages = Messages.get(IMessages.class);
     private static final ILogger logger = Loggers.get(TcpNioAbstractChannel.class);
     protected final TcpNioDispatcher dispatcher;
+    private final TcpNioSelectorLoop selectorLoop;
+    private final int deferredOperations;
     protected final ITcpSocketChannel socketChannel;
     private final SelectionKey selectionKey;
     private volatile State state = State.NOT_CONNECTED;
@@ -90,6 +92,7 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
 
             this.dispatcher = dispatcher;
             this.socketChannel = socketChannel;
+            this.selectorLoop = dispatcher.nextSelectorLoop();
             
             if (parameters.rateController != null)
                 rateController = parameters.rateController.createController(this);
@@ -99,9 +102,20 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
             this.lastReadTime = dispatcher.getCurrentTime();
             this.lastWriteTime = dispatcher.getCurrentTime();
             
-            selectionKey = socketChannel.register(dispatcher.getSelector(), SelectionKey.OP_CONNECT, this);
+            if (selectorLoop.isMain() || selectorLoop.isLoopThread())
+            {
+                deferredOperations = 0;
+                selectionKey = selectorLoop.register(socketChannel, SelectionKey.OP_CONNECT, this);
+            }
+            else
+            {
+                deferredOperations = SelectionKey.OP_CONNECT;
+                selectionKey = selectorLoop.register(socketChannel, 0, this);
+            }
             
             socketChannel.connect(remoteAddress);
+            
+            dispatcher.addChannel(this);
         }
         catch (Exception e)
         {
@@ -142,6 +156,7 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
             
             this.dispatcher = dispatcher;
             this.socketChannel = socketChannel;
+            this.selectorLoop = dispatcher.nextSelectorLoop();
             
             if (parameters.rateController != null)
                 rateController = parameters.rateController.createController(this);
@@ -151,7 +166,18 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
             this.lastReadTime = dispatcher.getCurrentTime();
             this.lastWriteTime = dispatcher.getCurrentTime();
             
-            selectionKey = socketChannel.register(dispatcher.getSelector(), SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+            if (selectorLoop.isMain() || selectorLoop.isLoopThread())
+            {
+                deferredOperations = 0;
+                selectionKey = selectorLoop.register(socketChannel, SelectionKey.OP_READ | SelectionKey.OP_WRITE, this);
+            }
+            else
+            {
+                deferredOperations = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+                selectionKey = selectorLoop.register(socketChannel, 0, this);
+            }
+            
+            dispatcher.addChannel(this);
         }
         catch (Exception e)
         {
@@ -165,9 +191,15 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
             logger.log(LogLevel.DEBUG, getMarker(), messages.channelCreated(socketChannel.socket().getLocalSocketAddress(),
                 socketChannel.socket().getRemoteSocketAddress()));
 
-        handshake();
+        if (deferredOperations == 0)
+            handshake();
     }
 
+    protected final TcpBufferPool getBufferPool()
+    {
+        return selectorLoop.getBufferPool();
+    }
+    
     @Override
     public ITcpDispatcher getDispatcher()
     {
@@ -242,9 +274,9 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
         if (state == State.DISCONNECTED)
             return;
         
-        if (!dispatcher.isMainThread())
+        if (!selectorLoop.isLoopThread())
         {
-            dispatcher.addDisconnectEvent(this);
+            selectorLoop.addDisconnectEvent(this);
             return;
         }
         
@@ -300,9 +332,9 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
         if (state == State.DISCONNECTED)
             return;
         
-        if (!dispatcher.isMainThread())
+        if (!selectorLoop.isLoopThread())
         {
-            dispatcher.addCloseEvent(this);
+            selectorLoop.addCloseEvent(this);
             return;
         }
 
@@ -323,12 +355,37 @@ public abstract class TcpNioAbstractChannel extends TcpAbstractChannel
         selectionKey.cancel();
         IOs.close(socketChannel);
         state = State.DISCONNECTED;
+        dispatcher.removeChannel(this);
         
         doClose();
         
         return true;
     }
     
+    /**
+     * Activates channel registered in selector loop of another thread. Called when channel is completely initialized.
+     */
+    final void activate()
+    {
+        if (deferredOperations == 0)
+            return;
+        
+        selectorLoop.offer(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (state == State.DISCONNECTED)
+                    return;
+                
+                selectionKey.interestOps(deferredOperations);
+                
+                if (deferredOperations != SelectionKey.OP_CONNECT)
+                    handshake();
+            }
+        });
+    }
+    
     public final void handleConnect()
     {
         try
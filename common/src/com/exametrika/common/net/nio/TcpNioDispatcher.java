@@ -4,11 +4,11 @@
 
 package com.exametrika.common.net.nio;
 
-import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.nio.channels.SelectionKey;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.exametrika.common.compartment.ICompartment;
@@ -27,16 +27,11 @@ import com.exametrika.common.net.ITcpDispatcher;
 import com.exametrika.common.net.ITcpFactory;
 import com.exametrika.common.net.ITcpPacketChannel;
 import com.exametrika.common.net.ITcpServer;
-import com.exametrika.common.net.TcpAbstractChannel;
-import com.exametrika.common.net.TcpChannelException;
 import com.exametrika.common.net.TcpException;
 import com.exametrika.common.net.nio.socket.ITcpSelector;
-import com.exametrika.common.net.nio.socket.TcpSelector;
 import com.exametrika.common.tasks.ThreadInterruptedException;
 import com.exametrika.common.time.ITimeService;
 import com.exametrika.common.utils.Assert;
-import com.exametrika.common.utils.Exceptions;
-import com.exametrika.common.utils.IOs;
 
 
 
@@ -52,15 +47,18 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
     private static final ILogger logger = Loggers.get(TcpNioDispatcher.class);
     private final long channelTimeout;
     private final long maxChannelIdlePeriod;
-    private final ITcpSelector selector;
+    private final TcpNioSelectorLoop mainLoop;
+    private final TcpNioSelectorLoop[] selectorLoops;
+    private final AtomicInteger nextSelectorLoop = new AtomicInteger();
     private Compartment compartment;
     private final String name;
     private final IMarker marker;
     private final long cleanupPeriod;
-    private long lastCleanupTime;
     private volatile boolean stopped;
     private volatile int suspendCount;
     private final AtomicInteger serverCount = new AtomicInteger();
+    private final Set<TcpNioAbstractChannel> channels = Collections.newSetFromMap(
+        new ConcurrentHashMap<TcpNioAbstractChannel, Boolean>());
 
     /**
      * Creates a new object.
@@ -73,26 +71,51 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
      */
     public TcpNioDispatcher(long channelTimeout, long maxChannelIdlePeriod, String name)
     {
+        this(channelTimeout, maxChannelIdlePeriod, name, 0x10000, 0x1000000, 0);
+    }
+    
+    /**
+     * Creates a new object.
+     *
+     * @param channelTimeout channel timeout in milliseconds. Channel is forcefully closed when connect or disconnect time exceeds this timeout.
+     *        0 means infinite timeout
+     * @param maxChannelIdlePeriod maximal period in milliseconds when channel is idle (unused).
+     *        channel is gracefully disconnected when idle time exceeds this period. 0 means infinite period
+     * @param name dispatcher's name. Can be null
+     * @param maxPooledBufferSize maximal size of receive buffer taken from buffer pool of selector thread. Must be power
+     *        of two
+     * @param maxBufferPoolSize maximal total size of free buffers retained by buffer pools of all selector threads
+     * @param selectorThreadCount number of selector threads channels are distributed between. 0 means that all channels
+     *        are handled by compartment's main thread. Channel readers, writers and listeners must be thread safe if
+     *        selector threads are used
+     */
+    public TcpNioDispatcher(long channelTimeout, long maxChannelIdlePeriod, String name, int maxPooledBufferSize, 
+        long maxBufferPoolSize, int selectorThreadCount)
+    {
+        Assert.isTrue(selectorThreadCount >= 0);
+
         this.channelTimeout = channelTimeout;
         this.maxChannelIdlePeriod = maxChannelIdlePeriod;
         this.cleanupPeriod = 500;
-        
-        try
-        {
-            this.selector = new TcpSelector();
-        }
-        catch (IOException e)
-        {
-            throw new TcpException(e);
-        }
-        
         this.name = name;
         this.marker = Loggers.getMarker("local:" + this);
+        this.mainLoop = new TcpNioSelectorLoop(this, null, new TcpBufferPool(maxPooledBufferSize, 
+            maxBufferPoolSize / (selectorThreadCount + 1)));
+
+        selectorLoops = new TcpNioSelectorLoop[selectorThreadCount];
+        for (int i = 0; i < selectorThreadCount; i++)
+            selectorLoops[i] = new TcpNioSelectorLoop(this, "[" + getName() + "] tcp selector thread-" + i, 
+                new TcpBufferPool(maxPooledBufferSize, maxBufferPoolSize / (selectorThreadCount + 1)));
     }
     
     public ITcpSelector getSelector()
     {
-        return selector;
+        return mainLoop.getSelector();
+    }
+    
+    public int getSelectorThreadCount()
+    {
+        return selectorLoops.length;
     }
     
     public IMarker getMarker()
@@ -105,6 +128,21 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
         return name != null ? name : messages.unknown().toString();
     }
     
+    public long getChannelTimeout()
+    {
+        return channelTimeout;
+    }
+    
+    public long getMaxChannelIdlePeriod()
+    {
+        return maxChannelIdlePeriod;
+    }
+    
+    public long getCleanupPeriod()
+    {
+        return cleanupPeriod;
+    }
+    
     void decrementServerCount()
     {
         serverCount.decrementAndGet();
@@ -115,14 +153,38 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
         return compartment.isMainThread();
     }
     
-    void addDisconnectEvent(ITcpChannel channel)
+    boolean isStopRequested()
+    {
+        return compartment.isStopRequested();
+    }
+    
+    void offer(Runnable event)
+    {
+        compartment.offer(event);
+    }
+    
+    Set<TcpNioAbstractChannel> getChannels()
+    {
+        return channels;
+    }
+    
+    void addChannel(TcpNioAbstractChannel channel)
     {
-        compartment.offer(new DisconnectEvent(channel));
+        channels.add(channel);
     }
     
-    void addCloseEvent(ITcpChannel channel)
+    void removeChannel(TcpNioAbstractChannel channel)
     {
-        compartment.offer(new CloseEvent(channel));
+        channels.remove(channel);
+    }
+    
+    TcpNioSelectorLoop nextSelectorLoop()
+    {
+        if (selectorLoops.length == 0)
+            return mainLoop;
+
+        int index = (nextSelectorLoop.getAndIncrement() & Integer.MAX_VALUE) % selectorLoops.length;
+        return selectorLoops[index];
     }
 
     public void suspend()
@@ -135,9 +197,9 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
             suspendCount++;
             
             if (suspendCount == 1);
-                selector.wakeup();
+                mainLoop.getSelector().wakeup();
         }
-        
+
     }
     
     public void resume()
@@ -168,7 +230,11 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
     @Override
     public int getChannelCount()
     {
-        return selector.keys().size() - serverCount.get();
+        int count = mainLoop.getKeyCount();
+        for (TcpNioSelectorLoop selectorLoop : selectorLoops)
+            count += selectorLoop.getKeyCount();
+
+        return count - serverCount.get();
     }    
 
     @Override
@@ -179,6 +245,9 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
             suspendCount = 0;
             compartment.notify();
         }
+
+        for (TcpNioSelectorLoop selectorLoop : selectorLoops)
+            selectorLoop.wakeup();
     }
 
     @Override
@@ -186,9 +255,15 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
     {
         synchronized (compartment)
         {
-            Assert.isTrue(selector.keys().isEmpty());
+            Assert.isTrue(mainLoop.getKeyCount() == 0);
             
-            IOs.close(selector);
+            for (TcpNioSelectorLoop selectorLoop : selectorLoops)
+            {
+                Assert.isTrue(selectorLoop.getKeyCount() == 0);
+                selectorLoop.close();
+            }
+            
+            mainLoop.close();
             
             if (logger.isLogEnabled(LogLevel.DEBUG))
                 logger.log(LogLevel.DEBUG, marker, messages.dispatcherClosed());
@@ -199,7 +274,7 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
     public ITcpServer createServer(ITcpServer.Parameters parameters)
     {
         serverCount.incrementAndGet();
-        
+
         if (!stopped)
         {
             try
@@ -225,12 +300,14 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
             {
                 suspend();
                 
-                ITcpChannel channel = new TcpNioPacketChannel(remoteAddress, bindAddress, 
+                TcpNioPacketChannel channel = new TcpNioPacketChannel(remoteAddress, bindAddress, 
                     (ITcpPacketChannel.Parameters)parameters, this);
                 
                 if (parameters.data instanceof ITcpChannelAware)
                     ((ITcpChannelAware)parameters.data).setChannel(channel);
                 
+                channel.activate();
+                
                 return channel;
             }
             finally
@@ -238,7 +315,7 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
                 resume();
             }
         }
-        
+
         throw new TcpException(messages.dispatcherClosed());
     }
 
@@ -247,8 +324,11 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
     {
         Assert.notNull(compartment);
         Assert.isNull(this.compartment);
-        
+
         this.compartment = (Compartment)compartment;
+
+        for (TcpNioSelectorLoop selectorLoop : selectorLoops)
+            selectorLoop.start();
     }
 
     @Override
@@ -260,38 +340,13 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
             return;
         }
 
-        try
-        {
-            dispatch(period);
-            
-            cleanupChannels();
-        }
-        catch (ThreadInterruptedException e)
-        {
-            throw e;
-        }
-        catch (TcpChannelException e)
-        {
-            Exceptions.checkInterrupted(e);
-            
-            // Isolate exception
-            if (logger.isLogEnabled(LogLevel.ERROR))
-                logger.log(LogLevel.ERROR, ((TcpAbstractChannel)e.getChannel()).getMarker(), e);
-        }
-        catch (Exception e)
-        {
-            Exceptions.checkInterrupted(e);
-            
-            // Isolate exception
-            if (logger.isLogEnabled(LogLevel.ERROR))
-                logger.log(LogLevel.ERROR, e);
-        }
+        mainLoop.process(period);
     }
 
     @Override
     public void wakeup()
     {
-        selector.wakeup();
+        mainLoop.getSelector().wakeup();
     }
 
     @Override
@@ -299,7 +354,7 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
     {
         if (stopRequested)
             return canStop();
-        
+
         return false;
     }
 
@@ -309,115 +364,23 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
         return getName();
     }
 
-    private void dispatch(long period)
-    {
-        try
-        {
-            if (period > 0)
-                selector.select(period);
-            else
-                selector.selectNow();
-        }
-        catch (IOException e)
-        {
-            throw new TcpException(e);
-        }
-        
-        if (!selector.selectedKeys().isEmpty())
-        {
-            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();)
-            {
-                SelectionKey key = it.next();
-                
-                if (key.attachment() instanceof TcpNioAbstractChannel)
-                {
-                    TcpNioAbstractChannel channel = (TcpNioAbstractChannel)key.attachment();
-                    boolean canRemove = true;
-                       
-                    if (!key.isValid())
-                        channel.close();
-                    else if (key.isConnectable())
-                        channel.handleConnect();
-                    else 
-                    {
-                        if (key.isReadable() || channel.hasReadData())
-                            canRemove = channel.handleRead();
-                        
-                        if (key.isValid() && key.isWritable())
-                            channel.handleWrite();
-                    }
-                    
-                    if (canRemove)
-                        it.remove();
-                }
-                else if (key.attachment() instanceof TcpNioServer)
-                {
-                    TcpNioServer server = (TcpNioServer)key.attachment();
-                    
-                    if (!key.isValid())
-                        server.close();
-                    else if (key.isAcceptable() && !compartment.isStopRequested())
-                        server.handleAccept();
-                    
-                    it.remove();
-                }
-                else
-                    Assert.error();
-            }
-        }
-    }
-
     private boolean canStop()
     {
-        try
+        boolean res = mainLoop.canStop();
+        for (TcpNioSelectorLoop selectorLoop : selectorLoops)
         {
-            for (SelectionKey key : selector.keys())
-            {
-                if (key.attachment() instanceof ITcpChannel)
-                {
-                    ITcpChannel channel = (ITcpChannel)key.attachment();
-                    if (channel.isConnected())
-                        channel.disconnect();
-                }
-                else if (key.attachment() instanceof ITcpServer)
-                {
-                    ITcpServer server = (ITcpServer)key.attachment();
-                    if (server.isOpened())
-                        server.close();
-                }
-                else
-                    Assert.error();
-            }
-        }
-        catch (ThreadInterruptedException e)
-        {
-            throw e;
+            if (!selectorLoop.canStop())
+                res = false;
         }
-        catch (TcpChannelException e)
-        {
-            Exceptions.checkInterrupted(e);
-            
-            // Isolate exception
-            if (logger.isLogEnabled(LogLevel.ERROR))
-                logger.log(LogLevel.ERROR, ((TcpAbstractChannel)e.getChannel()).getMarker(), e);
-        }
-        catch (Exception e)
-        {
-            Exceptions.checkInterrupted(e);
-            
-            // Isolate exception
-            if (logger.isLogEnabled(LogLevel.ERROR))
-                logger.log(LogLevel.ERROR, e);
-        }
-        
-        return selector.keys().isEmpty();
+
+        return res;
     }
 
     private void waitSuspended(long period)
     {
         if (period == 0)
             return;
-        
+
         synchronized (compartment)
         {
             try
@@ -431,80 +394,10 @@ public final class TcpNioDispatcher implements ITcpDispatcher, ITcpFactory, ICom
         }
     }
     
-    private void cleanupChannels()
-    {
-        long currentTime = compartment.getCurrentTime();
-        if (currentTime - lastCleanupTime < cleanupPeriod)
-            return;
-        
-        lastCleanupTime = currentTime;
-            
-        for (SelectionKey key : selector.keys())
-        {
-            if (!(key.attachment() instanceof TcpAbstractChannel))
-                continue;
-            
-            TcpAbstractChannel channel = (TcpAbstractChannel)key.attachment();
-            
-            channel.onTimer(this);
-            
-            long lastAccessTime = Math.max(channel.getLastReadTime(), channel.getLastWriteTime());
-            if (channelTimeout > 0 && !channel.isConnected() && currentTime - lastAccessTime > channelTimeout)
-            {
-                if (logger.isLogEnabled(LogLevel.DEBUG))
-                    logger.log(LogLevel.DEBUG, channel.getMarker(), messages.timedOutChannelClosing());
-                channel.close();
-            }
-                
-            if (maxChannelIdlePeriod > 0 && channel.isConnected() && currentTime - lastAccessTime > maxChannelIdlePeriod)
-            {
-                if (logger.isLogEnabled(LogLevel.DEBUG))
-                    logger.log(LogLevel.DEBUG, channel.getMarker(), messages.idleChannelDisconnecting());
-                channel.disconnect();
-            }
-        }
-    }
-
-    private static class DisconnectEvent implements Runnable
-    {
-        private final ITcpChannel channel;
-
-        public DisconnectEvent(ITcpChannel channel)
-        {
-            this.channel = channel;
-        }
-
-        @Override
-        public void run()
-        {
-            channel.disconnect();
-        }
-    }
-    
-    private static class CloseEvent implements Runnable
-    {
-        private final ITcpChannel channel;
-
-        public CloseEvent(ITcpChannel channel)
-        {
-            this.channel = channel;
-        }
-
-        @Override
-        public void run()
-        {
-            channel.close();
-        }
-    }
-    
     private interface IMessages
     {
         @DefaultMessage("TCP event dispatcher has been closed.")
         ILocalizedMessage dispatcherClosed();
-        @DefaultMessage("TCP channel is idle. Disconnecting...")
-        ILocalizedMessage idleChannelDisconnecting();
-        @DefaultMessage("TCP channel is timed out. Closing...")
-        ILocalizedMessage timedOutChannelClosing();
         @DefaultMessage("(unknown)")
         ILocalizedMessage unknown();
     }
@@ -27,7 +27,6 @@ import com.exametrika.common.net.ITcpPacketSerializer;
 import com.exametrika.common.net.TcpChannelException;
 import com.exametrika.common.net.TcpPacket;
 import com.exametrika.common.net.nio.socket.ITcpSocketChannel;
-import com.exametrika.common.net.nio.socket.TcpSocketChannel;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.IOs;
@@ -48,15 +47,20 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
     private static final ILogger logger = Loggers.get(TcpNioPacketChannel.class);
     private static final short MAGIC_HEADER = 0x1717;
     private static final short VERSION = 0x1;
+    private static final int HEADER_SIZE = 20;//magic_header(short) + version(short) + sequence(long) + size(int) + filesCount(int)
+    private static final int FILE_BUFFER_SIZE = 0x4000;
     private final int maxPacketSize;
     private final ITcpChannelHandshaker<T> channelHandshaker;
     private final ITcpPacketSerializer<T> packetSerializer;
     private final boolean disableFileDeletion;
     private volatile TcpPacket currentWritePacket;
+    private volatile List<TcpPacket> currentWritePackets;
     private volatile PacketInfo writeInfo;
     private T currentReadPacket;
-    private final ByteBuffer writeHeaderBuffer = ByteBuffer.allocate(20);//magic_header(short) + version(short) + sequence(long) + size(int) + filesCount(int)
-    private final ByteBuffer readHeaderBuffer = ByteBuffer.allocate(20);//magic_header(short) + version(short) + sequence(long) + size(int) + filesCount(int)
+    private final ByteBuffer writeHeaderBuffer = ByteBuffer.allocate(HEADER_SIZE);
+    private final ByteBuffer readHeaderBuffer = ByteBuffer.allocate(HEADER_SIZE);
+    private final PacketInfo readPacketInfo = new PacketInfo();
+    private final ByteBuffer[] readBuffers = new ByteBuffer[1];
     private PacketInfo readInfo;
     private long readSequenceNumber;
     private long writeSequenceNumber;
@@ -101,7 +105,7 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
     {
         Assert.notNull(packet);
         
-        if (currentWritePacket != null)
+        if (currentWritePacket != null || currentWritePackets != null)
             return false;
         
         if (logger.isLogEnabled(LogLevel.TRACE))
@@ -119,6 +123,37 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         return true;
     }
     
+    @Override
+    public boolean write(List<T> packets)
+    {
+        Assert.notNull(packets);
+        Assert.isTrue(!packets.isEmpty());
+        
+        if (currentWritePacket != null || currentWritePackets != null)
+            return false;
+        
+        List<TcpPacket> buffers = new ArrayList<TcpPacket>(packets.size());
+        for (T packet : packets)
+        {
+            if (logger.isLogEnabled(LogLevel.TRACE))
+                logger.log(LogLevel.TRACE, getMarker(), messages.packetWritten(Strings.wrap(packet.toString(), 4, 120)));
+            
+            TcpPacket buffer;
+            if (packetSerializer != null)
+                buffer = packetSerializer.serialize(packet);
+            else
+                buffer = (TcpPacket)packet;
+            
+            Assert.isTrue(buffer.getSize() >= 0 && (maxPacketSize == 0 || buffer.getSize() <= maxPacketSize));
+            Assert.isTrue(buffer.getFiles() == null);
+            
+            buffers.add(buffer);
+        }
+        
+        currentWritePackets = buffers;
+        return true;
+    }
+    
     @Override
     public boolean hasReadData()
     {
@@ -134,8 +169,12 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
           .put("writeSequence", writeSequenceNumber)
           .put("canWrite", canWrite())
           .put("writePacket", currentWritePacket != null)
+          .put("writePackets", currentWritePackets != null ? currentWritePackets.size() : 0)
           .put("writeInfo", writeInfo != null)
           .put("super.canWrite", super.canWrite());
+        
+        Json bufferPoolJson = json.putObject("bufferPool");
+        getBufferPool().dump(bufferPoolJson);
     }
 
     @Override
@@ -144,7 +183,7 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         if (isConnected() && rateController != null && !rateController.canWrite())
             return false;
                     
-        if (currentWritePacket != null || writeInfo != null)
+        if (currentWritePacket != null || currentWritePackets != null || writeInfo != null)
             return true;
         
         return super.canWrite();
@@ -204,14 +243,14 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
                 else
                     file = readInfo.files[readInfo.fileIndex];
                 
-                if (socketChannel.getClass() == TcpSocketChannel.class)
-                    n = file.getChannel().transferFrom(((TcpSocketChannel)socketChannel).getChannel(), readInfo.filePos, 
+                if (socketChannel.supportsFileTransfer())
+                    n = socketChannel.transferFrom(file.getChannel(), readInfo.filePos, 
                         readInfo.fileSizes[readInfo.fileIndex] - readInfo.filePos);
                 else
                 {
                     if (readInfo.fileBuffer == null)
                     {
-                        readInfo.fileBuffer = ByteBuffer.allocate(0x4000);
+                        readInfo.fileBuffer = getBufferPool().acquire(FILE_BUFFER_SIZE);
                         readInfo.fileBuffer.flip();
                     }
                     
@@ -268,8 +307,16 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
                 ByteBuffer readBuffer = readInfo.buffers[readInfo.buffers.length - 1];
                 readBuffer.flip();
                 
-                TcpPacket packet = new TcpPacket(Collections.singletonList(new ByteArray(readBuffer.array(), readBuffer.arrayOffset(),
-                    readBuffer.limit())), files, null);
+                ByteArray data;
+                if (readBuffer.isDirect())
+                    // Packet data can be referenced by lazily deserialized message parts, so it is copied from pooled buffer
+                    data = getBufferPool().copyPayload(readBuffer);
+                else
+                    data = new ByteArray(readBuffer.array(), readBuffer.arrayOffset(), readBuffer.limit());
+                
+                readInfo.release(getBufferPool());
+                
+                TcpPacket packet = new TcpPacket(Collections.singletonList(data), files, null);
                 
                 if (packetSerializer != null)
                     currentReadPacket = packetSerializer.deserialize(packet);
@@ -300,11 +347,11 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         if (!socketChannel.isConnected())
             return;
         
-        if (currentWritePacket == null && writeInfo == null)
+        if (currentWritePacket == null && currentWritePackets == null && writeInfo == null)
         {
             super.doWrite();
             
-            if (currentWritePacket == null)
+            if (currentWritePacket == null && currentWritePackets == null)
             {
                 updateWriteStatus();
                 return;
@@ -313,8 +360,24 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         
         try
         {
-            if (writeInfo == null && !writeHeader(currentWritePacket))
-                return;
+            if (writeInfo == null)
+            {
+                if (currentWritePacket == null && currentWritePackets != null)
+                {
+                    // Secured channels require record boundaries to be aligned with packet headers
+                    if (socketChannel.supportsGatheringWrite())
+                        writeHeaders(currentWritePackets);
+                    else
+                    {
+                        currentWritePacket = currentWritePackets.remove(0);
+                        if (currentWritePackets.isEmpty())
+                            currentWritePackets = null;
+                    }
+                }
+                
+                if (writeInfo == null && !writeHeader(currentWritePacket))
+                    return;
+            }
 
             Assert.notNull(writeInfo);
             
@@ -325,14 +388,14 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
             {
                 RandomAccessFile file = writeInfo.files[writeInfo.fileIndex];
                 
-                if (socketChannel.getClass() == TcpSocketChannel.class)
-                    n = file.getChannel().transferTo(writeInfo.filePos, writeInfo.fileSizes[writeInfo.fileIndex] - writeInfo.filePos, 
-                        ((TcpSocketChannel)socketChannel).getChannel());
+                if (socketChannel.supportsFileTransfer())
+                    n = socketChannel.transferTo(file.getChannel(), writeInfo.filePos, 
+                        writeInfo.fileSizes[writeInfo.fileIndex] - writeInfo.filePos);
                 else
                 {
                     if (writeInfo.fileBuffer == null)
                     {
-                        writeInfo.fileBuffer = ByteBuffer.allocate(0x4000);
+                        writeInfo.fileBuffer = getBufferPool().acquire(FILE_BUFFER_SIZE);
                         writeInfo.fileBuffer.flip();
                     }
                     
@@ -357,6 +420,7 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
             else if (socketChannel.flush())
             {
                 writeInfo.close(!disableFileDeletion);
+                writeInfo.release(getBufferPool());
                 writeInfo = null;
             }
             
@@ -382,11 +446,18 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         
         currentReadPacket = null;
         currentWritePacket = null;
+        currentWritePackets = null;
         if (readInfo != null)
+        {
             readInfo.close(true);
+            readInfo.release(getBufferPool());
+        }
         readInfo = null;
         if (writeInfo != null)
+        {
             writeInfo.close(true);
+            writeInfo.release(getBufferPool());
+        }
         writeInfo = null;
         readHeaderBuffer.rewind();
         writeHeaderBuffer.rewind();
@@ -407,10 +478,10 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
     @Override
     protected boolean flush()
     {
-        if (currentWritePacket != null || writeInfo != null)
+        if (currentWritePacket != null || currentWritePackets != null || writeInfo != null)
             doWrite();
         
-        return currentWritePacket == null && writeInfo == null;
+        return currentWritePacket == null && currentWritePackets == null && writeInfo == null;
     }
 
     private boolean readHeader() throws IOException
@@ -473,19 +544,30 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
             return false;
         }
 
-        readInfo = new PacketInfo();
+        readInfo = readPacketInfo;
+        readInfo.reset();
         readInfo.filesCount = readHeaderBuffer.getInt();
         
+        ByteBuffer readBuffer;
+        TcpBufferPool bufferPool = getBufferPool();
+        if (size <= bufferPool.getMaxBufferSize())
+        {
+            readBuffer = bufferPool.acquire(size);
+            readInfo.pooledBuffer = readBuffer;
+        }
+        else
+            readBuffer = ByteBuffer.allocate(size);
+        
         if (readInfo.filesCount > 0)
         {
             readInfo.buffers = new ByteBuffer[2];
             readInfo.buffers[0] = ByteBuffer.allocate(readInfo.filesCount * 8);
-            readInfo.buffers[1] = ByteBuffer.allocate(size);
+            readInfo.buffers[1] = readBuffer;
         }
         else
         {
-            readInfo.buffers = new ByteBuffer[1];
-            readInfo.buffers[0] = ByteBuffer.allocate(size);
+            readInfo.buffers = readBuffers;
+            readInfo.buffers[0] = readBuffer;
         }
         
         readHeaderBuffer.rewind();
@@ -567,6 +649,42 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         return true;
     }
 
+    private void writeHeaders(List<TcpPacket> packets)
+    {
+        int count = packets.size();
+        for (TcpPacket packet : packets)
+            count += packet.getBuffers().size();
+        
+        PacketInfo info = new PacketInfo();
+        info.buffers = new ByteBuffer[count];
+        
+        byte[] headers = new byte[packets.size() * HEADER_SIZE];
+        int k = 0;
+        for (int i = 0; i < packets.size(); i++)
+        {
+            TcpPacket packet = packets.get(i);
+            
+            ByteBuffer header = ByteBuffer.wrap(headers, i * HEADER_SIZE, HEADER_SIZE);
+            header.putShort(MAGIC_HEADER);
+            header.putShort(VERSION);
+            header.putLong(writeSequenceNumber++);
+            header.putInt(packet.getSize());
+            header.putInt(0);
+            header.position(i * HEADER_SIZE);
+            
+            info.buffers[k++] = header;
+            
+            for (int j = 0; j < packet.getBuffers().size(); j++)
+            {
+                ByteArray buffer = packet.getBuffers().get(j);
+                info.buffers[k++] = ByteBuffer.wrap(buffer.getBuffer(), buffer.getOffset(), buffer.getLength());
+            }
+        }
+        
+        currentWritePackets = null;
+        writeInfo = info;
+    }
+
     private static class PacketInfo
     {
         private ByteBuffer[] buffers;
@@ -577,6 +695,35 @@ public final class TcpNioPacketChannel<T> extends TcpNioAbstractChannel implemen
         private int fileIndex;
         private long filePos;
         private ByteBuffer fileBuffer;
+        private ByteBuffer pooledBuffer;
+        
+        public void reset()
+        {
+            buffers = null;
+            filesCount = 0;
+            fileNames = null;
+            files = null;
+            fileSizes = null;
+            fileIndex = 0;
+            filePos = 0;
+            fileBuffer = null;
+            pooledBuffer = null;
+        }
+        
+        public void release(TcpBufferPool bufferPool)
+        {
+            if (pooledBuffer != null)
+            {
+                bufferPool.release(pooledBuffer);
+                pooledBuffer = null;
+            }
+            
+            if (fileBuffer != null)
+            {
+                bufferPool.release(fileBuffer);
+                fileBuffer = null;
+            }
+        }
         
         public void close(boolean deleteFiles)
         {
@@ -0,0 +1,487 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+
+package com.exametrika.common.net.nio;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.exametrika.common.l10n.DefaultMessage;
+import com.exametrika.common.l10n.ILocalizedMessage;
+import com.exametrika.common.l10n.Messages;
+import com.exametrika.common.log.ILogger;
+import com.exametrika.common.log.LogLevel;
+import com.exametrika.common.log.Loggers;
+import com.exametrika.common.net.ITcpChannel;
+import com.exametrika.common.net.TcpAbstractChannel;
+import com.exametrika.common.net.TcpChannelException;
+import com.exametrika.common.net.TcpException;
+import com.exametrika.common.net.nio.socket.ITcpSelector;
+import com.exametrika.common.net.nio.socket.ITcpSocketChannel;
+import com.exametrika.common.net.nio.socket.TcpSelector;
+import com.exametrika.common.tasks.ThreadInterruptedException;
+import com.exametrika.common.tasks.impl.Daemon;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Exceptions;
+import com.exametrika.common.utils.IOs;
+
+
+
+/**
+ * The {@link TcpNioSelectorLoop} is a selector loop of {@link TcpNioDispatcher}. Main selector loop is driven by compartment's
+ * main thread and handles servers and channels of dispatcher without selector threads. Other selector loops are driven by
+ * their own threads. All events of particular channel are handled by the selector loop the channel is registered in.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+final class TcpNioSelectorLoop implements Runnable
+{
+    private static final IMessages messages = Messages.get(IMessages.class);
+    private static final ILogger logger = Loggers.get(TcpNioSelectorLoop.class);
+    private final TcpNioDispatcher dispatcher;
+    private final ITcpSelector selector;
+    private final TcpBufferPool bufferPool;
+    private final Daemon daemon;
+    private final ConcurrentLinkedQueue<Runnable> events;
+    private final Object registrationLock = new Object();
+    private int registrationCount;
+    private volatile Thread thread;
+    private volatile boolean stopped;
+    private long lastCleanupTime;
+
+    /**
+     * Creates a new object.
+     *
+     * @param dispatcher dispatcher
+     * @param name name of selector thread or null if selector loop is main selector loop
+     * @param bufferPool buffer pool of channels of selector loop
+     */
+    public TcpNioSelectorLoop(TcpNioDispatcher dispatcher, String name, TcpBufferPool bufferPool)
+    {
+        Assert.notNull(dispatcher);
+        Assert.notNull(bufferPool);
+
+        this.dispatcher = dispatcher;
+        this.bufferPool = bufferPool;
+
+        try
+        {
+            this.selector = new TcpSelector();
+        }
+        catch (IOException e)
+        {
+            throw new TcpException(e);
+        }
+
+        if (name != null)
+        {
+            daemon = new Daemon(this, name, null);
+            events = new ConcurrentLinkedQueue<Runnable>();
+        }
+        else
+        {
+            daemon = null;
+            events = null;
+        }
+    }
+
+    public ITcpSelector getSelector()
+    {
+        return selector;
+    }
+
+    public TcpBufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
+    public boolean isMain()
+    {
+        return daemon == null;
+    }
+
+    public boolean isLoopThread()
+    {
+        if (daemon == null)
+            return dispatcher.isMainThread();
+        else
+            return thread == Thread.currentThread();
+    }
+
+    public SelectionKey register(ITcpSocketChannel socketChannel, int operations, Object attachment) throws IOException
+    {
+        if (daemon == null || isLoopThread())
+            return socketChannel.register(selector, operations, attachment);
+
+        synchronized (registrationLock)
+        {
+            registrationCount++;
+        }
+
+        try
+        {
+            selector.wakeup();
+            return socketChannel.register(selector, operations, attachment);
+        }
+        finally
+        {
+            synchronized (registrationLock)
+            {
+                registrationCount--;
+                registrationLock.notifyAll();
+            }
+        }
+    }
+
+    public void offer(Runnable event)
+    {
+        Assert.notNull(event);
+
+        if (daemon == null)
+            dispatcher.offer(event);
+        else
+        {
+            events.offer(event);
+            selector.wakeup();
+        }
+    }
+
+    public void addDisconnectEvent(ITcpChannel channel)
+    {
+        offer(new DisconnectEvent(channel));
+    }
+
+    public void addCloseEvent(ITcpChannel channel)
+    {
+        offer(new CloseEvent(channel));
+    }
+
+    public int getKeyCount()
+    {
+        return selector.keys().size();
+    }
+
+    public void start()
+    {
+        if (daemon != null)
+            daemon.start();
+    }
+
+    public void close()
+    {
+        if (daemon != null)
+        {
+            stopped = true;
+            selector.wakeup();
+            daemon.stop();
+        }
+
+        IOs.close(selector);
+        bufferPool.clear();
+    }
+
+    public void process(long period)
+    {
+        try
+        {
+            dispatch(period);
+
+            cleanupChannels();
+        }
+        catch (ThreadInterruptedException e)
+        {
+            throw e;
+        }
+        catch (TcpChannelException e)
+        {
+            Exceptions.checkInterrupted(e);
+
+            // Isolate exception
+            if (logger.isLogEnabled(LogLevel.ERROR))
+                logger.log(LogLevel.ERROR, ((TcpAbstractChannel)e.getChannel()).getMarker(), e);
+        }
+        catch (Exception e)
+        {
+            Exceptions.checkInterrupted(e);
+
+            // Isolate exception
+            if (logger.isLogEnabled(LogLevel.ERROR))
+                logger.log(LogLevel.ERROR, e);
+        }
+    }
+
+    public boolean canStop()
+    {
+        if (daemon == null)
+            disconnectChannels();
+
+        return selector.keys().isEmpty();
+    }
+
+    public void wakeup()
+    {
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        thread = Thread.currentThread();
+
+        if (logger.isLogEnabled(LogLevel.DEBUG))
+            logger.log(LogLevel.DEBUG, dispatcher.getMarker(), messages.selectorLoopStarted(daemon));
+
+        while (!stopped)
+        {
+            waitRegistrations();
+
+            processEvents();
+
+            if (dispatcher.isStopRequested())
+                disconnectChannels();
+
+            process(dispatcher.getCleanupPeriod());
+        }
+
+        if (logger.isLogEnabled(LogLevel.DEBUG))
+            logger.log(LogLevel.DEBUG, dispatcher.getMarker(), messages.selectorLoopStopped(daemon));
+    }
+
+    @Override
+    public String toString()
+    {
+        return daemon != null ? daemon.toString() : dispatcher.getName();
+    }
+
+    private void disconnectChannels()
+    {
+        try
+        {
+            for (SelectionKey key : selector.keys())
+            {
+                if (key.attachment() instanceof ITcpChannel)
+                {
+                    ITcpChannel channel = (ITcpChannel)key.attachment();
+                    if (channel.isConnected())
+                        channel.disconnect();
+                }
+                else if (key.attachment() instanceof TcpNioServer)
+                {
+                    TcpNioServer server = (TcpNioServer)key.attachment();
+                    if (server.isOpened())
+                        server.close();
+                }
+                else
+                    Assert.error();
+            }
+        }
+        catch (ThreadInterruptedException e)
+        {
+            throw e;
+        }
+        catch (TcpChannelException e)
+        {
+            Exceptions.checkInterrupted(e);
+
+            // Isolate exception
+            if (logger.isLogEnabled(LogLevel.ERROR))
+                logger.log(LogLevel.ERROR, ((TcpAbstractChannel)e.getChannel()).getMarker(), e);
+        }
+        catch (Exception e)
+        {
+            Exceptions.checkInterrupted(e);
+
+            // Isolate exception
+            if (logger.isLogEnabled(LogLevel.ERROR))
+                logger.log(LogLevel.ERROR, e);
+        }
+    }
+
+    private void dispatch(long period)
+    {
+        try
+        {
+            if (period > 0)
+                selector.select(period);
+            else
+                selector.selectNow();
+        }
+        catch (IOException e)
+        {
+            throw new TcpException(e);
+        }
+
+        if (!selector.selectedKeys().isEmpty())
+        {
+            for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();)
+            {
+                SelectionKey key = it.next();
+
+                if (key.attachment() instanceof TcpNioAbstractChannel)
+                {
+                    TcpNioAbstractChannel channel = (TcpNioAbstractChannel)key.attachment();
+                    boolean canRemove = true;
+
+                    if (!key.isValid())
+                        channel.close();
+                    else if (key.isConnectable())
+                        channel.handleConnect();
+                    else
+                    {
+                        if (key.isReadable() || channel.hasReadData())
+                            canRemove = channel.handleRead();
+
+                        if (key.isValid() && key.isWritable())
+                            channel.handleWrite();
+                    }
+
+                    if (canRemove)
+                        it.remove();
+                }
+                else if (key.attachment() instanceof TcpNioServer)
+                {
+                    TcpNioServer server = (TcpNioServer)key.attachment();
+
+                    if (!key.isValid())
+                        server.close();
+                    else if (key.isAcceptable() && !dispatcher.isStopRequested())
+                        server.handleAccept();
+
+                    it.remove();
+                }
+                else
+                    Assert.error();
+            }
+        }
+    }
+
+    private void cleanupChannels()
+    {
+        long currentTime = dispatcher.getCurrentTime();
+        if (currentTime - lastCleanupTime < dispatcher.getCleanupPeriod())
+            return;
+
+        lastCleanupTime = currentTime;
+
+        long channelTimeout = dispatcher.getChannelTimeout();
+        long maxChannelIdlePeriod = dispatcher.getMaxChannelIdlePeriod();
+
+        for (SelectionKey key : selector.keys())
+        {
+            if (!(key.attachment() instanceof TcpAbstractChannel))
+                continue;
+
+            TcpAbstractChannel channel = (TcpAbstractChannel)key.attachment();
+
+            channel.onTimer(dispatcher);
+
+            long lastAccessTime = Math.max(channel.getLastReadTime(), channel.getLastWriteTime());
+            if (channelTimeout > 0 && !channel.isConnected() && currentTime - lastAccessTime > channelTimeout)
+            {
+                if (logger.isLogEnabled(LogLevel.DEBUG))
+                    logger.log(LogLevel.DEBUG, channel.getMarker(), messages.timedOutChannelClosing());
+                channel.close();
+            }
+
+            if (maxChannelIdlePeriod > 0 && channel.isConnected() && currentTime - lastAccessTime > maxChannelIdlePeriod)
+            {
+                if (logger.isLogEnabled(LogLevel.DEBUG))
+                    logger.log(LogLevel.DEBUG, channel.getMarker(), messages.idleChannelDisconnecting());
+                channel.disconnect();
+            }
+        }
+    }
+
+    private void waitRegistrations()
+    {
+        synchronized (registrationLock)
+        {
+            while (registrationCount > 0)
+            {
+                try
+                {
+                    registrationLock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ThreadInterruptedException(e);
+                }
+            }
+        }
+    }
+
+    private void processEvents()
+    {
+        while (true)
+        {
+            Runnable event = events.poll();
+            if (event == null)
+                break;
+
+            try
+            {
+                event.run();
+            }
+            catch (ThreadInterruptedException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                Exceptions.checkInterrupted(e);
+
+                // Isolate exception
+                if (logger.isLogEnabled(LogLevel.ERROR))
+                    logger.log(LogLevel.ERROR, e);
+            }
+        }
+    }
+
+    private static class DisconnectEvent implements Runnable
+    {
+        private final ITcpChannel channel;
+
+        public DisconnectEvent(ITcpChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run()
+        {
+            channel.disconnect();
+        }
+    }
+
+    private static class CloseEvent implements Runnable
+    {
+        private final ITcpChannel channel;
+
+        public CloseEvent(ITcpChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run()
+        {
+            channel.close();
+        }
+    }
+
+    private interface IMessages
+    {
+        @DefaultMessage("TCP channel is idle. Disconnecting...")
+        ILocalizedMessage idleChannelDisconnecting();
+        @DefaultMessage("TCP channel is timed out. Closing...")
+        ILocalizedMessage timedOutChannelClosing();
+        @DefaultMessage("Selector loop ''{0}'' has been started.")
+        ILocalizedMessage selectorLoopStarted(Object loop);
+        @DefaultMessage("Selector loop ''{0}'' has been stopped.")
+        ILocalizedMessage selectorLoopStopped(Object loop);
+    }
+}
@@ -27,7 +27,6 @@ import com.exametrika.common.net.ITcpConnectionFilter;
 import com.exametrika.common.net.ITcpDispatcher;
 import com.exametrika.common.net.ITcpPacketChannel;
 import com.exametrika.common.net.ITcpServer;
-import com.exametrika.common.net.TcpAbstractChannel;
 import com.exametrika.common.net.TcpException;
 import com.exametrika.common.net.nio.socket.ITcpServerSocketChannel;
 import com.exametrika.common.net.nio.socket.ITcpSocketChannel;
@@ -202,7 +201,7 @@ public final class TcpNioServer implements ITcpServer
             
             boolean allowConnection = true;
             if (!admin && connectionFilter != null)
-                allowConnection = connectionFilter.allow(remoteAddress, new ConnectionIterable(selectionKey.selector().keys()));
+                allowConnection = connectionFilter.allow(remoteAddress, new ConnectionIterable(dispatcher.getChannels()));
                 
             ITcpChannel.Parameters parameters = null;
             if (allowConnection)
@@ -217,7 +216,7 @@ public final class TcpNioServer implements ITcpServer
                 return;
             }
             
-            TcpAbstractChannel channel = new TcpNioPacketChannel((ITcpPacketChannel.Parameters)parameters, socketChannel, dispatcher);
+            TcpNioPacketChannel channel = new TcpNioPacketChannel((ITcpPacketChannel.Parameters)parameters, socketChannel, dispatcher);
             
             if (parameters.data instanceof ITcpChannelAware)
                 ((ITcpChannelAware)parameters.data).setChannel(channel);
@@ -225,6 +224,8 @@ public final class TcpNioServer implements ITcpServer
             if (admin)
                 channel.setAdmin();
             
+            channel.activate();
+            
             if (logger.isLogEnabled(LogLevel.DEBUG))
                 logger.log(LogLevel.DEBUG, channel.getMarker(), messages.channelAccepted());
         }
@@ -250,49 +251,43 @@ public final class TcpNioServer implements ITcpServer
 
     private static class ConnectionIterable implements Iterable<InetSocketAddress>
     {
-        private final Set<SelectionKey> keys;
+        private final Set<? extends ITcpChannel> channels;
 
-        public ConnectionIterable(Set<SelectionKey> keys)
+        public ConnectionIterable(Set<? extends ITcpChannel> channels)
         {
-            Assert.notNull(keys);
+            Assert.notNull(channels);
             
-            this.keys = keys;
+            this.channels = channels;
         }
         
         @Override
         public Iterator<InetSocketAddress> iterator()
         {
-            return new ConnectionIterator(keys);
+            return new ConnectionIterator(channels);
         }
     }
     
     private static class ConnectionIterator implements Iterator<InetSocketAddress>
     {
-        private final Iterator<SelectionKey> it;
-        private ITcpChannel channel;
+        private final Iterator<? extends ITcpChannel> it;
         
-        public ConnectionIterator(Set<SelectionKey> keys)
+        public ConnectionIterator(Set<? extends ITcpChannel> channels)
         {
-            Assert.notNull(keys);
+            Assert.notNull(channels);
             
-            it = keys.iterator();
-            channel = findNext();
+            it = channels.iterator();
         }
         
         @Override
         public boolean hasNext()
         {
-            return channel != null;
+            return it.hasNext();
         }
 
         @Override
         public InetSocketAddress next()
         {
-            Assert.checkState(channel != null);
-            
-            InetSocketAddress result = channel.getRemoteAddress();
-            channel = findNext();
-            return result;
+            return it.next().getRemoteAddress();
         }
 
         @Override
@@ -300,18 +295,6 @@ public final class TcpNioServer implements ITcpServer
         {
             Assert.supports(false);
         }
-        
-        private ITcpChannel findNext()
-        {
-            while (it.hasNext())
-            {
-                SelectionKey key = it.next();
-                if (key.attachment() instanceof ITcpChannel)
-                    return (ITcpChannel)key.attachment();
-            }
-            
-            return null;
-        }
     }
     
     private interface IMessages
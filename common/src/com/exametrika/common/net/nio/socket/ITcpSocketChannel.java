@@ -9,6 +9,7 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 
 import com.exametrika.common.log.IMarker;
@@ -47,6 +48,25 @@ public interface ITcpSocketChannel extends Closeable
     
     long write(ByteBuffer[] srcs) throws IOException;
     
+    /**
+     * Does channel support writing of several packets in single gathering write? Secured channels do not support it,
+     * because their record boundaries must be aligned with packet headers.
+     *
+     * @return true if channel supports gathering writes of several packets
+     */
+    boolean supportsGatheringWrite();
+    
+    /**
+     * Does channel support direct transfers between socket and files?
+     *
+     * @return true if channel supports {@link #transferFrom} and {@link #transferTo}
+     */
+    boolean supportsFileTransfer();
+    
+    long transferFrom(FileChannel file, long position, long count) throws IOException;
+    
+    long transferTo(FileChannel file, long position, long count) throws IOException;
+    
     boolean isRegistered();
     
     SelectionKey keyFor(ITcpSelector sel);
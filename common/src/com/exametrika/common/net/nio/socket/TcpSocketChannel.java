@@ -10,6 +10,7 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
@@ -154,6 +155,30 @@ public class TcpSocketChannel implements ITcpSocketChannel
         return write(srcs, 0, srcs.length);
     }
     
+    @Override
+    public boolean supportsGatheringWrite()
+    {
+        return true;
+    }
+    
+    @Override
+    public boolean supportsFileTransfer()
+    {
+        return true;
+    }
+    
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException
+    {
+        return file.transferFrom(channel, position, count);
+    }
+    
+    @Override
+    public long transferTo(FileChannel file, long position, long count) throws IOException
+    {
+        return file.transferTo(position, count, channel);
+    }
+    
     @Override
     public boolean isRegistered()
     {
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.NotYetConnectedException;
 import java.nio.channels.SocketChannel;
 
@@ -271,6 +272,32 @@ public final class TcpSslSocketChannel extends TcpSocketChannel
         return n;
     }
 
+    @Override
+    public boolean supportsGatheringWrite()
+    {
+        return false;
+    }
+    
+    @Override
+    public boolean supportsFileTransfer()
+    {
+        return false;
+    }
+    
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException
+    {
+        Assert.supports(false);
+        return 0;
+    }
+    
+    @Override
+    public long transferTo(FileChannel file, long position, long count) throws IOException
+    {
+        Assert.supports(false);
+        return 0;
+    }
+
     @Override
     public boolean flush() throws IOException
     {
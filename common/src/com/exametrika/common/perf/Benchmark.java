@@ -170,7 +170,7 @@ public final class Benchmark<T extends IProbe>
         callCount += probe.run();
     }
     
-    private void cleanUp()
+    static void cleanUp()
     {
         long usedMemoryBefore = getUsedMemory();
         for (int i = 0; i < 100; i++)
@@ -188,7 +188,7 @@ public final class Benchmark<T extends IProbe>
         }
     }
     
-    private long getUsedMemory()
+    private static long getUsedMemory()
     {
         Runtime runtime = Runtime.getRuntime();
         return runtime.totalMemory() - runtime.freeMemory();
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2008 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.perf;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.exametrika.common.utils.Assert;
+
+
+/**
+ * The {@link StatisticalBenchmark} represents benchmark measuring throughput, latency distribution and allocation rate of
+ * specified probe. Probe is run repeatedly during several warm-up and measurement iterations of fixed duration. Throughput
+ * is reported as mean of iteration throughputs with 99.9% confidence interval. Individual calls inside probe run are
+ * not timed, so latency percentiles are computed from sampled batch-mean latencies, i.e. durations of probe runs divided
+ * by number of calls performed in the run. Batch-mean latencies hide variation of calls inside single run and equal to
+ * single call latencies only if probe performs one call per run. Allocated bytes are measured for the thread running
+ * benchmark only and are not available if JVM does not support thread allocation accounting.
+ *
+ * @param <T> probe type
+ * @see Benchmark
+ * @threadsafety This class and its methods are not thread safe.
+ * @author Medvedev_A
+ */
+public final class StatisticalBenchmark<T extends IProbe>
+{
+    private static final int MAX_SAMPLE_COUNT = 100000;
+    private static final double[] T_QUANTILES = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850, 3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690,
+        3.674, 3.659, 3.646};
+    private static final double NORMAL_QUANTILE = 3.291;
+    private final T probe;
+    private final int warmUpIterationCount;
+    private final int iterationCount;
+    private final long iterationTime;
+    private final double[] throughputs;
+    private final long[] samples = new long[MAX_SAMPLE_COUNT];
+    private final Random random = new Random(0);
+    private int sampleCount;
+    private long sampledCount;
+    private long callCount;
+    private long totalTime;
+    private long allocatedBytes = -1;
+    private double throughput;
+    private double throughputError;
+    private long[] latencies;
+
+    /**
+     * Creates a new object with 5 warm-up iterations and 10 measurement iterations of 1 second each.
+     *
+     * @param probe probe to run
+     */
+    public StatisticalBenchmark(T probe)
+    {
+        this(probe, 5, 10, 1000000000L);
+    }
+
+    /**
+     * Creates a new object.
+     *
+     * @param probe probe to run
+     * @param warmUpIterationCount number of warm-up iterations
+     * @param iterationCount number of measurement iterations. Must be greater than 1
+     * @param iterationTime duration of single iteration in nanoseconds
+     */
+    public StatisticalBenchmark(T probe, int warmUpIterationCount, int iterationCount, long iterationTime)
+    {
+        Assert.notNull(probe);
+        Assert.isTrue(warmUpIterationCount >= 0);
+        Assert.isTrue(iterationCount > 1);
+        Assert.isTrue(iterationTime > 0);
+
+        this.probe = probe;
+        this.warmUpIterationCount = warmUpIterationCount;
+        this.iterationCount = iterationCount;
+        this.iterationTime = iterationTime;
+        this.throughputs = new double[iterationCount];
+
+        probe.beforeMeasure();
+
+        try
+        {
+            warmUp();
+
+            probe.afterWarmUp();
+
+            measure();
+        }
+        finally
+        {
+            probe.afterMeasure(callCount, callCount > 0 ? totalTime / callCount : 0, totalTime);
+        }
+    }
+
+    /**
+     * Returns probe to run.
+     *
+     * @return probe to run
+     */
+    public T getProbe()
+    {
+        return probe;
+    }
+
+    /**
+     * Returns total number of times calls in probe are executed during measurement iterations.
+     *
+     * @return total number of times calls in probe are executed
+     */
+    public long getCount()
+    {
+        return callCount;
+    }
+
+    /**
+     * Returns total time of measurement iterations in nanoseconds.
+     *
+     * @return total time of measurement iterations in nanoseconds
+     */
+    public long getTotalTime()
+    {
+        return totalTime;
+    }
+
+    /**
+     * Returns mean throughput of measurement iterations.
+     *
+     * @return mean throughput in calls per second
+     */
+    public double getThroughput()
+    {
+        return throughput;
+    }
+
+    /**
+     * Returns half-width of 99.9% confidence interval of mean throughput.
+     *
+     * @return half-width of confidence interval in calls per second
+     */
+    public double getThroughputError()
+    {
+        return throughputError;
+    }
+
+    /**
+     * Returns throughputs of measurement iterations.
+     *
+     * @return throughputs of measurement iterations in calls per second
+     */
+    public double[] getThroughputs()
+    {
+        return throughputs.clone();
+    }
+
+    /**
+     * Returns percentile of batch-mean latency, i.e. of duration of probe run divided by number of calls performed in the run.
+     *
+     * @param percentile percentile in range [0..100]
+     * @return batch-mean latency of call in nanoseconds
+     */
+    public long getBatchLatency(double percentile)
+    {
+        Assert.isTrue(percentile >= 0 && percentile <= 100);
+
+        if (latencies.length == 0)
+            return 0;
+
+        int index = (int)Math.ceil(percentile / 100 * latencies.length) - 1;
+        return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+    }
+
+    /**
+     * Returns number of bytes allocated by benchmark thread per single call.
+     *
+     * @return number of bytes allocated per single call or -1 if thread allocation accounting is not supported
+     */
+    public long getAllocatedBytes()
+    {
+        if (allocatedBytes == -1 || callCount == 0)
+            return -1;
+
+        return allocatedBytes / callCount;
+    }
+
+    public void print()
+    {
+        print("");
+    }
+
+    public void print(String message)
+    {
+        System.out.println(message + toString());
+    }
+
+    @Override
+    public String toString()
+    {
+        return MessageFormat.format("count: {0,number}; throughput: {1,number,#.##} +/- {2,number,#.##} ops/s (99.9%); " +
+            "batch-mean latency p50: {3,number} ns, p90: {4,number} ns, p99: {5,number} ns, p99.9: {6,number} ns, max: {7,number} ns; " +
+            "allocated: {8,number} bytes/op", callCount, throughput, throughputError, getBatchLatency(50),
+            getBatchLatency(90), getBatchLatency(99), getBatchLatency(99.9), getBatchLatency(100), getAllocatedBytes());
+    }
+
+    private void warmUp()
+    {
+        Benchmark.cleanUp();
+
+        for (int i = 0; i < warmUpIterationCount; i++)
+            runIteration(false);
+    }
+
+    private void measure()
+    {
+        Benchmark.cleanUp();
+
+        callCount = 0;
+        totalTime = 0;
+        sampleCount = 0;
+        sampledCount = 0;
+
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = null;
+        if (threadBean instanceof com.sun.management.ThreadMXBean &&
+            ((com.sun.management.ThreadMXBean)threadBean).isThreadAllocatedMemorySupported())
+        {
+            allocationBean = (com.sun.management.ThreadMXBean)threadBean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long startAllocatedBytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+
+        for (int i = 0; i < iterationCount; i++)
+        {
+            long iterationCallCount = callCount;
+            long iterationTotalTime = totalTime;
+
+            runIteration(true);
+
+            throughputs[i] = (callCount - iterationCallCount) * 1000000000d / (totalTime - iterationTotalTime);
+        }
+
+        if (allocationBean != null)
+            allocatedBytes = allocationBean.getThreadAllocatedBytes(threadId) - startAllocatedBytes;
+
+        double sum = 0;
+        for (int i = 0; i < iterationCount; i++)
+            sum += throughputs[i];
+        throughput = sum / iterationCount;
+
+        double squareSum = 0;
+        for (int i = 0; i < iterationCount; i++)
+            squareSum += (throughputs[i] - throughput) * (throughputs[i] - throughput);
+
+        double deviation = Math.sqrt(squareSum / (iterationCount - 1));
+        int degreesOfFreedom = iterationCount - 1;
+        double quantile = degreesOfFreedom <= T_QUANTILES.length ? T_QUANTILES[degreesOfFreedom - 1] : NORMAL_QUANTILE;
+        throughputError = quantile * deviation / Math.sqrt(iterationCount);
+
+        latencies = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(latencies);
+    }
+
+    private void runIteration(boolean measure)
+    {
+        long start = System.nanoTime();
+        long end = start + iterationTime;
+        long time = start;
+
+        while (time < end)
+        {
+            long count = probe.run();
+            long runEnd = System.nanoTime();
+
+            if (measure && count > 0)
+            {
+                callCount += count;
+                addSample((runEnd - time) / count);
+            }
+
+            time = runEnd;
+        }
+
+        if (measure)
+            totalTime += time - start;
+    }
+
+    private void addSample(long latency)
+    {
+        // Reservoir sampling keeps uniform sample of batch-mean latencies of all probe runs
+        sampledCount++;
+        if (sampleCount < samples.length)
+            samples[sampleCount++] = latency;
+        else
+        {
+            long index = (long)(random.nextDouble() * sampledCount);
+            if (index < samples.length)
+                samples[(int)index] = latency;
+        }
+    }
+}
@@ -3,6 +3,7 @@
  */
 package com.exametrika.common.rawdb;
 
+import java.util.List;
 import java.util.Map;
 
 
@@ -102,4 +103,16 @@ public interface IRawTransaction
      * @exception RawPageNotFoundException when page does not exist and transaction is read-only
      */
     IRawPage getPage(int fileIndex, long pageIndex);
+    
+    /**
+     * Returns pages of specified range. Pages which are not loaded yet are read from file by single vectored read.
+     *
+     * @param fileIndex file index
+     * @param startPageIndex index of first page
+     * @param pageCount number of pages
+     * @return pages
+     * @exception RawFileNotFoundException when file does not exist and transaction is read-only
+     * @exception RawPageNotFoundException when some page does not exist and transaction is read-only
+     */
+    List<IRawPage> getPages(int fileIndex, long startPageIndex, int pageCount);
 }
@@ -35,6 +35,7 @@ public final class RawDatabaseConfiguration extends Configuration
     private final Set<Flag> flags;
     private final long batchRunPeriod;
     private final long batchIdlePeriod;
+    private final int readerThreadCount;
     private final List<RawPageTypeConfiguration> pageTypes;
     private final ResourceAllocatorConfiguration resourceAllocator;
     
@@ -50,7 +51,7 @@ public final class RawDatabaseConfiguration extends Configuration
     }
     
     public RawDatabaseConfiguration(String name, List<String> paths, long flushPeriod, long maxFlushSize, long timerPeriod, 
-        long maxFileSize, Set<Flag> flags, long batchRunPeriod, long batchIdlePeriod, 
+        long maxFileSize, Set<Flag> flags, long batchRunPeriod, long batchIdlePeriod, int readerThreadCount,
         List<RawPageTypeConfiguration> pageTypes, ResourceAllocatorConfiguration resourceAllocator)
     {
         Assert.notNull(name);
@@ -60,6 +61,7 @@ public final class RawDatabaseConfiguration extends Configuration
         Assert.notNull(pageTypes);
         Assert.isTrue(!pageTypes.isEmpty());
         Assert.notNull(resourceAllocator);
+        Assert.isTrue(readerThreadCount >= 0);
         
         Map<String, RawPageTypeConfiguration> pageTypeMap = new LinkedHashMap<String, RawPageTypeConfiguration>();
         for (RawPageTypeConfiguration pageType : pageTypes)
@@ -74,6 +76,7 @@ public final class RawDatabaseConfiguration extends Configuration
         this.flags = Immutables.wrap(flags);
         this.batchRunPeriod = batchRunPeriod;
         this.batchIdlePeriod = batchIdlePeriod;
+        this.readerThreadCount = readerThreadCount;
         this.pageTypes = Immutables.wrap(pageTypes);
         this.resourceAllocator = resourceAllocator;
     }
@@ -123,6 +126,11 @@ public final class RawDatabaseConfiguration extends Configuration
         return batchIdlePeriod;
     }
     
+    public int getReaderThreadCount()
+    {
+        return readerThreadCount;
+    }
+    
     public List<RawPageTypeConfiguration> getPageTypes()
     {
         return pageTypes;
@@ -168,7 +176,8 @@ public final class RawDatabaseConfiguration extends Configuration
             flushPeriod == configuration.flushPeriod && maxFlushSize == configuration.maxFlushSize &&
             timerPeriod == configuration.timerPeriod && maxFileSize == configuration.maxFileSize &&
             flags.equals(configuration.flags) && batchRunPeriod == configuration.batchRunPeriod && 
-            batchIdlePeriod == configuration.batchIdlePeriod && pageTypes.equals(configuration.pageTypes) &&
+            batchIdlePeriod == configuration.batchIdlePeriod && readerThreadCount == configuration.readerThreadCount &&
+            pageTypes.equals(configuration.pageTypes) &&
             resourceAllocator.equals(configuration.resourceAllocator);
     }
     
@@ -176,7 +185,7 @@ public final class RawDatabaseConfiguration extends Configuration
     public int hashCode()
     {
         return Objects.hashCode(name, paths, flushPeriod, maxFlushSize, timerPeriod, maxFileSize, flags, 
-            batchRunPeriod, batchIdlePeriod, pageTypes, resourceAllocator);
+            batchRunPeriod, batchIdlePeriod, readerThreadCount, pageTypes, resourceAllocator);
     }
     
     @Override
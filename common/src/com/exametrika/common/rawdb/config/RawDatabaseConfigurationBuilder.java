@@ -34,6 +34,7 @@ public final class RawDatabaseConfigurationBuilder
     private Set<Flag> flags = Enums.of(Flag.NATIVE_MEMORY);
     private long batchRunPeriod = 100;
     private long batchIdlePeriod = 900;
+    private int readerThreadCount;
     private List<RawPageTypeConfigurationBuilder> pageTypes = new ArrayList<RawPageTypeConfigurationBuilder>();
     private ResourceAllocatorConfiguration resourceAllocator = new RootResourceAllocatorConfigurationBuilder().toConfiguration();
     
@@ -52,6 +53,7 @@ public final class RawDatabaseConfigurationBuilder
         timerPeriod = configuration.getTimerPeriod();
         maxFileSize = configuration.getMaxFileSize();
         flags = Enums.copyOf(configuration.getFlags());
+        readerThreadCount = configuration.getReaderThreadCount();
         
         for (RawPageTypeConfiguration pageType : configuration.getPageTypes())
             pageTypes.add(new RawPageTypeConfigurationBuilder(this, pageType));
@@ -125,6 +127,12 @@ public final class RawDatabaseConfigurationBuilder
         return this;
     }
     
+    public RawDatabaseConfigurationBuilder setReaderThreadCount(int value)
+    {
+        readerThreadCount = value;
+        return this;
+    }
+    
     public RawPageTypeConfigurationBuilder addPageType(String name, int pageSize)
     {
         RawPageTypeConfigurationBuilder builder = new RawPageTypeConfigurationBuilder(this, name, pageSize);
@@ -152,6 +160,6 @@ public final class RawDatabaseConfigurationBuilder
             pageTypes.add(new RawPageTypeConfigurationBuilder(this, "default", 0x4000).toConfiguration());
         
         return new RawDatabaseConfiguration(name, new ArrayList<String>(paths), flushPeriod, maxFlushSize, timerPeriod, maxFileSize, flags, 
-            batchRunPeriod, batchIdlePeriod, pageTypes, resourceAllocator);
+            batchRunPeriod, batchIdlePeriod, readerThreadCount, pageTypes, resourceAllocator);
     }
 }
@@ -23,16 +23,56 @@ public final class RawPageCategoryTypeConfiguration extends Configuration
     private final long initialPageCacheSize;
     private final double minPageCachePercentage;
     private final long maxPageIdlePeriod;
+    private final EvictionPolicy evictionPolicy;
+    private final double protectedPageCachePercentage;
+    private final double writebackPercentage;
+    private final boolean memoryMapped;
+    
+    /**
+     * Eviction policy of page cache.
+     */
+    public enum EvictionPolicy
+    {
+        /** Least recently used pages are evicted first. */
+        LRU,
+        
+        /** 
+         * Segmented LRU. Loaded pages are placed to probationary segment and are promoted to protected segment when they 
+         * are accessed again. Pages are evicted from probationary segment first, so that single sequential scan of many pages 
+         * does not evict frequently used pages from cache. 
+         */
+        SEGMENTED_LRU
+    }
     
     public RawPageCategoryTypeConfiguration(String name, long initialPageCacheSize, double minPageCachePercentage, long maxPageIdlePeriod)
+    {
+        this(name, initialPageCacheSize, minPageCachePercentage, maxPageIdlePeriod, EvictionPolicy.LRU, 80, 0);
+    }
+    
+    public RawPageCategoryTypeConfiguration(String name, long initialPageCacheSize, double minPageCachePercentage, long maxPageIdlePeriod,
+        EvictionPolicy evictionPolicy, double protectedPageCachePercentage, double writebackPercentage)
+    {
+        this(name, initialPageCacheSize, minPageCachePercentage, maxPageIdlePeriod, evictionPolicy, protectedPageCachePercentage, 
+            writebackPercentage, false);
+    }
+    
+    public RawPageCategoryTypeConfiguration(String name, long initialPageCacheSize, double minPageCachePercentage, long maxPageIdlePeriod,
+        EvictionPolicy evictionPolicy, double protectedPageCachePercentage, double writebackPercentage, boolean memoryMapped)
     {
         Assert.notNull(name);
         Assert.isTrue(minPageCachePercentage >= 90 && minPageCachePercentage <= 100);
+        Assert.notNull(evictionPolicy);
+        Assert.isTrue(protectedPageCachePercentage >= 0 && protectedPageCachePercentage <= 100);
+        Assert.isTrue(writebackPercentage >= 0 && writebackPercentage <= 50);
         
         this.name = name;
         this.initialPageCacheSize = initialPageCacheSize;
         this.minPageCachePercentage = minPageCachePercentage;
         this.maxPageIdlePeriod = maxPageIdlePeriod;
+        this.evictionPolicy = evictionPolicy;
+        this.protectedPageCachePercentage = protectedPageCachePercentage;
+        this.writebackPercentage = writebackPercentage;
+        this.memoryMapped = memoryMapped;
     }
 
     public String getName()
@@ -54,6 +94,46 @@ public final class RawPageCategoryTypeConfiguration extends Configuration
     {
         return maxPageIdlePeriod;
     }
+    
+    public EvictionPolicy getEvictionPolicy()
+    {
+        return evictionPolicy;
+    }
+    
+    /**
+     * Returns maximum size of protected segment of segmented LRU page cache in percents of page cache size.
+     *
+     * @return maximum size of protected segment in percents of page cache size
+     */
+    public double getProtectedPageCachePercentage()
+    {
+        return protectedPageCachePercentage;
+    }
+    
+    /**
+     * Returns size of writeback window in percents of page cache size. When page cache is nearly full, committed pages in
+     * writeback window (pages which are evicted next) are written in background by page flush thread, so that eviction
+     * finds clean pages and does not wait for disk writes. 0 disables background writeback.
+     *
+     * @return size of writeback window in percents of page cache size
+     */
+    public double getWritebackPercentage()
+    {
+        return writebackPercentage;
+    }
+    
+    /**
+     * Is page category memory mapped? Pages of memory mapped category, which are stored in data file, are not read to 
+     * page cache, but are accessed directly through read-only memory mapping of data file. Page is copied to page cache
+     * only when it is modified. Memory mapping is used only by page types allocated in native memory. Data files of memory
+     * mapped category must not be modified or truncated by other processes.
+     *
+     * @return true if page category is memory mapped
+     */
+    public boolean isMemoryMapped()
+    {
+        return memoryMapped;
+    }
 
     @Override
     public boolean equals(Object o)
@@ -66,13 +146,16 @@ public final class RawPageCategoryTypeConfiguration extends Configuration
         RawPageCategoryTypeConfiguration configuration = (RawPageCategoryTypeConfiguration)o;
         return name.equals(configuration.name) && initialPageCacheSize == configuration.initialPageCacheSize &&
             minPageCachePercentage == configuration.minPageCachePercentage &&
-            maxPageIdlePeriod == configuration.maxPageIdlePeriod;
+            maxPageIdlePeriod == configuration.maxPageIdlePeriod && evictionPolicy == configuration.evictionPolicy &&
+            protectedPageCachePercentage == configuration.protectedPageCachePercentage &&
+            writebackPercentage == configuration.writebackPercentage && memoryMapped == configuration.memoryMapped;
     }
     
     @Override
     public int hashCode()
     {
-        return Objects.hashCode(name, initialPageCacheSize, minPageCachePercentage, maxPageIdlePeriod);
+        return Objects.hashCode(name, initialPageCacheSize, minPageCachePercentage, maxPageIdlePeriod, evictionPolicy, 
+            protectedPageCachePercentage, writebackPercentage, memoryMapped);
     }
     
     @Override
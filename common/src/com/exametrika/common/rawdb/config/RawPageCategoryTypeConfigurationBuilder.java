@@ -3,6 +3,7 @@
  */
 package com.exametrika.common.rawdb.config;
 
+import com.exametrika.common.rawdb.config.RawPageCategoryTypeConfiguration.EvictionPolicy;
 import com.exametrika.common.utils.Assert;
 
 
@@ -22,6 +23,10 @@ public final class RawPageCategoryTypeConfigurationBuilder
     private long initialPageCacheSize = 10000000;
     private double minPageCachePercentage = 90;
     private long maxPageIdlePeriod = 600000;
+    private EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    private double protectedPageCachePercentage = 80;
+    private double writebackPercentage;
+    private boolean memoryMapped;
     
     public RawPageCategoryTypeConfigurationBuilder(RawPageTypeConfigurationBuilder parent, String name)
     {
@@ -42,6 +47,10 @@ public final class RawPageCategoryTypeConfigurationBuilder
         initialPageCacheSize = configuration.getInitialPageCacheSize();
         minPageCachePercentage = configuration.getMinPageCachePercentage();
         maxPageIdlePeriod = configuration.getMaxPageIdlePeriod();
+        evictionPolicy = configuration.getEvictionPolicy();
+        protectedPageCachePercentage = configuration.getProtectedPageCachePercentage();
+        writebackPercentage = configuration.getWritebackPercentage();
+        memoryMapped = configuration.isMemoryMapped();
     }
     
     public RawPageCategoryTypeConfigurationBuilder setInitialPageCacheSize(long value)
@@ -62,6 +71,36 @@ public final class RawPageCategoryTypeConfigurationBuilder
         return this;
     }
 
+    public RawPageCategoryTypeConfigurationBuilder setEvictionPolicy(EvictionPolicy value)
+    {
+        Assert.notNull(value);
+        
+        evictionPolicy = value;
+        return this;
+    }
+    
+    public RawPageCategoryTypeConfigurationBuilder setProtectedPageCachePercentage(double value)
+    {
+        Assert.isTrue(value >= 0 && value <= 100);
+        
+        protectedPageCachePercentage = value;
+        return this;
+    }
+    
+    public RawPageCategoryTypeConfigurationBuilder setWritebackPercentage(double value)
+    {
+        Assert.isTrue(value >= 0 && value <= 50);
+        
+        writebackPercentage = value;
+        return this;
+    }
+    
+    public RawPageCategoryTypeConfigurationBuilder setMemoryMapped(boolean value)
+    {
+        memoryMapped = value;
+        return this;
+    }
+
     public RawPageTypeConfigurationBuilder end()
     {
         return parent;
@@ -69,6 +108,7 @@ public final class RawPageCategoryTypeConfigurationBuilder
     
     public RawPageCategoryTypeConfiguration toConfiguration()
     {
-        return new RawPageCategoryTypeConfiguration(name, initialPageCacheSize, minPageCachePercentage, maxPageIdlePeriod);
+        return new RawPageCategoryTypeConfiguration(name, initialPageCacheSize, minPageCachePercentage, maxPageIdlePeriod, 
+            evictionPolicy, protectedPageCachePercentage, writebackPercentage, memoryMapped);
     }
 }
@@ -12,6 +12,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.Arrays;
 
 import com.exametrika.common.l10n.DefaultMessage;
 import com.exametrika.common.l10n.ILocalizedMessage;
@@ -33,7 +37,9 @@ import com.exametrika.common.utils.Out;
 
 
 /**
- * The {@link RawDataFile} is an implementation of {@link IRawDataFile}.
+ * The {@link RawDataFile} is an implementation of {@link IRawDataFile}. Data file detects sequential loading of pages
+ * and reads ahead following pages by single vectored read, asynchronous prefetching of next read-ahead window into IO cache
+ * is initiated at the same time.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
@@ -42,6 +48,10 @@ public final class RawDataFile implements IRawDataFile
 {
     private static final IMessages messages = Messages.get(IMessages.class);
     private static final ILogger logger = Loggers.get(RawDataFile.class);
+    private static final int READ_AHEAD_THRESHOLD = 3;
+    private static final int MAX_READ_AHEAD_PAGE_COUNT = 32;
+    private static final int MAX_BATCH_PAGE_COUNT = 256;
+    private static final int MAPPED_SEGMENT_SIZE = 0x4000000;
     private final RawFileCache fileCache;
     private final int pathIndex;
     private final String name;
@@ -58,8 +68,11 @@ public final class RawDataFile implements IRawDataFile
     private boolean preload;
     private ReadMode readMode = ReadMode.NORMAL;
     private RandomAccessFile file;
+    private MappedByteBuffer[] mappedSegments;
     private TLongObjectMap<RawPage> pages = new TLongObjectHashMap<RawPage>();
     private long loadedPageCount;
+    private long lastLoadedPageIndex = -1;
+    private int sequentialPageCount;
     private boolean isNew;
     private boolean deleted;
     private boolean truncated;
@@ -182,6 +195,42 @@ public final class RawDataFile implements IRawDataFile
         return createPage(pageIndex, readOnly, cachingEnabled, proxy);
     }
     
+    /**
+     * Loads pages of specified range, which are not loaded yet. Consecutive pages are read from file by single vectored read.
+     *
+     * @param startPageIndex index of first page
+     * @param endPageIndex index of last + 1 page
+     */
+    public void loadPages(long startPageIndex, long endPageIndex)
+    {
+        Assert.isTrue(startPageIndex >= 0);
+        
+        if (preload)
+            preloadPages();
+        
+        if (deleted || !exists)
+            return;
+        
+        endPageIndex = Math.min(endPageIndex, Math.min(Math.min(size, flushSize), maxFileSize) / pageSize);
+        long pageIndex = startPageIndex;
+        while (pageIndex < endPageIndex)
+        {
+            if (pages.containsKey(pageIndex))
+            {
+                pageIndex++;
+                continue;
+            }
+            
+            long batchEndPageIndex = pageIndex + 1;
+            while (batchEndPageIndex < endPageIndex && batchEndPageIndex - pageIndex < MAX_BATCH_PAGE_COUNT && 
+                !pages.containsKey(batchEndPageIndex))
+                batchEndPageIndex++;
+            
+            readPages(pageIndex, (int)(batchEndPageIndex - pageIndex));
+            pageIndex = batchEndPageIndex;
+        }
+    }
+    
     public void unloadPage(long pageIndex)
     {
         RawPage page = pages.remove(pageIndex);
@@ -202,6 +251,10 @@ public final class RawDataFile implements IRawDataFile
         Assert.checkState(!readOnly);
         Assert.isTrue(region.getLength() == pageSize);
         
+        // Mapped region is a view of the same page in file
+        if (region instanceof RawMappedReadRegion)
+            return;
+        
         ByteBuffer buffer = region.getBuffer();
         
         boolean interceptResult = RawDatabaseInterceptor.INSTANCE.onBeforeFileWritten(database.getInterceptId());
@@ -277,6 +330,7 @@ public final class RawDataFile implements IRawDataFile
         {
             file.setLength(size);
             flushSize = size;
+            mappedSegments = null;
         }
         catch (IOException e)
         {
@@ -296,6 +350,7 @@ public final class RawDataFile implements IRawDataFile
             
             IOs.close(file);
             file = null;
+            mappedSegments = null;
             
             pages = new TLongObjectHashMap<RawPage>();
             loadedPageCount = 0;
@@ -580,14 +635,9 @@ public final class RawDataFile implements IRawDataFile
     
     private void preloadPages()
     {
-        if (exists && !deleted)
-        {
-            long pageCount = size / pageSize;
-            for (long i = 0; i < pageCount; i++)
-                createPage(i, false, true, null);
-        }
-        
         preload = false;
+        
+        loadPages(0, size / pageSize);
     }
     
     private RawPage createPage(long pageIndex, boolean readOnly, boolean cachingEnabled, RawPageProxy proxy)
@@ -603,6 +653,16 @@ public final class RawDataFile implements IRawDataFile
             return null;
         
         RawRegion region = loadPage(pageIndex);
+        RawPage page = addPage(pageIndex, region, cachingEnabled, proxy);
+        
+        if (cachingEnabled && exists)
+            readAhead(pageIndex);
+        
+        return page;
+    }
+    
+    private RawPage addPage(long pageIndex, RawRegion region, boolean cachingEnabled, RawPageProxy proxy)
+    {
         RawPage page = database.getPagePool().remove();
         if (page != null)
             page.init(pageSize, pageIndex, this, region, cachingEnabled, proxy);
@@ -614,6 +674,7 @@ public final class RawDataFile implements IRawDataFile
             pages.put(pageIndex, page);
             loadedPageCount++;
             
+            long newFileSize = (pageIndex + 1) * pageSize;
             if (newFileSize > size)
             {
                 size = newFileSize;
@@ -626,8 +687,115 @@ public final class RawDataFile implements IRawDataFile
         return page;
     }
     
+    private void readAhead(long pageIndex)
+    {
+        if (readMode == ReadMode.RANDOM)
+            return;
+        
+        if (pageIndex == lastLoadedPageIndex + 1)
+            sequentialPageCount++;
+        else
+            sequentialPageCount = 0;
+        
+        lastLoadedPageIndex = pageIndex;
+        
+        if (readMode != ReadMode.SEQUENTIAL && sequentialPageCount < READ_AHEAD_THRESHOLD)
+            return;
+        
+        // Read-ahead window is limited by small part of page cache, so that read ahead pages are not evicted before use
+        int readAheadPageCount = (int)Math.min(MAX_READ_AHEAD_PAGE_COUNT, pageCache.getMaxPageCacheSize() / pageSize / 20);
+        if (readAheadPageCount == 0)
+            return;
+        
+        long filePageCount = Math.min(Math.min(size, flushSize), maxFileSize) / pageSize;
+        long endPageIndex = Math.min(pageIndex + 1 + readAheadPageCount, filePageCount);
+        if (endPageIndex <= pageIndex + 1)
+            return;
+        
+        loadPages(pageIndex + 1, endPageIndex);
+        lastLoadedPageIndex = endPageIndex - 1;
+        
+        if (endPageIndex < filePageCount && file != null)
+            prefetch(endPageIndex, Math.min(endPageIndex + readAheadPageCount, filePageCount));
+    }
+    
+    private void readPages(long startPageIndex, int pageCount)
+    {
+        if (pageCache.isMemoryMapped() && !truncated)
+        {
+            for (int i = 0; i < pageCount; i++)
+                addPage(startPageIndex + i, mapPage(startPageIndex + i), true, null);
+            
+            return;
+        }
+        
+        RawRegion[] regions = new RawRegion[pageCount];
+        boolean[] fromPool = new boolean[pageCount];
+        ByteBuffer[] buffers = new ByteBuffer[pageCount];
+        Out<Boolean> regionFromPool = new Out<Boolean>(false);
+        for (int i = 0; i < pageCount; i++)
+        {
+            regions[i] = pageCache.acquireRegion(index, startPageIndex + i, true, false, regionFromPool);
+            fromPool[i] = regionFromPool.value;
+            buffers[i] = regions[i].getBuffer();
+        }
+        
+        synchronized (this)
+        {
+            if (file == null)
+                openFile();
+            
+            boolean interceptResult = RawDatabaseInterceptor.INSTANCE.onBeforeFileRead(database.getInterceptId());
+            int size = 0;
+            try
+            {
+                FileChannel channel = file.getChannel();
+                channel.position(startPageIndex * pageSize);
+                
+                while (buffers[pageCount - 1].hasRemaining())
+                {
+                    long n = channel.read(buffers);
+                    if (n == -1)
+                        break;
+                    
+                    fileCache.incrementRead((int)n);
+                    size += n;
+                }
+                
+                for (int i = 0; i < pageCount; i++)
+                {
+                    if (buffers[i].remaining() == pageSize)
+                    {
+                        if (fromPool[i])
+                            regions[i].init();
+                    }
+                    else if (buffers[i].hasRemaining())
+                        throw new RawFileCorruptedException();
+                }
+                
+                if (!disableIOPageCacheEviction)
+                    Files.advise(file.getFD(), startPageIndex * pageSize, pageCount * pageSize, AdviceType.POSIX_FADV_DONTNEED);
+            }
+            catch (IOException e)
+            {
+                throw new RawDatabaseException(e);
+            }
+            finally
+            {
+                if (interceptResult)
+                    RawDatabaseInterceptor.INSTANCE.onAfterFileRead(database.getInterceptId(), size);
+            }
+        }
+        
+        for (int i = 0; i < pageCount; i++)
+            addPage(startPageIndex + i, regions[i], true, null);
+    }
+    
     private RawRegion loadPage(long pageIndex)
     {
+        if (pageCache.isMemoryMapped() && !truncated && exists && (pageIndex + 1) * pageSize <= Math.min(size, flushSize))
+            return mapPage(pageIndex);
+        
         Out<Boolean> fromPool = new Out<Boolean>(false);
         RawRegion region = pageCache.acquireRegion(index, pageIndex, true, !exists, fromPool);
 
@@ -691,6 +859,50 @@ public final class RawDataFile implements IRawDataFile
         return region;
     }
     
+    private RawRegion mapPage(long pageIndex)
+    {
+        ByteBuffer buffer;
+        synchronized (this)
+        {
+            if (file == null)
+                openFile();
+            
+            // File is mapped by large segments, segment is remapped when file grows beyond mapped part of segment
+            long segmentSize = Math.max(MAPPED_SEGMENT_SIZE, pageSize);
+            int segmentIndex = (int)(pageIndex * pageSize / segmentSize);
+            long segmentPosition = segmentIndex * segmentSize;
+            int offset = (int)(pageIndex * pageSize - segmentPosition);
+            
+            if (mappedSegments == null)
+                mappedSegments = new MappedByteBuffer[segmentIndex + 1];
+            else if (segmentIndex >= mappedSegments.length)
+                mappedSegments = Arrays.copyOf(mappedSegments, segmentIndex + 1);
+            
+            MappedByteBuffer segment = mappedSegments[segmentIndex];
+            if (segment == null || segment.capacity() < offset + pageSize)
+            {
+                try
+                {
+                    segment = file.getChannel().map(MapMode.READ_ONLY, segmentPosition, Math.min(segmentSize, 
+                        flushSize - segmentPosition));
+                }
+                catch (IOException e)
+                {
+                    throw new RawDatabaseException(e);
+                }
+                
+                mappedSegments[segmentIndex] = segment;
+            }
+            
+            buffer = segment.duplicate();
+            buffer.position(offset);
+            buffer.limit(offset + pageSize);
+            buffer = buffer.slice();
+        }
+        
+        return pageCache.acquireMappedRegion(index, pageIndex, buffer);
+    }
+    
     private interface IMessages
     {
         @DefaultMessage("File ''{0}'' is created. File exists: {1}.")
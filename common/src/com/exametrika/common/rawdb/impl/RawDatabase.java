@@ -8,6 +8,7 @@ import java.nio.ByteOrder;
 import java.util.List;
 
 import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.compartment.ICompartmentProcessor;
 import com.exametrika.common.compartment.ICompartmentTimerProcessor;
 import com.exametrika.common.compartment.impl.Compartment;
 import com.exametrika.common.l10n.DefaultMessage;
@@ -40,7 +41,7 @@ import com.exametrika.common.utils.Strings;
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
  */
-public final class RawDatabase implements IRawDatabase, ITimeService, ICompartmentTimerProcessor
+public final class RawDatabase implements IRawDatabase, ITimeService, ICompartmentTimerProcessor, ICompartmentProcessor
 {
     private static final IMessages messages = Messages.get(IMessages.class);
     private static final ILogger logger = Loggers.get(RawDatabase.class);
@@ -269,6 +270,7 @@ public final class RawDatabase implements IRawDatabase, ITimeService, ICompartme
         
         this.configuration = preparedConfiguration;
 
+        transactionManager.setReaderThreadCount(preparedConfiguration.getReaderThreadCount());
         pageManager.setFlushPeriod(preparedConfiguration.getFlushPeriod());
         pageManager.setMaxFlushSize(preparedConfiguration.getMaxFlushSize());
         pagePool.setMaxPageIdlePeriod(preparedConfiguration.getPageTypes().get(0).getDefaultPageCategory().getMaxPageIdlePeriod());
@@ -277,6 +279,12 @@ public final class RawDatabase implements IRawDatabase, ITimeService, ICompartme
         return clearCache;
     }
 
+    @Override
+    public void process()
+    {
+        transactionManager.completeDurableTransactions();
+    }
+    
     @Override
     public void onTimer(long currentTime)
     {
@@ -306,11 +314,13 @@ public final class RawDatabase implements IRawDatabase, ITimeService, ICompartme
             }
 
             compartment.addTimerProcessor(this);
+            compartment.addProcessor(this);
             
             transactionLog.open();
         }
         
         pageManager.start();
+        transactionManager.start();
         
         if (compartmentOwner)
             compartment.start();
@@ -335,6 +345,7 @@ public final class RawDatabase implements IRawDatabase, ITimeService, ICompartme
             compartment.stop();
         
         pageManager.stop();
+        transactionManager.completeDurableTransactions();
         transactionManager.close();
         
         synchronized (this)
@@ -351,6 +362,7 @@ public final class RawDatabase implements IRawDatabase, ITimeService, ICompartme
             batchManager.clearCache();
 
             compartment.removeTimerProcessor(this);
+            compartment.removeProcessor(this);
             
             stopped = true;
             
@@ -0,0 +1,48 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.rawdb.impl;
+
+import java.nio.ByteBuffer;
+
+import com.exametrika.common.rawdb.IRawReadRegion;
+import com.exametrika.common.utils.Assert;
+
+
+
+/**
+ * The {@link RawMappedReadRegion} is an implementation of {@link IRawReadRegion} that is a view of read-only memory mapping
+ * of data file. Mapped region is never written, it is copied to region of page cache when page is modified. Mapped region
+ * is not reused and its memory is not freed explicitly, mapping is unmapped when all its regions become unreachable.
+ *
+ * @threadsafety This class and its methods are not thread safe.
+ * @author Medvedev-A
+ */
+public final class RawMappedReadRegion extends RawNativeReadRegion
+{
+    public RawMappedReadRegion(int fileIndex, long pageIndex, ByteBuffer buffer, int length)
+    {
+        super(fileIndex, pageIndex, buffer, 0, length);
+    }
+
+    @Override
+    public void init()
+    {
+        Assert.error();
+    }
+
+    @Override
+    public RawRegion toReadRegion()
+    {
+        return Assert.error();
+    }
+
+    @Override
+    public void clear()
+    {
+        Assert.checkState(ref != null);
+
+        ref.buffer = null;
+        ref.address = 0;
+    }
+}
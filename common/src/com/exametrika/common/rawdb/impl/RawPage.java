@@ -42,6 +42,7 @@ public final class RawPage implements IRawPage
     private boolean cached;
     private IRawPageData data;
     private int refreshIndex;
+    private boolean protectedPage;
 
     public RawPage(int size, long index, RawDataFile file, RawRegion region, boolean cached, RawPageProxy proxy)
     {
@@ -70,6 +71,7 @@ public final class RawPage implements IRawPage
         this.cached = cached;
         this.pageCache = file.getPageCache();
         this.refreshIndex = pageCache.getRefreshIndex();
+        this.protectedPage = false;
         
         if (proxy != null)
             this.proxy = proxy;
@@ -82,6 +84,21 @@ public final class RawPage implements IRawPage
         return refreshIndex;
     }
     
+    public RawPageCache getPageCache()
+    {
+        return pageCache;
+    }
+    
+    public boolean isProtected()
+    {
+        return protectedPage;
+    }
+    
+    public void setProtected(boolean value)
+    {
+        protectedPage = value;
+    }
+    
     public Element<RawPage> getElement()
     {
         return element;
@@ -347,7 +364,15 @@ public final class RawPage implements IRawPage
     {
         if (!stale && cached)
         {
-            refreshIndex = pageCache.renewPage(this, true);
+            transactionManager.lockPages();
+            try
+            {
+                refreshIndex = pageCache.renewPage(this, true);
+            }
+            finally
+            {
+                transactionManager.unlockPages();
+            }
             return false;
         }
         else
@@ -3,6 +3,7 @@
  */
 package com.exametrika.common.rawdb.impl;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
@@ -11,6 +12,7 @@ import com.exametrika.common.l10n.DefaultMessage;
 import com.exametrika.common.l10n.ILocalizedMessage;
 import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.rawdb.config.RawPageCategoryTypeConfiguration;
+import com.exametrika.common.rawdb.config.RawPageCategoryTypeConfiguration.EvictionPolicy;
 import com.exametrika.common.rawdb.impl.RawTransactionLog.FlushInfo;
 import com.exametrika.common.resource.IResourceAllocator;
 import com.exametrika.common.resource.IResourceConsumer;
@@ -23,7 +25,10 @@ import com.exametrika.common.utils.SimpleList.Element;
 
 
 /**
- * The {@link RawPageCache} is a page cache.
+ * The {@link RawPageCache} is a page cache. Pages are kept in LRU list, or in probationary and protected LRU lists when
+ * segmented LRU eviction policy is used. Pages are evicted from head of probationary list first, then from head of
+ * protected list. Committed pages near head of lists are written in background by page flush thread, so that eviction
+ * usually finds clean page and does not flush pages synchronously.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
@@ -36,6 +41,7 @@ public final class RawPageCache implements IResourceConsumer
     private RawPageCategoryTypeConfiguration configuration;
     private final RawPageType pageType;
     private final RawPageManager pageManager;
+    private final RawTransactionManager transactionManager;
     private final RawPagePool pagePool;
     private final RawRegionPool regionPool;
     private final RawRegionAllocator regionAllocator;
@@ -43,6 +49,8 @@ public final class RawPageCache implements IResourceConsumer
     private final IResourceAllocator resourceAllocator;
     private final boolean nativeMemory;
     private final SimpleList<RawPage> pages = new SimpleList<RawPage>();
+    private final SimpleList<RawPage> protectedPages = new SimpleList<RawPage>();
+    private long protectedPageCount;
     private volatile long pageCacheSize;
     private volatile long maxPageCacheSize;
     private volatile long quota;
@@ -52,6 +60,7 @@ public final class RawPageCache implements IResourceConsumer
     private long unloadPageCount;
     private long unloadByTimerCount;
     private long unloadByOverflowCount;
+    private long writebackCount;
     private int refCount;
     private int refreshIndex;
     private long refreshPageCount;
@@ -76,6 +85,7 @@ public final class RawPageCache implements IResourceConsumer
         this.configuration = configuration;
         this.pageType = pageType;
         this.pageManager = pageManager;
+        this.transactionManager = pageManager.getDatabase().getTransactionManager();
         this.pagePool = pagePool;
         this.regionPool = regionPool;
         this.regionAllocator = regionAllocator;
@@ -168,7 +178,7 @@ public final class RawPageCache implements IResourceConsumer
         if (refCount <= 0)
         {
             pageType.removePageCache(name);
-            Assert.checkState(pageCacheSize == 0 && pages.isEmpty());
+            Assert.checkState(pageCacheSize == 0 && pages.isEmpty() && protectedPages.isEmpty());
             
             resourceAllocator.unregister(getResourceConsumerName());
             setQuota(configuration.getInitialPageCacheSize());
@@ -186,7 +196,29 @@ public final class RawPageCache implements IResourceConsumer
         Element<RawPage> element = page.getElement();
         element.remove();
         element.reset();
-        pages.addLast(element);
+        
+        if (renew && configuration.getEvictionPolicy() == EvictionPolicy.SEGMENTED_LRU)
+        {
+            if (!page.isProtected())
+            {
+                page.setProtected(true);
+                protectedPageCount++;
+            }
+            
+            protectedPages.addLast(element);
+            demoteProtectedPages();
+        }
+        else
+        {
+            if (page.isProtected())
+            {
+                page.setProtected(false);
+                protectedPageCount--;
+            }
+            
+            pages.addLast(element);
+        }
+        
         page.setLastAccessTime(timeService.getCurrentTime());
         RawDatabaseInterceptor.INSTANCE.onPageLoaded(interceptId);
         updateRefreshPageCount(1, renew);
@@ -207,6 +239,12 @@ public final class RawPageCache implements IResourceConsumer
         element.remove();
         element.reset();
         
+        if (page.isProtected())
+        {
+            page.setProtected(false);
+            protectedPageCount--;
+        }
+        
         page.setStale();
         
         pagePool.add(page);
@@ -217,6 +255,12 @@ public final class RawPageCache implements IResourceConsumer
 
     public void migratePage(RawPage page)
     {
+        if (page.isProtected())
+        {
+            page.getPageCache().protectedPageCount--;
+            page.setProtected(false);
+        }
+        
         renewPage(page, false);
         page.migrate(this);
     }
@@ -225,14 +269,20 @@ public final class RawPageCache implements IResourceConsumer
     {
         for (RawPage page : pages.values())
             removePage(page);
+        for (RawPage page : protectedPages.values())
+            removePage(page);
     }
 
     public void close()
     {
         for (RawPage page : pages.values())
             removePage(page);
+        for (RawPage page : protectedPages.values())
+            removePage(page);
         
         pages.clear();
+        protectedPages.clear();
+        protectedPageCount = 0;
         
         resourceAllocator.unregister(getResourceConsumerName());
         setQuota(configuration.getInitialPageCacheSize());
@@ -257,26 +307,28 @@ public final class RawPageCache implements IResourceConsumer
     
     public void onTimer(long currentTime)
     {
-        if (!pages.isEmpty())
+        if (!pages.isEmpty() || !protectedPages.isEmpty())
         {
             refreshIndex++;
-            RawPage page = pages.getFirst().getValue();
-            if (currentTime - page.getLastAccessTime() > configuration.getMaxPageIdlePeriod())
+            if (isIdle(pages, currentTime) || isIdle(protectedPages, currentTime))
                 unloadPages(false);
             
             updateRefreshPageCount(0, false);
             unloadExcessive();
+            writeback();
         }
         
             RawDatabaseInterceptor.INSTANCE.onPageCache(interceptId, pageCacheSize, maxPageCacheSize, quota);
     }
     
+    public boolean isMemoryMapped()
+    {
+        return nativeMemory && configuration.isMemoryMapped();
+    }
+    
     public RawRegion acquireRegion(int fileIndex, long pageIndex, boolean readOnly, boolean init, Out<Boolean> fromPool)
     {
-        applyQuota();
-        
-        if (pageCacheSize > 0 && pageCacheSize + pageSize > maxPageCacheSize)
-            unloadPage();
+        ensureCapacity();
         
         RawRegion region = regionPool.remove(this);
         if (region == null)
@@ -299,9 +351,22 @@ public final class RawPageCache implements IResourceConsumer
         return region;
     }
     
+    public RawRegion acquireMappedRegion(int fileIndex, long pageIndex, ByteBuffer buffer)
+    {
+        ensureCapacity();
+        
+        RawRegion region = new RawMappedReadRegion(fileIndex, pageIndex, buffer, pageSize);
+        region.setUsed(this);
+        
+        return region;
+    }
+    
     public void releaseRegion(RawRegion region)
     {
-        regionPool.add(region);
+        if (region instanceof RawMappedReadRegion)
+            region.setFree();
+        else
+            regionPool.add(region);
     }
     
     @Override
@@ -335,7 +400,7 @@ public final class RawPageCache implements IResourceConsumer
     public String printStatistics()
     {
         return messages.statistics(!name.isEmpty() ? name : "default", configuration.toString(), maxPageCacheSize, pageCacheSize, unloadPageCount, 
-            unloadByOverflowCount, unloadByTimerCount).toString();
+            unloadByOverflowCount, unloadByTimerCount, protectedPageCount, writebackCount).toString();
     }
     
     @Override
@@ -344,28 +409,113 @@ public final class RawPageCache implements IResourceConsumer
         return getResourceConsumerName();
     }
     
+    private void ensureCapacity()
+    {
+        applyQuota();
+        
+        if (pageCacheSize > 0 && pageCacheSize + pageSize > maxPageCacheSize)
+        {
+            if (!transactionManager.isReadPhase())
+                unloadPage();
+            else
+                transactionManager.onPageCacheOverflow();
+        }
+    }
+    
     private void unloadPage()
     {
         unloadPageCount++;
-        if (!pages.isEmpty())
+        
+        int scanCount = Math.max(1, getWritebackPageCount());
+        RawPage page = findCleanPage(pages, scanCount);
+        if (page == null)
+            page = findCleanPage(protectedPages, scanCount);
+        
+        if (page != null)
         {
-            RawPage page = pages.getFirst().getValue();
-            Element<RawPage> committedElement = page.getCommittedElement();
-            
-            if (!page.isFlushing() && !page.isModified() && (!committedElement.isAttached() || committedElement.isRemoved())
-                && page.getRefreshIndex() != refreshIndex)
-            {
-                page.getFile().unloadPage(page.getIndex());
-                removePage(page);
-                RawDatabaseInterceptor.INSTANCE.onPageUnloaded(interceptId, false);
-                return;
-            }
+            page.getFile().unloadPage(page.getIndex());
+            removePage(page);
+            RawDatabaseInterceptor.INSTANCE.onPageUnloaded(interceptId, false);
+            return;
         }
 
         unloadPages(true);
         return;
     }
     
+    private RawPage findCleanPage(SimpleList<RawPage> pages, int scanCount)
+    {
+        for (Element<RawPage> element : pages)
+        {
+            if (scanCount-- == 0)
+                break;
+            
+            RawPage page = element.getValue();
+            if (!page.isFlushing() && !page.isModified() && !isCommitted(page) && page.getRefreshIndex() != refreshIndex)
+                return page;
+        }
+        
+        return null;
+    }
+    
+    private void writeback()
+    {
+        int writebackPageCount = getWritebackPageCount();
+        if (writebackPageCount == 0 || pageCacheSize + (long)writebackPageCount * pageSize <= maxPageCacheSize)
+            return;
+        
+        if (hasCommittedPages(pages, writebackPageCount) || hasCommittedPages(protectedPages, writebackPageCount))
+        {
+            writebackCount++;
+            pageManager.writeback();
+        }
+    }
+    
+    private boolean hasCommittedPages(SimpleList<RawPage> pages, int scanCount)
+    {
+        for (Element<RawPage> element : pages)
+        {
+            if (scanCount-- == 0)
+                break;
+            
+            if (isCommitted(element.getValue()))
+                return true;
+        }
+        
+        return false;
+    }
+    
+    private int getWritebackPageCount()
+    {
+        return (int)(maxPageCacheSize / pageSize * configuration.getWritebackPercentage() / 100);
+    }
+    
+    private boolean isCommitted(RawPage page)
+    {
+        Element<RawPage> committedElement = page.getCommittedElement();
+        return committedElement.isAttached() && !committedElement.isRemoved();
+    }
+    
+    private boolean isIdle(SimpleList<RawPage> pages, long currentTime)
+    {
+        return !pages.isEmpty() && currentTime - pages.getFirst().getValue().getLastAccessTime() > configuration.getMaxPageIdlePeriod();
+    }
+    
+    private void demoteProtectedPages()
+    {
+        long maxProtectedPageCount = (long)(maxPageCacheSize / pageSize * configuration.getProtectedPageCachePercentage() / 100);
+        while (protectedPageCount > maxProtectedPageCount)
+        {
+            Element<RawPage> element = protectedPages.getFirst();
+            element.remove();
+            element.reset();
+            element.getValue().setProtected(false);
+            protectedPageCount--;
+            
+            pages.addLast(element);
+        }
+    }
+    
     private void unloadPages(boolean exceedsMaxSize)
     {
         applyQuota();
@@ -384,17 +534,31 @@ public final class RawPageCache implements IResourceConsumer
             byTimer = true;
         }
         
-        List<FlushInfo> flushedPages = null;
+        List<FlushInfo> flushedPages = new ArrayList<FlushInfo>();
         
         long currentTime = timeService.getCurrentTime();
         
+        if (unloadPages(pages, exceedsMaxSize, byTimer, currentTime, flushedPages) || !exceedsMaxSize)
+            unloadPages(protectedPages, exceedsMaxSize, byTimer, currentTime, flushedPages);
+            
+        if (exceedsMaxSize && !flushedPages.isEmpty())
+        {
+            pageManager.addFlushedPages(flushedPages);
+            pageManager.flushPendingPages(false);
+            regionPool.updateFlushingRegions();
+        }
+    }
+    
+    private boolean unloadPages(SimpleList<RawPage> pages, boolean exceedsMaxSize, boolean byTimer, long currentTime, 
+        List<FlushInfo> flushedPages)
+    {
         long minPageCacheSize = (long)(maxPageCacheSize * configuration.getMinPageCachePercentage() / 100);
         for (Iterator<Element<RawPage>> it = pages.iterator(); it.hasNext(); )
         {
             RawPage page = it.next().getValue();
             
             if (exceedsMaxSize && page.getRefreshIndex() == refreshIndex)
-                break;
+                return false;
             
             if (currentTime - page.getLastAccessTime() > configuration.getMaxPageIdlePeriod() || 
                 (exceedsMaxSize && pageCacheSize - regionPool.getFlushingSize() > minPageCacheSize))
@@ -404,8 +568,6 @@ public final class RawPageCache implements IResourceConsumer
                     if (page.isModified())
                     {
                         page.commit();
-                        if (flushedPages == null)
-                            flushedPages = new ArrayList<FlushInfo>();
                         flushedPages.add(page.flush(false));
                     }
                 }
@@ -422,15 +584,10 @@ public final class RawPageCache implements IResourceConsumer
                 RawDatabaseInterceptor.INSTANCE.onPageUnloaded(interceptId, byTimer);
             }
             else
-                break;
-        }
-            
-        if (exceedsMaxSize && flushedPages != null)
-        {
-            pageManager.addFlushedPages(flushedPages);
-            pageManager.flushPendingPages(false);
-            regionPool.updateFlushingRegions();
+                return false;
         }
+        
+        return true;
     }
     
     private void updateRefreshPageCount(int count, boolean renew)
@@ -474,8 +631,8 @@ public final class RawPageCache implements IResourceConsumer
     private interface IMessages
     {
         @DefaultMessage("page cache ''{0}:{1}'' - max cache size: {2}, cache size: {3}, unload page count: {4}, " +
-            "unloadByOverflowCount: {5}, unloadByTimerCount: {6}")
+            "unloadByOverflowCount: {5}, unloadByTimerCount: {6}, protected page count: {7}, writeback count: {8}")
         ILocalizedMessage statistics(String category, String categoryType, long maxPageCacheSize, long pageCacheSize, 
-            long unloadPageCount, long unloadByOverflowCount, long unloadByTimerCount);
+            long unloadPageCount, long unloadByOverflowCount, long unloadByTimerCount, long protectedPageCount, long writebackCount);
     }
 }
@@ -45,8 +45,11 @@ public final class RawPageManager implements ITimerListener
     private long maxFlushSize;
     private boolean flushDisabled;
     private volatile long flushCount;
+    private volatile long durableSyncCount;
     private long committedSize;
     private volatile long flushSize;
+    private volatile boolean writebackRequested;
+    private volatile boolean durableSyncRequired;
     
     public RawPageManager(RawDatabase database, RawDatabaseConfiguration configuration)
     {
@@ -84,6 +87,11 @@ public final class RawPageManager implements ITimerListener
         return flushCount;
     }
     
+    public long getDurableSyncCount()
+    {
+        return durableSyncCount;
+    }
+    
     public void setTimerPeriod(long timerPeriod)
     {
         timer.setPeriod(timerPeriod);
@@ -165,7 +173,8 @@ public final class RawPageManager implements ITimerListener
                         durablePages.add(info);
                 }
                     
-                database.getTransactionLog().flushRedo(durablePages);
+                database.getTransactionLog().flushRedo(durablePages, false);
+                durableSyncRequired = true;
                 committedSize = 0;
             }
             
@@ -242,6 +251,36 @@ public final class RawPageManager implements ITimerListener
             flushPendingPages(true);
     }
     
+    /**
+     * Flushes committed pages to memory and requests page flush thread to write them to disk without waiting for
+     * flush period.
+     */
+    public void writeback()
+    {
+        flush(false);
+        
+        writebackRequested = true;
+        timer.signal();
+    }
+    
+    public boolean isDurableSyncRequired()
+    {
+        return durableSyncRequired;
+    }
+    
+    /**
+     * Synchronizes redo log with disk, if durable transactions have been committed since last synchronization.
+     */
+    public void syncDurable()
+    {
+        if (!durableSyncRequired)
+            return;
+        
+        durableSyncRequired = false;
+        database.getTransactionLog().syncRedo();
+        durableSyncCount++;
+    }
+    
     public void addFlushedPages(List<FlushInfo> pages)
     {
         synchronized (flushedPages)
@@ -287,8 +326,10 @@ public final class RawPageManager implements ITimerListener
     {
         long currentTime = database.getCurrentTime();
         
-        if (lastFlushToDiskTime == 0 || currentTime - lastFlushToDiskTime >= flushPeriod || flushSize > maxFlushSize)
+        if (lastFlushToDiskTime == 0 || currentTime - lastFlushToDiskTime >= flushPeriod || flushSize > maxFlushSize || 
+            writebackRequested)
         {
+            writebackRequested = false;
             flushPendingPages(true);
             lastFlushToDiskTime = currentTime;
         }
@@ -316,12 +357,12 @@ public final class RawPageManager implements ITimerListener
     
     public String printStatistics()
     {
-        return messages.statistics(flushCount).toString();
+        return messages.statistics(flushCount, durableSyncCount).toString();
     }
     
     private interface IMessages
     {
-        @DefaultMessage("page manager - flush count: {0}")
-        ILocalizedMessage statistics(long flushCount);
+        @DefaultMessage("page manager - flush count: {0}, durable sync count: {1}")
+        ILocalizedMessage statistics(long flushCount, long durableSyncCount);
     }
 }
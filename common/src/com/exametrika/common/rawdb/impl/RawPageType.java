@@ -156,6 +156,12 @@ public final class RawPageType
         RawDatabaseInterceptor.INSTANCE.onPageTypeClosed(interceptId);
     }
     
+    public void unloadExcessive()
+    {
+        for (RawPageCache pageCache : pageCaches.values())
+            pageCache.unloadExcessive();
+    }
+    
     public void onTimer(long currentTime)
     {
         long maxPageCacheSize = 0;
@@ -68,6 +68,12 @@ public final class RawPageTypeManager
             pageType.close();
     }
     
+    public void unloadExcessive()
+    {
+        for (RawPageType pageType: pageTypes)
+            pageType.unloadExcessive();
+    }
+    
     public void onTimer(long currentTime)
     {
         for (RawPageType pageType: pageTypes)
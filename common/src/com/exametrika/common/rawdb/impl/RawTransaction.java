@@ -3,7 +3,9 @@
  */
 package com.exametrika.common.rawdb.impl;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.exametrika.common.compartment.ICompartmentTaskSize;
@@ -15,6 +17,7 @@ import com.exametrika.common.log.LogLevel;
 import com.exametrika.common.log.Loggers;
 import com.exametrika.common.rawdb.IRawDataFile;
 import com.exametrika.common.rawdb.IRawOperation;
+import com.exametrika.common.rawdb.IRawPage;
 import com.exametrika.common.rawdb.IRawTransaction;
 import com.exametrika.common.rawdb.RawBindInfo;
 import com.exametrika.common.rawdb.RawDatabaseException;
@@ -44,6 +47,7 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
     private Map<String, Object> parameters;
     private boolean completed;
     private Throwable exception;
+    private boolean durableDeferred;
     private boolean cachingEnabled = true;
     private int nonCachedPagesInvalidationQueueSize = 10;
     private SimpleDeque<RawPage> nonCachedPagesInvalidationQueue = new SimpleDeque<RawPage>();
@@ -79,6 +83,22 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
         return completed;
     }
     
+    /**
+     * Can transaction be executed concurrently with other read-only transactions by reader threads of database?
+     *
+     * @return true if transaction can be executed concurrently
+     */
+    public boolean isConcurrent()
+    {
+        return (options & (IRawOperation.READ_ONLY | IRawOperation.FLUSH | IRawOperation.DURABLE)) == IRawOperation.READ_ONLY && 
+            !(operation instanceof RawDbBatchOperation) && transactionManager.getReaderThreadCount() > 0;
+    }
+    
+    public RawTransactionManager getTransactionManager()
+    {
+        return transactionManager;
+    }
+    
     @Override
     public RawDatabase getDatabase()
     {
@@ -114,7 +134,15 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
     {
         Assert.checkState(!database.isStopped());
         
-        return database.getFileCache().isFileBound(fileIndex);
+        transactionManager.lockPages();
+        try
+        {
+            return database.getFileCache().isFileBound(fileIndex);
+        }
+        finally
+        {
+            transactionManager.unlockPages();
+        }
     }
     
     @Override
@@ -124,11 +152,19 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
         
         Assert.checkState(!database.isStopped());
         
-        RawDataFile file = database.getFileCache().bindFile(fileIndex, isReadOnly(), bindInfo);
-        if (file != null)
-            return file;
-        else
-            throw new RawFileNotFoundException();
+        transactionManager.lockPages();
+        try
+        {
+            RawDataFile file = database.getFileCache().bindFile(fileIndex, isReadOnly(), bindInfo);
+            if (file != null)
+                return file;
+            else
+                throw new RawFileNotFoundException();
+        }
+        finally
+        {
+            transactionManager.unlockPages();
+        }
     }
     
     @Override
@@ -136,7 +172,15 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
     {
         Assert.checkState(!database.isStopped());
         
-        database.getFileCache().unbindFile(fileIndex);
+        transactionManager.lockPages();
+        try
+        {
+            database.getFileCache().unbindFile(fileIndex);
+        }
+        finally
+        {
+            transactionManager.unlockPages();
+        }
     }
     
     @Override
@@ -144,20 +188,67 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
     {
         Assert.checkState(!database.isStopped());
         
-        RawDataFile file = database.getFileCache().getFile(fileIndex, isReadOnly());
-        if (file != null)
-            return file;
-        else
-            throw new RawFileNotFoundException();
+        transactionManager.lockPages();
+        try
+        {
+            RawDataFile file = database.getFileCache().getFile(fileIndex, isReadOnly());
+            if (file != null)
+                return file;
+            else
+                throw new RawFileNotFoundException();
+        }
+        finally
+        {
+            transactionManager.unlockPages();
+        }
     }
     
     @Override
     public RawPageProxy getPage(int fileIndex, long pageIndex)
     {
-        if (lastPage != null && !lastPage.isStale() && lastPage.getFile().getIndex() == fileIndex && lastPage.getIndex() == pageIndex)
-            return lastPage.getProxy();
+        transactionManager.lockPages();
+        try
+        {
+            if (lastPage != null && !lastPage.isStale() && lastPage.getFile().getIndex() == fileIndex && 
+                lastPage.getIndex() == pageIndex)
+                return lastPage.getProxy();
+    
+            return getPageFromFile(fileIndex, pageIndex, null).getProxy();
+        }
+        finally
+        {
+            transactionManager.unlockPages();
+        }
+    }
 
-        return getPageFromFile(fileIndex, pageIndex, null).getProxy();
+    @Override
+    public List<IRawPage> getPages(int fileIndex, long startPageIndex, int pageCount)
+    {
+        Assert.isTrue(startPageIndex >= 0 && pageCount >= 0);
+        Assert.checkState(!database.isStopped());
+        
+        transactionManager.lockPages();
+        try
+        {
+            if (cachingEnabled)
+            {
+                RawDataFile file = database.getFileCache().getFile(fileIndex, isReadOnly());
+                if (file == null)
+                    throw new RawFileNotFoundException();
+                
+                file.loadPages(startPageIndex, startPageIndex + pageCount);
+            }
+            
+            List<IRawPage> pages = new ArrayList<IRawPage>(pageCount);
+            for (long i = startPageIndex; i < startPageIndex + pageCount; i++)
+                pages.add(getPageFromFile(fileIndex, i, null).getProxy());
+            
+            return pages;
+        }
+        finally
+        {
+            transactionManager.unlockPages();
+        }
     }
 
     @Override
@@ -174,6 +265,7 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
         boolean completed = false;
         boolean readOnly = isReadOnly();
         boolean clearCache = false;
+        durableDeferred = false;
         
         try
         {
@@ -243,18 +335,28 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
         
         transactionManager.setTransaction(null);
         
-        while (!nonCachedPagesInvalidationQueue.isEmpty())
-            nonCachedPagesInvalidationQueue.poll().setStale();
-
-        if (clearCache)
+        transactionManager.lockPages();
+        try
+        {
+            while (!nonCachedPagesInvalidationQueue.isEmpty())
+                nonCachedPagesInvalidationQueue.poll().setStale();
+    
+            if (clearCache)
+            {
+                database.getPagePool().close();
+                database.getProxyCache().clear();
+            }
+        }
+        finally
         {
-            database.getPagePool().close();
-            database.getProxyCache().clear();
+            transactionManager.unlockPages();
         }
         
         if (completed)
         {
-            if (sync != null)
+            if (exception == null && durableDeferred)
+                transactionManager.addDurableTransaction(this);
+            else if (sync != null)
                 notifyCompleted(exception);
             else
                 this.completed = true;
@@ -321,23 +423,60 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
     {
         Assert.checkState(!database.isStopped());
         
-        RawDataFile file = database.getFileCache().getFile(fileIndex, isReadOnly());
-        if (file == null)
-            throw new RawFileNotFoundException();
-        RawPage page = file.getPage(pageIndex, isReadOnly(), cachingEnabled, proxy);
-        if (page == null)
-            throw new RawPageNotFoundException();
-        
-        if (page.isCached())
+        transactionManager.lockPages();
+        try
         {
-            page.refresh();
-            lastPage = page;
+            RawDataFile file = database.getFileCache().getFile(fileIndex, isReadOnly());
+            if (file == null)
+                throw new RawFileNotFoundException();
+            RawPage page = file.getPage(pageIndex, isReadOnly(), cachingEnabled, proxy);
+            if (page == null)
+                throw new RawPageNotFoundException();
+            
+            if (page.isCached())
+            {
+                page.refresh();
+                lastPage = page;
+            }
+            else
+                addNonCachedPage(page);
+            return page;
+        }
+        finally
+        {
+            transactionManager.unlockPages();
         }
-        else
-            addNonCachedPage(page);
-        return page;
     }
 
+    /**
+     * Completes durable transaction after its redo records have been synchronized with disk. Operation is notified about
+     * commit only if redo records have been synchronized successfully.
+     *
+     * @param exception synchronization error or null if redo records have been synchronized successfully
+     */
+    public void completeDurable(Throwable exception)
+    {
+        if (exception == null)
+        {
+            try
+            {
+                operation.onCommitted();
+            }
+            catch (Throwable e)
+            {
+                exception = e;
+                
+                if (logger.isLogEnabled(LogLevel.ERROR))
+                    logger.log(LogLevel.ERROR, database.getMarker(), e);
+            }
+        }
+        
+        if (sync != null)
+            notifyCompleted(exception);
+        else
+            completed = true;
+    }
+    
     private void notifyCompleted(Throwable e)
     {
         synchronized (sync)
@@ -355,7 +494,11 @@ public final class RawTransaction implements IRawTransaction, Runnable, ICompart
         database.getPageManager().commit(options);
         lastPage = null;
         
-        operation.onCommitted();
+        // Completed durable operation is notified about commit after redo log has been synchronized with disk
+        durableDeferred = (options & IRawOperation.DURABLE) != 0 && database.getPageManager().isDurableSyncRequired() && 
+            operation.isCompleted();
+        if (!durableDeferred)
+            operation.onCommitted();
     }
 
     private boolean rollback(boolean clearCache)
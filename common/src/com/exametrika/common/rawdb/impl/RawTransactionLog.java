@@ -3,15 +3,21 @@
  */
 package com.exametrika.common.rawdb.impl;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.exametrika.common.io.impl.ByteOutputStream;
 import com.exametrika.common.l10n.DefaultMessage;
 import com.exametrika.common.l10n.ILocalizedMessage;
 import com.exametrika.common.l10n.Messages;
@@ -22,15 +28,20 @@ import com.exametrika.common.lz4.LZ4;
 import com.exametrika.common.rawdb.RawBindInfo;
 import com.exametrika.common.rawdb.RawDatabaseException;
 import com.exametrika.common.rawdb.config.RawDatabaseConfiguration.Flag;
+import com.exametrika.common.tasks.ThreadInterruptedException;
+import com.exametrika.common.tasks.impl.RunnableTaskHandler;
+import com.exametrika.common.tasks.impl.TaskExecutor;
+import com.exametrika.common.tasks.impl.TaskQueue;
 import com.exametrika.common.utils.Assert;
-import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.Files;
 import com.exametrika.common.utils.IOs;
 
 
 
 /**
- * The {@link RawTransactionLog} is an undo-based transaction log.
+ * The {@link RawTransactionLog} is an undo-based transaction log. Log records are assembled in memory and written by
+ * large writes through reusable direct buffer, page images of large flushes are compressed in parallel by compression 
+ * threads.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -39,6 +50,10 @@ public final class RawTransactionLog
 {
     private static final IMessages messages = Messages.get(IMessages.class);
     private static final ILogger logger = Loggers.get(RawTransactionLog.class);
+    private static final int WRITE_BUFFER_SIZE = 0x100000;
+    private static final int COMPRESSION_BATCH_SIZE = 256;
+    private static final int PARALLEL_COMPRESSION_PAGE_COUNT = 32;
+    private static final int COMPRESSION_THREAD_COUNT = Math.min(Runtime.getRuntime().availableProcessors() - 1, 3);
     private final RawDatabase database;
     private final File transactionLogPath;
     private RandomAccessFile transactionLogFile;
@@ -48,6 +63,11 @@ public final class RawTransactionLog
     private long startPos;
     private byte[] compressedBuffer;
     private byte[] buffer;
+    private final ByteOutputStream recordBuffer = new ByteOutputStream(0x10000);
+    private final DataOutputStream record = new DataOutputStream(recordBuffer);
+    private ByteBuffer writeBuffer;
+    private final TaskQueue<Runnable> compressionQueue = new TaskQueue<Runnable>();
+    private TaskExecutor<Runnable> compressionExecutor;
     private boolean opened;
     private boolean closed;
     
@@ -107,6 +127,12 @@ public final class RawTransactionLog
         if (closed || !opened)
             return;
         
+        if (compressionExecutor != null)
+        {
+            compressionExecutor.stop();
+            compressionExecutor = null;
+        }
+        
         IOs.close(transactionLogFile);
         IOs.close(redoLogFile);
         if (transactionLogPath.length() == 0)
@@ -131,90 +157,102 @@ public final class RawTransactionLog
         
         try
         {
+            recordBuffer.reset();
+            
             long startFlushSize = transactionLogFile.getFilePointer();
-            if (transactionLogFile.getFilePointer() == 0)
+            if (startFlushSize == 0)
             {
-                transactionLogFile.writeBoolean(false);
-                transactionLogFile.writeLong(0);
-                transactionLogFile.writeLong(0);
-                transactionLogFile.writeLong(0);
+                record.writeBoolean(false);
+                record.writeLong(0);
+                record.writeLong(0);
+                record.writeLong(0);
             }
             
-            long pos = transactionLogFile.getFilePointer();
+            long pos = startFlushSize + recordBuffer.getLength();
             
             Set<RawDataFile> files = new HashSet<RawDataFile>();
             for (FlushInfo info : flushedPages)
                 files.add(info.file);
                 
-            transactionLogFile.writeInt(files.size());
+            record.writeInt(files.size());
             for (RawDataFile file : files)
             {
-                transactionLogFile.writeInt(file.getIndex());
-                transactionLogFile.writeInt(file.getPathIndex());
-                transactionLogFile.writeLong(file.getFlushSize());
-                transactionLogFile.writeBoolean(file.exists());
-                transactionLogFile.writeUTF(file.getName());
-                transactionLogFile.writeInt(file.getPageCache().getPageType().getIndex());
-                transactionLogFile.writeUTF(file.getPageCache().getName());
-                transactionLogFile.writeUTF(file.getPageCache().getConfiguration().getName());
+                record.writeInt(file.getIndex());
+                record.writeInt(file.getPathIndex());
+                record.writeLong(file.getFlushSize());
+                record.writeBoolean(file.exists());
+                record.writeUTF(file.getName());
+                record.writeInt(file.getPageCache().getPageType().getIndex());
+                record.writeUTF(file.getPageCache().getName());
+                record.writeUTF(file.getPageCache().getConfiguration().getName());
             }
             
-            transactionLogFile.writeInt(flushedPages.size());
-            for (FlushInfo info : flushedPages)
+            record.writeInt(flushedPages.size());
+            for (int start = 0; start < flushedPages.size(); start += COMPRESSION_BATCH_SIZE)
             {
-                if (!info.flushed && info.file.exists() && (info.pageIndex + 1) * info.savedRegion.getLength() <= info.file.getFlushSize())
+                int end = Math.min(start + COMPRESSION_BATCH_SIZE, flushedPages.size());
+                RawRegion[] regions = new RawRegion[end - start];
+                for (int i = start; i < end; i++)
                 {
-                    transactionLogFile.writeBoolean(true);
-                    transactionLogFile.writeInt(info.file.getIndex());
-                    transactionLogFile.writeLong(info.pageIndex);
-
-                    Assert.checkState(info.savedRegion.getLength() == info.file.getPageSize());
-                    int maxCompressedLength = LZ4.maxCompressedLength(info.savedRegion.getLength());
-                    if (compressedBuffer == null || compressedBuffer.length < maxCompressedLength)
-                        compressedBuffer = new byte[maxCompressedLength];
-                    
-                    ByteArray buffer = info.savedRegion.readByteArray(0, info.savedRegion.getLength());
-                    int compressedLength = LZ4.compress(true, buffer.getBuffer(), buffer.getOffset(), buffer.getLength(), 
-                        compressedBuffer, 0, compressedBuffer.length);
-                    
-                    info.savedRegion.setFlushing(true, false);
-
-                    transactionLogFile.writeInt(compressedLength);
-                    transactionLogFile.write(compressedBuffer, 0, compressedLength);
+                    FlushInfo info = flushedPages.get(i);
+                    if (!info.flushed && info.file.exists() && (info.pageIndex + 1) * info.savedRegion.getLength() <= info.file.getFlushSize())
+                    {
+                        Assert.checkState(info.savedRegion.getLength() == info.file.getPageSize());
+                        regions[i - start] = info.savedRegion;
+                    }
                 }
-                else
+                
+                CompressionBatch batch = compress(regions);
+                
+                for (int i = start; i < end; i++)
                 {
+                    FlushInfo info = flushedPages.get(i);
+                    byte[] compressedPage = batch.compressedPages[i - start];
+                    if (compressedPage != null)
+                    {
+                        record.writeBoolean(true);
+                        record.writeInt(info.file.getIndex());
+                        record.writeLong(info.pageIndex);
+                        record.writeInt(compressedPage.length);
+                        record.write(compressedPage);
+                    }
+                    else
+                        record.writeBoolean(false);
+                    
                     info.savedRegion.setFlushing(true, false);
-                    transactionLogFile.writeBoolean(false);
                 }
+                
+                if (recordBuffer.getLength() >= WRITE_BUFFER_SIZE)
+                    writeRecord(transactionLogFile, -1);
             }
             
-            transactionLogFile.writeLong(startPos);
+            record.writeLong(startPos);
+            writeRecord(transactionLogFile, -1);
            
-            long oldPos = transactionLogFile.getFilePointer();
-            transactionLogFile.seek(1);
-            transactionLogFile.writeLong(pos);
-            transactionLogFile.writeLong(pos);
-            transactionLogFile.writeLong(pos);
-            transactionLogFile.seek(oldPos);
+            record.writeLong(pos);
+            record.writeLong(pos);
+            record.writeLong(pos);
+            writeRecord(transactionLogFile, 1);
             startPos = pos;
             
             if (full)
             {
                 pos = transactionLogFile.getFilePointer();
-                transactionLogFile.writeInt(flushedFiles.size());
+                record.writeInt(flushedFiles.size());
                 for (RawDataFile file : flushedFiles)
                 {
-                    transactionLogFile.writeBoolean(file.isDeleted());
-                    transactionLogFile.writeBoolean(file.isDirectoryOwner());
-                    transactionLogFile.writeLong(file.getSize());
-                    transactionLogFile.writeInt(file.getIndex());
-                    transactionLogFile.writeInt(file.getPathIndex());
-                    transactionLogFile.writeUTF(file.getName());
-                    transactionLogFile.writeInt(file.getPageCache().getPageType().getIndex());
-                    transactionLogFile.writeUTF(file.getPageCache().getName());
-                    transactionLogFile.writeUTF(file.getPageCache().getConfiguration().getName());
+                    record.writeBoolean(file.isDeleted());
+                    record.writeBoolean(file.isDirectoryOwner());
+                    record.writeLong(file.getSize());
+                    record.writeInt(file.getIndex());
+                    record.writeInt(file.getPathIndex());
+                    record.writeUTF(file.getName());
+                    record.writeInt(file.getPageCache().getPageType().getIndex());
+                    record.writeUTF(file.getPageCache().getName());
+                    record.writeUTF(file.getPageCache().getConfiguration().getName());
                 }
+                
+                writeRecord(transactionLogFile, -1);
             }
             else
                 Assert.isTrue(flushedFiles.isEmpty());
@@ -237,10 +275,9 @@ public final class RawTransactionLog
             {
                 if (!flushedFiles.isEmpty())
                 {
-                    transactionLogFile.seek(1);
-                    transactionLogFile.writeLong(pos);
-                    transactionLogFile.seek(0);
-                    transactionLogFile.writeBoolean(true);
+                    record.writeBoolean(true);
+                    record.writeLong(pos);
+                    writeRecord(transactionLogFile, 0);
                     
                     if (!disableSync)
                         transactionLogFile.getFD().sync();
@@ -273,7 +310,14 @@ public final class RawTransactionLog
             logger.log(LogLevel.DEBUG, database.getMarker(), messages.flushCompleted());
     }
 
-    public synchronized void flushRedo(List<FlushInfo> flushedPages)
+    /**
+     * Writes redo records of specified pages to redo log.
+     *
+     * @param flushedPages flushed pages
+     * @param sync if true redo log is synchronized with disk, if false redo log must be synchronized later by
+     * {@link #syncRedo()}, so that several durable transactions share single synchronization
+     */
+    public synchronized void flushRedo(List<FlushInfo> flushedPages, boolean sync)
     {
         if (closed)
             return;
@@ -288,59 +332,71 @@ public final class RawTransactionLog
         
         try
         {
+            recordBuffer.reset();
+            
             long startFlushSize = redoLogFile.getFilePointer();
-            if (redoLogFile.getFilePointer() == 0)
+            if (startFlushSize == 0)
             {
-                redoLogFile.writeLong(0);
-                redoLogFile.writeLong(0);
-                redoLogFile.writeLong(0);
+                record.writeLong(0);
+                record.writeLong(0);
+                record.writeLong(0);
             }
             
-            long pos = redoLogFile.getFilePointer();
+            long pos = startFlushSize + recordBuffer.getLength();
             
             Set<RawDataFile> files = new HashSet<RawDataFile>();
             for (FlushInfo info : flushedPages)
                 files.add(info.file);
                 
-            redoLogFile.writeInt(files.size());
+            record.writeInt(files.size());
             for (RawDataFile file : files)
             {
-                redoLogFile.writeInt(file.getIndex());
-                redoLogFile.writeInt(file.getPathIndex());
-                redoLogFile.writeUTF(file.getName());
-                transactionLogFile.writeInt(file.getPageCache().getPageType().getIndex());
-                transactionLogFile.writeUTF(file.getPageCache().getName());
-                transactionLogFile.writeUTF(file.getPageCache().getConfiguration().getName());
+                record.writeInt(file.getIndex());
+                record.writeInt(file.getPathIndex());
+                record.writeUTF(file.getName());
+                record.writeInt(file.getPageCache().getPageType().getIndex());
+                record.writeUTF(file.getPageCache().getName());
+                record.writeUTF(file.getPageCache().getConfiguration().getName());
             }
             
-            redoLogFile.writeInt(flushedPages.size());
-            for (FlushInfo info : flushedPages)
+            record.writeInt(flushedPages.size());
+            for (int start = 0; start < flushedPages.size(); start += COMPRESSION_BATCH_SIZE)
             {
-                redoLogFile.writeInt(info.file.getIndex());
-                redoLogFile.writeLong(info.pageIndex);
-
-                Assert.checkState(info.region.getLength() == info.file.getPageSize());
-                int maxCompressedLength = LZ4.maxCompressedLength(info.region.getLength());
-                if (compressedBuffer == null || compressedBuffer.length < maxCompressedLength)
-                    compressedBuffer = new byte[maxCompressedLength];
+                int end = Math.min(start + COMPRESSION_BATCH_SIZE, flushedPages.size());
+                RawRegion[] regions = new RawRegion[end - start];
+                for (int i = start; i < end; i++)
+                {
+                    FlushInfo info = flushedPages.get(i);
+                    Assert.checkState(info.region.getLength() == info.file.getPageSize());
+                    regions[i - start] = info.region;
+                }
+                
+                CompressionBatch batch = compress(regions);
                 
-                ByteArray buffer = info.region.readByteArray(0, info.region.getLength());
-                int compressedLength = LZ4.compress(true, buffer.getBuffer(), buffer.getOffset(), buffer.getLength(), 
-                    compressedBuffer, 0, compressedBuffer.length);
+                for (int i = start; i < end; i++)
+                {
+                    FlushInfo info = flushedPages.get(i);
+                    byte[] compressedPage = batch.compressedPages[i - start];
+                    
+                    record.writeInt(info.file.getIndex());
+                    record.writeLong(info.pageIndex);
+                    record.writeInt(compressedPage.length);
+                    record.write(compressedPage);
+                }
                 
-                redoLogFile.writeInt(compressedLength);
-                redoLogFile.write(compressedBuffer, 0, compressedLength);
+                if (recordBuffer.getLength() >= WRITE_BUFFER_SIZE)
+                    writeRecord(redoLogFile, -1);
             }
             
-            long oldPos = redoLogFile.getFilePointer();
-            flushSize = oldPos - startFlushSize;
-            redoLogFile.seek(0);
-            redoLogFile.writeLong(pos);
-            redoLogFile.writeLong(pos);
-            redoLogFile.writeLong(pos);
-            redoLogFile.seek(oldPos);
+            writeRecord(redoLogFile, -1);
+            flushSize = redoLogFile.getFilePointer() - startFlushSize;
             
-            if (!disableSync)
+            record.writeLong(pos);
+            record.writeLong(pos);
+            record.writeLong(pos);
+            writeRecord(redoLogFile, 0);
+            
+            if (sync && !disableSync)
                 redoLogFile.getFD().sync();
         }
         catch (IOException e)
@@ -364,6 +420,24 @@ public final class RawTransactionLog
         if (logger.isLogEnabled(LogLevel.DEBUG))
             logger.log(LogLevel.DEBUG, database.getMarker(), messages.redoFlushCompleted());
     }
+    
+    /**
+     * Synchronizes redo records written by {@link #flushRedo(List, boolean)} with disk.
+     */
+    public synchronized void syncRedo()
+    {
+        if (closed || disableSync)
+            return;
+        
+        try
+        {
+            redoLogFile.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            throw new RawDatabaseException(e);
+        }
+    }
 
     public synchronized void recover()
     {
@@ -557,9 +631,9 @@ public final class RawTransactionLog
                     RawBindInfo info = new RawBindInfo();
                     info.setPathIndex(redoLogFile.readInt());
                     info.setName(redoLogFile.readUTF());
-                    info.setPageTypeIndex(transactionLogFile.readInt());
-                    info.setCategory(transactionLogFile.readUTF());
-                    info.setCategoryType(transactionLogFile.readUTF());
+                    info.setPageTypeIndex(redoLogFile.readInt());
+                    info.setCategory(redoLogFile.readUTF());
+                    info.setCategoryType(redoLogFile.readUTF());
                         
                     RawDataFile file = database.getFileCache().bindFile(fileIndex, false, info);
                     files.add(file);
@@ -614,6 +688,139 @@ public final class RawTransactionLog
         database.getFileCache().close();
     }
     
+    private void writeRecord(RandomAccessFile file, long position) throws IOException
+    {
+        if (writeBuffer == null)
+            writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        
+        FileChannel channel = file.getChannel();
+        byte[] buffer = recordBuffer.getBuffer();
+        int length = recordBuffer.getLength();
+        for (int offset = 0; offset < length; )
+        {
+            int count = Math.min(length - offset, WRITE_BUFFER_SIZE);
+            writeBuffer.clear();
+            writeBuffer.put(buffer, offset, count);
+            writeBuffer.flip();
+            
+            while (writeBuffer.hasRemaining())
+            {
+                if (position == -1)
+                    channel.write(writeBuffer);
+                else
+                    position += channel.write(writeBuffer, position);
+            }
+            
+            offset += count;
+        }
+        
+        recordBuffer.reset();
+    }
+    
+    private CompressionBatch compress(RawRegion[] regions)
+    {
+        CompressionBatch batch = new CompressionBatch(regions);
+        if (regions.length >= PARALLEL_COMPRESSION_PAGE_COUNT && COMPRESSION_THREAD_COUNT > 0)
+        {
+            if (compressionExecutor == null)
+            {
+                compressionExecutor = new TaskExecutor<Runnable>(COMPRESSION_THREAD_COUNT, compressionQueue, 
+                    new RunnableTaskHandler<Runnable>(), "[" + database.getConfiguration().getName() + "] log compression thread");
+                compressionExecutor.start();
+            }
+            
+            for (int i = 0; i < COMPRESSION_THREAD_COUNT; i++)
+                compressionQueue.offer(batch);
+        }
+        
+        batch.run();
+        batch.waitCompleted();
+        
+        return batch;
+    }
+    
+    private static class CompressionBatch implements Runnable
+    {
+        private final RawRegion[] regions;
+        private final byte[][] compressedPages;
+        private final AtomicInteger nextIndex = new AtomicInteger();
+        private int completedCount;
+        private Throwable exception;
+
+        public CompressionBatch(RawRegion[] regions)
+        {
+            this.regions = regions;
+            this.compressedPages = new byte[regions.length][];
+        }
+        
+        @Override
+        public void run()
+        {
+            byte[] buffer = null;
+            byte[] compressedBuffer = null;
+            int count = 0;
+            Throwable exception = null;
+            
+            // Pages are taken one by one, so that compression threads, which have started late, do not delay flush
+            for (int i = nextIndex.getAndIncrement(); i < regions.length; i = nextIndex.getAndIncrement())
+            {
+                count++;
+                RawRegion region = regions[i];
+                if (region == null || exception != null)
+                    continue;
+                
+                try
+                {
+                    int length = region.getLength();
+                    if (buffer == null || buffer.length < length)
+                    {
+                        buffer = new byte[length];
+                        compressedBuffer = new byte[LZ4.maxCompressedLength(length)];
+                    }
+                    
+                    region.readByteArray(0, buffer, 0, length);
+                    int compressedLength = LZ4.compress(true, buffer, 0, length, compressedBuffer, 0, compressedBuffer.length);
+                    compressedPages[i] = Arrays.copyOf(compressedBuffer, compressedLength);
+                }
+                catch (Throwable e)
+                {
+                    exception = e;
+                }
+            }
+            
+            if (count == 0)
+                return;
+            
+            synchronized (this)
+            {
+                completedCount += count;
+                if (exception != null)
+                    this.exception = exception;
+                
+                if (completedCount == regions.length)
+                    notifyAll();
+            }
+        }
+        
+        public synchronized void waitCompleted()
+        {
+            while (completedCount < regions.length)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ThreadInterruptedException(e);
+                }
+            }
+            
+            if (exception != null)
+                throw new RawDatabaseException(exception);
+        }
+    }
+    
     private static class PageComparator implements Comparator<FlushInfo>
     {
         @Override
@@ -5,26 +5,51 @@ package com.exametrika.common.rawdb.impl;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.log.ILogger;
+import com.exametrika.common.log.LogLevel;
+import com.exametrika.common.log.Loggers;
 import com.exametrika.common.rawdb.IRawBatchOperation;
 import com.exametrika.common.rawdb.IRawOperation;
 import com.exametrika.common.rawdb.config.RawDatabaseConfiguration;
+import com.exametrika.common.tasks.ITaskHandler;
+import com.exametrika.common.tasks.ThreadInterruptedException;
+import com.exametrika.common.tasks.impl.TaskExecutor;
+import com.exametrika.common.tasks.impl.TaskQueue;
 import com.exametrika.common.utils.Assert;
 
 
 
 /**
- * The {@link RawTransactionManager} is used to manage database transactions.
+ * The {@link RawTransactionManager} is used to manage database transactions. Consecutive read-only transactions can be
+ * executed concurrently by main thread and reader threads of database. While such read phase is active write transactions
+ * are not executed, so committed state of database pages is not changed and is seen by all readers as consistent snapshot.
+ * Structures of page cache are modified by readers under page lock, page eviction is suspended until read phase is completed.
+ * When page cache exceeds its maximum size during read phase, remaining transactions of the phase are not admitted, phase
+ * is completed after already running transactions, excessive pages are unloaded and deferred transactions are executed in
+ * next read phase. Page cache can therefore exceed its maximum size only by working sets of transactions running concurrently.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
  */
 public final class RawTransactionManager
 {
+    private static final ILogger logger = Loggers.get(RawTransactionManager.class);
     private final RawDatabase database;
     private final ICompartment compartment;
     private final Object sync = new Object();
+    private final TaskQueue<RawTransaction> readQueue = new TaskQueue<RawTransaction>();
+    private final TaskExecutor<RawTransaction> readExecutor;
+    private final ThreadLocal<RawTransaction> readTransaction = new ThreadLocal<RawTransaction>();
+    private final ReentrantLock pageLock = new ReentrantLock();
+    private final Object readSync = new Object();
+    private final List<RawTransaction> durableTransactions = new ArrayList<RawTransaction>();
+    private int pendingReadCount;
+    private List<RawTransaction> deferredReadTransactions;
+    private volatile boolean readPhase;
+    private volatile boolean pageCacheOverflowed;
     private boolean closed;
     private RawTransaction transaction;
     
@@ -35,6 +60,10 @@ public final class RawTransactionManager
         
         this.database = database;
         this.compartment = compartment;
+        
+        RawDatabaseConfiguration configuration = database.getConfiguration();
+        readExecutor = new TaskExecutor<RawTransaction>(configuration.getReaderThreadCount(), readQueue, new ReadTaskHandler(), 
+            "[" + configuration.getName() + "] reader thread");
     }
     
     public RawDatabase getDatabase()
@@ -49,16 +78,134 @@ public final class RawTransactionManager
     
     public RawTransaction getTransaction()
     {
-        return transaction;
+        if (!readPhase)
+            return transaction;
+        else
+            return readTransaction.get();
     }
     
     public void setTransaction(RawTransaction transaction)
     {
-        this.transaction = transaction;
+        if (!readPhase)
+            this.transaction = transaction;
+        else
+            readTransaction.set(transaction);
+    }
+    
+    public int getReaderThreadCount()
+    {
+        return readExecutor.getThreadCount();
+    }
+    
+    public void setReaderThreadCount(int value)
+    {
+        readExecutor.setThreadCount(value);
+    }
+    
+    public boolean isReadPhase()
+    {
+        return readPhase;
+    }
+    
+    /**
+     * Called by page cache when page can not be unloaded in read phase, because maximum size of page cache is exceeded.
+     * Read transactions of current read phase which have not been started yet are deferred to the next read phase.
+     */
+    public void onPageCacheOverflow()
+    {
+        pageCacheOverflowed = true;
+    }
+    
+    /**
+     * Acquires page lock if read phase is active. Must be called before structures of page cache are accessed by
+     * read-only transaction.
+     */
+    public void lockPages()
+    {
+        if (readPhase)
+            pageLock.lock();
+    }
+    
+    /**
+     * Releases page lock if read phase is active.
+     */
+    public void unlockPages()
+    {
+        if (readPhase)
+            pageLock.unlock();
+    }
+    
+    /**
+     * Executes specified read-only transactions concurrently. Must be called from main thread of database.
+     *
+     * @param transactions read-only transactions
+     */
+    public void readTransactions(List<RawTransaction> transactions)
+    {
+        Assert.checkState(!readPhase);
+        
+        while (!transactions.isEmpty())
+            transactions = runReadPhase(transactions);
+    }
+    
+    /**
+     * Adds durable transaction, which has been committed, but whose redo records have not been synchronized with disk yet.
+     * Transaction is completed by {@link #completeDurableTransactions()}.
+     *
+     * @param transaction durable transaction
+     */
+    public void addDurableTransaction(RawTransaction transaction)
+    {
+        Assert.notNull(transaction);
+        
+        synchronized (durableTransactions)
+        {
+            durableTransactions.add(transaction);
+        }
+    }
+    
+    /**
+     * Synchronizes redo log with disk and completes durable transactions committed since last call. Called after each batch 
+     * of transactions executed by main thread, so that durable transactions of batch share single synchronization of redo log.
+     */
+    public void completeDurableTransactions()
+    {
+        List<RawTransaction> transactions;
+        synchronized (durableTransactions)
+        {
+            if (durableTransactions.isEmpty() && !database.getPageManager().isDurableSyncRequired())
+                return;
+            
+            transactions = new ArrayList<RawTransaction>(durableTransactions);
+            durableTransactions.clear();
+        }
+        
+        Throwable exception = null;
+        try
+        {
+            database.getPageManager().syncDurable();
+        }
+        catch (Throwable e)
+        {
+            exception = e;
+            
+            if (logger.isLogEnabled(LogLevel.ERROR))
+                logger.log(LogLevel.ERROR, database.getMarker(), e);
+        }
+        
+        for (RawTransaction transaction : transactions)
+            transaction.completeDurable(exception);
+    }
+    
+    public void start()
+    {
+        readExecutor.start();
     }
     
     public void close()
     {
+        readExecutor.stop();
+        
         synchronized (sync)
         {
             closed = true;
@@ -108,4 +255,85 @@ public final class RawTransactionManager
         
         transaction.waitCompleted();
     }
+    
+    private List<RawTransaction> runReadPhase(List<RawTransaction> transactions)
+    {
+        readPhase = true;
+        pageCacheOverflowed = false;
+        
+        List<RawTransaction> deferredTransactions = new ArrayList<RawTransaction>();
+        synchronized (readSync)
+        {
+            pendingReadCount = transactions.size();
+            deferredReadTransactions = deferredTransactions;
+        }
+        
+        for (int i = 1; i < transactions.size(); i++)
+            readQueue.offer(transactions.get(i));
+        
+        runReadTransaction(transactions.get(0), true);
+        
+        while (true)
+        {
+            RawTransaction transaction = readQueue.getQueue().poll();
+            if (transaction == null)
+                break;
+            
+            runReadTransaction(transaction, false);
+        }
+        
+        synchronized (readSync)
+        {
+            while (pendingReadCount > 0)
+            {
+                try
+                {
+                    readSync.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new ThreadInterruptedException(e);
+                }
+            }
+        }
+        
+        readPhase = false;
+        
+        database.getPageTypeManager().unloadExcessive();
+        
+        return deferredTransactions;
+    }
+    
+    private void runReadTransaction(RawTransaction transaction, boolean admit)
+    {
+        boolean deferred = false;
+        try
+        {
+            if (admit || !pageCacheOverflowed)
+                transaction.run();
+            else
+                deferred = true;
+        }
+        finally
+        {
+            synchronized (readSync)
+            {
+                if (deferred)
+                    deferredReadTransactions.add(transaction);
+                
+                pendingReadCount--;
+                if (pendingReadCount == 0)
+                    readSync.notifyAll();
+            }
+        }
+    }
+    
+    private class ReadTaskHandler implements ITaskHandler<RawTransaction>
+    {
+        @Override
+        public void handle(RawTransaction transaction)
+        {
+            runReadTransaction(transaction, false);
+        }
+    }
 }
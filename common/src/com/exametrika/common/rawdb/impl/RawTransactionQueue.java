@@ -115,7 +115,12 @@ public final class RawTransactionQueue implements ICompartmentQueue
             if (((IRawTransaction)event.task).getOperation() instanceof RawDbBatchOperation)
                 currentBatchTransaction = event;
             else
+            {
                 capacity -= event.size;
+                
+                if (isConcurrent(event) && isConcurrent(queue.peek()))
+                    return pollConcurrentTransactions(event);
+            }
 
             return event;
         }
@@ -170,6 +175,28 @@ public final class RawTransactionQueue implements ICompartmentQueue
         }
     }
     
+    private Event pollConcurrentTransactions(Event first)
+    {
+        List<RawTransaction> transactions = new ArrayList<RawTransaction>();
+        transactions.add((RawTransaction)first.task);
+        int size = first.size;
+        
+        while (isConcurrent(queue.peek()))
+        {
+            Event event = queue.poll();
+            capacity -= event.size;
+            size += event.size;
+            transactions.add((RawTransaction)event.task);
+        }
+        
+        return new Event(new ConcurrentTransactions(transactions), first.compartment, size);
+    }
+    
+    private boolean isConcurrent(Event event)
+    {
+        return event != null && event.task instanceof RawTransaction && ((RawTransaction)event.task).isConcurrent();
+    }
+    
     private boolean allow(Event event)
     {
         IRawTransaction transaction = (IRawTransaction)event.task;
@@ -205,4 +232,26 @@ public final class RawTransactionQueue implements ICompartmentQueue
         
         return true;
     }
+    
+    private static class ConcurrentTransactions implements Runnable
+    {
+        private final List<RawTransaction> transactions;
+
+        public ConcurrentTransactions(List<RawTransaction> transactions)
+        {
+            this.transactions = transactions;
+        }
+        
+        @Override
+        public void run()
+        {
+            transactions.get(0).getTransactionManager().readTransactions(transactions);
+        }
+        
+        @Override
+        public String toString()
+        {
+            return transactions.toString();
+        }
+    }
 }
@@ -3,9 +3,9 @@
  */
 package com.exametrika.common.tasks.impl;
 
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.exametrika.common.tasks.IDelayedTaskQueue;
 import com.exametrika.common.tasks.ITaskQueue;
@@ -16,8 +16,9 @@ import com.exametrika.common.utils.Assert;
 
 
 /**
- * The {@link DelayedTaskQueue} is an implementation of task queue.
- * 
+ * The {@link DelayedTaskQueue} is an implementation of task queue. Delayed tasks are kept in {@link TimingWheel}, so that
+ * tasks are offered in constant time.
+ *
  * @param <T> task type
  * @see ITaskQueue
  * @see ITaskSource
@@ -26,89 +27,70 @@ import com.exametrika.common.utils.Assert;
  */
 public final class DelayedTaskQueue<T> implements IDelayedTaskQueue<T>, ITaskSource<T>
 {
-    private final DelayQueue<DelayedTask> queue;
+    private final TimingWheel<T> wheel;
+    private final ArrayDeque<T> expiredTasks = new ArrayDeque<T>();
+    private final List<T> expiredList = new ArrayList<T>();
     private final ITimeService timeService;
-    
+    private long wakeupTime = Long.MAX_VALUE;
+
     /**
      * Creates a new object.
-     * 
+     *
      * @param timeService time service
      */
     public DelayedTaskQueue(ITimeService timeService)
     {
         Assert.notNull(timeService);
-        
-        queue = new DelayQueue<DelayedTask>();
+
+        this.wheel = new TimingWheel<T>(timeService.getCurrentTime());
         this.timeService = timeService;
     }
-    
+
     @Override
-    public boolean offer(T task, long period)
+    public synchronized boolean offer(T task, long period)
     {
         Assert.notNull(task);
-        
-        queue.offer(new DelayedTask(task, timeService.getCurrentTime() + period));
+
+        long activationTime = timeService.getCurrentTime() + period;
+        wheel.schedule(task, activationTime);
+
+        if (activationTime < wakeupTime)
+            notifyAll();
+
         return true;
     }
 
     @Override
-    public T take()
+    public synchronized T take()
     {
         try
         {
-            return queue.take().task;
-        }
-        catch (InterruptedException e)
-        {
-            throw new ThreadInterruptedException(e);
-        }
-    }
-    
-    private class DelayedTask implements Delayed
-    {
-        private final T task;
-        private final long activationTime;
+            while (true)
+            {
+                if (!expiredTasks.isEmpty())
+                    return expiredTasks.poll();
 
-        public DelayedTask(T task, long activationTime)
-        {
-            this.task = task;
-            this.activationTime = activationTime;
-        }
-        
-        @Override
-        public long getDelay(TimeUnit unit)
-        {
-            return unit.convert(activationTime - timeService.getCurrentTime(), TimeUnit.MILLISECONDS);
-        }
+                long currentTime = timeService.getCurrentTime();
+                wheel.advance(currentTime, expiredList);
+                if (!expiredList.isEmpty())
+                {
+                    expiredTasks.addAll(expiredList);
+                    expiredList.clear();
+                    continue;
+                }
 
-        @Override
-        public int compareTo(Delayed o)
-        {
-            DelayedTask task = (DelayedTask)o;
-            if (activationTime < task.activationTime)
-                return -1;
-            else if (activationTime > task.activationTime)
-                return 1;
-            else
-                return 0;
-        }
-        
-        @Override
-        public boolean equals(Object o)
-        {
-            if (o == this)
-                return true;
-            if (!(o instanceof DelayedTaskQueue.DelayedTask))
-                return false;
-            
-            DelayedTask task = (DelayedTask)o;
-            return activationTime == task.activationTime;
+                wakeupTime = wheel.getNextTime();
+                if (wakeupTime == Long.MAX_VALUE)
+                    wait();
+                else
+                    wait(Math.max(wakeupTime - currentTime, 1));
+
+                wakeupTime = Long.MAX_VALUE;
+            }
         }
-        
-        @Override
-        public int hashCode()
+        catch (InterruptedException e)
         {
-            return (int)(activationTime ^ (activationTime >>> 32));
+            throw new ThreadInterruptedException(e);
         }
     }
 }
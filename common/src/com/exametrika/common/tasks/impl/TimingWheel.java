@@ -0,0 +1,336 @@
+/**
+ * Copyright 2008 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.tasks.impl;
+
+import java.util.List;
+
+import com.exametrika.common.utils.Assert;
+
+
+/**
+ * The {@link TimingWheel} is a hierarchical timing wheel of millisecond resolution. Wheel consists of {@link #LEVEL_COUNT}
+ * levels of {@link #SLOT_COUNT} slots, slot of level n spans 64^n milliseconds. Timeout is placed on the lowest level, whose
+ * slot can hold timeout deadline relative to current wheel time, and is cascaded to lower levels when wheel time reaches
+ * its slot. Timeouts beyond range of highest level are kept in overflow list until highest level wraps. Timeouts are
+ * kept in intrusive doubly-linked slot lists, so that schedule and cancel take constant time. Advancing of wheel jumps
+ * over empty slots of all levels using occupancy bitmaps of levels, so that cost of advancing does not depend on
+ * number of timeouts, which have not expired yet, or on length of advanced time period.
+ *
+ * @param <T> task type
+ * @threadsafety This class and its methods are not thread safe.
+ * @author Medvedev-A
+ */
+public final class TimingWheel<T>
+{
+    public static final int SLOT_COUNT = 64;
+    public static final int LEVEL_COUNT = 6;
+    private static final int SLOT_BITS = 6;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final int OVERFLOW_LEVEL = LEVEL_COUNT;
+    private final Timeout<T>[][] slots;
+    private final long[] bitmaps = new long[LEVEL_COUNT];
+    private final Timeout<T> overflow = new Timeout<T>(null);
+    private long time;
+    private int size;
+
+    /**
+     * Creates a new object.
+     *
+     * @param currentTime current time
+     */
+    public TimingWheel(long currentTime)
+    {
+        Assert.isTrue(currentTime >= 0);
+
+        this.time = currentTime;
+        this.slots = createSlots();
+    }
+
+    /**
+     * Returns current wheel time. All timeouts having deadline less than current wheel time have been expired.
+     *
+     * @return current wheel time
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Returns number of scheduled timeouts.
+     *
+     * @return number of scheduled timeouts
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Schedules new timeout.
+     *
+     * @param task task of timeout
+     * @param deadline timeout deadline. Timeout having deadline less than current wheel time expires on next advance
+     * @return timeout
+     */
+    public Timeout<T> schedule(T task, long deadline)
+    {
+        Assert.notNull(task);
+
+        Timeout<T> timeout = new Timeout<T>(task);
+        add(timeout, deadline);
+        return timeout;
+    }
+
+    /**
+     * Reschedules existing timeout. If timeout is not scheduled, it is scheduled again.
+     *
+     * @param timeout timeout
+     * @param deadline new timeout deadline
+     */
+    public void reschedule(Timeout<T> timeout, long deadline)
+    {
+        Assert.notNull(timeout);
+        Assert.notNull(timeout.task);
+
+        if (timeout.level != -1)
+            remove(timeout);
+
+        add(timeout, deadline);
+    }
+
+    /**
+     * Cancels timeout.
+     *
+     * @param timeout timeout
+     * @return true if timeout has been cancelled, false if timeout has not been scheduled
+     */
+    public boolean cancel(Timeout<T> timeout)
+    {
+        Assert.notNull(timeout);
+
+        if (timeout.level == -1)
+            return false;
+
+        remove(timeout);
+        return true;
+    }
+
+    /**
+     * Returns lower bound of deadline of nearest timeout. Wheel must be advanced to returned time in order to expire or
+     * locate nearest timeout.
+     *
+     * @return lower bound of deadline of nearest timeout or {@link Long#MAX_VALUE} if wheel is empty
+     */
+    public long getNextTime()
+    {
+        if (size == 0)
+            return Long.MAX_VALUE;
+
+        for (int level = 0; level < LEVEL_COUNT; level++)
+        {
+            int shift = level * SLOT_BITS;
+            int index = (int)(time >>> shift) & SLOT_MASK;
+            long bitmap = bitmaps[level] >>> index;
+            if (bitmap != 0)
+            {
+                long slotTime = ((time >>> shift) + Long.numberOfTrailingZeros(bitmap)) << shift;
+                return Math.max(slotTime, time);
+            }
+        }
+
+        return ((time >>> (LEVEL_COUNT * SLOT_BITS)) + 1) << (LEVEL_COUNT * SLOT_BITS);
+    }
+
+    /**
+     * Advances wheel to specified time and expires all timeouts having deadline not greater than specified time.
+     * Expired timeouts are unscheduled and can be rescheduled again.
+     *
+     * @param currentTime current time
+     * @param expired list where tasks of expired timeouts are added
+     */
+    public void advance(long currentTime, List<T> expired)
+    {
+        Assert.notNull(expired);
+
+        while (time <= currentTime)
+        {
+            if (size == 0)
+            {
+                time = currentTime + 1;
+                break;
+            }
+
+            if ((time & SLOT_MASK) == 0)
+                cascade();
+
+            int index = (int)time & SLOT_MASK;
+            Timeout<T> head = slots[0][index];
+            while (head.next != head)
+            {
+                Timeout<T> timeout = head.next;
+                remove(timeout);
+                expired.add(timeout.task);
+            }
+
+            time++;
+            long nextTime = getNextTime();
+            if (nextTime > currentTime)
+            {
+                time = currentTime + 1;
+                break;
+            }
+
+            time = nextTime;
+        }
+    }
+
+    private void cascade()
+    {
+        int topLevel = 1;
+        while (topLevel < LEVEL_COUNT && (time & ((1L << (topLevel * SLOT_BITS)) - 1)) == 0)
+            topLevel++;
+
+        if (topLevel == LEVEL_COUNT)
+            cascade(overflow);
+
+        for (int level = topLevel - 1; level >= 1; level--)
+        {
+            int index = (int)(time >>> (level * SLOT_BITS)) & SLOT_MASK;
+            bitmaps[level] &= ~(1L << index);
+            cascade(slots[level][index]);
+        }
+    }
+
+    private void cascade(Timeout<T> head)
+    {
+        Timeout<T> timeout = head.next;
+        head.prev = head;
+        head.next = head;
+
+        while (timeout != head)
+        {
+            Timeout<T> next = timeout.next;
+            size--;
+            add(timeout, timeout.deadline);
+            timeout = next;
+        }
+    }
+
+    private void add(Timeout<T> timeout, long deadline)
+    {
+        if (deadline < time)
+            deadline = time;
+
+        long difference = deadline ^ time;
+        int level = (difference == 0) ? 0 : (63 - Long.numberOfLeadingZeros(difference)) / SLOT_BITS;
+
+        Timeout<T> head;
+        if (level < LEVEL_COUNT)
+        {
+            int index = (int)(deadline >>> (level * SLOT_BITS)) & SLOT_MASK;
+            head = slots[level][index];
+            bitmaps[level] |= 1L << index;
+            timeout.index = index;
+        }
+        else
+        {
+            level = OVERFLOW_LEVEL;
+            head = overflow;
+        }
+
+        timeout.deadline = deadline;
+        timeout.level = level;
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+        size++;
+    }
+
+    private void remove(Timeout<T> timeout)
+    {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+
+        if (timeout.level != OVERFLOW_LEVEL)
+        {
+            Timeout<T> head = slots[timeout.level][timeout.index];
+            if (head.next == head)
+                bitmaps[timeout.level] &= ~(1L << timeout.index);
+        }
+
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+        size--;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Timeout<T>[][] createSlots()
+    {
+        Timeout<T>[][] slots = new Timeout[LEVEL_COUNT][SLOT_COUNT];
+        for (int i = 0; i < LEVEL_COUNT; i++)
+        {
+            for (int k = 0; k < SLOT_COUNT; k++)
+                slots[i][k] = new Timeout<T>(null);
+        }
+
+        return slots;
+    }
+
+    /**
+     * The {@link Timeout} is a handle of timeout scheduled in timing wheel.
+     *
+     * @param <T> task type
+     * @threadsafety This class and its methods are not thread safe.
+     * @author Medvedev-A
+     */
+    public static final class Timeout<T>
+    {
+        private final T task;
+        private long deadline;
+        private int level = -1;
+        private int index;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(T task)
+        {
+            this.task = task;
+
+            if (task == null)
+            {
+                prev = this;
+                next = this;
+            }
+        }
+
+        public T getTask()
+        {
+            return task;
+        }
+
+        public long getDeadline()
+        {
+            return deadline;
+        }
+
+        public boolean isScheduled()
+        {
+            return level != -1;
+        }
+
+        @Override
+        public String toString()
+        {
+            return task + "[" + deadline + "]";
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.utils;
+
+
+
+
+/**
+ * The {@link MerkleTree} represents a complete binary hash tree of fixed depth, which is updated incrementally. Each entry
+ * of hashed data set (i.e. key-value pair) is mapped to leaf by hash of entry key. Hash of leaf is XOR of 64-bit hashes of
+ * leaf entries, so that entries can be added, removed or replaced in any order without rehashing other entries. Hash of
+ * inner node is computed from hashes of its children and is recomputed on update of any leaf of node subtree. Two data
+ * sets are equal (with high probability) if their tree roots are equal, differing entries can be located by descending
+ * only into subtrees having different hashes.
+ * <p>
+ * Nodes are addressed by level and index on level, level 0 contains root, level {@link #getDepth()} contains leaves.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class MerkleTree
+{
+    public static final int MAX_DEPTH = 20;
+    private final int depth;
+    private final long[] nodes;
+
+    /**
+     * Creates a new object.
+     *
+     * @param depth depth of tree. Tree has 2^depth leaves
+     */
+    public MerkleTree(int depth)
+    {
+        Assert.isTrue(depth >= 0 && depth <= MAX_DEPTH);
+
+        this.depth = depth;
+        this.nodes = new long[2 << depth];
+
+        for (int i = (1 << depth) - 1; i >= 1; i--)
+            nodes[i] = combine(nodes[2 * i], nodes[2 * i + 1]);
+    }
+
+    private MerkleTree(int depth, long[] nodes)
+    {
+        this.depth = depth;
+        this.nodes = nodes;
+    }
+
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    public int getLeafCount()
+    {
+        return 1 << depth;
+    }
+
+    /**
+     * Returns leaf index of entry with specified key hash.
+     *
+     * @param keyHash hash of entry key
+     * @return leaf index
+     */
+    public int getLeaf(int keyHash)
+    {
+        keyHash ^= (keyHash >>> 16);
+        keyHash *= 0x85ebca6b;
+        keyHash ^= (keyHash >>> 13);
+
+        return keyHash & ((1 << depth) - 1);
+    }
+
+    /**
+     * Adds entry.
+     *
+     * @param keyHash hash of entry key
+     * @param entryHash hash of entry (key and value)
+     */
+    public void add(int keyHash, long entryHash)
+    {
+        update(getLeaf(keyHash), entryHash);
+    }
+
+    /**
+     * Removes entry previously added with the same key hash and entry hash.
+     *
+     * @param keyHash hash of entry key
+     * @param entryHash hash of entry (key and value)
+     */
+    public void remove(int keyHash, long entryHash)
+    {
+        update(getLeaf(keyHash), entryHash);
+    }
+
+    /**
+     * Replaces entry.
+     *
+     * @param keyHash hash of entry key
+     * @param oldEntryHash hash of old entry (key and value)
+     * @param newEntryHash hash of new entry (key and value)
+     */
+    public void replace(int keyHash, long oldEntryHash, long newEntryHash)
+    {
+        update(getLeaf(keyHash), oldEntryHash ^ newEntryHash);
+    }
+
+    /**
+     * Returns hash of root.
+     *
+     * @return hash of root
+     */
+    public synchronized long getRoot()
+    {
+        return nodes[1];
+    }
+
+    /**
+     * Returns hash of node.
+     *
+     * @param level level of node
+     * @param index index of node on level
+     * @return hash of node
+     */
+    public synchronized long getHash(int level, int index)
+    {
+        Assert.isTrue(level >= 0 && level <= depth);
+        Assert.isTrue(index >= 0 && index < (1 << level));
+
+        return nodes[(1 << level) + index];
+    }
+
+    /**
+     * Returns snapshot of tree.
+     *
+     * @return copy of tree, which is not affected by subsequent updates of this tree
+     */
+    public synchronized MerkleTree copy()
+    {
+        return new MerkleTree(depth, nodes.clone());
+    }
+
+    /**
+     * Clears tree.
+     */
+    public synchronized void clear()
+    {
+        for (int i = 1 << depth; i < nodes.length; i++)
+            nodes[i] = 0;
+
+        for (int i = (1 << depth) - 1; i >= 1; i--)
+            nodes[i] = combine(nodes[2 * i], nodes[2 * i + 1]);
+    }
+
+    /**
+     * Returns 64-bit hash of specified data.
+     *
+     * @param buffer data buffer
+     * @param offset offset of data in buffer
+     * @param length length of data
+     * @return hash of data
+     */
+    public static long hash(byte[] buffer, int offset, int length)
+    {
+        // FNV-1a with final avalanche step
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++)
+        {
+            hash ^= buffer[i] & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return mix(hash);
+    }
+
+    @Override
+    public String toString()
+    {
+        return Long.toHexString(getRoot());
+    }
+
+    private synchronized void update(int leaf, long delta)
+    {
+        int i = (1 << depth) + leaf;
+        nodes[i] ^= delta;
+
+        for (i >>>= 1; i >= 1; i >>>= 1)
+            nodes[i] = combine(nodes[2 * i], nodes[2 * i + 1]);
+    }
+
+    private static long combine(long left, long right)
+    {
+        return mix(mix(left) * 31 + right + 0x9e3779b97f4a7c15L);
+    }
+
+    private static long mix(long value)
+    {
+        value ^= (value >>> 33);
+        value *= 0xff51afd7ed558ccdL;
+        value ^= (value >>> 33);
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= (value >>> 33);
+
+        return value;
+    }
+}
@@ -0,0 +1,590 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.common.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+
+/**
+ * The {@link PersistentHashMap} is an immutable hash map based on hash array mapped trie. Modification of map creates a new
+ * map, which shares all unmodified trie nodes with original map, so that modification copies only path from root to
+ * modified entry and takes O(log32(n)) time and space. Map does not allow null keys or values.
+ *
+ * @param <K> key type
+ * @param <V> value type
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>>
+{
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final PersistentHashMap<Object, Object> EMPTY = new PersistentHashMap<Object, Object>(null, 0);
+    private final Object root;
+    private final int size;
+
+    /**
+     * The {@link IDiffHandler} is a handler of differences between two maps.
+     *
+     * @param <K> key type
+     * @param <V> value type
+     * @author Medvedev-A
+     */
+    public interface IDiffHandler<K, V>
+    {
+        /**
+         * Called when key is absent in old map.
+         *
+         * @param key key
+         * @param value value in new map
+         */
+        void onAdded(K key, V value);
+
+        /**
+         * Called when key is absent in new map.
+         *
+         * @param key key
+         * @param value value in old map
+         */
+        void onRemoved(K key, V value);
+
+        /**
+         * Called when key is associated with different values in old and new map.
+         *
+         * @param key key
+         * @param oldValue value in old map
+         * @param newValue value in new map
+         */
+        void onChanged(K key, V oldValue, V newValue);
+    }
+
+    /**
+     * Returns empty map.
+     *
+     * @return empty map
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty()
+    {
+        return (PersistentHashMap<K, V>)EMPTY;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean containsKey(K key)
+    {
+        return get(key) != null;
+    }
+
+    /**
+     * Returns value of specified key.
+     *
+     * @param key key
+     * @return value or null if key is not found
+     */
+    public V get(K key)
+    {
+        Assert.notNull(key);
+
+        Entry<K, V> entry = find(root, 0, hash(key), key);
+        return entry != null ? entry.value : null;
+    }
+
+    /**
+     * Returns map, where specified key is associated with specified value.
+     *
+     * @param key key
+     * @param value value
+     * @return new map or this map if key is already associated with the same value
+     */
+    public PersistentHashMap<K, V> put(K key, V value)
+    {
+        Assert.notNull(key);
+        Assert.notNull(value);
+
+        Entry<K, V> entry = new Entry<K, V>(hash(key), key, value);
+        boolean[] added = new boolean[1];
+        Object newRoot = put(root, 0, entry, added);
+        if (newRoot == root)
+            return this;
+
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns map without specified key.
+     *
+     * @param key key
+     * @return new map or this map if key is not found
+     */
+    public PersistentHashMap<K, V> remove(K key)
+    {
+        Assert.notNull(key);
+
+        Object newRoot = remove(root, 0, hash(key), key);
+        if (newRoot == root)
+            return this;
+
+        if (newRoot == null)
+            return empty();
+
+        return new PersistentHashMap<K, V>(newRoot, size - 1);
+    }
+
+    /**
+     * Compares this map with specified old map. Trie nodes shared by both maps are skipped, so that comparison of map
+     * derived from old map takes time proportional to number of modified entries. Values are compared by identity.
+     *
+     * @param oldMap old map
+     * @param handler handler of differences between old map and this map
+     */
+    public void diff(PersistentHashMap<K, V> oldMap, IDiffHandler<K, V> handler)
+    {
+        Assert.notNull(oldMap);
+        Assert.notNull(handler);
+
+        diff(oldMap.root, root, 0, handler);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator()
+    {
+        return new EntryIterator<K, V>(root);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append('{');
+        boolean first = true;
+        for (Map.Entry<K, V> entry : this)
+        {
+            if (first)
+                first = false;
+            else
+                builder.append(", ");
+
+            builder.append(entry);
+        }
+        builder.append('}');
+        return builder.toString();
+    }
+
+    private PersistentHashMap(Object root, int size)
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    private static <K, V> Entry<K, V> find(Object node, int shift, int hash, Object key)
+    {
+        while (node != null)
+        {
+            if (node instanceof Entry)
+            {
+                Entry<K, V> entry = toEntry(node);
+                if (entry.hash == hash && entry.key.equals(key))
+                    return entry;
+                else
+                    return null;
+            }
+            else if (node instanceof CollisionNode)
+            {
+                CollisionNode collisionNode = (CollisionNode)node;
+                if (collisionNode.hash != hash)
+                    return null;
+
+                int index = collisionNode.find(key);
+                return index != -1 ? PersistentHashMap.<K, V>toEntry(collisionNode.entries[index]) : null;
+            }
+            else
+            {
+                BitmapNode bitmapNode = (BitmapNode)node;
+                int bit = bit(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0)
+                    return null;
+
+                node = bitmapNode.array[bitmapNode.index(bit)];
+                shift += BITS;
+            }
+        }
+
+        return null;
+    }
+
+    private static <K, V> void diff(Object oldNode, Object newNode, int shift, IDiffHandler<K, V> handler)
+    {
+        if (oldNode == newNode)
+            return;
+
+        if (oldNode instanceof BitmapNode && newNode instanceof BitmapNode)
+        {
+            BitmapNode oldBitmapNode = (BitmapNode)oldNode;
+            BitmapNode newBitmapNode = (BitmapNode)newNode;
+            int bitmap = oldBitmapNode.bitmap | newBitmapNode.bitmap;
+            while (bitmap != 0)
+            {
+                int bit = Integer.lowestOneBit(bitmap);
+                bitmap &= ~bit;
+
+                Object oldChild = (oldBitmapNode.bitmap & bit) != 0 ? oldBitmapNode.array[oldBitmapNode.index(bit)] : null;
+                Object newChild = (newBitmapNode.bitmap & bit) != 0 ? newBitmapNode.array[newBitmapNode.index(bit)] : null;
+                diff(oldChild, newChild, shift + BITS, handler);
+            }
+
+            return;
+        }
+
+        // Subtrees have different shapes, so at least one of them is empty, single entry or collision node
+        for (EntryIterator<K, V> it = new EntryIterator<K, V>(oldNode); it.hasNext(); )
+        {
+            Entry<K, V> oldEntry = (Entry<K, V>)it.next();
+            Entry<K, V> newEntry = find(newNode, shift, oldEntry.hash, oldEntry.key);
+            if (newEntry == null)
+                handler.onRemoved(oldEntry.key, oldEntry.value);
+            else if (newEntry.value != oldEntry.value)
+                handler.onChanged(oldEntry.key, oldEntry.value, newEntry.value);
+        }
+
+        for (EntryIterator<K, V> it = new EntryIterator<K, V>(newNode); it.hasNext(); )
+        {
+            Entry<K, V> newEntry = (Entry<K, V>)it.next();
+            if (find(oldNode, shift, newEntry.hash, newEntry.key) == null)
+                handler.onAdded(newEntry.key, newEntry.value);
+        }
+    }
+
+    private static <K, V> Object put(Object node, int shift, Entry<K, V> entry, boolean[] added)
+    {
+        if (node == null)
+        {
+            added[0] = true;
+            return entry;
+        }
+        else if (node instanceof Entry)
+        {
+            Entry<K, V> existing = toEntry(node);
+            if (existing.hash == entry.hash && existing.key.equals(entry.key))
+            {
+                if (existing.value == entry.value)
+                    return existing;
+                else
+                    return entry;
+            }
+
+            added[0] = true;
+            return merge(existing.hash, existing, entry, shift);
+        }
+        else if (node instanceof CollisionNode)
+        {
+            CollisionNode collisionNode = (CollisionNode)node;
+            if (collisionNode.hash != entry.hash)
+            {
+                added[0] = true;
+                return merge(collisionNode.hash, collisionNode, entry, shift);
+            }
+
+            int index = collisionNode.find(entry.key);
+            if (index != -1)
+            {
+                if (((Entry<?, ?>)collisionNode.entries[index]).value == entry.value)
+                    return collisionNode;
+
+                Object[] entries = collisionNode.entries.clone();
+                entries[index] = entry;
+                return new CollisionNode(entry.hash, entries);
+            }
+
+            added[0] = true;
+            Object[] entries = new Object[collisionNode.entries.length + 1];
+            System.arraycopy(collisionNode.entries, 0, entries, 0, collisionNode.entries.length);
+            entries[collisionNode.entries.length] = entry;
+            return new CollisionNode(entry.hash, entries);
+        }
+        else
+        {
+            BitmapNode bitmapNode = (BitmapNode)node;
+            int bit = bit(entry.hash, shift);
+            int index = bitmapNode.index(bit);
+            if ((bitmapNode.bitmap & bit) == 0)
+            {
+                added[0] = true;
+                Object[] array = new Object[bitmapNode.array.length + 1];
+                System.arraycopy(bitmapNode.array, 0, array, 0, index);
+                array[index] = entry;
+                System.arraycopy(bitmapNode.array, index, array, index + 1, bitmapNode.array.length - index);
+                return new BitmapNode(bitmapNode.bitmap | bit, array);
+            }
+
+            Object child = bitmapNode.array[index];
+            Object newChild = put(child, shift + BITS, entry, added);
+            if (newChild == child)
+                return bitmapNode;
+
+            Object[] array = bitmapNode.array.clone();
+            array[index] = newChild;
+            return new BitmapNode(bitmapNode.bitmap, array);
+        }
+    }
+
+    private static Object merge(int hash1, Object node1, Entry<?, ?> entry2, int shift)
+    {
+        if (hash1 == entry2.hash)
+            return new CollisionNode(hash1, new Object[]{node1, entry2});
+
+        int bit1 = bit(hash1, shift);
+        int bit2 = bit(entry2.hash, shift);
+        if (bit1 == bit2)
+            return new BitmapNode(bit1, new Object[]{merge(hash1, node1, entry2, shift + BITS)});
+        else if (Integer.compareUnsigned(bit1, bit2) < 0)
+            return new BitmapNode(bit1 | bit2, new Object[]{node1, entry2});
+        else
+            return new BitmapNode(bit1 | bit2, new Object[]{entry2, node1});
+    }
+
+    private static Object remove(Object node, int shift, int hash, Object key)
+    {
+        if (node == null)
+            return null;
+        else if (node instanceof Entry)
+        {
+            Entry<?, ?> entry = (Entry<?, ?>)node;
+            if (entry.hash == hash && entry.key.equals(key))
+                return null;
+            else
+                return entry;
+        }
+        else if (node instanceof CollisionNode)
+        {
+            CollisionNode collisionNode = (CollisionNode)node;
+            if (collisionNode.hash != hash)
+                return collisionNode;
+
+            int index = collisionNode.find(key);
+            if (index == -1)
+                return collisionNode;
+
+            if (collisionNode.entries.length == 2)
+                return collisionNode.entries[1 - index];
+
+            Object[] entries = new Object[collisionNode.entries.length - 1];
+            System.arraycopy(collisionNode.entries, 0, entries, 0, index);
+            System.arraycopy(collisionNode.entries, index + 1, entries, index, entries.length - index);
+            return new CollisionNode(hash, entries);
+        }
+        else
+        {
+            BitmapNode bitmapNode = (BitmapNode)node;
+            int bit = bit(hash, shift);
+            if ((bitmapNode.bitmap & bit) == 0)
+                return bitmapNode;
+
+            int index = bitmapNode.index(bit);
+            Object child = bitmapNode.array[index];
+            Object newChild = remove(child, shift + BITS, hash, key);
+            if (newChild == child)
+                return bitmapNode;
+
+            if (newChild != null)
+            {
+                if (bitmapNode.array.length == 1 && !(newChild instanceof BitmapNode))
+                    return newChild;
+
+                Object[] array = bitmapNode.array.clone();
+                array[index] = newChild;
+                return new BitmapNode(bitmapNode.bitmap, array);
+            }
+
+            if (bitmapNode.array.length == 1)
+                return null;
+
+            if (bitmapNode.array.length == 2 && !(bitmapNode.array[1 - index] instanceof BitmapNode))
+                return bitmapNode.array[1 - index];
+
+            Object[] array = new Object[bitmapNode.array.length - 1];
+            System.arraycopy(bitmapNode.array, 0, array, 0, index);
+            System.arraycopy(bitmapNode.array, index + 1, array, index, array.length - index);
+            return new BitmapNode(bitmapNode.bitmap & ~bit, array);
+        }
+    }
+
+    private static int hash(Object key)
+    {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int bit(int hash, int shift)
+    {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Entry<K, V> toEntry(Object node)
+    {
+        return (Entry<K, V>)node;
+    }
+
+    private static final class Entry<K, V> implements Map.Entry<K, V>
+    {
+        private final int hash;
+        private final K key;
+        private final V value;
+
+        public Entry(int hash, K key, V value)
+        {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public K getKey()
+        {
+            return key;
+        }
+
+        @Override
+        public V getValue()
+        {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    private static final class BitmapNode
+    {
+        private final int bitmap;
+        private final Object[] array;
+
+        public BitmapNode(int bitmap, Object[] array)
+        {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        public int index(int bit)
+        {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    private static final class CollisionNode
+    {
+        private final int hash;
+        private final Object[] entries;
+
+        public CollisionNode(int hash, Object[] entries)
+        {
+            this.hash = hash;
+            this.entries = entries;
+        }
+
+        public int find(Object key)
+        {
+            for (int i = 0; i < entries.length; i++)
+            {
+                if (((Entry<?, ?>)entries[i]).key.equals(key))
+                    return i;
+            }
+
+            return -1;
+        }
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>>
+    {
+        private final Object[] nodes = new Object[10];
+        private final int[] positions = new int[10];
+        private int depth = -1;
+        private Entry<K, V> next;
+
+        public EntryIterator(Object root)
+        {
+            if (root != null)
+                push(root);
+
+            advance();
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next()
+        {
+            if (next == null)
+                throw new NoSuchElementException();
+
+            Entry<K, V> entry = next;
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private void push(Object node)
+        {
+            depth++;
+            nodes[depth] = node;
+            positions[depth] = 0;
+        }
+
+        private void advance()
+        {
+            next = null;
+            while (depth >= 0)
+            {
+                Object node = nodes[depth];
+                if (node instanceof Entry)
+                {
+                    depth--;
+                    next = toEntry(node);
+                    return;
+                }
+
+                Object[] array = node instanceof BitmapNode ? ((BitmapNode)node).array : ((CollisionNode)node).entries;
+                int position = positions[depth];
+                if (position == array.length)
+                {
+                    nodes[depth] = null;
+                    depth--;
+                    continue;
+                }
+
+                positions[depth] = position + 1;
+                push(array[position]);
+            }
+        }
+    }
+}
@@ -168,7 +168,7 @@ public class SimGroupChannelFactory extends ChannelFactory
             stateTransferServerProtocol = new AsyncStateTransferServerProtocol(channelName, 
                 messageFactory, membershipManager, failureDetectionProtocol, nodeParameters.stateTransferFactory, serializationRegistry,
                 nodeFactoryParameters.saveSnapshotPeriod, nodeFactoryParameters.transferLogRecordPeriod, nodeFactoryParameters.transferLogMessagesCount,
-                nodeFactoryParameters.minLockQueueCapacity,  GroupMemberships.CORE_GROUP_ADDRESS,  GroupMemberships.CORE_GROUP_ID);
+                nodeFactoryParameters.stateTransferChunkSize, nodeFactoryParameters.minLockQueueCapacity,  GroupMemberships.CORE_GROUP_ADDRESS,  GroupMemberships.CORE_GROUP_ID);
             protocols.add(stateTransferServerProtocol);
             flushParticipants.add(stateTransferServerProtocol);
             stateTransferServerProtocol.setFlowController(flowControlProtocol);
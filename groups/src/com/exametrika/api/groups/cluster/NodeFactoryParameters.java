@@ -26,6 +26,7 @@ public class NodeFactoryParameters extends ChannelFactoryParameters
     public long saveSnapshotPeriod = 1000;
     public long transferLogRecordPeriod = 1000;
     public int transferLogMessagesCount = 2;
+    public int stateTransferChunkSize = 0x100000;
     public int minLockQueueCapacity = 10000000;
     public int maxUnlockQueueCapacity = 100000;
     public long dataExchangePeriod = 200;
@@ -15,6 +15,7 @@ public class WorkerNodeFactoryParameters extends NodeFactoryParameters
     public int maxSubStackPendingMessageCount = 1000;
     public long groupSubStackRemoveDelay = 300000;
     public int maxGroupMembershipHistorySize = 10;
+    public int groupSubStackShardCount = 0;
     
     public WorkerNodeFactoryParameters()
     {
@@ -26,4 +26,10 @@ public interface MessageFlags extends com.exametrika.common.messaging.impl.Messa
     
     /** Message is a group state hash request. */
     int STATE_HASH_REQUEST = 1 << 24;
+    
+    /** Message is a snapshot-only state transfer request, used to fetch snapshot chunks from additional members.*/
+    int SNAPSHOT_TRANSFER_REQUEST = 1 << 25;
+    
+    /** Message is a notification that all snapshot chunks have been received by state transfer client.*/
+    int SNAPSHOT_TRANSFER_END = 1 << 26;
 }
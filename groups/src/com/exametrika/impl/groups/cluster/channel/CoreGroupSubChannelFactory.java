@@ -60,12 +60,12 @@ import com.exametrika.impl.groups.cluster.management.CommandManager;
 import com.exametrika.impl.groups.cluster.management.ICommandHandler;
 import com.exametrika.impl.groups.cluster.membership.ClusterMembershipManager;
 import com.exametrika.impl.groups.cluster.membership.ClusterMembershipStateTransferFactory;
+import com.exametrika.impl.groups.cluster.membership.ConsistentHashWorkerToCoreMappingStrategy;
 import com.exametrika.impl.groups.cluster.membership.CoreClusterMembershipProtocol;
 import com.exametrika.impl.groups.cluster.membership.CoreCoordinatorClusterMembershipProtocol;
 import com.exametrika.impl.groups.cluster.membership.CoreGroupMembershipManager;
 import com.exametrika.impl.groups.cluster.membership.CoreGroupMembershipTracker;
 import com.exametrika.impl.groups.cluster.membership.DefaultGroupMappingStrategy;
-import com.exametrika.impl.groups.cluster.membership.DefaultWorkerToCoreMappingStrategy;
 import com.exametrika.impl.groups.cluster.membership.GroupDefinitionStateTransferFactory;
 import com.exametrika.impl.groups.cluster.membership.GroupMemberships;
 import com.exametrika.impl.groups.cluster.membership.GroupsMembershipProvider;
@@ -375,7 +375,7 @@ public class CoreGroupSubChannelFactory extends AbstractChannelFactory
         membershipProviders.add(nodesMembershipProvider);
         
         WorkerToCoreMembershipProvider workerToCoreMembershipProvider = new WorkerToCoreMembershipProvider(membershipManager, 
-            new DefaultWorkerToCoreMappingStrategy());
+            new ConsistentHashWorkerToCoreMappingStrategy(100, 1.25));
         coreMembershipProviders.add(workerToCoreMembershipProvider);
         
         DefaultGroupMappingStrategy groupMappingStrategy = new DefaultGroupMappingStrategy(groupFeedbackProvider, nodeFeedbackProvider);
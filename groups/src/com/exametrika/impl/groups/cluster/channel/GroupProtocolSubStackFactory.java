@@ -67,7 +67,6 @@ public class GroupProtocolSubStackFactory implements IGroupProtocolSubStackFacto
     private final ISerializationRegistry serializationRegistry;
     protected final WorkerNodeFactoryParameters factoryParameters;
     protected final WorkerNodeParameters parameters;
-    private ICompartment compartment;
     private IChannelReconnector channelReconnector;
 
     public GroupProtocolSubStackFactory(String channelName, IMessageFactory messageFactory, 
@@ -93,11 +92,6 @@ public class GroupProtocolSubStackFactory implements IGroupProtocolSubStackFacto
         this.parameters = parameters;
     }
     
-    public void setCompartment(ICompartment compartment)
-    {
-        this.compartment = compartment;
-    }
-    
     public void setChannelReconnector(IChannelReconnector channelReconnector)
     {
         this.channelReconnector = channelReconnector;
@@ -119,7 +113,7 @@ public class GroupProtocolSubStackFactory implements IGroupProtocolSubStackFacto
     }
 
     @Override
-    public GroupProtocolSubStack createProtocolSubStack(IGroup group)
+    public GroupProtocolSubStack createProtocolSubStack(IGroup group, ICompartment compartment)
     {
         List<AbstractProtocol> protocols = new ArrayList<AbstractProtocol>();
         Set<IPreparedGroupMembershipListener> preparedMembershipListeners = new HashSet<IPreparedGroupMembershipListener>();
@@ -190,7 +184,7 @@ public class GroupProtocolSubStackFactory implements IGroupProtocolSubStackFacto
             AsyncStateTransferServerProtocol stateTransferServerProtocol = new AsyncStateTransferServerProtocol(channelName, 
                 messageFactory, membershipManager, failureDetectionProtocol, parameters.stateTransferFactory, serializationRegistry,
                 factoryParameters.saveSnapshotPeriod,factoryParameters.transferLogRecordPeriod, factoryParameters.transferLogMessagesCount,
-                factoryParameters.minLockQueueCapacity, (GroupAddress)group.getAddress(), group.getId());
+                factoryParameters.stateTransferChunkSize, factoryParameters.minLockQueueCapacity, (GroupAddress)group.getAddress(), group.getId());
             protocols.add(stateTransferServerProtocol);
             flushParticipants.add(stateTransferServerProtocol);
             stateTransferServerProtocol.setCompartment(compartment);
@@ -53,6 +53,7 @@ public class WorkerGroupSubChannelFactory extends AbstractChannelFactory
     protected WorkerClusterFailureDetectionProtocol failureDetectionProtocol;
     protected List<IWorkerControllerObserver> controllerObservers;
     protected IGroupProtocolSubStackFactory protocolSubStackFactory;
+    protected WorkerGroupMembershipProtocol workerGroupMembershipProtocol;
     protected GroupFeedbackProvider groupFeedbackProvider;
     protected DataLossFeedbackProvider dataLossFeedbackProvider;
     
@@ -129,9 +130,10 @@ public class WorkerGroupSubChannelFactory extends AbstractChannelFactory
         
         protocolSubStackFactory = createGroupProtocolSubStackFactory(messageFactory, channelName, serializationRegistry, 
             nodeParameters, nodeFactoryParameters);
-        WorkerGroupMembershipProtocol workerGroupMembershipProtocol = new WorkerGroupMembershipProtocol(channelName, 
+        workerGroupMembershipProtocol = new WorkerGroupMembershipProtocol(channelName, 
             messageFactory, clusterMembershipManager, protocolSubStackFactory, nodeFactoryParameters.groupSubStackRemoveDelay, 
-            nodeFactoryParameters.maxSubStackPendingMessageCount);
+            nodeFactoryParameters.maxSubStackPendingMessageCount, nodeFactoryParameters.groupSubStackShardCount,
+            nodeFactoryParameters.selectionPeriod);
         protocols.add(workerGroupMembershipProtocol);
         clusterMembershipListeners.add(workerGroupMembershipProtocol);
     }
@@ -148,10 +150,11 @@ public class WorkerGroupSubChannelFactory extends AbstractChannelFactory
     @Override
     protected void wireProtocols(IChannel channel, TcpTransport transport, ProtocolStack protocolStack)
     {
+        workerGroupMembershipProtocol.setCompartment(channel.getCompartment());
+        
         if (protocolSubStackFactory instanceof GroupProtocolSubStackFactory)
         {
             GroupProtocolSubStackFactory groupProtocolSubStackFactory = (GroupProtocolSubStackFactory)protocolSubStackFactory;
-            groupProtocolSubStackFactory.setCompartment(channel.getCompartment());
             groupProtocolSubStackFactory.setFailureObserver(transport);
         }
     }
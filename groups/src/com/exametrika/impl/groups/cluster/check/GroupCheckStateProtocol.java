@@ -3,6 +3,8 @@
  */
 package com.exametrika.impl.groups.cluster.check;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -21,6 +23,7 @@ import com.exametrika.common.messaging.IReceiver;
 import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.MerkleTree;
 import com.exametrika.impl.groups.MessageFlags;
 import com.exametrika.impl.groups.cluster.failuredetection.IFailureDetectionListener;
 import com.exametrika.impl.groups.cluster.failuredetection.IGroupFailureDetector;
@@ -31,8 +34,13 @@ import com.exametrika.impl.groups.cluster.membership.GroupAddress;
 import com.exametrika.impl.groups.cluster.membership.IGroupMembershipManager;
 
 /**
- * The {@link GroupCheckStateProtocol} represents a checking equality of group state protocol.
- * process.
+ * The {@link GroupCheckStateProtocol} represents a checking equality of group state protocol. Coordinator periodically
+ * requests state hashes of all healthy group members and compares them. State hash request is delivered to all group
+ * members (including coordinator) in total order, so each member computes hash of its group state at the same point
+ * of group message stream. If group state maintains hash tree, each member takes snapshot of its hash tree at delivery
+ * of request, coordinator compares roots of member snapshots with root of its own snapshot and locates divergent parts
+ * of state of differing members by descending only into differing subtrees of snapshots taken for the same request.
+ * Check which is not completed during check period (i.e. because of lost responses) is abandoned and restarted.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
@@ -49,8 +57,13 @@ public final class GroupCheckStateProtocol extends AbstractProtocol implements I
     private final String groupDomain;
     private IGroupFailureDetector failureDetector;
     private Set<IAddress> respondingNodes = new HashSet<IAddress>();
+    private final Set<IAddress> checkingNodes = new HashSet<IAddress>();
+    private final List<IMessage> pendingResponses = new ArrayList<IMessage>();
+    private long requestId;
     private String stateHash;
     private long lastCheckTime;
+    private MerkleTree stateHashTree;
+    private long stateHashTreeRequestId;
     
     public GroupCheckStateProtocol(String channelName, IMessageFactory messageFactory, 
         IGroupMembershipManager membershipManager, IDataLossFeedbackService dataLossFeedbackService, 
@@ -90,19 +103,26 @@ public final class GroupCheckStateProtocol extends AbstractProtocol implements I
     @Override
     public void register(ISerializationRegistry registry)
     {
+        registry.register(new StateHashRequestMessagePartSerializer());
         registry.register(new StateHashResponseMessagePartSerializer());
+        registry.register(new StateHashTreeRequestMessagePartSerializer());
+        registry.register(new StateHashTreeResponseMessagePartSerializer());
     }
     
     @Override
     public void unregister(ISerializationRegistry registry)
     {
+        registry.unregister(StateHashRequestMessagePartSerializer.ID);
         registry.unregister(StateHashResponseMessagePartSerializer.ID);
+        registry.unregister(StateHashTreeRequestMessagePartSerializer.ID);
+        registry.unregister(StateHashTreeResponseMessagePartSerializer.ID);
     }
     
     @Override
     public void onMemberFailed(INode member)
     {
         respondingNodes.remove(member.getAddress());
+        checkingNodes.remove(member.getAddress());
     }
 
     @Override
@@ -115,17 +135,24 @@ public final class GroupCheckStateProtocol extends AbstractProtocol implements I
     public void onTimer(long currentTime)
     {
         if (currentTime > lastCheckTime + checkStatePeriod &&
-            membershipManager.getLocalNode().equals(failureDetector.getCurrentCoordinator()) &&
-            com.exametrika.common.utils.Collections.isEmpty(respondingNodes))
+            membershipManager.getLocalNode().equals(failureDetector.getCurrentCoordinator()))
         {
+            if (isChecking() && logger.isLogEnabled(LogLevel.DEBUG))
+                logger.log(LogLevel.DEBUG, marker, messages.checkTimedOut(requestId, respondingNodes, checkingNodes));
+            
             lastCheckTime = currentTime;
+            requestId++;
             stateHash = null;
+            checkingNodes.clear();
+            pendingResponses.clear();
+            
             List<INode> healthyNodes = failureDetector.getHealthyMembers();
             respondingNodes = new HashSet<IAddress>();
             for (INode node : healthyNodes)
                 respondingNodes.add(node.getAddress());
             
-            send(messageFactory.create(groupAddress, MessageFlags.STATE_HASH_REQUEST));
+            send(messageFactory.create(groupAddress, new StateHashRequestMessagePart(requestId), 
+                MessageFlags.STATE_HASH_REQUEST));
         }
     }
     
@@ -135,51 +162,201 @@ public final class GroupCheckStateProtocol extends AbstractProtocol implements I
         if (message.getPart() instanceof StateHashResponseMessagePart)
         {
             StateHashResponseMessagePart part = message.getPart();
-            if (stateHash == null)
-                stateHash = part.getHash();
-            else if (!stateHash.equals(part.getHash()))
+            if (part.getRequestId() != requestId || !respondingNodes.contains(message.getSource()))
+                return;
+            
+            if (stateHash == null && getStateHashTree() != null)
+                // Coordinator has not taken snapshot of its own hash tree for this request yet
+                pendingResponses.add(message);
+            else
+                checkStateHash(message.getSource(), part.getHash());
+        }
+        else if (message.getPart() instanceof StateHashTreeRequestMessagePart)
+        {
+            StateHashTreeRequestMessagePart part = message.getPart();
+            MerkleTree tree = stateHashTree;
+            
+            List<Integer> indexes;
+            long[] childHashes;
+            if (tree != null && part.getRequestId() == stateHashTreeRequestId && part.getLevel() < tree.getDepth())
             {
-                if (logger.isLogEnabled(LogLevel.ERROR))
-                    logger.log(LogLevel.ERROR, marker, messages.stateNotEqual(message.getSource()));
-                
-                if (dataLossFeedbackService != null)
+                indexes = part.getIndexes();
+                childHashes = new long[indexes.size() * 2];
+                for (int i = 0; i < indexes.size(); i++)
                 {
-                    IDataLossState state = new DataLossState(groupDomain, groupId);
-                    dataLossFeedbackService.updateDataLossState(state);
+                    int index = indexes.get(i);
+                    childHashes[2 * i] = tree.getHash(part.getLevel() + 1, 2 * index);
+                    childHashes[2 * i + 1] = tree.getHash(part.getLevel() + 1, 2 * index + 1);
                 }
             }
+            else
+            {
+                indexes = Collections.emptyList();
+                childHashes = new long[0];
+            }
             
-            respondingNodes.remove(message.getSource());
+            send(messageFactory.create(message.getSource(), new StateHashTreeResponseMessagePart(part.getRequestId(), 
+                part.getLevel(), indexes, childHashes)));
+        }
+        else if (message.getPart() instanceof StateHashTreeResponseMessagePart)
+        {
+            StateHashTreeResponseMessagePart part = message.getPart();
+            if (part.getRequestId() == requestId && checkingNodes.contains(message.getSource()))
+                checkSubtrees(message.getSource(), part);
         }
         else if (message.hasFlags(MessageFlags.STATE_HASH_REQUEST))
         {
-            stateHashProvider.computeStateHash(new ICompletionHandler<String>()
+            final long requestId;
+            if (message.getPart() instanceof StateHashRequestMessagePart)
+                requestId = ((StateHashRequestMessagePart)message.getPart()).getRequestId();
+            else
+                requestId = 0;
+            
+            MerkleTree tree = getStateHashTree();
+            if (tree != null)
             {
-                @Override
-                public void onSucceeded(String result)
-                {
-                    sendResponse(result);
-                }
+                stateHashTree = tree.copy();
+                stateHashTreeRequestId = requestId;
                 
-                @Override
-                public void onFailed(Throwable error)
-                {
-                    sendResponse("");
-                }
+                String hash = Long.toHexString(stateHashTree.getRoot());
+                if (message.getSource().equals(membershipManager.getLocalNode().getAddress()) && 
+                    requestId == this.requestId)
+                    onStateHashTreeSnapshot(hash);
                 
-                private void sendResponse(String result)
+                send(messageFactory.create(message.getSource(), new StateHashResponseMessagePart(requestId, hash)));
+            }
+            else
+            {
+                stateHashProvider.computeStateHash(new ICompletionHandler<String>()
                 {
-                    send(messageFactory.create(message.getSource(), new StateHashResponseMessagePart(result)));
-                }
-            });
+                    @Override
+                    public void onSucceeded(String result)
+                    {
+                        sendResponse(result);
+                    }
+                    
+                    @Override
+                    public void onFailed(Throwable error)
+                    {
+                        sendResponse("");
+                    }
+                    
+                    private void sendResponse(String result)
+                    {
+                        send(messageFactory.create(message.getSource(), new StateHashResponseMessagePart(requestId, 
+                            result)));
+                    }
+                });
+            }
         }
         else
             receiver.receive(message);
     }
 
+    private boolean isChecking()
+    {
+        return !respondingNodes.isEmpty() || !checkingNodes.isEmpty();
+    }
+    
+    private MerkleTree getStateHashTree()
+    {
+        if (stateHashProvider instanceof IGroupStateHashTreeProvider)
+            return ((IGroupStateHashTreeProvider)stateHashProvider).getStateHashTree();
+        else
+            return null;
+    }
+    
+    private void onStateHashTreeSnapshot(String hash)
+    {
+        stateHash = hash;
+        
+        List<IMessage> responses = new ArrayList<IMessage>(pendingResponses);
+        pendingResponses.clear();
+        
+        for (IMessage response : responses)
+        {
+            StateHashResponseMessagePart part = response.getPart();
+            if (respondingNodes.contains(response.getSource()))
+                checkStateHash(response.getSource(), part.getHash());
+        }
+    }
+    
+    private void checkStateHash(IAddress node, String hash)
+    {
+        respondingNodes.remove(node);
+        
+        if (stateHash == null)
+            stateHash = hash;
+        else if (!stateHash.equals(hash))
+        {
+            if (stateHashTree != null && stateHashTreeRequestId == requestId)
+            {
+                checkingNodes.add(node);
+                send(messageFactory.create(node, new StateHashTreeRequestMessagePart(requestId, 0, 
+                    Collections.singletonList(0))));
+            }
+            else
+            {
+                if (logger.isLogEnabled(LogLevel.ERROR))
+                    logger.log(LogLevel.ERROR, marker, messages.stateNotEqual(node));
+                
+                onDataLoss();
+            }
+        }
+    }
+    
+    private void checkSubtrees(IAddress node, StateHashTreeResponseMessagePart part)
+    {
+        MerkleTree tree = stateHashTree;
+        int level = part.getLevel() + 1;
+        if (tree == null || stateHashTreeRequestId != requestId || part.getIndexes().isEmpty() || level > tree.getDepth())
+        {
+            checkingNodes.remove(node);
+            return;
+        }
+        
+        List<Integer> differingIndexes = new ArrayList<Integer>();
+        long[] childHashes = part.getChildHashes();
+        for (int i = 0; i < part.getIndexes().size(); i++)
+        {
+            int index = part.getIndexes().get(i);
+            if (tree.getHash(level, 2 * index) != childHashes[2 * i])
+                differingIndexes.add(2 * index);
+            if (tree.getHash(level, 2 * index + 1) != childHashes[2 * i + 1])
+                differingIndexes.add(2 * index + 1);
+        }
+        
+        if (differingIndexes.isEmpty())
+            checkingNodes.remove(node);
+        else if (level == tree.getDepth())
+        {
+            checkingNodes.remove(node);
+            
+            if (logger.isLogEnabled(LogLevel.ERROR))
+                logger.log(LogLevel.ERROR, marker, messages.stateLeavesNotEqual(node, differingIndexes));
+            
+            onDataLoss();
+        }
+        else
+            send(messageFactory.create(node, new StateHashTreeRequestMessagePart(requestId, level, differingIndexes)));
+    }
+    
+    private void onDataLoss()
+    {
+        if (dataLossFeedbackService != null)
+        {
+            IDataLossState state = new DataLossState(groupDomain, groupId);
+            dataLossFeedbackService.updateDataLossState(state);
+        }
+    }
+
     private interface IMessages
     {
         @DefaultMessage("Group state of node ''{0}'' differs from other group nodes.")
         ILocalizedMessage stateNotEqual(IAddress respondingNode);
+        @DefaultMessage("Group state of node ''{0}'' differs from state of coordinator in leaves ''{1}'' of state hash tree.")
+        ILocalizedMessage stateLeavesNotEqual(IAddress node, List<Integer> leaves);
+        @DefaultMessage("Group state check ''{0}'' has not been completed during check period and is restarted. Responding nodes: {1}, checking nodes: {2}.")
+        ILocalizedMessage checkTimedOut(long requestId, Set<IAddress> respondingNodes, Set<IAddress> checkingNodes);
     }
 }
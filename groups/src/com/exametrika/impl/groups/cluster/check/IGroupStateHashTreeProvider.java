@@ -0,0 +1,23 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import com.exametrika.common.utils.MerkleTree;
+
+/**
+ * The {@link IGroupStateHashTreeProvider} is an optional interface of {@link IGroupStateHashProvider}, which is used to
+ * provide hash tree of group state.
+ * 
+ * @threadsafety Implementations of this interface and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public interface IGroupStateHashTreeProvider
+{
+    /**
+     * Returns hash tree of group state.
+     *
+     * @return hash tree of group state or null if group state does not maintain hash tree
+     */
+    MerkleTree getStateHashTree();
+}
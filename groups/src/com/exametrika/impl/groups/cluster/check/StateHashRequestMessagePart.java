@@ -0,0 +1,39 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import com.exametrika.common.messaging.IMessagePart;
+
+/**
+ * The {@link StateHashRequestMessagePart} is a group state hash request message part.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateHashRequestMessagePart implements IMessagePart
+{
+    private final long requestId;
+
+    public StateHashRequestMessagePart(long requestId)
+    {
+        this.requestId = requestId;
+    }
+    
+    public long getRequestId()
+    {
+        return requestId;
+    }
+    
+    @Override
+    public int getSize()
+    {
+        return 8;
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return Long.toString(requestId);
+    }
+}
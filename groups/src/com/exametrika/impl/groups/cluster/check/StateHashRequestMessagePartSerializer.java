@@ -0,0 +1,42 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+
+/**
+ * The {@link StateHashRequestMessagePartSerializer} is a serializer for {@link StateHashRequestMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateHashRequestMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("8b3e75c8-9f4e-4e14-b3eb-e30cfcad0b69");
+ 
+    public StateHashRequestMessagePartSerializer()
+    {
+        super(ID, StateHashRequestMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+        StateHashRequestMessagePart part = (StateHashRequestMessagePart)object;
+
+        serialization.writeLong(part.getRequestId());
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        long requestId = deserialization.readLong();
+        
+        return new StateHashRequestMessagePart(requestId);
+    }
+}
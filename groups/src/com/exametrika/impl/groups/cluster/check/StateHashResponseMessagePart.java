@@ -14,15 +14,22 @@ import com.exametrika.common.utils.Assert;
  */
 public final class StateHashResponseMessagePart implements IMessagePart
 {
+    private final long requestId;
     private final String hash;
 
-    public StateHashResponseMessagePart(String hash)
+    public StateHashResponseMessagePart(long requestId, String hash)
     {
         Assert.notNull(hash);
         
+        this.requestId = requestId;
         this.hash = hash;
     }
     
+    public long getRequestId()
+    {
+        return requestId;
+    }
+    
     public String getHash()
     {
         return hash;
@@ -31,13 +38,13 @@ public final class StateHashResponseMessagePart implements IMessagePart
     @Override
     public int getSize()
     {
-        return hash.length() * 2;
+        return 8 + hash.length() * 2;
     }
     
     @Override 
     public String toString()
     {
-        return hash;
+        return requestId + ":" + hash;
     }
 }
 
@@ -29,14 +29,16 @@ public final class StateHashResponseMessagePartSerializer extends AbstractSerial
     {
         StateHashResponseMessagePart part = (StateHashResponseMessagePart)object;
 
+        serialization.writeLong(part.getRequestId());
         serialization.writeString(part.getHash());
     }
     
     @Override
     public Object deserialize(IDeserialization deserialization, UUID id)
     {
+        long requestId = deserialization.readLong();
         String hash = deserialization.readString();
         
-        return new StateHashResponseMessagePart(hash);
+        return new StateHashResponseMessagePart(requestId, hash);
     }
 }
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import java.util.List;
+
+import com.exametrika.common.messaging.IMessagePart;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Immutables;
+
+/**
+ * The {@link StateHashTreeRequestMessagePart} is a request of hashes of children of specified nodes of group state hash tree.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateHashTreeRequestMessagePart implements IMessagePart
+{
+    private final long requestId;
+    private final int level;
+    private final List<Integer> indexes;
+
+    public StateHashTreeRequestMessagePart(long requestId, int level, List<Integer> indexes)
+    {
+        Assert.notNull(indexes);
+        
+        this.requestId = requestId;
+        this.level = level;
+        this.indexes = Immutables.wrap(indexes);
+    }
+    
+    public long getRequestId()
+    {
+        return requestId;
+    }
+    
+    public int getLevel()
+    {
+        return level;
+    }
+    
+    public List<Integer> getIndexes()
+    {
+        return indexes;
+    }
+    
+    @Override
+    public int getSize()
+    {
+        return 16 + indexes.size() * 4;
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return requestId + ":" + level + ":" + indexes.toString();
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+
+/**
+ * The {@link StateHashTreeRequestMessagePartSerializer} is a serializer for {@link StateHashTreeRequestMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateHashTreeRequestMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("b1cff1e1-a4f0-4a7c-8ed6-3d29685b86ca");
+ 
+    public StateHashTreeRequestMessagePartSerializer()
+    {
+        super(ID, StateHashTreeRequestMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+        StateHashTreeRequestMessagePart part = (StateHashTreeRequestMessagePart)object;
+
+        serialization.writeLong(part.getRequestId());
+        serialization.writeInt(part.getLevel());
+        serialization.writeInt(part.getIndexes().size());
+        for (Integer index : part.getIndexes())
+            serialization.writeInt(index);
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        long requestId = deserialization.readLong();
+        int level = deserialization.readInt();
+        int count = deserialization.readInt();
+        List<Integer> indexes = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++)
+            indexes.add(deserialization.readInt());
+        
+        return new StateHashTreeRequestMessagePart(requestId, level, indexes);
+    }
+}
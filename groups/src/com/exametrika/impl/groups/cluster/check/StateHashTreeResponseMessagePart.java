@@ -0,0 +1,69 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import java.util.List;
+
+import com.exametrika.common.messaging.IMessagePart;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Immutables;
+
+/**
+ * The {@link StateHashTreeResponseMessagePart} is a response containing hashes of children of requested nodes of group 
+ * state hash tree. Hashes of left and right child of each requested node are stored sequentially.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateHashTreeResponseMessagePart implements IMessagePart
+{
+    private final long requestId;
+    private final int level;
+    private final List<Integer> indexes;
+    private final long[] childHashes;
+
+    public StateHashTreeResponseMessagePart(long requestId, int level, List<Integer> indexes, long[] childHashes)
+    {
+        Assert.notNull(indexes);
+        Assert.notNull(childHashes);
+        Assert.isTrue(childHashes.length == indexes.size() * 2);
+        
+        this.requestId = requestId;
+        this.level = level;
+        this.indexes = Immutables.wrap(indexes);
+        this.childHashes = childHashes;
+    }
+    
+    public long getRequestId()
+    {
+        return requestId;
+    }
+    
+    public int getLevel()
+    {
+        return level;
+    }
+    
+    public List<Integer> getIndexes()
+    {
+        return indexes;
+    }
+    
+    public long[] getChildHashes()
+    {
+        return childHashes;
+    }
+    
+    @Override
+    public int getSize()
+    {
+        return 16 + indexes.size() * 20;
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return requestId + ":" + level + ":" + indexes.toString();
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.check;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+
+/**
+ * The {@link StateHashTreeResponseMessagePartSerializer} is a serializer for {@link StateHashTreeResponseMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateHashTreeResponseMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("6bf85069-4360-41b5-8bb8-27708fe27478");
+ 
+    public StateHashTreeResponseMessagePartSerializer()
+    {
+        super(ID, StateHashTreeResponseMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+        StateHashTreeResponseMessagePart part = (StateHashTreeResponseMessagePart)object;
+
+        serialization.writeLong(part.getRequestId());
+        serialization.writeInt(part.getLevel());
+        serialization.writeInt(part.getIndexes().size());
+        for (Integer index : part.getIndexes())
+            serialization.writeInt(index);
+        for (long hash : part.getChildHashes())
+            serialization.writeLong(hash);
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        long requestId = deserialization.readLong();
+        int level = deserialization.readInt();
+        int count = deserialization.readInt();
+        List<Integer> indexes = new ArrayList<Integer>(count);
+        for (int i = 0; i < count; i++)
+            indexes.add(deserialization.readInt());
+        long[] childHashes = new long[count * 2];
+        for (int i = 0; i < childHashes.length; i++)
+            childHashes[i] = deserialization.readLong();
+        
+        return new StateHashTreeResponseMessagePart(requestId, level, indexes, childHashes);
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2010 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.membership;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.exametrika.api.groups.cluster.INode;
+import com.exametrika.common.utils.Assert;
+
+/**
+ * The {@link ConsistentHashWorkerToCoreMappingStrategy} is an implementation of {@link IWorkerToCoreMappingStarategy}
+ * based on consistent hashing with bounded loads. Each core node is placed on hash ring by several virtual nodes, home
+ * core node of worker node is the first core node on hash ring following hash of worker node. Each core node has
+ * capacity, which is its share of worker nodes multiplied by load factor. While core nodes are joining, capacity of
+ * existing core nodes is computed as if joined core nodes were absent, so that reduced share of existing core nodes
+ * does not move worker nodes between them. Worker nodes exceeding reduced capacity of existing core node are moved
+ * on next rebalancing, after joined core nodes have received their worker nodes.
+ * <p>
+ * Mapping is rebalanced incrementally:
+ * <ul>
+ * <li>worker node mapped to surviving core node stays there while core node capacity is not exceeded
+ * <li>joined core nodes, i.e. core nodes which do not have worker nodes in old mapping, take over worker nodes, whose
+ * home core node they are, until they reach their share
+ * <li>new worker nodes and worker nodes of failed or overloaded core nodes are mapped to the first core node on hash
+ * ring following hash of worker node, whose capacity is not exceeded
+ * </ul>
+ * So that only worker nodes whose home core node has joined and worker nodes of failed or overloaded core nodes are
+ * moved.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class ConsistentHashWorkerToCoreMappingStrategy implements IWorkerToCoreMappingStarategy
+{
+    private final int virtualNodeCount;
+    private final double loadFactor;
+
+    /**
+     * Creates a new object.
+     *
+     * @param virtualNodeCount number of virtual nodes of each core node on hash ring
+     * @param loadFactor load factor, i.e. ratio between maximal and average number of worker nodes of core node.
+     * Must be greater or equal to 1
+     */
+    public ConsistentHashWorkerToCoreMappingStrategy(int virtualNodeCount, double loadFactor)
+    {
+        Assert.isTrue(virtualNodeCount > 0);
+        Assert.isTrue(loadFactor >= 1);
+
+        this.virtualNodeCount = virtualNodeCount;
+        this.loadFactor = loadFactor;
+    }
+
+    @Override
+    public Map<INode, INode> mapWorkers(List<INode> coreNodes, List<INode> workerNodes,
+        Map<INode, INode> oldCoreByWorkerMap)
+    {
+        Assert.notNull(coreNodes);
+        Assert.notNull(workerNodes);
+
+        Map<INode, INode> newCoreByWorkerMap = new LinkedHashMap<INode, INode>();
+        if (coreNodes.isEmpty())
+            return newCoreByWorkerMap;
+
+        Map<INode, CoreInfo> coreInfos = createCoreInfos(coreNodes, workerNodes.size());
+        if (oldCoreByWorkerMap != null)
+        {
+            int existingCount = 0;
+            for (INode coreNode : oldCoreByWorkerMap.values())
+            {
+                CoreInfo info = coreInfos.get(coreNode);
+                if (info != null && info.joined)
+                {
+                    info.joined = false;
+                    existingCount++;
+                }
+            }
+
+            if (existingCount > 0 && existingCount < coreInfos.size())
+            {
+                int capacity = getCapacity((double)workerNodes.size() / existingCount);
+                for (CoreInfo info : coreInfos.values())
+                {
+                    if (!info.joined)
+                        info.capacity = capacity;
+                }
+            }
+        }
+
+        HashRing ring = new HashRing(coreInfos, virtualNodeCount);
+
+        List<INode> survivingWorkers = new ArrayList<INode>();
+        List<INode> unmappedWorkers = new ArrayList<INode>();
+        for (INode workerNode : workerNodes)
+        {
+            CoreInfo homeCoreInfo = ring.findHome(workerNode);
+            CoreInfo oldCoreInfo = getOldCoreInfo(coreInfos, oldCoreByWorkerMap, workerNode);
+            if (oldCoreInfo == null)
+                unmappedWorkers.add(workerNode);
+            else if (homeCoreInfo.joined && homeCoreInfo.count < homeCoreInfo.share)
+                assign(newCoreByWorkerMap, workerNode, homeCoreInfo);
+            else
+                survivingWorkers.add(workerNode);
+        }
+
+        for (INode workerNode : survivingWorkers)
+        {
+            CoreInfo oldCoreInfo = getOldCoreInfo(coreInfos, oldCoreByWorkerMap, workerNode);
+            if (oldCoreInfo.hasCapacity())
+                assign(newCoreByWorkerMap, workerNode, oldCoreInfo);
+            else
+                unmappedWorkers.add(workerNode);
+        }
+
+        for (INode workerNode : unmappedWorkers)
+            assign(newCoreByWorkerMap, workerNode, ring.findAvailable(workerNode));
+
+        return newCoreByWorkerMap;
+    }
+
+    private Map<INode, CoreInfo> createCoreInfos(List<INode> coreNodes, int workerCount)
+    {
+        double share = (double)workerCount / coreNodes.size();
+        Map<INode, CoreInfo> coreInfos = new HashMap<INode, CoreInfo>();
+        for (int i = 0; i < coreNodes.size(); i++)
+        {
+            CoreInfo info = new CoreInfo();
+            info.node = coreNodes.get(i);
+            info.share = (int)Math.ceil(share);
+            info.capacity = getCapacity(share);
+            coreInfos.put(info.node, info);
+        }
+
+        return coreInfos;
+    }
+
+    private int getCapacity(double share)
+    {
+        return Math.max((int)Math.ceil(share * loadFactor), 1);
+    }
+
+    private static CoreInfo getOldCoreInfo(Map<INode, CoreInfo> coreInfos, Map<INode, INode> oldCoreByWorkerMap,
+        INode workerNode)
+    {
+        if (oldCoreByWorkerMap == null)
+            return null;
+
+        INode oldCoreNode = oldCoreByWorkerMap.get(workerNode);
+        if (oldCoreNode == null)
+            return null;
+
+        return coreInfos.get(oldCoreNode);
+    }
+
+    private static void assign(Map<INode, INode> coreByWorkerMap, INode workerNode, CoreInfo coreInfo)
+    {
+        coreByWorkerMap.put(workerNode, coreInfo.node);
+        coreInfo.count++;
+    }
+
+    private static long hash(UUID id, long seed)
+    {
+        long value = id.getMostSignificantBits() * 31 + id.getLeastSignificantBits() + seed * 0x9e3779b97f4a7c15L;
+        value ^= (value >>> 33);
+        value *= 0xff51afd7ed558ccdL;
+        value ^= (value >>> 33);
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= (value >>> 33);
+
+        return value;
+    }
+
+    private static class CoreInfo
+    {
+        private INode node;
+        private int share;
+        private int capacity;
+        private int count;
+        private boolean joined = true;
+
+        public boolean hasCapacity()
+        {
+            return count < capacity;
+        }
+    }
+
+    private static class HashRing
+    {
+        private final long[] hashes;
+        private final CoreInfo[] coreInfos;
+
+        public HashRing(Map<INode, CoreInfo> coreInfoMap, int virtualNodeCount)
+        {
+            List<VirtualNode> virtualNodes = new ArrayList<VirtualNode>(coreInfoMap.size() * virtualNodeCount);
+            for (CoreInfo info : coreInfoMap.values())
+            {
+                for (int i = 0; i < virtualNodeCount; i++)
+                    virtualNodes.add(new VirtualNode(hash(info.node.getId(), i + 1), info));
+            }
+
+            VirtualNode[] sortedNodes = virtualNodes.toArray(new VirtualNode[virtualNodes.size()]);
+            Arrays.sort(sortedNodes);
+
+            hashes = new long[sortedNodes.length];
+            coreInfos = new CoreInfo[sortedNodes.length];
+            for (int i = 0; i < sortedNodes.length; i++)
+            {
+                hashes[i] = sortedNodes[i].hash;
+                coreInfos[i] = sortedNodes[i].info;
+            }
+        }
+
+        public CoreInfo findHome(INode workerNode)
+        {
+            return coreInfos[findPosition(workerNode)];
+        }
+
+        public CoreInfo findAvailable(INode workerNode)
+        {
+            int position = findPosition(workerNode);
+            for (int i = 0; i < coreInfos.length; i++)
+            {
+                CoreInfo info = coreInfos[(position + i) % coreInfos.length];
+                if (info.hasCapacity())
+                    return info;
+            }
+
+            return Assert.error();
+        }
+
+        private int findPosition(INode workerNode)
+        {
+            int position = Arrays.binarySearch(hashes, hash(workerNode.getId(), 0));
+            if (position < 0)
+                position = -position - 1;
+            if (position == hashes.length)
+                position = 0;
+
+            return position;
+        }
+    }
+
+    private static class VirtualNode implements Comparable<VirtualNode>
+    {
+        private final long hash;
+        private final CoreInfo info;
+
+        public VirtualNode(long hash, CoreInfo info)
+        {
+            this.hash = hash;
+            this.info = info;
+        }
+
+        @Override
+        public int compareTo(VirtualNode node)
+        {
+            if (hash != node.hash)
+                return hash < node.hash ? -1 : 1;
+
+            return info.node.getId().compareTo(node.info.node.getId());
+        }
+    }
+}
@@ -4,17 +4,21 @@
 package com.exametrika.impl.groups.cluster.membership;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import com.exametrika.api.groups.cluster.IGroup;
 import com.exametrika.api.groups.cluster.INode;
+import com.exametrika.common.expression.Expressions;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.Pair;
 import com.exametrika.impl.groups.cluster.feedback.IGroupFeedbackService;
@@ -27,6 +31,23 @@ import com.exametrika.impl.groups.cluster.management.ICommandHandler;
 
 /**
  * The {@link DefaultGroupMappingStrategy} is a default implementation of {@link IGroupMappingStrategy}.
+ * <p>
+ * Only affected groups are remapped, i.e. groups whose definitions have been added or changed, groups having failed, left
+ * or graceful exit requested members, and incomplete groups (if new nodes have joined). Remapped group keeps its alive
+ * members in the same order and:
+ * <ul>
+ * <li>if group has less members (excluding graceful exit requested members) than required by group definition, missing
+ * members are selected from worker nodes, which match node filter expression of group definition. Nodes having lowest
+ * score are selected first, where score of node is number of node groups. Node filter expression is evaluated once per
+ * node for each distinct filter, matching nodes are kept sorted by score, so that selection of node takes logarithmic
+ * time. Members are not added while group flush is in progress, unless all members of group have failed or left
+ * <li>group whose members have all failed or left and no replacement nodes are available is kept unchanged until new
+ * nodes join
+ * <li>if group has more members than required by group definition, excessive members having highest score are removed
+ * <li>graceful exit requested members are removed when group state confirms that replacement members have joined group
+ * and group flush has been completed
+ * </ul>
+ * Other groups are left unchanged, so that they do not go through flush.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -48,7 +69,7 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
     }
     
     @Override
-    public List<GroupDefinition> getGroupDefinitions()
+    public synchronized List<GroupDefinition> getGroupDefinitions()
     {
         List<GroupDefinition> groups = new ArrayList<GroupDefinition>();
         for (DomainInfo domain : domains.values())
@@ -60,7 +81,7 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
     }
     
     @Override
-    public void addGroupDefinition(GroupDefinition group)
+    public synchronized void addGroupDefinition(GroupDefinition group)
     {
         Assert.notNull(group);
         
@@ -72,10 +93,11 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
         }
         domain.groupDefinitions.put(group.getId(), group);
         domain.changedGroups.add(group.getId());
+        domain.removedGroups.remove(group.getId());
     }
     
     @Override
-    public void removeGroupDefinition(String domainName, UUID groupId)
+    public synchronized void removeGroupDefinition(String domainName, UUID groupId)
     {
         Assert.notNull(groupId);
         
@@ -84,11 +106,15 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
             return;
         
         if (domain.groupDefinitions.remove(groupId) != null)
+        {
             domain.removedGroups.add(groupId);
+            domain.changedGroups.remove(groupId);
+            domain.incompleteGroups.remove(groupId);
+        }
     }
     
     @Override
-    public List<Pair<IGroup, IGroupDelta>> mapGroups(long membershipId, String domain, NodesMembership nodeMembership,
+    public synchronized List<Pair<IGroup, IGroupDelta>> mapGroups(long membershipId, String domain, NodesMembership nodeMembership,
         NodesMembershipDelta nodesMembershipDelta, GroupsMembership oldGroupMembership)
     {
         // TODO: учитывать NodeMembershipDelta только если предыдущий вызов был на 1 меньше по membershipid (не было пропусков),
@@ -96,101 +122,80 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
         DomainInfo domainInfo = domains.get(domain);
         if (domainInfo == null)
             return null;
+
+        Set<UUID> gracefulExitNodes = new HashSet<UUID>();
+        for (INodeState nodeState : nodeFeedbackService.getNodeStates())
+        {
+            if (nodeState.getState() == State.GRACEFUL_EXIT_REQUESTED && nodeState.getDomain().equals(domain))
+                gracefulExitNodes.add(nodeState.getId());
+        }
+
+        boolean gracefulExitChanged = !gracefulExitNodes.equals(domainInfo.gracefulExitNodes);
         if (domainInfo.changedGroups.isEmpty() && domainInfo.removedGroups.isEmpty() && nodesMembershipDelta.getJoinedNodes().isEmpty() &&
-            nodesMembershipDelta.getLeftNodes().isEmpty() && nodesMembershipDelta.getFailedNodes().isEmpty())
+            nodesMembershipDelta.getLeftNodes().isEmpty() && nodesMembershipDelta.getFailedNodes().isEmpty() && !gracefulExitChanged)
             return null;
         
-        List<Pair<IGroup, IGroupDelta>> resultGroups = new ArrayList<Pair<IGroup, IGroupDelta>>();
-        Map<UUID, ChangedGroupInfo> changedGroups = new LinkedHashMap<UUID, ChangedGroupInfo>();
-        Set<UUID> gracefulExitNodes = new HashSet<UUID>();
+        domainInfo.gracefulExitNodes = gracefulExitNodes;
+
+        Set<UUID> affectedGroups = new LinkedHashSet<UUID>(domainInfo.changedGroups);
+        if (!nodesMembershipDelta.getJoinedNodes().isEmpty())
+        {
+            affectedGroups.addAll(domainInfo.incompleteGroups);
+            domainInfo.incompleteGroups.clear();
+        }
+
         if (oldGroupMembership != null)
         {
-            for (UUID nodeId : nodesMembershipDelta.getLeftNodes())
-            {
-                List<IGroup> groups = oldGroupMembership.findNodeGroups(nodeId);
-                for (IGroup group : groups)
-                {
-                    domainInfo.changedGroups.add(group.getId());
-                    ChangedGroupInfo changedGroup = ensureChangedGroup(domainInfo, changedGroups, group.getId(), group);
-                    changedGroup.leftNodes.add(nodeId);
-                }
-            }
+            addNodeGroups(oldGroupMembership, nodesMembershipDelta.getLeftNodes(), affectedGroups);
+            addNodeGroups(oldGroupMembership, nodesMembershipDelta.getFailedNodes(), affectedGroups);
+            addNodeGroups(oldGroupMembership, gracefulExitNodes, affectedGroups);
+        }
             
-            for (UUID nodeId : nodesMembershipDelta.getFailedNodes())
-            {
-                List<IGroup> groups = oldGroupMembership.findNodeGroups(nodeId);
-                for (IGroup group : groups)
-                {
-                    domainInfo.changedGroups.add(group.getId());
-                    ChangedGroupInfo changedGroup = ensureChangedGroup(domainInfo, changedGroups, group.getId(), group);
-                    changedGroup.failedNodes.add(nodeId);
-                }
-            }
+        Map<UUID, NodeInfo> nodeInfos = createNodeInfos(nodeMembership, gracefulExitNodes, oldGroupMembership,
+            domainInfo.removedGroups);
+        Map<String, TreeSet<NodeInfo>> candidates = new HashMap<String, TreeSet<NodeInfo>>();
             
+        Set<UUID> pendingGroups = new LinkedHashSet<UUID>();
+        Map<UUID, Pair<IGroup, IGroupDelta>> mappedGroups = new LinkedHashMap<UUID, Pair<IGroup, IGroupDelta>>();
+        for (UUID groupId : affectedGroups)
+        {
+            GroupDefinition definition = domainInfo.groupDefinitions.get(groupId);
+            if (definition == null)
+                continue;
+
+            IGroup oldGroup = oldGroupMembership != null ? oldGroupMembership.findGroup(groupId) : null;
+            mappedGroups.put(groupId, mapGroup(definition, oldGroup, nodeMembership, nodesMembershipDelta, nodeInfos,
+                candidates, domainInfo, pendingGroups));
+        }
+
+        List<Pair<IGroup, IGroupDelta>> resultGroups = new ArrayList<Pair<IGroup, IGroupDelta>>();
+        if (oldGroupMembership != null)
+        {
             for (IGroup group : oldGroupMembership.getGroups())
             {
-                if (!domainInfo.changedGroups.contains(group.getId()) && !domainInfo.removedGroups.contains(group.getId()))
-                    resultGroups.add(new Pair<IGroup, IGroupDelta>(group, null));
-                        
-            }
-            
-            for (INodeState nodeState : nodeFeedbackService.getNodeStates())
-            {
-                if (nodeState.getState() == State.GRACEFUL_EXIT_REQUESTED && nodeState.getDomain().equals(domain))
+                if (domainInfo.removedGroups.contains(group.getId()))
+                    continue;
+
+                if (mappedGroups.containsKey(group.getId()))
                 {
-                    gracefulExitNodes.add(nodeState.getId());
-                    
-                    List<IGroup> groups = oldGroupMembership.findNodeGroups(nodeState.getId());
-                    for (IGroup group : groups)
-                    {
-                        domainInfo.changedGroups.add(group.getId());
-                        ChangedGroupInfo changedGroup = ensureChangedGroup(domainInfo, changedGroups, group.getId(), group);
-                        changedGroup.gracefulExitNodes.add(nodeState.getId());
-                    }
+                    Pair<IGroup, IGroupDelta> pair = mappedGroups.remove(group.getId());
+                    if (pair != null)
+                        resultGroups.add(pair);
                 }
+                else
+                    resultGroups.add(new Pair<IGroup, IGroupDelta>(group, null));
             }
         }
         
-        for (UUID groupId : domainInfo.changedGroups)
+        for (Pair<IGroup, IGroupDelta> pair : mappedGroups.values())
         {
-            ChangedGroupInfo changedGroup = ensureChangedGroup(domainInfo, changedGroups, groupId, null);
-            if (changedGroup.group != null)
-            {
-                for (INode node : changedGroup.group.getMembers())
-                {
-                    if (!changedGroup.failedNodes.contains(node.getId()) && ! changedGroup.leftNodes.contains(node.getId()))
-                        changedGroup.nodes.add(node);
-                }
-            }
-            
-            int nodeCount = changedGroup.nodes.size() - changedGroup.gracefulExitNodes.size();
-            if (nodeCount >= changedGroup.definition.getNodeCount())
-            {
-                while (changedGroup.nodes.size() > changedGroup.definition.getNodeCount())
-                {
-                    // TODO: УДАЛИТЬ gracefulexit потом остальные лишниЕ
-                }
-            }
-            else if (changedGroup.groupState.getState() == IGroupState.State.NORMAL)
-            {
-                int requiredNodesCount = changedGroup.definition.getNodeCount() - nodeCount;
-            }
+            if (pair != null)
+                resultGroups.add(pair);
         }
         
-        // TODO:
-        // - найти группы удаленных вышедших и добавить их в набор измененных
-        // - если если старое членство, пройти по всем его группам и добавить в список новых групп,
-        //   если группа не в списке удаленных
-        // - пройти по измененным, если не в старых, добавить в список новых групп
-        // - очистить наборы измененных и удаленных
-        // TODO: по каждой группе
-        // - если группа не ищмененная и нет новых узлов включить группу как есть бещ дельты
-        // - иначе смаппить группу
-        // TODO:
-        // - при маппинге учесть описание группы (включая кастомный селектор узлов (который не добавлен)
-        // - graceful exit узлы (добавлять новый узел на каждый такой узел группы, исключать из группы такой узел,
-        //   когда состояние группы подтверлит, чтоновые узлывключены в группу ифлаш завершен)
-        // - состояние группы - не включать новые узлы пока флаш не отработает, удаленные и вышедшие включаем
+        domainInfo.changedGroups.clear();
+        domainInfo.changedGroups.addAll(pendingGroups);
+        domainInfo.removedGroups.clear();
         
         return resultGroups;
     }
@@ -210,7 +215,7 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
             for (GroupDefinition groupDefinition : addGroupsCommand.getGroupDefinitions())
                 addGroupDefinition(groupDefinition);
         }
-        else if (command instanceof AddGroupsCommand)
+        else if (command instanceof RemoveGroupsCommand)
         {
             RemoveGroupsCommand removeGroupsCommand = (RemoveGroupsCommand)command;
             for (Pair<String, UUID> group : removeGroupsCommand.getGroups())
@@ -218,25 +223,252 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
         }
     }
     
-    private ChangedGroupInfo ensureChangedGroup(DomainInfo domain, Map<UUID, ChangedGroupInfo> changedGroups, UUID groupId, IGroup group)
+    private Pair<IGroup, IGroupDelta> mapGroup(GroupDefinition definition, IGroup oldGroup, NodesMembership nodeMembership,
+        NodesMembershipDelta nodesMembershipDelta, Map<UUID, NodeInfo> nodeInfos, Map<String, TreeSet<NodeInfo>> candidates,
+        DomainInfo domainInfo, Set<UUID> pendingGroups)
     {
-        ChangedGroupInfo changedGroup = changedGroups.get(groupId);
-        if (changedGroup == null)
+        IGroupState groupState = groupFeedbackService.findGroupState(definition.getId());
+        boolean flush = groupState != null && groupState.getState() == IGroupState.State.FLUSH;
+
+        List<INode> members = new ArrayList<INode>();
+        List<INode> gracefulExitMembers = new ArrayList<INode>();
+        Set<UUID> memberIds = new HashSet<UUID>();
+        Set<UUID> leftMembers = new LinkedHashSet<UUID>();
+        Set<UUID> failedMembers = new LinkedHashSet<UUID>();
+        if (oldGroup != null)
         {
-            changedGroup = new ChangedGroupInfo();
-            changedGroups.put(group.getId(), changedGroup);
+            for (INode member : oldGroup.getMembers())
+            {
+                NodeInfo info = nodeInfos.get(member.getId());
+                if (info == null)
+                {
+                    if (nodesMembershipDelta.getLeftNodes().contains(member.getId()))
+                        leftMembers.add(member.getId());
+                    else
+                        failedMembers.add(member.getId());
+                    continue;
+                }
+
+                members.add(member);
+                memberIds.add(member.getId());
+                if (info.gracefulExit)
+                    gracefulExitMembers.add(member);
+            }
         }   
         
-        if (group != null)
-            changedGroup.group = group;
+        // Flush can not be completed by group without alive members
+        if (members.isEmpty())
+            flush = false;
         
-        if (changedGroup.definition == null)
+        List<INode> joinedMembers = new ArrayList<INode>();
+        boolean incomplete = false;
+        int requiredCount = definition.getNodeCount() - (members.size() - gracefulExitMembers.size());
+        if (requiredCount > 0)
         {
-            changedGroup.definition = domain.groupDefinitions.get(groupId);
-            changedGroup.groupState = groupFeedbackService.findGroupState(groupId);
+            if (!flush)
+            {
+                for (NodeInfo info : selectNodes(memberIds, requiredCount, getCandidates(definition, nodeInfos, candidates)))
+                {
+                    members.add(info.node);
+                    memberIds.add(info.node.getId());
+                    joinedMembers.add(info.node);
+                }
+
+                incomplete = joinedMembers.size() < requiredCount;
+            }
+            else
+                pendingGroups.add(definition.getId());
+        }
+        else if (requiredCount < 0)
+        {
+            for (NodeInfo info : selectExcessiveMembers(members, nodeInfos, -requiredCount))
+            {
+                members.remove(info.node);
+                leftMembers.add(info.node.getId());
+                updateGroupCount(info, -1);
+            }
         }
         
-        return changedGroup;
+        if (!gracefulExitMembers.isEmpty())
+        {
+            if (!flush && joinedMembers.isEmpty() && (incomplete || isConfirmed(groupState, members, gracefulExitMembers)))
+            {
+                for (INode member : gracefulExitMembers)
+                {
+                    members.remove(member);
+                    leftMembers.add(member.getId());
+                    nodeInfos.get(member.getId()).groupCount--;
+                }
+            }
+            else
+                pendingGroups.add(definition.getId());
+        }
+
+        if (incomplete)
+            domainInfo.incompleteGroups.add(definition.getId());
+
+        if (members.isEmpty())
+        {
+            domainInfo.incompleteGroups.add(definition.getId());
+            if (oldGroup != null)
+                return new Pair<IGroup, IGroupDelta>(oldGroup, null);
+            else
+                return null;
+        }
+
+        if (oldGroup == null)
+        {
+            IGroup group = new Group(new GroupAddress(definition.getId(), definition.getName()), true, members,
+                definition.getOptions(), 1);
+            return new Pair<IGroup, IGroupDelta>(group, new GroupDelta(group.getId(), true, members,
+                Collections.<UUID>emptySet(), Collections.<UUID>emptySet(), 1));
+        }
+        else if (joinedMembers.isEmpty() && leftMembers.isEmpty() && failedMembers.isEmpty())
+            return new Pair<IGroup, IGroupDelta>(oldGroup, null);
+        else
+        {
+            long changeId = oldGroup.getChangeId() + 1;
+            IGroup group = new Group((GroupAddress)oldGroup.getAddress(), oldGroup.isPrimary(), members, oldGroup.getOptions(),
+                changeId);
+            return new Pair<IGroup, IGroupDelta>(group, new GroupDelta(group.getId(), group.isPrimary(), joinedMembers,
+                leftMembers, failedMembers, changeId));
+        }
+    }
+
+    private List<NodeInfo> selectNodes(Set<UUID> memberIds, int count, TreeSet<NodeInfo> candidates)
+    {
+        List<NodeInfo> selectedNodes = new ArrayList<NodeInfo>(count);
+        for (NodeInfo info : candidates)
+        {
+            if (selectedNodes.size() == count)
+                break;
+
+            if (!memberIds.contains(info.node.getId()))
+                selectedNodes.add(info);
+        }
+
+        for (NodeInfo info : selectedNodes)
+            updateGroupCount(info, 1);
+
+        return selectedNodes;
+    }
+
+    private TreeSet<NodeInfo> getCandidates(GroupDefinition definition, Map<UUID, NodeInfo> nodeInfos,
+        Map<String, TreeSet<NodeInfo>> candidates)
+    {
+        String filter = definition.getNodeFilterExpression();
+        TreeSet<NodeInfo> filteredCandidates = candidates.get(filter);
+        if (filteredCandidates != null)
+            return filteredCandidates;
+
+        filteredCandidates = new TreeSet<NodeInfo>(new NodeInfoComparator());
+        for (NodeInfo info : nodeInfos.values())
+        {
+            if (!info.gracefulExit && matches(filter, info.node))
+            {
+                filteredCandidates.add(info);
+                info.candidates.add(filteredCandidates);
+            }
+        }
+
+        candidates.put(filter, filteredCandidates);
+        return filteredCandidates;
+    }
+
+    private List<NodeInfo> selectExcessiveMembers(List<INode> members, Map<UUID, NodeInfo> nodeInfos, int count)
+    {
+        List<NodeInfo> removableMembers = new ArrayList<NodeInfo>();
+        for (int i = 1; i < members.size(); i++)
+        {
+            NodeInfo info = nodeInfos.get(members.get(i).getId());
+            if (!info.gracefulExit)
+                removableMembers.add(info);
+        }
+
+        Collections.sort(removableMembers, Collections.reverseOrder(new NodeInfoComparator()));
+        if (removableMembers.size() > count)
+            return removableMembers.subList(0, count);
+        else
+            return removableMembers;
+    }
+
+    private boolean matches(String filter, INode node)
+    {
+        if (filter == null)
+            return true;
+
+        Object result = Expressions.evaluate(filter, node, null);
+        return Boolean.TRUE.equals(result);
+    }
+
+    private boolean isConfirmed(IGroupState groupState, List<INode> members, List<INode> gracefulExitMembers)
+    {
+        if (groupState == null)
+            return true;
+
+        for (INode member : members)
+        {
+            if (!gracefulExitMembers.contains(member) && !groupState.getMembers().contains(member.getId()))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void addNodeGroups(GroupsMembership groupMembership, Set<UUID> nodeIds, Set<UUID> groups)
+    {
+        for (UUID nodeId : nodeIds)
+        {
+            List<IGroup> nodeGroups = groupMembership.findNodeGroups(nodeId);
+            if (nodeGroups == null)
+                continue;
+
+            for (IGroup group : nodeGroups)
+                groups.add(group.getId());
+        }
+    }
+
+    private Map<UUID, NodeInfo> createNodeInfos(NodesMembership nodeMembership, Set<UUID> gracefulExitNodes,
+        GroupsMembership oldGroupMembership, Set<UUID> removedGroups)
+    {
+        Map<UUID, NodeInfo> nodeInfos = new HashMap<UUID, NodeInfo>();
+        for (INode node : nodeMembership.getNodes())
+        {
+            NodeInfo info = new NodeInfo();
+            info.node = node;
+            info.gracefulExit = gracefulExitNodes.contains(node.getId());
+
+            nodeInfos.put(node.getId(), info);
+        }
+
+        if (oldGroupMembership != null)
+        {
+            for (IGroup group : oldGroupMembership.getGroups())
+            {
+                if (removedGroups.contains(group.getId()))
+                    continue;
+
+                for (INode member : group.getMembers())
+                {
+                    NodeInfo info = nodeInfos.get(member.getId());
+                    if (info != null)
+                        info.groupCount++;
+                }
+            }
+        }
+
+        return nodeInfos;
+    }
+
+    private void updateGroupCount(NodeInfo info, int delta)
+    {
+        for (TreeSet<NodeInfo> candidates : info.candidates)
+            candidates.remove(info);
+
+        info.groupCount += delta;
+
+        for (TreeSet<NodeInfo> candidates : info.candidates)
+            candidates.add(info);
     }
     
     private static class DomainInfo
@@ -244,16 +476,33 @@ public final class DefaultGroupMappingStrategy implements IGroupMappingStrategy,
         private final Map<UUID, GroupDefinition> groupDefinitions = new LinkedHashMap<UUID, GroupDefinition>();
         private final Set<UUID> changedGroups = new LinkedHashSet<UUID>();
         private final Set<UUID> removedGroups = new LinkedHashSet<UUID>();
+        private final Set<UUID> incompleteGroups = new LinkedHashSet<UUID>();
+        private Set<UUID> gracefulExitNodes = Collections.emptySet();
     }
     
-    private static class ChangedGroupInfo
+    private static class NodeInfo
     {
-        GroupDefinition definition;
-        IGroup group;
-        IGroupState groupState;
-        List<INode> nodes = new LinkedList<INode>();
-        Set<UUID> failedNodes = new HashSet<UUID>();
-        Set<UUID> leftNodes = new HashSet<UUID>();
-        Set<UUID> gracefulExitNodes = new HashSet<UUID>();
+        private INode node;
+        private int groupCount;
+        private boolean gracefulExit;
+        private final List<TreeSet<NodeInfo>> candidates = new ArrayList<TreeSet<NodeInfo>>(1);
+
+        public int getScore()
+        {
+            return groupCount;
+        }
+    }
+
+    private static class NodeInfoComparator implements Comparator<NodeInfo>
+    {
+        @Override
+        public int compare(NodeInfo info1, NodeInfo info2)
+        {
+            int res = Integer.compare(info1.getScore(), info2.getScore());
+            if (res != 0)
+                return res;
+
+            return info1.node.getId().compareTo(info2.node.getId());
+        }
     }
 }
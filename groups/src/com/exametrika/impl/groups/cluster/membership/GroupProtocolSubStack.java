@@ -79,6 +79,11 @@ public final class GroupProtocolSubStack extends ProtocolSubStack implements IPr
         this.compartmentProcessors = compartmentProcessors;
     }
 
+    public UUID getGroupId()
+    {
+        return groupId;
+    }
+    
     public long getStartRemoveTime()
     {
         return startRemoveTime;
@@ -113,6 +118,8 @@ public final class GroupProtocolSubStack extends ProtocolSubStack implements IPr
     @Override
     public void onTimer(long currentTime)
     {
+        super.onTimer(currentTime);
+        
         if (currentTime < lastUpdateTime + 1000)
             return;
         
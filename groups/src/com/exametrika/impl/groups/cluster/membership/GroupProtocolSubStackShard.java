@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.membership;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.compartment.ICompartmentProcessor;
+import com.exametrika.common.compartment.ICompartmentTimerProcessor;
+import com.exametrika.common.compartment.impl.Compartment;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.ILifecycle;
+
+/**
+ * The {@link GroupProtocolSubStackShard} represents a shard of group protocol sub-stacks. All sub-stacks of shard are
+ * processed in main thread of shard compartment, which also delivers timer events to them. Shard either owns its
+ * compartment or shares compartment of channel.
+ *
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class GroupProtocolSubStackShard implements ICompartmentTimerProcessor, ICompartmentProcessor, ILifecycle
+{
+    private final ICompartment compartment;
+    private final boolean owner;
+    private final List<GroupProtocolSubStack> subStacks = new ArrayList<GroupProtocolSubStack>();
+    private volatile boolean started;
+
+    public GroupProtocolSubStackShard(ICompartment compartment, boolean owner)
+    {
+        Assert.notNull(compartment);
+
+        this.compartment = compartment;
+        this.owner = owner;
+    }
+
+    public ICompartment getCompartment()
+    {
+        return compartment;
+    }
+
+    /**
+     * Executes specified task in main thread of shard compartment. If shard is stopped or calling thread is main thread
+     * of shard compartment task is executed in the calling thread.
+     *
+     * @param task task to execute
+     */
+    public void execute(Runnable task)
+    {
+        Assert.notNull(task);
+
+        if (started && !isMainThread())
+            compartment.offer(task);
+        else
+            task.run();
+    }
+
+    /**
+     * Adds sub-stack to shard. Must be called from main thread of shard compartment.
+     *
+     * @param subStack sub-stack
+     */
+    public void addSubStack(GroupProtocolSubStack subStack)
+    {
+        Assert.notNull(subStack);
+
+        subStacks.add(subStack);
+    }
+
+    /**
+     * Removes sub-stack from shard. Must be called from main thread of shard compartment.
+     *
+     * @param subStack sub-stack
+     */
+    public void removeSubStack(GroupProtocolSubStack subStack)
+    {
+        Assert.notNull(subStack);
+
+        subStacks.remove(subStack);
+    }
+
+    @Override
+    public void start()
+    {
+        compartment.addTimerProcessor(this);
+        compartment.addProcessor(this);
+
+        if (owner)
+            compartment.start();
+
+        started = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        if (!started)
+            return;
+
+        if (owner)
+            compartment.stop();
+
+        compartment.removeTimerProcessor(this);
+        compartment.removeProcessor(this);
+
+        started = false;
+    }
+
+    @Override
+    public void onTimer(long currentTime)
+    {
+        for (GroupProtocolSubStack subStack : subStacks)
+        {
+            if (subStack.isEnabled())
+                subStack.onTimer(currentTime);
+        }
+    }
+
+    @Override
+    public void process()
+    {
+        for (GroupProtocolSubStack subStack : subStacks)
+            subStack.process();
+    }
+
+    private boolean isMainThread()
+    {
+        return compartment instanceof Compartment && ((Compartment)compartment).isMainThread();
+    }
+}
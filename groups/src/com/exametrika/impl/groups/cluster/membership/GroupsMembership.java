@@ -4,9 +4,13 @@
 package com.exametrika.impl.groups.cluster.membership;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import com.exametrika.api.groups.cluster.IGroup;
@@ -18,10 +22,14 @@ import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.Immutables;
+import com.exametrika.common.utils.Pair;
+import com.exametrika.common.utils.PersistentHashMap;
 import com.exametrika.common.utils.Strings;
 
 /**
- * The {@link GroupsMembership} is implementation of {@link IGroupsMembership}.
+ * The {@link GroupsMembership} is implementation of {@link IGroupsMembership}. Indexes of groups membership are kept in
+ * persistent maps, so that new membership created by {@link #update} shares indexes with old membership and takes
+ * time proportional to number of changed groups. List of groups is built on first access.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -29,47 +37,124 @@ import com.exametrika.common.utils.Strings;
 public final class GroupsMembership implements IGroupsMembership
 {
     private static final IMessages messages = Messages.get(IMessages.class);
-    private final List<IGroup> groups;
-    private final Map<UUID, IGroup> groupsByIdMap;
-    private final Map<IAddress, IGroup> groupsByAddressMap;
-    private final Map<UUID, List<IGroup>> groupsByNodeMap;
+    private final PersistentHashMap<UUID, GroupEntry> groupsByIdMap;
+    private final PersistentHashMap<IAddress, IGroup> groupsByAddressMap;
+    private final PersistentHashMap<UUID, List<IGroup>> groupsByNodeMap;
+    private final long nextOrder;
+    private volatile List<IGroup> groups;
 
     public GroupsMembership(List<IGroup> groups)
     {
         Assert.notNull(groups);
 
+        Updater updater = new Updater(PersistentHashMap.<UUID, GroupEntry>empty(), PersistentHashMap.<IAddress, IGroup>empty(),
+            PersistentHashMap.<UUID, List<IGroup>>empty(), 0);
+        for (IGroup group : groups)
+            updater.put(group);
+
+        this.groupsByIdMap = updater.groupsByIdMap;
+        this.groupsByAddressMap = updater.groupsByAddressMap;
+        this.groupsByNodeMap = updater.groupsByNodeMap;
+        this.nextOrder = updater.nextOrder;
         this.groups = Immutables.wrap(groups);
+    }
         
-        Map<UUID, IGroup> groupsByIdMap = new HashMap<UUID, IGroup>();
-        Map<IAddress, IGroup> groupsByAddressMap = new HashMap<IAddress, IGroup>();
-        Map<UUID, List<IGroup>> groupsByNodeMap = new HashMap<UUID, List<IGroup>>();
-        for (IGroup group : groups)
+    /**
+     * Creates new groups membership from this membership.
+     *
+     * @param changedGroups new or changed groups. Changed groups keep their position in list of groups, new groups are
+     * added to the end of list of groups
+     * @param removedGroups identifiers of removed groups
+     * @return new groups membership
+     */
+    public GroupsMembership update(Collection<IGroup> changedGroups, Set<UUID> removedGroups)
+    {
+        Assert.notNull(changedGroups);
+        Assert.notNull(removedGroups);
+
+        if (changedGroups.isEmpty() && removedGroups.isEmpty())
+            return this;
+
+        Updater updater = new Updater(groupsByIdMap, groupsByAddressMap, groupsByNodeMap, nextOrder);
+        for (UUID groupId : removedGroups)
+            updater.remove(groupId);
+        for (IGroup group : changedGroups)
+            updater.put(group);
+
+        return new GroupsMembership(updater);
+    }
+
+    /**
+     * Finds differences between specified old membership and this membership. If this membership has been created from
+     * old membership by {@link #update}, takes time proportional to number of changed groups.
+     *
+     * @param oldMembership old membership
+     * @param newGroups list of groups absent in old membership, sorted in order of list of groups
+     * @param changedGroups list of pairs of old and new groups, which have been changed
+     * @param removedGroups list of groups absent in this membership
+     */
+    public void diff(GroupsMembership oldMembership, List<IGroup> newGroups, final List<Pair<IGroup, IGroup>> changedGroups,
+        final List<IGroup> removedGroups)
+    {
+        Assert.notNull(oldMembership);
+        Assert.notNull(newGroups);
+        Assert.notNull(changedGroups);
+        Assert.notNull(removedGroups);
+
+        final List<GroupEntry> newEntries = new ArrayList<GroupEntry>();
+        groupsByIdMap.diff(oldMembership.groupsByIdMap, new PersistentHashMap.IDiffHandler<UUID, GroupEntry>()
         {
-            groupsByIdMap.put(group.getId(), group);
-            groupsByAddressMap.put(group.getAddress(), group);
+            @Override
+            public void onAdded(UUID key, GroupEntry value)
+            {
+                newEntries.add(value);
+            }
             
-            for (INode node : group.getMembers())
+            @Override
+            public void onRemoved(UUID key, GroupEntry value)
             {
-                List<IGroup> list = groupsByNodeMap.get(node.getId());
-                if (list == null)
-                {
-                    list = Immutables.wrap(new ArrayList<IGroup>());
-                    groupsByNodeMap.put(node.getId(), list);
-                }
+                removedGroups.add(value.group);
+            }
                 
-                list = Immutables.unwrap(list);
-                list.add(group);
+            @Override
+            public void onChanged(UUID key, GroupEntry oldValue, GroupEntry newValue)
+            {
+                if (oldValue.group != newValue.group)
+                    changedGroups.add(new Pair<IGroup, IGroup>(oldValue.group, newValue.group));
             }
-        }
+        });
         
-        this.groupsByIdMap = groupsByIdMap;
-        this.groupsByAddressMap = groupsByAddressMap;
-        this.groupsByNodeMap = groupsByNodeMap;
+        Collections.sort(newEntries, new GroupEntryComparator());
+        for (GroupEntry entry : newEntries)
+            newGroups.add(entry.group);
+    }
+
+    public int getGroupCount()
+    {
+        return groupsByIdMap.size();
     }
 
     @Override
     public List<IGroup> getGroups()
     {
+        List<IGroup> groups = this.groups;
+        if (groups == null)
+        {
+            GroupEntry[] entries = new GroupEntry[groupsByIdMap.size()];
+            int i = 0;
+            for (Map.Entry<UUID, GroupEntry> entry : groupsByIdMap)
+                entries[i++] = entry.getValue();
+
+            Arrays.sort(entries, new GroupEntryComparator());
+
+            List<IGroup> list = new ArrayList<IGroup>(entries.length);
+            for (GroupEntry entry : entries)
+                list.add(entry.group);
+
+            groups = Immutables.wrap(list);
+            this.groups = groups;
+        }
+
         return groups;
     }
 
@@ -78,7 +163,11 @@ public final class GroupsMembership implements IGroupsMembership
     {
         Assert.notNull(groupId);
         
-        return groupsByIdMap.get(groupId);
+        GroupEntry entry = groupsByIdMap.get(groupId);
+        if (entry != null)
+            return entry.group;
+        else
+            return null;
     }
 
     @Override
@@ -100,7 +189,138 @@ public final class GroupsMembership implements IGroupsMembership
     @Override
     public String toString()
     {
-        return messages.toString(Strings.toString(groups, true)).toString();
+        return messages.toString(Strings.toString(getGroups(), true)).toString();
+    }
+
+    private GroupsMembership(Updater updater)
+    {
+        this.groupsByIdMap = updater.groupsByIdMap;
+        this.groupsByAddressMap = updater.groupsByAddressMap;
+        this.groupsByNodeMap = updater.groupsByNodeMap;
+        this.nextOrder = updater.nextOrder;
+    }
+
+    private static final class GroupEntry
+    {
+        private final IGroup group;
+        private final long order;
+
+        public GroupEntry(IGroup group, long order)
+        {
+            this.group = group;
+            this.order = order;
+        }
+    }
+
+    private static final class GroupEntryComparator implements Comparator<GroupEntry>
+    {
+        @Override
+        public int compare(GroupEntry entry1, GroupEntry entry2)
+        {
+            return Long.compare(entry1.order, entry2.order);
+        }
+    }
+
+    private static final class Updater
+    {
+        private PersistentHashMap<UUID, GroupEntry> groupsByIdMap;
+        private PersistentHashMap<IAddress, IGroup> groupsByAddressMap;
+        private PersistentHashMap<UUID, List<IGroup>> groupsByNodeMap;
+        private long nextOrder;
+
+        public Updater(PersistentHashMap<UUID, GroupEntry> groupsByIdMap, PersistentHashMap<IAddress, IGroup> groupsByAddressMap,
+            PersistentHashMap<UUID, List<IGroup>> groupsByNodeMap, long nextOrder)
+        {
+            this.groupsByIdMap = groupsByIdMap;
+            this.groupsByAddressMap = groupsByAddressMap;
+            this.groupsByNodeMap = groupsByNodeMap;
+            this.nextOrder = nextOrder;
+        }
+
+        public void put(IGroup group)
+        {
+            GroupEntry oldEntry = groupsByIdMap.get(group.getId());
+            long order;
+            if (oldEntry != null)
+            {
+                order = oldEntry.order;
+                groupsByAddressMap = groupsByAddressMap.remove(oldEntry.group.getAddress());
+                for (INode node : oldEntry.group.getMembers())
+                {
+                    if (group.findMember(node.getId()) == null)
+                        removeNodeGroup(node.getId(), group.getId());
+                }
+            }
+            else
+                order = nextOrder++;
+
+            groupsByIdMap = groupsByIdMap.put(group.getId(), new GroupEntry(group, order));
+            groupsByAddressMap = groupsByAddressMap.put(group.getAddress(), group);
+            for (INode node : group.getMembers())
+                putNodeGroup(node.getId(), group);
+        }
+
+        public void remove(UUID groupId)
+        {
+            GroupEntry entry = groupsByIdMap.get(groupId);
+            if (entry == null)
+                return;
+
+            groupsByIdMap = groupsByIdMap.remove(groupId);
+            groupsByAddressMap = groupsByAddressMap.remove(entry.group.getAddress());
+            for (INode node : entry.group.getMembers())
+                removeNodeGroup(node.getId(), groupId);
+        }
+
+        private void putNodeGroup(UUID nodeId, IGroup group)
+        {
+            List<IGroup> oldList = groupsByNodeMap.get(nodeId);
+            List<IGroup> list;
+            if (oldList != null)
+            {
+                list = new ArrayList<IGroup>(oldList.size() + 1);
+                boolean found = false;
+                for (IGroup nodeGroup : oldList)
+                {
+                    if (nodeGroup.getId().equals(group.getId()))
+                    {
+                        list.add(group);
+                        found = true;
+                    }
+                    else
+                        list.add(nodeGroup);
+                }
+
+                if (!found)
+                    list.add(group);
+            }
+            else
+            {
+                list = new ArrayList<IGroup>(1);
+                list.add(group);
+            }
+
+            groupsByNodeMap = groupsByNodeMap.put(nodeId, Immutables.wrap(list));
+        }
+
+        private void removeNodeGroup(UUID nodeId, UUID groupId)
+        {
+            List<IGroup> oldList = groupsByNodeMap.get(nodeId);
+            if (oldList == null)
+                return;
+
+            List<IGroup> list = new ArrayList<IGroup>(oldList.size());
+            for (IGroup nodeGroup : oldList)
+            {
+                if (!nodeGroup.getId().equals(groupId))
+                    list.add(nodeGroup);
+            }
+
+            if (list.isEmpty())
+                groupsByNodeMap = groupsByNodeMap.remove(nodeId);
+            else
+                groupsByNodeMap = groupsByNodeMap.put(nodeId, Immutables.wrap(list));
+        }
     }
     
     private interface IMessages
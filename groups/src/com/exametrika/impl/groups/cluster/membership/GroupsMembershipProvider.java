@@ -6,9 +6,7 @@ package com.exametrika.impl.groups.cluster.membership;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -55,12 +53,8 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
         IDomainMembership oldDomainMembership, IClusterMembershipElement oldMembership)
     {
         GroupsMembership oldGroupMembership = null;
-        List<IGroup> oldGroups = null;
         if (oldMembership != null)
-        {
             oldGroupMembership = (GroupsMembership)oldMembership;
-            oldGroups = oldGroupMembership.getGroups();
-        }
         NodesMembership nodeMembership = newDomainMembership.findElement(NodesMembership.class);
         Assert.notNull(nodeMembership);
         NodesMembershipDelta nodeMembershipDelta = domainMembershipDelta.findDelta(NodesMembershipDelta.class);
@@ -72,7 +66,9 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
             return new Pair<IClusterMembershipElement, IClusterMembershipElementDelta>(oldMembership, null);
         
         List<IGroup> groups = new ArrayList<IGroup>();
+        List<IGroup> updatedGroups = new ArrayList<IGroup>();
         List<IGroup> newGroups = new ArrayList<IGroup>();
+        Set<UUID> groupIds = new HashSet<UUID>();
         Set<UUID> removedGroups = new HashSet<UUID>();
         Set<IGroupDelta> changedGroups = new HashSet<IGroupDelta>();
         for (Pair<IGroup, IGroupDelta> pair : list)
@@ -80,8 +76,10 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
             IGroup group = pair.getKey();
             IGroupDelta delta = pair.getValue();
             groups.add(group);
+            groupIds.add(group.getId());
             if (delta != null)
             {
+                updatedGroups.add(group);
                 if (oldGroupMembership != null && oldGroupMembership.findGroup(group.getId()) != null)
                     changedGroups.add(delta);
                 else
@@ -89,18 +87,24 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
             }
         }
         
-        GroupsMembership newGroupMembership = new GroupsMembership(groups);
-        if (oldGroups != null)
+        // Old groups are scanned only if some of them are missing in mapped groups
+        if (oldGroupMembership != null && oldGroupMembership.getGroupCount() > groups.size() - newGroups.size())
         {
-            for (IGroup group : oldGroups)
+            for (IGroup group : oldGroupMembership.getGroups())
             {
-                if (newGroupMembership.findGroup(group.getId()) == null)
+                if (!groupIds.contains(group.getId()))
                     removedGroups.add(group.getId());
             }
         }
         
         if (newGroups.isEmpty() && changedGroups.isEmpty() && removedGroups.isEmpty())
             return new Pair<IClusterMembershipElement, IClusterMembershipElementDelta>(oldMembership, null);
+        
+        GroupsMembership newGroupMembership;
+        if (oldGroupMembership != null)
+            newGroupMembership = oldGroupMembership.update(updatedGroups, removedGroups);
+        else
+            newGroupMembership = new GroupsMembership(groups);
             
         GroupsMembershipDelta newGroupMembershipDelta = new GroupsMembershipDelta(newGroups, changedGroups, removedGroups);
         return new Pair<IClusterMembershipElement, IClusterMembershipElementDelta>(newGroupMembership, newGroupMembershipDelta);
@@ -162,36 +166,27 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
         else
         {
             List<IGroup> groups = new ArrayList<IGroup>();
-            Map<UUID, IGroupDelta> changedGroups = new LinkedHashMap<UUID, IGroupDelta>();
             for (IGroupDelta changedGroup : groupsDelta.getChangedGroups())
-                changedGroups.put(changedGroup.getId(), changedGroup);
-            
-            for (IGroup group : oldGroupsMembership.getGroups())
             {
-                if (groupsDelta.getRemovedGroups().contains(group.getId()))
+                IGroup group = oldGroupsMembership.findGroup(changedGroup.getId());
+                if (group == null || groupsDelta.getRemovedGroups().contains(group.getId()))
                     continue;
                
-                IGroupDelta changedGroup = changedGroups.get(group.getId());
-                if (changedGroup != null)
+                List<INode> members = new ArrayList<INode>();
+                for (INode node : group.getMembers())
                 {
-                    List<INode> members = new ArrayList<INode>();
-                    for (INode node : group.getMembers())
-                    {
-                        if (!changedGroup.getFailedMembers().contains(node.getId()) && !changedGroup.getLeftMembers().contains(node.getId()))
-                            members.add(node);
-                    }
-                    
-                    members.addAll(changedGroup.getJoinedMembers());
-                    group = new Group((GroupAddress)group.getAddress(), changedGroup.isPrimary(), members, group.getOptions(),
-                        changedGroup.getChangeId());
+                    if (!changedGroup.getFailedMembers().contains(node.getId()) && !changedGroup.getLeftMembers().contains(node.getId()))
+                        members.add(node);
                 }
                 
-                groups.add(group); 
+                members.addAll(changedGroup.getJoinedMembers());
+                groups.add(new Group((GroupAddress)group.getAddress(), changedGroup.isPrimary(), members, group.getOptions(),
+                    changedGroup.getChangeId()));
             }
             
             groups.addAll(groupsDelta.getNewGroups());
             
-            return new GroupsMembership(groups);
+            return oldGroupsMembership.update(groups, groupsDelta.getRemovedGroups());
         }
     }
 
@@ -206,19 +201,20 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
         GroupsMembership oldGroupMembership = (GroupsMembership)oldMembership;
         GroupsMembership newGroupMembership = newDomainMembership.findElement(GroupsMembership.class);
   
-        Map<UUID, IGroupDelta> changedGroupsMap = new LinkedHashMap<UUID, IGroupDelta>();
-        for (IGroupDelta changedGroup : groupDelta.getChangedGroups())
-            changedGroupsMap.put(changedGroup.getId(), changedGroup);
-        
         Set<IGroup> removedGroups = new HashSet<IGroup>();
-        Set<IGroupChange> changedGroups = new HashSet<IGroupChange>();
-        for (IGroup group : oldGroupMembership.getGroups())
+        for (UUID groupId : groupDelta.getRemovedGroups())
         {
-            if (groupDelta.getRemovedGroups().contains(group.getId()))
+            IGroup group = oldGroupMembership.findGroup(groupId);
+            if (group != null)
                 removedGroups.add(group);
-            else if (changedGroupsMap.containsKey(group.getId()))
+        }
+        
+        Set<IGroupChange> changedGroups = new HashSet<IGroupChange>();
+        for (IGroupDelta changedGroup : groupDelta.getChangedGroups())
+        {
+            IGroup group = oldGroupMembership.findGroup(changedGroup.getId());
+            if (group != null && !groupDelta.getRemovedGroups().contains(group.getId()))
             {
-                IGroupDelta changedGroup = changedGroupsMap.get(group.getId());
                 IGroup newGroup = newGroupMembership.findGroup(group.getId());
                 Set<INode> failedMembers = new HashSet<INode>();
                 Set<INode> leftMembers = new HashSet<INode>();
@@ -253,42 +249,37 @@ public final class GroupsMembershipProvider implements IClusterMembershipProvide
         GroupsMembership newGroupMembership = (GroupsMembership)newMembership;
         GroupsMembership oldGroupMembership = (GroupsMembership)oldMembership;
         
-        Set<IGroup> removedGroups = new HashSet<IGroup>();
+        List<IGroup> newGroups = new ArrayList<IGroup>();
+        List<Pair<IGroup, IGroup>> diffGroups = new ArrayList<Pair<IGroup, IGroup>>();
+        List<IGroup> diffRemovedGroups = new ArrayList<IGroup>();
+        newGroupMembership.diff(oldGroupMembership, newGroups, diffGroups, diffRemovedGroups);
+        
+        Set<IGroup> removedGroups = new HashSet<IGroup>(diffRemovedGroups);
         Set<IGroupChange> changedGroups = new HashSet<IGroupChange>();
-        for (IGroup group : oldGroupMembership.getGroups())
+        for (Pair<IGroup, IGroup> pair : diffGroups)
         {
-            IGroup newGroup = newGroupMembership.findGroup(group.getId());
-            if (newGroup == null)
-                removedGroups.add(group);
-            else
+            IGroup group = pair.getKey();
+            IGroup newGroup = pair.getValue();
+            Set<INode> failedNodes = new HashSet<INode>();
+            for (INode node : group.getMembers())
             {
-                Set<INode> failedNodes = new HashSet<INode>();
-                for (INode node : group.getMembers())
-                {
-                    if (newGroup.findMember(node.getId()) == null)
-                        failedNodes.add(node);
-                }
+                if (newGroup.findMember(node.getId()) == null)
+                    failedNodes.add(node);
+            }
                 
-                List<INode> joinedNodes = new ArrayList<INode>();
-                for (INode node : newGroup.getMembers())
-                {
-                    if (group.findMember(node.getId()) == null)
-                        joinedNodes.add(node);
-                }
-                if (!joinedNodes.isEmpty() || !failedNodes.isEmpty() || group.isPrimary() != newGroup.isPrimary())
-                {
-                    IGroupChange changedGroup = new GroupChange(newGroup, group, joinedNodes, Collections.<INode>emptySet(), failedNodes);
-                    changedGroups.add(changedGroup);
-                }
+            List<INode> joinedNodes = new ArrayList<INode>();
+            for (INode node : newGroup.getMembers())
+            {
+                if (group.findMember(node.getId()) == null)
+                    joinedNodes.add(node);
+            }
+            if (!joinedNodes.isEmpty() || !failedNodes.isEmpty() || group.isPrimary() != newGroup.isPrimary())
+            {
+                IGroupChange changedGroup = new GroupChange(newGroup, group, joinedNodes, Collections.<INode>emptySet(), failedNodes);
+                changedGroups.add(changedGroup);
             }
         }
         
-        List<IGroup> newGroups = new ArrayList<IGroup>();
-        for (IGroup group : newGroupMembership.getGroups())
-        {
-            if (oldGroupMembership.findGroup(group.getId()) == null)
-                newGroups.add(group);
-        }
         return new GroupsMembershipChange(newGroups, changedGroups, removedGroups);
     }
 }
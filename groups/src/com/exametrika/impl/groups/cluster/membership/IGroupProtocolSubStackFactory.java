@@ -4,6 +4,7 @@
 package com.exametrika.impl.groups.cluster.membership;
 
 import com.exametrika.api.groups.cluster.IGroup;
+import com.exametrika.common.compartment.ICompartment;
 
 
 /**
@@ -18,7 +19,8 @@ public interface IGroupProtocolSubStackFactory
      * Creates protocol sub-stack for specified group.
      *
      * @param group group
+     * @param compartment compartment in main thread of which sub-stack is processed
      * @return protocol sub-stack
      */
-    GroupProtocolSubStack createProtocolSubStack(IGroup group);
+    GroupProtocolSubStack createProtocolSubStack(IGroup group, ICompartment compartment);
 }
\ No newline at end of file
@@ -3,9 +3,13 @@
  */
 package com.exametrika.impl.groups.cluster.membership;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import com.exametrika.api.groups.cluster.INode;
@@ -16,9 +20,12 @@ import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.Immutables;
+import com.exametrika.common.utils.PersistentHashMap;
 
 /**
- * The {@link NodesMembership} is implementation of {@link INodesMembership}.
+ * The {@link NodesMembership} is implementation of {@link INodesMembership}. Indexes of nodes membership are kept in
+ * persistent maps, so that new membership created by {@link #update} shares indexes with old membership and takes
+ * time proportional to number of joined and removed nodes. List of nodes is built on first access.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -26,31 +33,96 @@ import com.exametrika.common.utils.Immutables;
 public final class NodesMembership implements INodesMembership
 {
     private static final IMessages messages = Messages.get(IMessages.class);
-    private final List<INode> nodes;
-    private final Map<UUID, INode> nodesByIdMap;
-    private final Map<IAddress, INode> nodesByAddressMap;
+    private final PersistentHashMap<UUID, NodeEntry> nodesByIdMap;
+    private final PersistentHashMap<IAddress, INode> nodesByAddressMap;
+    private final long nextOrder;
+    private volatile List<INode> nodes;
 
     public NodesMembership(List<? extends INode> nodes)
     {
         Assert.notNull(nodes);
 
-        this.nodes = Immutables.wrap(nodes);
-        
-        Map<UUID, INode> nodesByIdMap = new HashMap<UUID, INode>();
-        Map<IAddress, INode> nodesByAddressMap = new HashMap<IAddress, INode>();
+        PersistentHashMap<UUID, NodeEntry> nodesByIdMap = PersistentHashMap.empty();
+        PersistentHashMap<IAddress, INode> nodesByAddressMap = PersistentHashMap.empty();
+        long order = 0;
         for (INode node : nodes)
         {
-            nodesByIdMap.put(node.getId(), node);
-            nodesByAddressMap.put(node.getAddress(), node);
+            nodesByIdMap = nodesByIdMap.put(node.getId(), new NodeEntry(node, order++));
+            nodesByAddressMap = nodesByAddressMap.put(node.getAddress(), node);
         }
         
         this.nodesByIdMap = nodesByIdMap;
         this.nodesByAddressMap = nodesByAddressMap;
+        this.nextOrder = order;
+        this.nodes = Immutables.wrap(nodes);
+    }
+
+    /**
+     * Creates new nodes membership from this membership.
+     *
+     * @param joinedNodes joined nodes, which are added to the end of list of nodes
+     * @param removedNodes identifiers of failed or left nodes
+     * @return new nodes membership
+     */
+    public NodesMembership update(Collection<? extends INode> joinedNodes, Set<UUID> removedNodes)
+    {
+        Assert.notNull(joinedNodes);
+        Assert.notNull(removedNodes);
+
+        if (joinedNodes.isEmpty() && removedNodes.isEmpty())
+            return this;
+
+        PersistentHashMap<UUID, NodeEntry> nodesByIdMap = this.nodesByIdMap;
+        PersistentHashMap<IAddress, INode> nodesByAddressMap = this.nodesByAddressMap;
+        long order = nextOrder;
+        for (UUID nodeId : removedNodes)
+        {
+            NodeEntry entry = nodesByIdMap.get(nodeId);
+            if (entry == null)
+                continue;
+
+            nodesByIdMap = nodesByIdMap.remove(nodeId);
+            nodesByAddressMap = nodesByAddressMap.remove(entry.node.getAddress());
+        }
+
+        for (INode node : joinedNodes)
+        {
+            NodeEntry entry = nodesByIdMap.get(node.getId());
+            nodesByIdMap = nodesByIdMap.put(node.getId(), new NodeEntry(node, entry != null ? entry.order : order++));
+            nodesByAddressMap = nodesByAddressMap.put(node.getAddress(), node);
+        }
+
+        return new NodesMembership(nodesByIdMap, nodesByAddressMap, order);
     }
 
     @Override
     public List<INode> getNodes()
     {
+        List<INode> nodes = this.nodes;
+        if (nodes == null)
+        {
+            NodeEntry[] entries = new NodeEntry[nodesByIdMap.size()];
+            int i = 0;
+            for (Map.Entry<UUID, NodeEntry> entry : nodesByIdMap)
+                entries[i++] = entry.getValue();
+
+            Arrays.sort(entries, new Comparator<NodeEntry>()
+            {
+                @Override
+                public int compare(NodeEntry entry1, NodeEntry entry2)
+                {
+                    return Long.compare(entry1.order, entry2.order);
+                }
+            });
+
+            List<INode> list = new ArrayList<INode>(entries.length);
+            for (NodeEntry entry : entries)
+                list.add(entry.node);
+
+            nodes = Immutables.wrap(list);
+            this.nodes = nodes;
+        }
+
         return nodes;
     }
 
@@ -59,7 +131,11 @@ public final class NodesMembership implements INodesMembership
     {
         Assert.notNull(nodeId);
         
-        return nodesByIdMap.get(nodeId);
+        NodeEntry entry = nodesByIdMap.get(nodeId);
+        if (entry != null)
+            return entry.node;
+        else
+            return null;
     }
 
     @Override
@@ -73,7 +149,27 @@ public final class NodesMembership implements INodesMembership
     @Override
     public String toString()
     {
-        return messages.toString(nodes).toString();
+        return messages.toString(getNodes()).toString();
+    }
+
+    private NodesMembership(PersistentHashMap<UUID, NodeEntry> nodesByIdMap, PersistentHashMap<IAddress, INode> nodesByAddressMap,
+        long nextOrder)
+    {
+        this.nodesByIdMap = nodesByIdMap;
+        this.nodesByAddressMap = nodesByAddressMap;
+        this.nextOrder = nextOrder;
+    }
+
+    private static final class NodeEntry
+    {
+        private final INode node;
+        private final long order;
+
+        public NodeEntry(INode node, long order)
+        {
+            this.node = node;
+            this.order = order;
+        }
     }
     
     private interface IMessages
@@ -118,19 +118,14 @@ public final class NodesMembershipProvider implements IClusterMembershipProvider
         NodesMembership newNodeMembership = oldNodeMembership;
         if (delta != null)
         {
-            List<INode> nodes = new ArrayList<INode>();
             if (oldNodeMembership != null)
             {
-                for (INode node : oldNodeMembership.getNodes())
-                {
-                    if (!failedNodeIds.contains(node.getId()) && !leftNodeIds.contains(node.getId()))
-                        nodes.add(node);
-                }
+                Set<UUID> removedNodeIds = new HashSet<UUID>(failedNodeIds);
+                removedNodeIds.addAll(leftNodeIds);
+                newNodeMembership = oldNodeMembership.update(joinedNodes, removedNodeIds);
             }
-            
-            nodes.addAll(joinedNodes);
-            
-            newNodeMembership = new NodesMembership(nodes);
+            else
+                newNodeMembership = new NodesMembership(joinedNodes);
         }
         
         return new Pair<IClusterMembershipElement, IClusterMembershipElementDelta>(newNodeMembership, delta);
@@ -196,16 +191,9 @@ public final class NodesMembershipProvider implements IClusterMembershipProvider
             return new NodesMembership(new ArrayList<INode>(nodeDelta.getJoinedNodes()));
         else
         {
-            List<INode> nodes = new ArrayList<INode>();
-            for (INode node : oldNodeMembership.getNodes())
-            {
-                if (!nodeDelta.getFailedNodes().contains(node.getId()) && !nodeDelta.getLeftNodes().contains(node.getId()))
-                    nodes.add(node);
-            }
-            
-            nodes.addAll(nodeDelta.getJoinedNodes());
-            
-            return new NodesMembership(nodes);
+            Set<UUID> removedNodeIds = new HashSet<UUID>(nodeDelta.getFailedNodes());
+            removedNodeIds.addAll(nodeDelta.getLeftNodes());
+            return oldNodeMembership.update(nodeDelta.getJoinedNodes(), removedNodeIds);
         }
     }
 
@@ -221,11 +209,16 @@ public final class NodesMembershipProvider implements IClusterMembershipProvider
   
         Set<INode> failedNodes = new HashSet<INode>();
         Set<INode> leftNodes = new HashSet<INode>();
-        for (INode node : oldNodeMembership.getNodes())
+        for (UUID nodeId : nodeDelta.getFailedNodes())
         {
-            if (nodeDelta.getFailedNodes().contains(node.getId()))
+            INode node = oldNodeMembership.findNode(nodeId);
+            if (node != null)
                 failedNodes.add(node);
-            else if (nodeDelta.getLeftNodes().contains(node.getId()))
+        }
+        for (UUID nodeId : nodeDelta.getLeftNodes())
+        {
+            INode node = oldNodeMembership.findNode(nodeId);
+            if (node != null && !nodeDelta.getFailedNodes().contains(nodeId))
                 leftNodes.add(node);
         }
         
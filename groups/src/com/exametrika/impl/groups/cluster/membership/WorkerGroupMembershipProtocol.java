@@ -19,7 +19,10 @@ import com.exametrika.api.groups.cluster.IDomainMembership;
 import com.exametrika.api.groups.cluster.IDomainMembershipChange;
 import com.exametrika.api.groups.cluster.IGroup;
 import com.exametrika.api.groups.cluster.IGroupChange;
-import com.exametrika.common.compartment.ICompartmentProcessor;
+import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.compartment.ICompartmentFactory;
+import com.exametrika.common.compartment.impl.CompartmentFactory;
+import com.exametrika.common.compartment.impl.ConcurrentCompartmentQueue;
 import com.exametrika.common.io.ISerializationRegistry;
 import com.exametrika.common.l10n.DefaultMessage;
 import com.exametrika.common.l10n.ILocalizedMessage;
@@ -38,13 +41,16 @@ import com.exametrika.common.messaging.impl.protocols.composite.MessageRouter;
 import com.exametrika.common.utils.Assert;
 
 /**
- * The {@link WorkerGroupMembershipProtocol} represents a worker node group membership protocol.
- * process.
+ * The {@link WorkerGroupMembershipProtocol} represents a worker node group membership protocol. Group sub-stacks are
+ * distributed by group identifier between shards, each shard processes its sub-stacks in main thread of separate
+ * compartment. If shard count is 0, all sub-stacks are processed in main thread of channel compartment. Messages and
+ * membership events are routed to shard of sub-stack, messages sent or received by sub-stack are routed back to channel
+ * compartment.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
  */
-public final class WorkerGroupMembershipProtocol extends MessageRouter implements IClusterMembershipListener, ICompartmentProcessor
+public final class WorkerGroupMembershipProtocol extends MessageRouter implements IClusterMembershipListener
 {
     private static final IMessages messages = Messages.get(IMessages.class);
     private final Map<UUID, GroupProtocolSubStack> groupsStacks = new HashMap<UUID, GroupProtocolSubStack>();
@@ -53,20 +59,69 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
     private final long groupSubStackRemoveDelay;
     private final int maxPendingMessageCount;
     private final Map<UUID, List<IMessage>> pendingMessages = new LinkedHashMap<UUID, List<IMessage>>();
+    private final int shardCount;
+    private final long shardDispatchPeriod;
+    private final List<GroupProtocolSubStackShard> shards = new ArrayList<GroupProtocolSubStackShard>();
+    private ICompartment compartment;
     
     public WorkerGroupMembershipProtocol(String channelName, IMessageFactory messageFactory, 
         IClusterMembershipService membershipService, IGroupProtocolSubStackFactory protocolSubStackFactory,
-        long groupSubStackRemoveDelay, int maxPendingMessageCount)
+        long groupSubStackRemoveDelay, int maxPendingMessageCount, int shardCount, long shardDispatchPeriod)
     {
         super(channelName, messageFactory);
         
         Assert.notNull(membershipService);
         Assert.notNull(protocolSubStackFactory);
+        Assert.isTrue(shardCount >= 0);
         
         this.membershipService = membershipService;
         this.protocolSubStackFactory = protocolSubStackFactory;
         this.groupSubStackRemoveDelay = groupSubStackRemoveDelay;
         this.maxPendingMessageCount = maxPendingMessageCount;
+        this.shardCount = shardCount;
+        this.shardDispatchPeriod = shardDispatchPeriod;
+    }
+    
+    public void setCompartment(ICompartment compartment)
+    {
+        this.compartment = compartment;
+    }
+    
+    @Override
+    public void start()
+    {
+        Assert.checkState(compartment != null);
+        
+        super.start();
+        
+        if (shardCount == 0)
+            shards.add(new GroupProtocolSubStackShard(compartment, false));
+        else
+        {
+            for (int i = 0; i < shardCount; i++)
+            {
+                ICompartmentFactory.Parameters compartmentParameters = new ICompartmentFactory.Parameters();
+                compartmentParameters.name = compartment.getName() + "-groups-" + i;
+                compartmentParameters.dispatchPeriod = shardDispatchPeriod;
+                compartmentParameters.group = compartment.getGroup();
+                compartmentParameters.queue = new ConcurrentCompartmentQueue();
+                
+                ICompartment shardCompartment = new CompartmentFactory().createCompartment(compartmentParameters);
+                shards.add(new GroupProtocolSubStackShard(shardCompartment, true));
+            }
+        }
+        
+        for (GroupProtocolSubStackShard shard : shards)
+            shard.start();
+    }
+    
+    @Override
+    public void stop()
+    {
+        for (GroupProtocolSubStackShard shard : shards)
+            shard.stop();
+        
+        super.stop();
     }
 
     @Override
@@ -103,13 +158,6 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
         }
     }
     
-    @Override
-    public void process()
-    {
-        for (AbstractProtocol protocol : protocols)
-            ((GroupProtocolSubStack)protocol).process();
-    }
-    
     @Override
     public void onJoined()
     {
@@ -117,33 +165,55 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
         IDomainMembership domainMembership = membership.findDomain(membershipService.getLocalNode().getDomain());
         GroupsMembership groupsMembership = domainMembership.findElement(GroupsMembership.class);
         List<IGroup> nodeGroups = groupsMembership.findNodeGroups(membershipService.getLocalNode().getId());
-        for (IGroup group : nodeGroups)
+        for (final IGroup group : nodeGroups)
         {
-            GroupProtocolSubStack protocolSubStack = protocolSubStackFactory.createProtocolSubStack(group);
-            addProtocol(protocolSubStack);
-            groupsStacks.put(group.getId(), protocolSubStack);
-           
-            if (logger.isLogEnabled(LogLevel.DEBUG))
-                logger.log(LogLevel.DEBUG, protocolSubStack.getMarker(), messages.groupSubStackCreated());
-            
-            protocolSubStack.installGroupMembership(group);
-            
-            processPendingMessages(group.getId(), protocolSubStack);
+            final GroupProtocolSubStack protocolSubStack = createProtocolSubStack(group);
+            final List<IMessage> groupMessages = pendingMessages.remove(group.getId());
+            findShard(group.getId()).execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    protocolSubStack.installGroupMembership(group);
+                    
+                    processPendingMessages(groupMessages, protocolSubStack);
+                }
+            });
         }
         
         for (AbstractProtocol protocol : protocols)
-            ((GroupProtocolSubStack)protocol).onJoined();
+        {
+            final GroupProtocolSubStack protocolSubStack = (GroupProtocolSubStack)protocol;
+            findShard(protocolSubStack.getGroupId()).execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    protocolSubStack.onJoined();
+                }
+            });
+        }
     }
 
     @Override
-    public void onLeft(LeaveReason reason)
+    public void onLeft(final LeaveReason reason)
     {
         for (AbstractProtocol protocol : protocols)
-            ((GroupProtocolSubStack)protocol).onLeft(reason);
+        {
+            final GroupProtocolSubStack protocolSubStack = (GroupProtocolSubStack)protocol;
+            findShard(protocolSubStack.getGroupId()).execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    protocolSubStack.onLeft(reason);
+                }
+            });
+        }
     }
 
     @Override
-    public void onMembershipChanged(ClusterMembershipEvent event)
+    public void onMembershipChanged(final ClusterMembershipEvent event)
     {
         IDomainMembershipChange domainChange = event.getMembershipChange().findChangedDomain(membershipService.getLocalNode().getDomain());
         if (domainChange == null)
@@ -152,19 +222,14 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
         GroupsMembership groupsMembership = domainMembership.findElement(GroupsMembership.class);
         List<IGroup> nodeGroups = groupsMembership.findNodeGroups(membershipService.getLocalNode().getId());
         GroupsMembershipChange groupsChange = domainChange.findChange(GroupsMembershipChange.class);
-        for (IGroup group : nodeGroups)
+        for (final IGroup group : nodeGroups)
         {
             IGroupChange changedGroup = null;
             GroupProtocolSubStack protocolSubStack = null;
             if (groupsChange.getNewGroups().contains(group))
             {
                 Assert.checkState(!groupsStacks.containsKey(group.getId()));
-                protocolSubStack = protocolSubStackFactory.createProtocolSubStack(group);
-                addProtocol(protocolSubStack);
-                groupsStacks.put(group.getId(), protocolSubStack);
-                
-                if (logger.isLogEnabled(LogLevel.DEBUG))
-                    logger.log(LogLevel.DEBUG, protocolSubStack.getMarker(), messages.groupSubStackRemoved());
+                protocolSubStack = createProtocolSubStack(group);
             }
             else
             {
@@ -178,14 +243,24 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
             
             if (protocolSubStack != null)
             {
-                if (changedGroup == null)
+                final GroupProtocolSubStack installedSubStack = protocolSubStack;
+                final IGroupChange installedGroupChange = changedGroup;
+                final List<IMessage> groupMessages = changedGroup == null ? pendingMessages.remove(group.getId()) : null;
+                findShard(group.getId()).execute(new Runnable()
                 {
-                    protocolSubStack.installGroupMembership(group);
-                    
-                    processPendingMessages(group.getId(), protocolSubStack);
-                }
-                else
-                    protocolSubStack.installGroupMembership(changedGroup);
+                    @Override
+                    public void run()
+                    {
+                        if (installedGroupChange == null)
+                        {
+                            installedSubStack.installGroupMembership(group);
+                            
+                            processPendingMessages(groupMessages, installedSubStack);
+                        }
+                        else
+                            installedSubStack.installGroupMembership(installedGroupChange);
+                    }
+                });
             }
         }
         
@@ -197,7 +272,17 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
         }
         
         for (AbstractProtocol protocol : protocols)
-            ((GroupProtocolSubStack)protocol).onMembershipChanged(event);
+        {
+            final GroupProtocolSubStack protocolSubStack = (GroupProtocolSubStack)protocol;
+            findShard(protocolSubStack.getGroupId()).execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    protocolSubStack.onMembershipChanged(event);
+                }
+            });
+        }
     }
 
     @Override
@@ -206,10 +291,19 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
         if (message.getPart() instanceof GroupMessagePart)
         {
             GroupMessagePart part = message.getPart();
-            message = message.removePart();
-            IReceiver receiver = groupsStacks.get(part.getGroupId());
+            final IMessage groupMessage = message.removePart();
+            final IReceiver receiver = groupsStacks.get(part.getGroupId());
             if (receiver != null)
-                receiver.receive(message);
+            {
+                findShard(part.getGroupId()).execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        receiver.receive(groupMessage);
+                    }
+                });
+            }
             else
             {
                 List<IMessage> list = pendingMessages.get(part.getGroupId());
@@ -220,9 +314,9 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
                 }
                 
                 if (list.size() < maxPendingMessageCount)
-                    list.add(message);
+                    list.add(groupMessage);
                 else if (logger.isLogEnabled(LogLevel.ERROR))
-                    logger.log(LogLevel.ERROR, marker, messages.messageLost(message));
+                    logger.log(LogLevel.ERROR, marker, messages.messageLost(groupMessage));
             }
             
             return true;
@@ -232,13 +326,22 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
     }
     
     @Override
-    protected boolean doSendRoute(IMessage message)
+    protected boolean doSendRoute(final IMessage message)
     {
         if (message.getDestination() instanceof GroupAddress)
         {
-            ISender sender = groupsStacks.get(message.getDestination().getId());
+            final ISender sender = groupsStacks.get(message.getDestination().getId());
             if (sender != null)
-                sender.send(message);
+            {
+                findShard(message.getDestination().getId()).execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        sender.send(message);
+                    }
+                });
+            }
             
             return true;
         }
@@ -276,9 +379,94 @@ public final class WorkerGroupMembershipProtocol extends MessageRouter implement
             return false;   
     }
     
-    private void processPendingMessages(UUID groupId, GroupProtocolSubStack protocolSubStack)
+    @Override
+    protected void doWire(AbstractProtocol protocol)
+    {
+        if (shardCount == 0)
+        {
+            super.doWire(protocol);
+            return;
+        }
+        
+        protocol.setSender(new ISender()
+        {
+            @Override
+            public void send(final IMessage message)
+            {
+                compartment.offer(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        getSender().send(message);
+                    }
+                });
+            }
+        });
+        protocol.setPullableSender(getPullableSender());
+        protocol.setReceiver(new IReceiver()
+        {
+            @Override
+            public void receive(final IMessage message)
+            {
+                compartment.offer(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        getReceiver().receive(message);
+                    }
+                });
+            }
+        });
+    }
+    
+    @Override
+    protected void doStop(AbstractProtocol protocol)
+    {
+        final GroupProtocolSubStack protocolSubStack = (GroupProtocolSubStack)protocol;
+        final GroupProtocolSubStackShard shard = findShard(protocolSubStack.getGroupId());
+        shard.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                shard.removeSubStack(protocolSubStack);
+                protocolSubStack.stop();
+            }
+        });
+    }
+    
+    private GroupProtocolSubStack createProtocolSubStack(IGroup group)
+    {
+        final GroupProtocolSubStackShard shard = findShard(group.getId());
+        final GroupProtocolSubStack protocolSubStack = protocolSubStackFactory.createProtocolSubStack(group, 
+            shard.getCompartment());
+        addProtocol(protocolSubStack);
+        groupsStacks.put(group.getId(), protocolSubStack);
+        
+        shard.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                shard.addSubStack(protocolSubStack);
+            }
+        });
+        
+        if (logger.isLogEnabled(LogLevel.DEBUG))
+            logger.log(LogLevel.DEBUG, protocolSubStack.getMarker(), messages.groupSubStackCreated());
+        
+        return protocolSubStack;
+    }
+    
+    private GroupProtocolSubStackShard findShard(UUID groupId)
+    {
+        return shards.get((groupId.hashCode() & Integer.MAX_VALUE) % shards.size());
+    }
+    
+    private void processPendingMessages(List<IMessage> list, GroupProtocolSubStack protocolSubStack)
     {
-        List<IMessage> list = pendingMessages.remove(groupId);
         if (list == null)
             return;
         
@@ -25,6 +25,7 @@ import com.exametrika.common.messaging.ISender;
 import com.exametrika.common.messaging.ISink;
 import com.exametrika.common.messaging.impl.message.Message;
 import com.exametrika.common.messaging.impl.message.MessageSerializers;
+import com.exametrika.common.messaging.impl.message.SerializedMessagePart;
 import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
 import com.exametrika.common.tasks.IFlowController;
 import com.exametrika.common.time.ITimeService;
@@ -256,12 +257,15 @@ public abstract class AbstractFailureAtomicMulticastSendProtocol extends Abstrac
         BundleMessagePart bundlePart = new BundleMessagePart(group.getChangeId(), minCompletedMessageId, 
             new ByteArray(stream.getBuffer(), 0, stream.getLength()));
         
+        // Bundle is serialized once and its data buffers are shared by packets of all destinations
+        SerializedMessagePart sharedPart = MessageSerializers.serialize(serializationRegistry, bundlePart);
+        
         for (INode node : group.getMembers())
         {
             if (isFailedOrLeftNode(node))
                 continue;
             
-            send(messageFactory.create(node.getAddress(), bundlePart, flags));
+            send(messageFactory.create(node.getAddress(), sharedPart, flags));
         }
     }
     
@@ -32,6 +32,7 @@ import com.exametrika.common.messaging.ISender;
 import com.exametrika.common.messaging.ISink;
 import com.exametrika.common.messaging.impl.message.Message;
 import com.exametrika.common.messaging.impl.message.MessageSerializers;
+import com.exametrika.common.messaging.impl.message.SerializedMessagePart;
 import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
 import com.exametrika.common.tasks.IFlowController;
 import com.exametrika.common.time.ITimeService;
@@ -565,12 +566,14 @@ public final class FailureAtomicMulticastProtocol extends AbstractProtocol imple
         BundleMessagePart bundlePart = new BundleMessagePart(membership.getId(), minCompletedMessageId, 
             new ByteArray(stream.getBuffer(), 0, stream.getLength()));
         
+        SerializedMessagePart sharedPart = MessageSerializers.serialize(serializationRegistry, bundlePart);
+        
         for (INode node : membership.getGroup().getMembers())
         {
             if (failureDetector.getFailedMembers().contains(node) || failureDetector.getLeftMembers().contains(node))
                 continue;
             
-            send(messageFactory.create(node.getAddress(), bundlePart, flags));
+            send(messageFactory.create(node.getAddress(), sharedPart, flags));
         }
     }
     
@@ -6,8 +6,16 @@ package com.exametrika.impl.groups.cluster.state;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import com.exametrika.api.groups.cluster.IGroup;
@@ -18,6 +26,7 @@ import com.exametrika.common.l10n.DefaultMessage;
 import com.exametrika.common.l10n.ILocalizedMessage;
 import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.log.LogLevel;
+import com.exametrika.common.messaging.ChannelException;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.ILiveNodeProvider;
 import com.exametrika.common.messaging.IMessage;
@@ -26,6 +35,7 @@ import com.exametrika.common.messaging.IReceiver;
 import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.ICleanupManager;
 import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Files;
 import com.exametrika.common.utils.ICompletionHandler;
 import com.exametrika.impl.groups.MessageFlags;
 import com.exametrika.impl.groups.cluster.discovery.GroupJoinMessagePart;
@@ -36,10 +46,20 @@ import com.exametrika.impl.groups.cluster.flush.IFlushParticipant;
 import com.exametrika.impl.groups.cluster.membership.IGroupMembershipManager;
 import com.exametrika.spi.groups.cluster.channel.IChannelReconnector;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateStore;
+import com.exametrika.spi.groups.cluster.state.IDeltaStateTransferClient;
+import com.exametrika.spi.groups.cluster.state.IStateTransferClient;
 import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
 
 /**
- * The {@link AsyncStateTransferClientProtocol} represents a state transfer client protocol.
+ * The {@link AsyncStateTransferClientProtocol} represents a state transfer client protocol. Snapshot of group state is
+ * fetched in checksummed chunks, chunks having invalid checksums are requested again. Chunks are requested from state 
+ * transfer server in advance and are served when snapshot has been saved. If snapshot is large, chunks are fetched in
+ * parallel from additional healthy members, whose snapshots are identical to snapshot of state transfer server. If state
+ * transfer server fails, chunks received from it are reused, if snapshot of new state transfer server is identical.
+ * Assembled snapshot is verified against MD5 hash of server snapshot before loading, if hashes differ, snapshot is 
+ * fetched again from state transfer server. If state transfer client
+ * has locally stored state, checkpoint of that state is sent to state transfer server, which can transfer delta of state
+ * since checkpoint instead of full snapshot.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
@@ -48,6 +68,9 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
     IFlushParticipant, IGroupJoinStrategy
 {
     private static final IMessages messages = Messages.get(IMessages.class);
+    private static final int MAX_REQUESTED_CHUNK_COUNT = 4;
+    private static final int MAX_HELPER_COUNT = 2;
+    private static final int MAX_SNAPSHOT_RESTART_COUNT = 1;
     private final IGroupMembershipManager membershipManager;
     private final IStateTransferFactory stateTransferFactory;
     private final UUID groupId;
@@ -117,6 +140,8 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
             if (stateTransfer == null)
                 channelReconnector.reconnect();
         }
+        else if (stateTransfer != null)
+            stateTransfer.removeHelper(member.getAddress(), false);
     }
 
     @Override
@@ -220,12 +245,14 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
     public void register(ISerializationRegistry registry)
     {
         registry.register(new StateTransferResponseMessagePartSerializer());
+        registry.register(new SnapshotChunkMessagePartSerializer());
     }
     
     @Override
     public void unregister(ISerializationRegistry registry)
     {
         registry.unregister(StateTransferResponseMessagePartSerializer.ID);
+        registry.unregister(SnapshotChunkMessagePartSerializer.ID);
     }
 
     @Override
@@ -239,6 +266,20 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
             healthyMembers.remove(stateTransfer.server);
             updateStateTransfer();
         }
+        
+        if (stateTransfer != null)
+        {
+            for (IAddress helper : stateTransfer.getHelpers())
+            {
+                if (cleanupManager.canCleanup(helper))
+                {
+                    if (healthyMembers != null)
+                        healthyMembers.remove(helper);
+                    
+                    stateTransfer.removeHelper(helper, false);
+                }
+            }
+        }
     }
     
     @Override
@@ -247,6 +288,16 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
         if (message.getPart() instanceof StateTransferResponseMessagePart)
         {
             StateTransferResponseMessagePart part = message.getPart();
+            if (stateTransfer != null && stateTransfer.isHelper(message.getSource()))
+            {
+                if (part.isRejected())
+                    stateTransfer.removeHelper(message.getSource(), false);
+                else if (part.isFirst())
+                    stateTransfer.onHelperSnapshotSaved(message.getSource(), part.getSnapshotHash());
+                
+                return;
+            }
+            
             if (stateTransfer == null || !stateTransfer.server.equals(message.getSource()))
             {
                 compartment.execute(new Runnable()
@@ -277,27 +328,23 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
                 return;
             }
             
-            if (message.getFiles() == null)
-            {
-                Assert.isTrue(part.isLast());
-                
-                stateTransfer.completed();
-                return;
-            }
-            
             if (part.isFirst())
             {
-                Assert.isTrue(message.getFiles().size() == 1);
-                File file = message.getFiles().get(0);
-
-                stateTransfer.loadSnapshot(file, part.isLast());
+                stateTransfer.onSnapshotSaved(part.isDelta(), part.getSnapshotSize(), part.getChunkCount(), 
+                    part.getSnapshotHash(), part.isLast());
                 
-                if (canSwitchToSyncPhase(file.length()))
+                if (canSwitchToSyncPhase(part.getSnapshotSize()))
                 {
                     joining = true;
                     send(messageFactory.create(healthyMembers.get(0), new GroupJoinMessagePart(membershipManager.getLocalNode())));
                 }
             }
+            else if (message.getFiles() == null)
+            {
+                Assert.isTrue(part.isLast());
+                
+                stateTransfer.completed();
+            }
             else
             {
                 Assert.isTrue(message.getFiles().size() == 1);
@@ -312,12 +359,19 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
                 }
             }
         }
+        else if (message.getPart() instanceof SnapshotChunkMessagePart)
+        {
+            SnapshotChunkMessagePart part = message.getPart();
+            if (stateTransfer != null)
+                stateTransfer.onChunk(message.getSource(), part);
+        }
         else
             receiver.receive(message);
     }
 
     private void updateStateTransfer()
     {
+        PartialSnapshot partialSnapshot = null;
         if (stateTransfer != null)
         {
             if (healthyMembers != null && healthyMembers.contains(stateTransfer.server))
@@ -326,16 +380,32 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
             if (logger.isLogEnabled(LogLevel.DEBUG))
                 logger.log(LogLevel.DEBUG, marker, messages.stateTransferCanceled(stateTransfer.server));
             
+            partialSnapshot = stateTransfer.detachPartialSnapshot();
             stateTransfer.cancel();
             stateTransfer = null;
             joining = false;
         }
         
         if (healthyMembers == null || healthyMembers.isEmpty())
+        {
+            if (partialSnapshot != null)
+                deleteFile(partialSnapshot.file);
             return;
+        }
+        
+        stateTransfer = new StateTransfer(healthyMembers.remove(random.nextInt(healthyMembers.size())), partialSnapshot);
+        
+        String checkpoint = null;
+        IStateTransferClient client = stateTransferFactory.createClient(groupId);
+        if (client instanceof IDeltaStateTransferClient)
+            checkpoint = ((IDeltaStateTransferClient)client).getCheckpoint();
         
-        stateTransfer = new StateTransfer(healthyMembers.remove(random.nextInt(healthyMembers.size())));
-        send(messageFactory.create(stateTransfer.server, MessageFlags.STATE_TRANSFER_REQUEST));
+        if (checkpoint != null)
+            send(messageFactory.create(stateTransfer.server, new StateTransferRequestMessagePart(checkpoint), 
+                MessageFlags.STATE_TRANSFER_REQUEST));
+        else
+            send(messageFactory.create(stateTransfer.server, MessageFlags.STATE_TRANSFER_REQUEST));
+        stateTransfer.requestChunks();
         startTransferTime = timeService.getCurrentTime();
         
         if (logger.isLogEnabled(LogLevel.DEBUG))
@@ -352,33 +422,238 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
         return false;
     }
 
+    private void deleteFile(final File file)
+    {
+        compartment.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                file.delete();
+            }
+        });
+    }
+    
+    private static class PartialSnapshot
+    {
+        private final File file;
+        private final String snapshotHash;
+        private final BitSet chunks;
+        
+        public PartialSnapshot(File file, String snapshotHash, BitSet chunks)
+        {
+            this.file = file;
+            this.snapshotHash = snapshotHash;
+            this.chunks = chunks;
+        }
+    }
+    
+    private static class SnapshotSource
+    {
+        private final IAddress address;
+        private final Set<Integer> requestedChunks = new HashSet<Integer>();
+        private String snapshotHash;
+        private boolean ready;
+        
+        public SnapshotSource(IAddress address, boolean ready)
+        {
+            this.address = address;
+            this.ready = ready;
+        }
+    }
+
     private class StateTransfer implements ICompletionHandler
     {
         private final IAddress server;
+        private final Map<IAddress, SnapshotSource> sources = new LinkedHashMap<IAddress, SnapshotSource>();
+        private File snapshotFile;
+        private boolean delta;
+        private String snapshotHash;
+        private long snapshotSize;
+        private int chunkCount = -1;
+        private int nextChunk;
+        private final BitSet receivedChunks = new BitSet();
+        private final TreeSet<Integer> retryChunks = new TreeSet<Integer>();
+        private PartialSnapshot partialSnapshot;
+        private List<SnapshotChunkMessagePart> pendingChunks = new ArrayList<SnapshotChunkMessagePart>();
+        private List<Integer> writingChunks;
+        private SnapshotChunkWriteTask writeChunksTask;
+        private SnapshotVerifyTask verifySnapshotTask;
+        private int restartCount;
+        private boolean helpersStarted;
+        private boolean snapshotFetched;
         private SnapshotLoadTask loadSnapshotTask;
         private MessagesLoadTask loadMessagesTask;
         private boolean snapshotLoaded;
         private List<File> messagesFiles = new ArrayList<File>();
         private boolean last;
         
-        public StateTransfer(IAddress server)
+        public StateTransfer(IAddress server, PartialSnapshot partialSnapshot)
         {
             this.server = server;
+            this.partialSnapshot = partialSnapshot;
+            
+            if (partialSnapshot != null)
+                snapshotFile = partialSnapshot.file;
+            else
+                snapshotFile = Files.createTempFile("groups-state", null);
+            
+            sources.put(server, new SnapshotSource(server, true));
+        }
+        
+        public boolean isHelper(IAddress address)
+        {
+            return !address.equals(server) && sources.containsKey(address);
+        }
+        
+        public List<IAddress> getHelpers()
+        {
+            List<IAddress> helpers = new ArrayList<IAddress>();
+            for (IAddress address : sources.keySet())
+            {
+                if (!address.equals(server))
+                    helpers.add(address);
+            }
+            
+            return helpers;
         }
         
-        public void loadSnapshot(File snapshotFile, boolean last)
+        public void onSnapshotSaved(boolean delta, long snapshotSize, int chunkCount, String snapshotHash, boolean last)
         {
-            Assert.checkState(loadSnapshotTask == null && !snapshotLoaded);
+            Assert.checkState(this.snapshotHash == null);
             Assert.checkState(!last || flush != null);
             
+            this.delta = delta;
             this.last = last;
-            loadSnapshotTask = new SnapshotLoadTask(stateTransferFactory, snapshotFile, this, groupId);
-            compartment.execute(loadSnapshotTask);
+            this.snapshotSize = snapshotSize;
+            this.chunkCount = chunkCount;
+            this.snapshotHash = snapshotHash;
+            
+            if (nextChunk > chunkCount)
+                nextChunk = chunkCount;
+            retryChunks.tailSet(chunkCount).clear();
+            for (SnapshotSource source : sources.values())
+            {
+                for (Iterator<Integer> it = source.requestedChunks.iterator(); it.hasNext(); )
+                {
+                    if (it.next() >= chunkCount)
+                        it.remove();
+                }
+            }
+            
+            if (partialSnapshot != null)
+            {
+                BitSet chunks = partialSnapshot.chunks;
+                if (snapshotHash.equals(partialSnapshot.snapshotHash))
+                {
+                    receivedChunks.or(chunks);
+                    
+                    if (logger.isLogEnabled(LogLevel.DEBUG))
+                        logger.log(LogLevel.DEBUG, marker, messages.stateTransferResumed(server, chunks.cardinality()));
+                }
+                else
+                {
+                    for (int i = chunks.nextSetBit(0); i >= 0 && i < nextChunk; i = chunks.nextSetBit(i + 1))
+                    {
+                        if (!receivedChunks.get(i))
+                            retryChunks.add(i);
+                    }
+                }
+                
+                partialSnapshot = null;
+            }
+            
+            if (delta)
+            {
+                if (logger.isLogEnabled(LogLevel.DEBUG))
+                    logger.log(LogLevel.DEBUG, marker, messages.stateDeltaTransferred(server, snapshotSize));
+            }
+            else if (chunkCount - receivedChunks.cardinality() > MAX_REQUESTED_CHUNK_COUNT)
+                startHelpers();
+            
+            requestChunks();
+            checkSnapshotFetched();
+        }
+        
+        public void onHelperSnapshotSaved(IAddress helper, String snapshotHash)
+        {
+            SnapshotSource source = sources.get(helper);
+            source.snapshotHash = snapshotHash;
+            
+            updateHelper(source);
+        }
+        
+        public void removeHelper(IAddress helper, boolean notify)
+        {
+            if (!isHelper(helper))
+                return;
+            
+            SnapshotSource source = sources.remove(helper);
+            retryChunks.addAll(source.requestedChunks);
+            
+            if (notify)
+                send(messageFactory.create(helper, MessageFlags.SNAPSHOT_TRANSFER_END));
+            
+            requestChunks();
+        }
+        
+        public void onChunk(IAddress address, SnapshotChunkMessagePart chunk)
+        {
+            SnapshotSource source = sources.get(address);
+            if (source == null || !source.requestedChunks.remove(chunk.getIndex()))
+                return;
+            
+            pendingChunks.add(chunk);
+            writeChunks();
+            requestChunks();
+        }
+        
+        public void requestChunks()
+        {
+            if (snapshotFetched)
+                return;
+            
+            for (SnapshotSource source : sources.values())
+            {
+                if (!source.ready)
+                    continue;
+                
+                while (source.requestedChunks.size() < MAX_REQUESTED_CHUNK_COUNT)
+                {
+                    int index = nextMissingChunk();
+                    if (index == -1)
+                        return;
+                    
+                    source.requestedChunks.add(index);
+                    send(messageFactory.create(source.address, new SnapshotChunkRequestMessagePart(index)));
+                }
+            }
+        }
+        
+        public PartialSnapshot detachPartialSnapshot()
+        {
+            if (snapshotFetched || writeChunksTask != null)
+                return null;
+            
+            PartialSnapshot partialSnapshot;
+            if (snapshotHash == null)
+            {
+                partialSnapshot = this.partialSnapshot;
+                this.partialSnapshot = null;
+            }
+            else if (!receivedChunks.isEmpty())
+                partialSnapshot = new PartialSnapshot(snapshotFile, snapshotHash, receivedChunks);
+            else
+                partialSnapshot = null;
+            
+            if (partialSnapshot != null)
+                snapshotFile = null;
+            
+            return partialSnapshot;
         }
         
         public void addFile(File messagesFile, boolean last)
         {
-            Assert.checkState(loadSnapshotTask != null || snapshotLoaded);
             Assert.checkState(!last || flush != null);
             
             this.last = last;
@@ -394,6 +669,30 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
         
         public void cancel()
         {
+            for (IAddress helper : getHelpers())
+                send(messageFactory.create(helper, MessageFlags.SNAPSHOT_TRANSFER_END));
+            sources.clear();
+            
+            if (writeChunksTask != null)
+            {
+                writeChunksTask.cancel();
+                writeChunksTask = null;
+            }
+            else if (verifySnapshotTask != null)
+            {
+                verifySnapshotTask.cancel();
+                verifySnapshotTask = null;
+            }
+            else if (snapshotFile != null)
+                deleteFile(snapshotFile);
+            snapshotFile = null;
+            
+            if (partialSnapshot != null)
+            {
+                deleteFile(partialSnapshot.file);
+                partialSnapshot = null;
+            }
+            
             if (loadSnapshotTask != null)
                 loadSnapshotTask.cancel();
             if (loadMessagesTask != null)
@@ -420,7 +719,7 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
             Assert.checkState(flush != null);
             
             last = true;
-            if (loadSnapshotTask == null && loadMessagesTask == null)
+            if (snapshotLoaded && loadMessagesTask == null)
             {
                 Assert.checkState(messagesFiles.isEmpty());
                 
@@ -459,6 +758,167 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
             cancel();
             channelReconnector.reconnect();
         }
+        
+        private void startHelpers()
+        {
+            if (helpersStarted || healthyMembers == null)
+                return;
+            
+            helpersStarted = true;
+            
+            List<IAddress> helpers = new ArrayList<IAddress>(healthyMembers);
+            Collections.shuffle(helpers, random);
+            for (int i = 0; i < Math.min(MAX_HELPER_COUNT, helpers.size()); i++)
+            {
+                IAddress helper = helpers.get(i);
+                sources.put(helper, new SnapshotSource(helper, false));
+                send(messageFactory.create(helper, MessageFlags.SNAPSHOT_TRANSFER_REQUEST));
+            }
+        }
+        
+        private void updateHelper(SnapshotSource source)
+        {
+            if (source.snapshotHash == null || snapshotHash == null)
+                return;
+            
+            if (source.snapshotHash.equals(snapshotHash))
+            {
+                source.ready = true;
+                requestChunks();
+            }
+            else
+                removeHelper(source.address, true);
+        }
+        
+        private int nextMissingChunk()
+        {
+            if (!retryChunks.isEmpty())
+                return retryChunks.pollFirst();
+            
+            while (chunkCount == -1 || nextChunk < chunkCount)
+            {
+                int index = nextChunk++;
+                if (receivedChunks.get(index) || (partialSnapshot != null && partialSnapshot.chunks.get(index)))
+                    continue;
+                
+                return index;
+            }
+            
+            return -1;
+        }
+        
+        private void writeChunks()
+        {
+            if (writeChunksTask != null || pendingChunks.isEmpty())
+                return;
+            
+            writingChunks = new ArrayList<Integer>(pendingChunks.size());
+            for (SnapshotChunkMessagePart chunk : pendingChunks)
+                writingChunks.add(chunk.getIndex());
+            
+            writeChunksTask = new SnapshotChunkWriteTask(snapshotFile, pendingChunks, new ICompletionHandler<List<Integer>>()
+            {
+                @Override
+                public void onSucceeded(List<Integer> result)
+                {
+                    writeChunksTask = null;
+                    
+                    for (int index : writingChunks)
+                    {
+                        if (result.contains(index))
+                            receivedChunks.set(index);
+                        else
+                        {
+                            if (logger.isLogEnabled(LogLevel.WARNING))
+                                logger.log(LogLevel.WARNING, marker, messages.invalidChunk(index));
+                            
+                            retryChunks.add(index);
+                        }
+                    }
+                    
+                    writeChunks();
+                    requestChunks();
+                    checkSnapshotFetched();
+                }
+                
+                @Override
+                public void onFailed(Throwable error)
+                {
+                    writeChunksTask = null;
+                    StateTransfer.this.onFailed(error);
+                }
+            });
+            pendingChunks = new ArrayList<SnapshotChunkMessagePart>();
+            compartment.execute(writeChunksTask);
+        }
+        
+        private void checkSnapshotFetched()
+        {
+            if (snapshotFetched || snapshotHash == null || writeChunksTask != null || receivedChunks.cardinality() < chunkCount)
+                return;
+            
+            snapshotFetched = true;
+            
+            verifySnapshotTask = new SnapshotVerifyTask(snapshotFile, snapshotSize, snapshotHash, new ICompletionHandler<Boolean>()
+            {
+                @Override
+                public void onSucceeded(Boolean result)
+                {
+                    verifySnapshotTask = null;
+                    
+                    if (result)
+                        loadSnapshot();
+                    else
+                        restartSnapshot();
+                }
+                
+                @Override
+                public void onFailed(Throwable error)
+                {
+                    verifySnapshotTask = null;
+                    StateTransfer.this.onFailed(error);
+                }
+            });
+            compartment.execute(verifySnapshotTask);
+        }
+        
+        private void loadSnapshot()
+        {
+            for (IAddress address : sources.keySet())
+                send(messageFactory.create(address, MessageFlags.SNAPSHOT_TRANSFER_END));
+            sources.clear();
+            
+            loadSnapshotTask = new SnapshotLoadTask(stateTransferFactory, snapshotFile, snapshotSize, delta, this, groupId);
+            snapshotFile = null;
+            compartment.execute(loadSnapshotTask);
+        }
+        
+        private void restartSnapshot()
+        {
+            if (logger.isLogEnabled(LogLevel.WARNING))
+                logger.log(LogLevel.WARNING, marker, messages.invalidSnapshot(server, snapshotHash));
+            
+            if (restartCount >= MAX_SNAPSHOT_RESTART_COUNT)
+            {
+                onFailed(new ChannelException(messages.invalidSnapshot(server, snapshotHash)));
+                return;
+            }
+            
+            restartCount++;
+            
+            for (IAddress helper : getHelpers())
+            {
+                sources.remove(helper);
+                send(messageFactory.create(helper, MessageFlags.SNAPSHOT_TRANSFER_END));
+            }
+            
+            receivedChunks.clear();
+            retryChunks.clear();
+            nextChunk = 0;
+            snapshotFetched = false;
+            
+            requestChunks();
+        }
     }
     
     private interface IMessages
@@ -474,5 +934,17 @@ public final class AsyncStateTransferClientProtocol extends AbstractProtocol imp
         
         @DefaultMessage("State transfer from ''{0}'' has been rejected by server.")
         ILocalizedMessage stateTransferRejected(IAddress server);
+        
+        @DefaultMessage("State transfer from ''{0}'' has been resumed, {1} snapshot chunks have been reused.")
+        ILocalizedMessage stateTransferResumed(IAddress server, int chunkCount);
+        
+        @DefaultMessage("Delta of state since local checkpoint is transferred from ''{0}'', delta size: {1}.")
+        ILocalizedMessage stateDeltaTransferred(IAddress server, long deltaSize);
+        
+        @DefaultMessage("Snapshot chunk ''{0}'' has invalid checksum and will be requested again.")
+        ILocalizedMessage invalidChunk(int index);
+        
+        @DefaultMessage("Snapshot fetched from ''{0}'' does not match snapshot hash ''{1}''.")
+        ILocalizedMessage invalidSnapshot(IAddress server, String snapshotHash);
     }
 }
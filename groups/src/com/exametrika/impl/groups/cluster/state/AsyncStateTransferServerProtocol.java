@@ -6,7 +6,10 @@ package com.exametrika.impl.groups.cluster.state;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import com.exametrika.api.groups.cluster.INode;
@@ -26,8 +29,10 @@ import com.exametrika.common.messaging.impl.protocols.failuredetection.ICleanupM
 import com.exametrika.common.tasks.IFlowController;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.MerkleTree;
 import com.exametrika.impl.groups.MessageFlags;
 import com.exametrika.impl.groups.cluster.check.IGroupStateHashProvider;
+import com.exametrika.impl.groups.cluster.check.IGroupStateHashTreeProvider;
 import com.exametrika.impl.groups.cluster.failuredetection.IGroupFailureDetector;
 import com.exametrika.impl.groups.cluster.flush.IFlush;
 import com.exametrika.impl.groups.cluster.flush.IFlushParticipant;
@@ -37,15 +42,21 @@ import com.exametrika.impl.groups.cluster.multicast.QueueCapacityController;
 import com.exametrika.impl.groups.cluster.multicast.RemoteFlowId;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateStore;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferServer;
+import com.exametrika.spi.groups.cluster.state.IStateHashTreeProvider;
 import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
 
 /**
- * The {@link AsyncStateTransferServerProtocol} represents a state transfer server protocol.
+ * The {@link AsyncStateTransferServerProtocol} represents a state transfer server protocol. Snapshot of group state is
+ * transferred in checksummed chunks, requested by client. Chunks are served only after snapshot has been completely saved,
+ * chunks requested earlier are queued until then. Snapshot-only transfers are used by clients to fetch 
+ * snapshot chunks from several members in parallel. If client specifies checkpoint of its locally stored state and
+ * server supports delta state transfer, delta of state since checkpoint is transferred instead of full snapshot.
  * 
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
  */
-public final class AsyncStateTransferServerProtocol extends AbstractProtocol implements IFlushParticipant, IGroupStateHashProvider
+public final class AsyncStateTransferServerProtocol extends AbstractProtocol implements IFlushParticipant, IGroupStateHashProvider,
+    IGroupStateHashTreeProvider
 {
     private static final IMessages messages = Messages.get(IMessages.class);
     private final IGroupMembershipManager membershipManager;
@@ -63,14 +74,15 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
     private List<IMessage> pendingMessages;
     private final long transferLogRecordPeriod;
     private final int transferLogMessagesCount;
+    private final int chunkSize;
     private final IAsyncStateTransferServer server;
     private boolean snapshotRequest;
     private final QueueCapacityController capacityController;
     
     public AsyncStateTransferServerProtocol(String channelName, IMessageFactory messageFactory, IGroupMembershipManager membershipManager, 
         IGroupFailureDetector failureDetector, IStateTransferFactory stateTransferFactory, ISerializationRegistry serializationRegistry,
-        long saveSnapshotPeriod, long transferLogRecordPeriod, int transferLogMessagesCount, int minLockQueueCapacity,
-        GroupAddress groupAddress, UUID groupId)
+        long saveSnapshotPeriod, long transferLogRecordPeriod, int transferLogMessagesCount, int chunkSize, 
+        int minLockQueueCapacity, GroupAddress groupAddress, UUID groupId)
     {
         super(channelName, messageFactory);
         
@@ -79,6 +91,7 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
         Assert.notNull(stateTransferFactory);
         Assert.notNull(serializationRegistry);
         Assert.notNull(groupId);
+        Assert.isTrue(chunkSize > 0);
         
         this.membershipManager = membershipManager;
         this.failureDetector = failureDetector;
@@ -86,6 +99,7 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
         this.saveSnapshotPeriod = saveSnapshotPeriod;
         this.transferLogRecordPeriod = transferLogRecordPeriod;
         this.transferLogMessagesCount = transferLogMessagesCount;
+        this.chunkSize = chunkSize;
         this.serializationRegistry = serializationRegistry;
         this.server = (IAsyncStateTransferServer)stateTransferFactory.createServer(groupId);
         this.capacityController = new QueueCapacityController(minLockQueueCapacity, 0, groupAddress, groupId);
@@ -104,6 +118,20 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
         capacityController.setFlowController(flowController);
     }
     
+    @Override
+    public void register(ISerializationRegistry registry)
+    {
+        registry.register(new StateTransferRequestMessagePartSerializer());
+        registry.register(new SnapshotChunkRequestMessagePartSerializer());
+    }
+    
+    @Override
+    public void unregister(ISerializationRegistry registry)
+    {
+        registry.unregister(StateTransferRequestMessagePartSerializer.ID);
+        registry.unregister(SnapshotChunkRequestMessagePartSerializer.ID);
+    }
+    
     @Override
     public void start()
     {
@@ -157,7 +185,10 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
         }
         
         if (stateTransfer != null)
+        {
             stateTransfer.tryMakeBundle();
+            stateTransfer.readChunks();
+        }
     }
 
     @Override
@@ -236,10 +267,19 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
         }
     }
     
+    @Override
+    public MerkleTree getStateHashTree()
+    {
+        if (server instanceof IStateHashTreeProvider)
+            return ((IStateHashTreeProvider)server).getStateHashTree();
+        else
+            return null;
+    }
+    
     @Override
     protected void doReceive(IReceiver receiver, IMessage message)
     {
-        if (message.hasFlags(MessageFlags.STATE_TRANSFER_REQUEST))
+        if (message.hasFlags(MessageFlags.STATE_TRANSFER_REQUEST) || message.hasFlags(MessageFlags.SNAPSHOT_TRANSFER_REQUEST))
         {
             if (stateTransfer != null || stateSaveTask != null)
             {
@@ -253,12 +293,36 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
             if (logger.isLogEnabled(LogLevel.DEBUG))
                 logger.log(LogLevel.DEBUG, marker, messages.stateTransferStarted(message.getSource()));
             
-            stateTransfer = new StateTransfer(message.getSource());
+            String checkpoint = null;
+            if (message.getPart() instanceof StateTransferRequestMessagePart)
+                checkpoint = ((StateTransferRequestMessagePart)message.getPart()).getCheckpoint();
+            
+            stateTransfer = new StateTransfer(message.getSource(), message.hasFlags(MessageFlags.SNAPSHOT_TRANSFER_REQUEST), 
+                checkpoint);
             if (flush != null && !processing)
                 snapshotRequest = true;
             else
                 stateTransfer.saveSnapshot();
         }
+        else if (message.getPart() instanceof SnapshotChunkRequestMessagePart)
+        {
+            SnapshotChunkRequestMessagePart part = message.getPart();
+            if (stateTransfer != null && stateTransfer.client.equals(message.getSource()))
+                stateTransfer.requestChunk(part.getIndex());
+        }
+        else if (message.hasFlags(MessageFlags.SNAPSHOT_TRANSFER_END))
+        {
+            if (stateTransfer != null && stateTransfer.client.equals(message.getSource()))
+            {
+                if (stateTransfer.snapshotOnly || stateTransfer.completed)
+                {
+                    stateTransfer.cancel();
+                    stateTransfer = null;
+                }
+                else
+                    stateTransfer.releaseSnapshot();
+            }
+        }
         else if ((stateSaveTask != null || (stateTransfer != null && stateTransfer.saveSnapshotTask != null)))
         {
             if (server.classifyMessage(message) != IAsyncStateTransferServer.MessageType.NON_STATE)
@@ -308,27 +372,106 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
     
     private class StateTransfer implements ICompletionHandler
     {
+        private static final int MAX_READ_CHUNK_COUNT = 4;
         private final IAddress client;
+        private final boolean snapshotOnly;
+        private final String checkpoint;
         private SnapshotSaveTask saveSnapshotTask;
         private MessagesSaveTask saveMessagesTask;
+        private SnapshotChunkReadTask readChunksTask;
+        private File snapshotFile;
         private boolean snapshotSaved;
+        private long snapshotSize;
+        private int chunkCount;
+        private final Set<Integer> requestedChunks = new TreeSet<Integer>();
+        private boolean completed;
         private List<IMessage> messages = new ArrayList<IMessage>();
         private long startRecordTime;
         
-        public StateTransfer(IAddress client)
+        public StateTransfer(IAddress client, boolean snapshotOnly, String checkpoint)
         {
             this.client = client;
+            this.snapshotOnly = snapshotOnly;
+            this.checkpoint = checkpoint;
         }
         
         public void saveSnapshot()
         {
             Assert.checkState(saveSnapshotTask == null && !snapshotSaved);
-            saveSnapshotTask = new SnapshotSaveTask(server, this);
+            saveSnapshotTask = new SnapshotSaveTask(server, checkpoint, this);
             compartment.execute(saveSnapshotTask);
         }
         
+        public void requestChunk(int index)
+        {
+            if (snapshotFile == null && snapshotSaved)
+                return;
+            
+            requestedChunks.add(index);
+            readChunks();
+        }
+        
+        public void readChunks()
+        {
+            if (!snapshotSaved || snapshotFile == null || readChunksTask != null || requestedChunks.isEmpty())
+                return;
+            
+            List<Integer> indexes = new ArrayList<Integer>();
+            for (Iterator<Integer> it = requestedChunks.iterator(); it.hasNext() && indexes.size() < MAX_READ_CHUNK_COUNT; )
+            {
+                int index = it.next();
+                it.remove();
+                if (index < chunkCount)
+                    indexes.add(index);
+            }
+            
+            if (indexes.isEmpty())
+                return;
+            
+            readChunksTask = new SnapshotChunkReadTask(snapshotFile, indexes, chunkSize, snapshotSize, 
+                new ICompletionHandler<List<SnapshotChunkMessagePart>>()
+            {
+                @Override
+                public void onSucceeded(List<SnapshotChunkMessagePart> result)
+                {
+                    readChunksTask = null;
+                    
+                    for (SnapshotChunkMessagePart chunk : result)
+                        send(messageFactory.create(client, chunk, MessageFlags.LOW_PRIORITY));
+                    
+                    readChunks();
+                }
+                
+                @Override
+                public void onFailed(Throwable error)
+                {
+                    readChunksTask = null;
+                    StateTransfer.this.onFailed(error);
+                }
+            });
+            compartment.execute(readChunksTask);
+        }
+        
+        public void releaseSnapshot()
+        {
+            if (saveSnapshotTask != null)
+                return;
+            
+            if (readChunksTask != null)
+            {
+                readChunksTask.cancel();
+                readChunksTask = null;
+            }
+            
+            requestedChunks.clear();
+            deleteSnapshot();
+        }
+        
         public void addMessage(IMessage message)
         {
+            if (snapshotOnly || completed)
+                return;
+            
             Assert.isTrue(message.getFiles() == null);
             Assert.checkState(saveSnapshotTask != null || snapshotSaved);
             
@@ -351,7 +494,11 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
                 if (logger.isLogEnabled(LogLevel.DEBUG))
                     logger.log(LogLevel.DEBUG, marker, AsyncStateTransferServerProtocol.messages.stateTransferCanceled(client));
             }
+            else
+                deleteSnapshot();
             
+            if (readChunksTask != null)
+                readChunksTask.cancel();
             if (saveMessagesTask != null)
                 saveMessagesTask.cancel();
         }
@@ -360,20 +507,28 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
         public void onSucceeded(Object value)
         {
             boolean last;
-            if (processing && messages.isEmpty() && flush.getNewMembership().getGroup().findMember(client) != null)
+            if (!snapshotOnly && processing && messages.isEmpty() && 
+                flush.getNewMembership().getGroup().findMember(client) != null)
                 last = true;
             else
                 last = false;
             
             if (saveSnapshotTask != null)
             {
-                send(messageFactory.create(client, new StateTransferResponseMessagePart(true, last, false), 
-                    MessageFlags.LOW_PRIORITY, Collections.singletonList((File)value)));
+                snapshotFile = saveSnapshotTask.getFile();
+                snapshotSize = snapshotFile.length();
+                chunkCount = (int)Math.max(1, (snapshotSize + chunkSize - 1) / chunkSize);
+                send(messageFactory.create(client, new StateTransferResponseMessagePart(true, last, false, 
+                    saveSnapshotTask.isDelta(), snapshotSize, chunkCount, (String)value), MessageFlags.LOW_PRIORITY));
                 
                 saveSnapshotTask = null;
                 snapshotSaved = true;
                 
                 deliverPendingMessages();
+                readChunks();
+                
+                if (snapshotOnly)
+                    return;
             }
             
             if (saveMessagesTask != null)
@@ -387,7 +542,7 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
             if (!messages.isEmpty())
                 tryMakeBundle();
             else if (processing)
-                stateTransfer = null;
+                complete();
         }
 
         @Override
@@ -401,9 +556,38 @@ public final class AsyncStateTransferServerProtocol extends AbstractProtocol imp
             stateTransfer = null;
         }
         
+        private void complete()
+        {
+            completed = true;
+            
+            if (snapshotFile == null)
+                stateTransfer = null;
+        }
+        
+        private void deleteSnapshot()
+        {
+            if (snapshotFile == null)
+                return;
+            
+            final File file = snapshotFile;
+            snapshotFile = null;
+            
+            compartment.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    file.delete();
+                }
+            });
+            
+            if (completed && stateTransfer == this)
+                stateTransfer = null;
+        }
+        
         private boolean tryMakeBundle()
         {
-            if (!snapshotSaved || saveMessagesTask != null)
+            if (snapshotOnly || completed || !snapshotSaved || saveMessagesTask != null)
                 return false;
             if (messages.size() <= transferLogMessagesCount && timeService.getCurrentTime() <= startRecordTime + transferLogRecordPeriod)
                 return false;
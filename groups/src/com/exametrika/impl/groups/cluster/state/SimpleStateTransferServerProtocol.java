@@ -19,14 +19,17 @@ import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.Bytes;
 import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.MerkleTree;
 import com.exametrika.impl.groups.MessageFlags;
 import com.exametrika.impl.groups.cluster.check.IGroupStateHashProvider;
+import com.exametrika.impl.groups.cluster.check.IGroupStateHashTreeProvider;
 import com.exametrika.impl.groups.cluster.failuredetection.IGroupFailureDetector;
 import com.exametrika.impl.groups.cluster.flush.IFlush;
 import com.exametrika.impl.groups.cluster.flush.IFlushParticipant;
 import com.exametrika.impl.groups.cluster.membership.IGroupMembershipManager;
 import com.exametrika.spi.groups.cluster.state.ISimpleStateStore;
 import com.exametrika.spi.groups.cluster.state.ISimpleStateTransferServer;
+import com.exametrika.spi.groups.cluster.state.IStateHashTreeProvider;
 import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
 
 /**
@@ -35,7 +38,8 @@ import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
  * @threadsafety This class and its methods are not thread safe.
  * @author Medvedev-A
  */
-public final class SimpleStateTransferServerProtocol extends AbstractProtocol implements IFlushParticipant, IGroupStateHashProvider
+public final class SimpleStateTransferServerProtocol extends AbstractProtocol implements IFlushParticipant, IGroupStateHashProvider,
+    IGroupStateHashTreeProvider
 {
     private static final IMessages messages = Messages.get(IMessages.class);
     private final IGroupMembershipManager membershipManager;
@@ -131,6 +135,15 @@ public final class SimpleStateTransferServerProtocol extends AbstractProtocol im
         completionHandler.onSucceeded(hash);
     }
     
+    @Override
+    public MerkleTree getStateHashTree()
+    {
+        if (server instanceof IStateHashTreeProvider)
+            return ((IStateHashTreeProvider)server).getStateHashTree();
+        else
+            return null;
+    }
+    
     @Override
     protected void doReceive(IReceiver receiver, IMessage message)
     {
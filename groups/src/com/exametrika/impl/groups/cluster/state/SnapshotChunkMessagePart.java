@@ -0,0 +1,71 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import com.exametrika.common.messaging.IMessagePart;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.ByteArray;
+
+/**
+ * The {@link SnapshotChunkMessagePart} is a chunk of state snapshot.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotChunkMessagePart implements IMessagePart
+{
+    private final int index;
+    private final long offset;
+    private final ByteArray data;
+    private final long checksum;
+
+    public SnapshotChunkMessagePart(int index, long offset, ByteArray data, long checksum)
+    {
+        Assert.isTrue(index >= 0);
+        Assert.isTrue(offset >= 0);
+        Assert.notNull(data);
+        
+        this.index = index;
+        this.offset = offset;
+        this.data = data;
+        this.checksum = checksum;
+    }
+    
+    public int getIndex()
+    {
+        return index;
+    }
+    
+    public long getOffset()
+    {
+        return offset;
+    }
+    
+    public ByteArray getData()
+    {
+        return data;
+    }
+    
+    /**
+     * Returns CRC32 checksum of chunk data.
+     *
+     * @return checksum of chunk data
+     */
+    public long getChecksum()
+    {
+        return checksum;
+    }
+    
+    @Override
+    public int getSize()
+    {
+        return 24 + data.getLength();
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return index + ":" + offset + ":" + data.getLength();
+    }
+}
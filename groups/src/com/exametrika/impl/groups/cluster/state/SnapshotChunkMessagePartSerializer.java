@@ -0,0 +1,49 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+import com.exametrika.common.utils.ByteArray;
+
+/**
+ * The {@link SnapshotChunkMessagePartSerializer} is a serializer for {@link SnapshotChunkMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotChunkMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("97936663-8d16-45e0-b711-775eb3793033");
+ 
+    public SnapshotChunkMessagePartSerializer()
+    {
+        super(ID, SnapshotChunkMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+        SnapshotChunkMessagePart part = (SnapshotChunkMessagePart)object;
+
+        serialization.writeInt(part.getIndex());
+        serialization.writeLong(part.getOffset());
+        serialization.writeLong(part.getChecksum());
+        serialization.writeByteArray(part.getData());
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        int index = deserialization.readInt();
+        long offset = deserialization.readLong();
+        long checksum = deserialization.readLong();
+        ByteArray data = deserialization.readByteArray();
+        
+        return new SnapshotChunkMessagePart(index, offset, data, checksum);
+    }
+}
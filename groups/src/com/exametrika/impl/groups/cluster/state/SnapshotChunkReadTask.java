@@ -0,0 +1,104 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.exametrika.common.compartment.ICompartmentTask;
+import com.exametrika.common.messaging.ChannelException;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.ByteArray;
+import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.IOs;
+
+/**
+ * The {@link SnapshotChunkReadTask} is task which reads chunks of state snapshot from specified file. Snapshot can still be
+ * saved to file while chunks are being read, chunks are read only up to specified snapshot size.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotChunkReadTask implements ICompartmentTask<List<SnapshotChunkMessagePart>>
+{
+    private final File file;
+    private final List<Integer> indexes;
+    private final int chunkSize;
+    private final long snapshotSize;
+    private final ICompletionHandler<List<SnapshotChunkMessagePart>> completionHandler;
+    private boolean canceled;
+
+    public SnapshotChunkReadTask(File file, List<Integer> indexes, int chunkSize, long snapshotSize, 
+        ICompletionHandler<List<SnapshotChunkMessagePart>> completionHandler)
+    {
+        Assert.notNull(file);
+        Assert.notNull(indexes);
+        Assert.isTrue(chunkSize > 0);
+        Assert.notNull(completionHandler);
+        
+        this.file = file;
+        this.indexes = indexes;
+        this.chunkSize = chunkSize;
+        this.snapshotSize = snapshotSize;
+        this.completionHandler = completionHandler;
+    }
+    
+    public void cancel()
+    {
+        canceled = true;
+    }
+    
+    @Override
+    public List<SnapshotChunkMessagePart> execute()
+    {
+        RandomAccessFile in = null;
+        try
+        {
+            in = new RandomAccessFile(file, "r");
+            
+            CRC32 crc = new CRC32();
+            List<SnapshotChunkMessagePart> chunks = new ArrayList<SnapshotChunkMessagePart>(indexes.size());
+            for (int index : indexes)
+            {
+                long offset = (long)index * chunkSize;
+                Assert.isTrue(offset < snapshotSize || (offset == 0 && snapshotSize == 0));
+                
+                byte[] buffer = new byte[(int)Math.min(chunkSize, snapshotSize - offset)];
+                in.seek(offset);
+                in.readFully(buffer);
+                
+                crc.reset();
+                crc.update(buffer, 0, buffer.length);
+                chunks.add(new SnapshotChunkMessagePart(index, offset, new ByteArray(buffer), crc.getValue()));
+            }
+            
+            return chunks;
+        }
+        catch (Exception e)
+        {
+            throw new ChannelException(e);
+        }
+        finally
+        {
+            IOs.close(in);
+        }
+    }
+
+    @Override
+    public void onSucceeded(List<SnapshotChunkMessagePart> result)
+    {
+        if (!canceled)
+            completionHandler.onSucceeded(result);
+    }
+
+    @Override
+    public void onFailed(Throwable error)
+    {
+        if (!canceled)
+            completionHandler.onFailed(error);
+    }
+}
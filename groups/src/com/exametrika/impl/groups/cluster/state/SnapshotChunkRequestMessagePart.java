@@ -0,0 +1,42 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import com.exametrika.common.messaging.IMessagePart;
+import com.exametrika.common.utils.Assert;
+
+/**
+ * The {@link SnapshotChunkRequestMessagePart} is a request of state snapshot chunk.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotChunkRequestMessagePart implements IMessagePart
+{
+    private final int index;
+
+    public SnapshotChunkRequestMessagePart(int index)
+    {
+        Assert.isTrue(index >= 0);
+        
+        this.index = index;
+    }
+    
+    public int getIndex()
+    {
+        return index;
+    }
+    
+    @Override
+    public int getSize()
+    {
+        return 4;
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return Integer.toString(index);
+    }
+}
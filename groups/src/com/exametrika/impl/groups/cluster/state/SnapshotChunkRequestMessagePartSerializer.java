@@ -0,0 +1,41 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+
+/**
+ * The {@link SnapshotChunkRequestMessagePartSerializer} is a serializer for {@link SnapshotChunkRequestMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotChunkRequestMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("e14cd881-6266-4d66-8b2d-32d2a2a88952");
+ 
+    public SnapshotChunkRequestMessagePartSerializer()
+    {
+        super(ID, SnapshotChunkRequestMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+        SnapshotChunkRequestMessagePart part = (SnapshotChunkRequestMessagePart)object;
+
+        serialization.writeInt(part.getIndex());
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        int index = deserialization.readInt();
+        return new SnapshotChunkRequestMessagePart(index);
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.exametrika.common.compartment.ICompartmentTask;
+import com.exametrika.common.messaging.ChannelException;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.ByteArray;
+import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.IOs;
+
+/**
+ * The {@link SnapshotChunkWriteTask} is task which verifies checksums of received chunks of state snapshot and writes 
+ * valid chunks to specified file. Task result is list of indexes of chunks having been written, chunks having invalid 
+ * checksums are skipped. Snapshot file is deleted if task is canceled.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotChunkWriteTask implements ICompartmentTask<List<Integer>>
+{
+    private final File file;
+    private final List<SnapshotChunkMessagePart> chunks;
+    private final ICompletionHandler<List<Integer>> completionHandler;
+    private boolean canceled;
+
+    public SnapshotChunkWriteTask(File file, List<SnapshotChunkMessagePart> chunks, 
+        ICompletionHandler<List<Integer>> completionHandler)
+    {
+        Assert.notNull(file);
+        Assert.notNull(chunks);
+        Assert.notNull(completionHandler);
+        
+        this.file = file;
+        this.chunks = chunks;
+        this.completionHandler = completionHandler;
+    }
+    
+    public void cancel()
+    {
+        canceled = true;
+    }
+    
+    @Override
+    public List<Integer> execute()
+    {
+        RandomAccessFile out = null;
+        try
+        {
+            out = new RandomAccessFile(file, "rw");
+            
+            CRC32 crc = new CRC32();
+            List<Integer> indexes = new ArrayList<Integer>(chunks.size());
+            for (SnapshotChunkMessagePart chunk : chunks)
+            {
+                ByteArray data = chunk.getData();
+                crc.reset();
+                crc.update(data.getBuffer(), data.getOffset(), data.getLength());
+                if (crc.getValue() != chunk.getChecksum())
+                    continue;
+                
+                out.seek(chunk.getOffset());
+                out.write(data.getBuffer(), data.getOffset(), data.getLength());
+                indexes.add(chunk.getIndex());
+            }
+            
+            return indexes;
+        }
+        catch (Exception e)
+        {
+            throw new ChannelException(e);
+        }
+        finally
+        {
+            IOs.close(out);
+        }
+    }
+
+    @Override
+    public void onSucceeded(List<Integer> result)
+    {
+        if (!canceled)
+            completionHandler.onSucceeded(result);
+        else
+            file.delete();
+    }
+
+    @Override
+    public void onFailed(Throwable error)
+    {
+        if (!canceled)
+            completionHandler.onFailed(error);
+        else
+            file.delete();
+    }
+}
@@ -4,17 +4,22 @@
 package com.exametrika.impl.groups.cluster.state;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 import java.util.UUID;
 
 import com.exametrika.common.compartment.ICompartmentTask;
 import com.exametrika.common.messaging.ChannelException;
 import com.exametrika.common.utils.Assert;
 import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.IOs;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferClient;
+import com.exametrika.spi.groups.cluster.state.IDeltaStateTransferClient;
 import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
 
 /**
- * The {@link SnapshotLoadTask} is task which loads state snapshot from specified file.
+ * The {@link SnapshotLoadTask} is task which loads state snapshot or delta of state from specified file. File is truncated
+ * to snapshot size before loading, because file assembled from snapshot chunks can contain stale data past the end of 
+ * snapshot.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -23,20 +28,25 @@ public final class SnapshotLoadTask implements ICompartmentTask
 {
     private final IStateTransferFactory stateTransferFactory;
     private final File file;
+    private final long snapshotSize;
+    private final boolean delta;
     private final ICompletionHandler completionHandler;
     private final UUID groupId;
     private boolean canceled;
 
-    public SnapshotLoadTask(IStateTransferFactory stateTransferFactory, File file, ICompletionHandler completionHandler,
-        UUID groupId)
+    public SnapshotLoadTask(IStateTransferFactory stateTransferFactory, File file, long snapshotSize, boolean delta,
+        ICompletionHandler completionHandler, UUID groupId)
     {
         Assert.notNull(stateTransferFactory);
         Assert.notNull(file);
+        Assert.isTrue(snapshotSize >= 0);
         Assert.notNull(completionHandler);
         Assert.notNull(groupId);
         
         this.stateTransferFactory = stateTransferFactory;
         this.file = file;
+        this.snapshotSize = snapshotSize;
+        this.delta = delta;
         this.completionHandler = completionHandler;
         this.groupId = groupId;
     }
@@ -49,11 +59,22 @@ public final class SnapshotLoadTask implements ICompartmentTask
     @Override
     public Object execute()
     {
-
+        RandomAccessFile out = null;
         try
         {
+            if (file.length() != snapshotSize)
+            {
+                out = new RandomAccessFile(file, "rw");
+                out.setLength(snapshotSize);
+                out.close();
+                out = null;
+            }
+            
             IAsyncStateTransferClient client = (IAsyncStateTransferClient)stateTransferFactory.createClient(groupId);
-            client.loadSnapshot(true, file);
+            if (delta)
+                ((IDeltaStateTransferClient)client).loadDelta(file);
+            else
+                client.loadSnapshot(true, file);
         }
         catch (Exception e)
         {
@@ -61,6 +82,7 @@ public final class SnapshotLoadTask implements ICompartmentTask
         }
         finally
         {
+            IOs.close(out);
             file.delete();
         }
 
@@ -4,32 +4,75 @@
 package com.exametrika.impl.groups.cluster.state;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 
 import com.exametrika.common.compartment.ICompartmentTask;
+import com.exametrika.common.l10n.DefaultMessage;
+import com.exametrika.common.l10n.ILocalizedMessage;
+import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.messaging.ChannelException;
 import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Files;
 import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.IOs;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferServer;
+import com.exametrika.spi.groups.cluster.state.IDeltaStateTransferServer;
 
 /**
- * The {@link SnapshotSaveTask} represents a task which saves state to temporal file.
+ * The {@link SnapshotSaveTask} represents a task which saves state to temporal file. If checkpoint of client state is
+ * specified and server supports delta state transfer, task tries to save delta of state since checkpoint first and saves
+ * full snapshot if delta is not available. Snapshot is saved to intermediate file, which is renamed to snapshot file
+ * after snapshot has been completely saved and hashed, so that only completed snapshot can be read. Task result is
+ * MD5 hash of saved snapshot. Snapshot files are deleted if task is canceled or failed.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
  */
-public final class SnapshotSaveTask implements ICompartmentTask<File>
+public final class SnapshotSaveTask implements ICompartmentTask<String>
 {
+    private static final String TEMP_FILE_SUFFIX = ".snapshot.tmp";
+    private static final IMessages messages = Messages.get(IMessages.class);
     private final IAsyncStateTransferServer stateTransferServer;
     private final ICompletionHandler completionHandler;
+    private final String checkpoint;
+    private final File tempFile;
+    private final File file;
+    private volatile boolean delta;
     private boolean canceled;
 
-    public SnapshotSaveTask(IAsyncStateTransferServer stateTransferServer, ICompletionHandler completionHandler)
+    public SnapshotSaveTask(IAsyncStateTransferServer stateTransferServer, String checkpoint, 
+        ICompletionHandler completionHandler)
     {
         Assert.notNull(stateTransferServer);
         Assert.notNull(completionHandler);
         
         this.stateTransferServer = stateTransferServer;
+        this.checkpoint = checkpoint;
         this.completionHandler = completionHandler;
+        this.tempFile = Files.createTempFile("groups-state", TEMP_FILE_SUFFIX);
+        
+        String name = tempFile.getName();
+        this.file = new File(tempFile.getParentFile(), name.substring(0, name.length() - 4));
+    }
+    
+    /**
+     * Returns snapshot file. Snapshot file exists only after task has been succeeded.
+     *
+     * @return snapshot file
+     */
+    public File getFile()
+    {
+        return file;
+    }
+    
+    /**
+     * Has delta of state been saved instead of full snapshot?
+     *
+     * @return true if delta of state has been saved
+     */
+    public boolean isDelta()
+    {
+        return delta;
     }
     
     public void cancel()
@@ -38,32 +81,50 @@ public final class SnapshotSaveTask implements ICompartmentTask<File>
     }
     
     @Override
-    public File execute()
+    public String execute()
     {
-        File file = null;
         try
         {
-            file = File.createTempFile("groups-state", null);
-            stateTransferServer.saveSnapshot(true, file);
+            if (checkpoint != null && stateTransferServer instanceof IDeltaStateTransferServer)
+            {
+                if (((IDeltaStateTransferServer)stateTransferServer).saveDelta(checkpoint, tempFile))
+                {
+                    delta = true;
+                    return complete();
+                }
+                
+                RandomAccessFile out = new RandomAccessFile(tempFile, "rw");
+                try
+                {
+                    out.setLength(0);
+                }
+                finally
+                {
+                    IOs.close(out);
+                }
+            }
+            
+            stateTransferServer.saveSnapshot(true, tempFile);
             
-            return file;
+            return complete();
+        }
+        catch (ChannelException e)
+        {
+            throw e;
         }
         catch (Exception e)
         {
-            if (file != null)
-                file.delete();
-            
             throw new ChannelException(e);
         }
     }
 
     @Override
-    public void onSucceeded(File result)
+    public void onSucceeded(String result)
     {
         if (!canceled)
             completionHandler.onSucceeded(result);
         else
-            result.delete();
+            file.delete();
     }
 
     @Override
@@ -71,5 +132,23 @@ public final class SnapshotSaveTask implements ICompartmentTask<File>
     {
         if (!canceled)
             completionHandler.onFailed(error);
+        
+        tempFile.delete();
+        file.delete();
+    }
+    
+    private String complete()
+    {
+        String hash = Files.md5Hash(tempFile);
+        if (!tempFile.renameTo(file))
+            throw new ChannelException(messages.renameFailed(tempFile, file));
+        
+        return hash;
+    }
+    
+    private interface IMessages
+    {
+        @DefaultMessage("Could not rename saved snapshot file ''{0}'' to ''{1}''.")
+        ILocalizedMessage renameFailed(File tempFile, File file);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import com.exametrika.common.compartment.ICompartmentTask;
+import com.exametrika.common.messaging.ChannelException;
+import com.exametrika.common.utils.Assert;
+import com.exametrika.common.utils.Files;
+import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.IOs;
+
+/**
+ * The {@link SnapshotVerifyTask} is task which verifies that snapshot file assembled from snapshot chunks has MD5 hash
+ * of snapshot saved by server. File is truncated to snapshot size before verification, because file assembled from 
+ * snapshot chunks can contain stale data past the end of snapshot. Task result is true if snapshot is valid. Snapshot 
+ * file is deleted if task is canceled.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class SnapshotVerifyTask implements ICompartmentTask<Boolean>
+{
+    private final File file;
+    private final long snapshotSize;
+    private final String snapshotHash;
+    private final ICompletionHandler<Boolean> completionHandler;
+    private boolean canceled;
+
+    public SnapshotVerifyTask(File file, long snapshotSize, String snapshotHash, ICompletionHandler<Boolean> completionHandler)
+    {
+        Assert.notNull(file);
+        Assert.isTrue(snapshotSize >= 0);
+        Assert.notNull(snapshotHash);
+        Assert.notNull(completionHandler);
+        
+        this.file = file;
+        this.snapshotSize = snapshotSize;
+        this.snapshotHash = snapshotHash;
+        this.completionHandler = completionHandler;
+    }
+    
+    public void cancel()
+    {
+        canceled = true;
+    }
+    
+    @Override
+    public Boolean execute()
+    {
+        RandomAccessFile out = null;
+        try
+        {
+            if (file.length() != snapshotSize)
+            {
+                out = new RandomAccessFile(file, "rw");
+                out.setLength(snapshotSize);
+            }
+        }
+        catch (Exception e)
+        {
+            throw new ChannelException(e);
+        }
+        finally
+        {
+            IOs.close(out);
+        }
+        
+        return snapshotHash.equals(Files.md5Hash(file));
+    }
+
+    @Override
+    public void onSucceeded(Boolean result)
+    {
+        if (!canceled)
+            completionHandler.onSucceeded(result);
+        else
+            file.delete();
+    }
+
+    @Override
+    public void onFailed(Throwable error)
+    {
+        if (!canceled)
+            completionHandler.onFailed(error);
+        else
+            file.delete();
+    }
+}
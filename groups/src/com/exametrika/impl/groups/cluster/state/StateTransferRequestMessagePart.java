@@ -0,0 +1,43 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import com.exametrika.common.messaging.IMessagePart;
+import com.exametrika.common.utils.Assert;
+
+/**
+ * The {@link StateTransferRequestMessagePart} is a state transfer request message part, containing checkpoint of locally
+ * stored state of client.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateTransferRequestMessagePart implements IMessagePart
+{
+    private final String checkpoint;
+
+    public StateTransferRequestMessagePart(String checkpoint)
+    {
+        Assert.notNull(checkpoint);
+        
+        this.checkpoint = checkpoint;
+    }
+    
+    public String getCheckpoint()
+    {
+        return checkpoint;
+    }
+    
+    @Override
+    public int getSize()
+    {
+        return checkpoint.length() * 2;
+    }
+    
+    @Override 
+    public String toString()
+    {
+        return checkpoint;
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.impl.groups.cluster.state;
+
+import java.util.UUID;
+
+import com.exametrika.common.io.IDeserialization;
+import com.exametrika.common.io.ISerialization;
+import com.exametrika.common.io.impl.AbstractSerializer;
+
+/**
+ * The {@link StateTransferRequestMessagePartSerializer} is a serializer for {@link StateTransferRequestMessagePart}.
+ * 
+ * @threadsafety This class and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public final class StateTransferRequestMessagePartSerializer extends AbstractSerializer
+{
+    public static final UUID ID = UUID.fromString("1780d381-0e31-4f63-be76-38a5d9163d71");
+ 
+    public StateTransferRequestMessagePartSerializer()
+    {
+        super(ID, StateTransferRequestMessagePart.class);
+    }
+
+    @Override
+    public void serialize(ISerialization serialization, Object object)
+    {
+        StateTransferRequestMessagePart part = (StateTransferRequestMessagePart)object;
+
+        serialization.writeString(part.getCheckpoint());
+    }
+    
+    @Override
+    public Object deserialize(IDeserialization deserialization, UUID id)
+    {
+        String checkpoint = deserialization.readString();
+        return new StateTransferRequestMessagePart(checkpoint);
+    }
+}
@@ -9,7 +9,8 @@ import com.exametrika.common.l10n.Messages;
 import com.exametrika.common.messaging.IMessagePart;
 
 /**
- * The {@link StateTransferResponseMessagePart} is a state transfer message part.
+ * The {@link StateTransferResponseMessagePart} is a state transfer message part. First part of state transfer describes
+ * saved snapshot or delta of group state, which is transferred in chunks, subsequent parts contain logs of state messages.
  * 
  * @threadsafety This class and its methods are thread safe.
  * @author Medvedev-A
@@ -20,12 +21,26 @@ public final class StateTransferResponseMessagePart implements IMessagePart
     private final boolean first;
     private final boolean last;
     private final boolean rejected;
+    private final boolean delta;
+    private final long snapshotSize;
+    private final int chunkCount;
+    private final String snapshotHash;
 
     public StateTransferResponseMessagePart(boolean first, boolean last, boolean rejected)
+    {
+        this(first, last, rejected, false, 0, 0, null);
+    }
+    
+    public StateTransferResponseMessagePart(boolean first, boolean last, boolean rejected, boolean delta, long snapshotSize, 
+        int chunkCount, String snapshotHash)
     {
         this.first = first;
         this.last = last;
         this.rejected = rejected;
+        this.delta = delta;
+        this.snapshotSize = snapshotSize;
+        this.chunkCount = chunkCount;
+        this.snapshotHash = snapshotHash;
     }
     
     public boolean isFirst()
@@ -43,22 +58,43 @@ public final class StateTransferResponseMessagePart implements IMessagePart
         return rejected;
     }
     
+    public boolean isDelta()
+    {
+        return delta;
+    }
+    
+    public long getSnapshotSize()
+    {
+        return snapshotSize;
+    }
+    
+    public int getChunkCount()
+    {
+        return chunkCount;
+    }
+    
+    public String getSnapshotHash()
+    {
+        return snapshotHash;
+    }
+    
     @Override
     public int getSize()
     {
-        return 3;
+        return 16 + (snapshotHash != null ? snapshotHash.length() * 2 : 0);
     }
     
     @Override 
     public String toString()
     {
-        return messages.toString(first, last, rejected).toString();
+        return messages.toString(first, last, rejected, delta, snapshotSize, chunkCount, snapshotHash).toString();
     }
     
     private interface IMessages
     {
-        @DefaultMessage("first: {0}, last: {1}, rejected: {2}")
-        ILocalizedMessage toString(boolean first, boolean last, boolean rejected);
+        @DefaultMessage("first: {0}, last: {1}, rejected: {2}, delta: {3}, snapshot size: {4}, chunk count: {5}, snapshot hash: {6}")
+        ILocalizedMessage toString(boolean first, boolean last, boolean rejected, boolean delta, long snapshotSize, 
+            int chunkCount, String snapshotHash);
     }
 }
 
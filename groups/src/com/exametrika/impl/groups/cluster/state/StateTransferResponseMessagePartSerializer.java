@@ -32,6 +32,10 @@ public final class StateTransferResponseMessagePartSerializer extends AbstractSe
         serialization.writeBoolean(part.isFirst());
         serialization.writeBoolean(part.isLast());
         serialization.writeBoolean(part.isRejected());
+        serialization.writeBoolean(part.isDelta());
+        serialization.writeLong(part.getSnapshotSize());
+        serialization.writeInt(part.getChunkCount());
+        serialization.writeString(part.getSnapshotHash());
     }
     
     @Override
@@ -40,6 +44,10 @@ public final class StateTransferResponseMessagePartSerializer extends AbstractSe
         boolean first = deserialization.readBoolean();
         boolean last = deserialization.readBoolean();
         boolean rejected = deserialization.readBoolean();
-        return new StateTransferResponseMessagePart(first, last, rejected);
+        boolean delta = deserialization.readBoolean();
+        long snapshotSize = deserialization.readLong();
+        int chunkCount = deserialization.readInt();
+        String snapshotHash = deserialization.readString();
+        return new StateTransferResponseMessagePart(first, last, rejected, delta, snapshotSize, chunkCount, snapshotHash);
     }
 }
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.spi.groups.cluster.state;
+
+import java.io.File;
+
+
+
+/**
+ * The {@link IDeltaStateTransferClient} is a client used in state transfer process, which is able to load delta of group
+ * state since checkpoint of its locally stored state.
+ * 
+ * @see IDeltaStateTransferServer
+ * @threadsafety Implementations of this interface and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public interface IDeltaStateTransferClient extends IAsyncStateTransferClient
+{
+    /**
+     * Returns checkpoint of locally stored state.
+     *
+     * @return checkpoint of locally stored state or null if client does not have locally stored state
+     */
+    String getCheckpoint();
+    
+    /**
+     * Loads delta of group state since checkpoint of locally stored state from specified file.
+     * 
+     * @param file file containing delta of group state
+     */
+    void loadDelta(File file);
+}
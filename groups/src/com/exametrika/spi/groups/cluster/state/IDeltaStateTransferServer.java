@@ -0,0 +1,30 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.spi.groups.cluster.state;
+
+import java.io.File;
+
+
+
+/**
+ * The {@link IDeltaStateTransferServer} is a server used in state transfer process, which is able to save delta of group
+ * state since checkpoint of state of client, so that rejoining client does not need to transfer full snapshot of
+ * group state.
+ * 
+ * @see IDeltaStateTransferClient
+ * @threadsafety Implementations of this interface and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public interface IDeltaStateTransferServer extends IAsyncStateTransferServer
+{
+    /**
+     * Saves delta of full (persistent and transient) group state since specified checkpoint into the specified file.
+     *
+     * @param checkpoint checkpoint of state of client
+     * @param file file for storing delta
+     * @return true if delta has been saved, false if checkpoint is unknown or delta is too large, in this case full snapshot
+     * of group state is transferred instead of delta
+     */
+    boolean saveDelta(String checkpoint, File file);
+}
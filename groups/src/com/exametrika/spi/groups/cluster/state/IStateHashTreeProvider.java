@@ -0,0 +1,28 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.spi.groups.cluster.state;
+
+import com.exametrika.common.utils.MerkleTree;
+
+
+
+/**
+ * The {@link IStateHashTreeProvider} is an optional interface of state transfer server, which maintains hash tree of group
+ * state. Application updates hash tree incrementally on each change of group state, so that consistency of group state
+ * can be checked by comparing tree roots of group members and divergent parts of state can be located by descending
+ * only into differing subtrees, without saving full snapshot of group state. All members of group must use hash trees of
+ * the same depth and must map state entries to tree leaves in the same way.
+ * 
+ * @threadsafety Implementations of this interface and its methods are thread safe.
+ * @author Medvedev-A
+ */
+public interface IStateHashTreeProvider
+{
+    /**
+     * Returns hash tree of full (persistent and transient) group state.
+     *
+     * @return hash tree of group state
+     */
+    MerkleTree getStateHashTree();
+}
@@ -652,6 +652,43 @@ public class ExpressionNodePerfTests
         }, COUNT)));
     }
     
+    @Test
+    public void testExpressionCache() throws Throwable
+    {
+        final CompileContext compileContext = Expressions.createCompileContext(null);
+        final String text = "$root.methodA(123, 345) + $root.fieldB + $context.b";
+        final TestA a = new TestA();
+        final Map<String, Object> runtimeContext = Expressions.createRuntimeContext(null, false);
+        runtimeContext.put("b", 100);
+        
+        logger.log(LogLevel.INFO, messages.evaluateNotCached(new Benchmark(new Probe()
+        {
+            @Override
+            public void runOnce()
+            {
+                Expressions.compile(text, Expressions.createCompileContext(null)).execute(a, runtimeContext);
+            }
+        }, COUNT / 100)));
+        
+        logger.log(LogLevel.INFO, messages.evaluateCompiled(new Benchmark(new Probe()
+        {
+            @Override
+            public void runOnce()
+            {
+                Expressions.compile(text, compileContext).execute(a, runtimeContext);
+            }
+        }, COUNT / 10)));
+        
+        logger.log(LogLevel.INFO, messages.evaluateCached(new Benchmark(new Probe()
+        {
+            @Override
+            public void runOnce()
+            {
+                Expressions.evaluate(text, a, runtimeContext);
+            }
+        }, COUNT)));
+    }
+    
     @Test
     public void testFunction() throws Throwable
     {
@@ -807,5 +844,14 @@ public class ExpressionNodePerfTests
         
         @DefaultMessage("Evaluate function ''{0}''.")
         ILocalizedMessage evaluateFunction(Object benchmark);
+        
+        @DefaultMessage("Evaluate expression with compile context creation and compilation ''{0}''.")
+        ILocalizedMessage evaluateNotCached(Object benchmark);
+        
+        @DefaultMessage("Evaluate expression with compilation ''{0}''.")
+        ILocalizedMessage evaluateCompiled(Object benchmark);
+        
+        @DefaultMessage("Evaluate cached expression ''{0}''.")
+        ILocalizedMessage evaluateCached(Object benchmark);
     }
 }
@@ -11,6 +11,8 @@ import java.util.Arrays;
 import org.junit.Test;
 
 import com.exametrika.common.lz4.LZ4;
+import com.exametrika.common.lz4.LZ4StreamCompressor;
+import com.exametrika.common.lz4.LZ4StreamDecompressor;
 import com.exametrika.common.utils.Times;
 
 
@@ -131,6 +133,96 @@ public class LZ4PerfTests
         assertThat(Arrays.equals(large, large2), is(true));
     }
     
+    @Test
+    public void testStreamCompression()
+    {
+        int count = 100000;
+        byte[][] records = new byte[count][];
+        long size = 0;
+        for (int i = 0; i < count; i++)
+        {
+            records[i] = createRecord(i);
+            size += records[i].length;
+        }
+        byte[] dictionary = createRecord(count);
+        
+        byte[][] compressed = new byte[count][];
+        byte[] buffer = new byte[LZ4.maxCompressedLength(0x1000)];
+        long compressedSize = 0;
+        long t = Times.getCurrentTime();
+        for (int i = 0; i < count; i++)
+        {
+            int length = LZ4.compress(true, records[i], 0, records[i].length, buffer, 0, buffer.length);
+            compressed[i] = Arrays.copyOf(buffer, length);
+            compressedSize += length;
+        }
+        System.out.println("block compression time:" + (Times.getCurrentTime() - t) + ", size: " + size + 
+            ", compressed size: " + compressedSize + ", ratio: " + (double)size / compressedSize);
+        
+        t = Times.getCurrentTime();
+        for (int i = 0; i < count; i++)
+        {
+            byte[] record = new byte[records[i].length];
+            LZ4.decompress(compressed[i], 0, record, 0, record.length);
+            assertThat(Arrays.equals(records[i], record), is(true));
+        }
+        System.out.println("block decompression time:" + (Times.getCurrentTime() - t));
+        
+        LZ4StreamCompressor compressor = new LZ4StreamCompressor(dictionary);
+        compressedSize = 0;
+        t = Times.getCurrentTime();
+        for (int i = 0; i < count; i++)
+        {
+            compressor.reset();
+            int length = compressor.compress(records[i], 0, records[i].length, buffer, 0, buffer.length);
+            compressed[i] = Arrays.copyOf(buffer, length);
+            compressedSize += length;
+        }
+        System.out.println("dictionary compression time:" + (Times.getCurrentTime() - t) + ", size: " + size + 
+            ", compressed size: " + compressedSize + ", ratio: " + (double)size / compressedSize);
+        
+        LZ4StreamDecompressor decompressor = new LZ4StreamDecompressor(dictionary);
+        t = Times.getCurrentTime();
+        for (int i = 0; i < count; i++)
+        {
+            byte[] record = new byte[records[i].length];
+            decompressor.decompress(compressed[i], 0, record, 0, record.length, 0);
+            assertThat(Arrays.equals(records[i], record), is(true));
+        }
+        System.out.println("dictionary decompression time:" + (Times.getCurrentTime() - t));
+        
+        compressor = new LZ4StreamCompressor(dictionary);
+        int[] positions = new int[count];
+        compressedSize = 0;
+        t = Times.getCurrentTime();
+        for (int i = 0; i < count; i++)
+        {
+            int length = compressor.compress(records[i], 0, records[i].length, buffer, 0, buffer.length);
+            compressed[i] = Arrays.copyOf(buffer, length);
+            positions[i] = compressor.getBlockPosition();
+            compressedSize += length;
+        }
+        System.out.println("stream compression time:" + (Times.getCurrentTime() - t) + ", size: " + size + 
+            ", compressed size: " + compressedSize + ", ratio: " + (double)size / compressedSize);
+        
+        decompressor = new LZ4StreamDecompressor(dictionary);
+        t = Times.getCurrentTime();
+        for (int i = 0; i < count; i++)
+        {
+            byte[] record = new byte[records[i].length];
+            decompressor.decompress(compressed[i], 0, record, 0, record.length, positions[i]);
+            assertThat(Arrays.equals(records[i], record), is(true));
+        }
+        System.out.println("stream decompression time:" + (Times.getCurrentTime() - t));
+    }
+    
+    private byte[] createRecord(int index)
+    {
+        return ("{\"id\":" + index + ",\"name\":\"metric-" + (index % 100) + "\",\"type\":\"counter\",\"host\":\"host-" + 
+            (index % 10) + "\",\"time\":" + (1500000000000L + index * 1000L) + ",\"value\":" + (index * 31 % 10007) + 
+            ",\"tags\":[\"production\",\"service\"]}").getBytes();
+    }
+    
     private byte[] createBuffer(int size)
     {
         byte[] buf = new byte[size];
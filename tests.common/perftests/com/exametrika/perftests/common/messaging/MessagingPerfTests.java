@@ -0,0 +1,278 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.perftests.common.messaging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.exametrika.common.io.impl.SerializationRegistry;
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
+import com.exametrika.common.l10n.DefaultMessage;
+import com.exametrika.common.l10n.ILocalizedMessage;
+import com.exametrika.common.l10n.Messages;
+import com.exametrika.common.log.ILogger;
+import com.exametrika.common.log.LogLevel;
+import com.exametrika.common.log.Loggers;
+import com.exametrika.common.lz4.LZ4;
+import com.exametrika.common.messaging.IAddress;
+import com.exametrika.common.messaging.IMessage;
+import com.exametrika.common.messaging.IMessageFactory;
+import com.exametrika.common.messaging.MessageFlags;
+import com.exametrika.common.messaging.impl.message.Message;
+import com.exametrika.common.messaging.impl.message.MessageFactory;
+import com.exametrika.common.messaging.impl.message.MessageSerializers;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.ChannelObserver;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.IFailureObserver;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.LiveNodeManager;
+import com.exametrika.common.messaging.impl.protocols.optimize.BundlingProtocol;
+import com.exametrika.common.net.TcpPacket;
+import com.exametrika.common.perf.IProbe;
+import com.exametrika.common.perf.Probe;
+import com.exametrika.common.perf.StatisticalBenchmark;
+import com.exametrika.common.utils.Strings;
+import com.exametrika.tests.common.messaging.ClientServerChannelTests.TestMessagePart;
+import com.exametrika.tests.common.messaging.ClientServerChannelTests.TestMessagePartSerializer;
+import com.exametrika.tests.common.messaging.PullableSenderMock;
+import com.exametrika.tests.common.messaging.ReceiverMock;
+import com.exametrika.tests.common.messaging.SenderMock;
+import com.exametrika.tests.common.messaging.TestAddress;
+import com.exametrika.tests.common.time.TimeServiceMock;
+
+
+/**
+ * The {@link MessagingPerfTests} are statistical performance tests for hot paths of messaging - message serialization,
+ * compression and bundling. Each benchmark is run for several message sizes and reports throughput with confidence
+ * interval, batch-mean latency percentiles and allocated bytes per operation.
+ *
+ * @see StatisticalBenchmark
+ * @author Medvedev-A
+ */
+public class MessagingPerfTests
+{
+    private static final IMessages messages = Messages.get(IMessages.class);
+    private static final ILogger logger = Loggers.get(MessagingPerfTests.class);
+    private static final int[] PART_SIZES = {16, 256, 4096};
+    private static final int BUNDLE_MESSAGE_COUNT = 100;
+    private static final int WARM_UP_ITERATION_COUNT = 3;
+    private static final int ITERATION_COUNT = 5;
+    private static final long ITERATION_TIME = 1000000000L;
+
+    @Test
+    public void testMessageSerializers()
+    {
+        final SerializationRegistry registry = new SerializationRegistry();
+        registry.register(new TestMessagePartSerializer());
+
+        final IAddress source = new TestAddress(UUID.randomUUID(), "source");
+        final IAddress destination = new TestAddress(UUID.randomUUID(), "destination");
+
+        logger.log(LogLevel.INFO, messages.separator());
+        for (int size : PART_SIZES)
+        {
+            final Message message = new Message(source, destination, new TestMessagePart(Strings.duplicate('a', size)),
+                MessageFlags.NO_COMPRESS, null, registry);
+
+            logger.log(LogLevel.INFO, messages.serializeMessage(size, benchmark(new Probe()
+            {
+                @Override
+                public void runOnce()
+                {
+                    MessageSerializers.serialize(registry, message, 1, null);
+                }
+            })));
+
+            final TcpPacket packet = MessageSerializers.serialize(registry, message, 1, null);
+            logger.log(LogLevel.INFO, messages.deserializeMessage(size, benchmark(new Probe()
+            {
+                @Override
+                public void runOnce()
+                {
+                    MessageSerializers.deserialize(registry, source, destination, packet, 1);
+                }
+            })));
+
+            final SerializationTypeDictionary sendDictionary = new SerializationTypeDictionary();
+            final SerializationTypeDictionary receiveDictionary = new SerializationTypeDictionary();
+            final TcpPacket compactPacket = MessageSerializers.serialize(registry, sendDictionary, message, 1, null);
+            receiveDictionary.getTypeId(TestMessagePartSerializer.ID);
+
+            logger.log(LogLevel.INFO, messages.serializeDictionaryMessage(size, benchmark(new Probe()
+            {
+                @Override
+                public void runOnce()
+                {
+                    MessageSerializers.serialize(registry, sendDictionary, message, 1, null);
+                }
+            })));
+
+            logger.log(LogLevel.INFO, messages.deserializeDictionaryMessage(size, benchmark(new Probe()
+            {
+                @Override
+                public void runOnce()
+                {
+                    MessageSerializers.deserialize(registry, receiveDictionary, source, destination, compactPacket, 1);
+                }
+            })));
+        }
+    }
+
+    @Test
+    public void testCompression()
+    {
+        logger.log(LogLevel.INFO, messages.separator());
+        for (int size : PART_SIZES)
+        {
+            final byte[] buffer = createBuffer(size);
+            final byte[] compressed = new byte[LZ4.maxCompressedLength(buffer.length)];
+            final byte[] decompressed = new byte[buffer.length];
+
+            logger.log(LogLevel.INFO, messages.compress(size, benchmark(new Probe()
+            {
+                @Override
+                public void runOnce()
+                {
+                    LZ4.compress(true, buffer, 0, buffer.length, compressed, 0, compressed.length);
+                }
+            })));
+
+            logger.log(LogLevel.INFO, messages.decompress(size, benchmark(new Probe()
+            {
+                @Override
+                public void runOnce()
+                {
+                    LZ4.decompress(compressed, 0, decompressed, 0, decompressed.length);
+                }
+            })));
+        }
+    }
+
+    @Test
+    public void testBundling() throws Throwable
+    {
+        final IAddress member2 = new TestAddress(UUID.randomUUID(), "member2");
+
+        TimeServiceMock timeService = new TimeServiceMock();
+        timeService.useSystemTime = false;
+        final ReceiverMock receiver = new ReceiverMock();
+        final SenderMock sender = new SenderMock();
+        ChannelObserver channelObserver = new ChannelObserver("test");
+        LiveNodeManager liveNodeManager = new LiveNodeManager("member1", Arrays.<IFailureObserver>asList(channelObserver),
+            channelObserver);
+        liveNodeManager.onNodesConnected(Collections.singleton(member2));
+
+        SerializationRegistry registry = new SerializationRegistry();
+        registry.register(new TestMessagePartSerializer());
+
+        final IMessageFactory messageFactory = new MessageFactory(registry, liveNodeManager);
+
+        final BundlingProtocol protocol = new BundlingProtocol("test", messageFactory, registry, 10000, 100, 1000000,
+            600000, false);
+        protocol.setSender(sender);
+        protocol.setPullableSender(new PullableSenderMock());
+        protocol.setReceiver(receiver);
+        protocol.setTimeService(timeService);
+        registry.register(protocol);
+
+        liveNodeManager.start();
+        channelObserver.start();
+        protocol.start();
+
+        try
+        {
+            logger.log(LogLevel.INFO, messages.separator());
+            for (int size : PART_SIZES)
+            {
+                final IMessage message = messageFactory.create(member2, new TestMessagePart(Strings.duplicate('a', size)));
+                final IMessage flushMessage = messageFactory.create(member2, MessageFlags.NO_DELAY);
+
+                logger.log(LogLevel.INFO, messages.bundle(size, BUNDLE_MESSAGE_COUNT, benchmark(new BundleProbe()
+                {
+                    @Override
+                    protected void runBundle()
+                    {
+                        for (int i = 0; i < BUNDLE_MESSAGE_COUNT; i++)
+                            protocol.send(message);
+
+                        protocol.send(flushMessage);
+                        sender.messages.clear();
+                    }
+                })));
+
+                for (int i = 0; i < BUNDLE_MESSAGE_COUNT; i++)
+                    protocol.send(message);
+                protocol.send(flushMessage);
+
+                final IMessage bundle = sender.messages.get(0);
+                sender.messages.clear();
+
+                logger.log(LogLevel.INFO, messages.unbundle(size, BUNDLE_MESSAGE_COUNT, benchmark(new BundleProbe()
+                {
+                    @Override
+                    protected void runBundle()
+                    {
+                        protocol.receive(bundle);
+                        receiver.messages.clear();
+                    }
+                })));
+            }
+        }
+        finally
+        {
+            protocol.stop();
+            channelObserver.stop();
+            liveNodeManager.stop();
+        }
+    }
+
+    private static <T extends IProbe> StatisticalBenchmark<T> benchmark(T probe)
+    {
+        return new StatisticalBenchmark<T>(probe, WARM_UP_ITERATION_COUNT, ITERATION_COUNT, ITERATION_TIME);
+    }
+
+    private static byte[] createBuffer(int size)
+    {
+        byte[] buf = new byte[size];
+        for (int i = 0; i < size; i++)
+            buf[i] = (byte)(i & 31);
+
+        return buf;
+    }
+
+    private static abstract class BundleProbe extends Probe
+    {
+        @Override
+        public long run()
+        {
+            runBundle();
+            return BUNDLE_MESSAGE_COUNT;
+        }
+
+        protected abstract void runBundle();
+    }
+
+    private interface IMessages
+    {
+        @DefaultMessage("====================================================================")
+        ILocalizedMessage separator();
+        @DefaultMessage("[Serialize message, part size: {0}] {1}.")
+        ILocalizedMessage serializeMessage(int size, Object results);
+        @DefaultMessage("[Deserialize message, part size: {0}] {1}.")
+        ILocalizedMessage deserializeMessage(int size, Object results);
+        @DefaultMessage("[Serialize message with type dictionary, part size: {0}] {1}.")
+        ILocalizedMessage serializeDictionaryMessage(int size, Object results);
+        @DefaultMessage("[Deserialize message with type dictionary, part size: {0}] {1}.")
+        ILocalizedMessage deserializeDictionaryMessage(int size, Object results);
+        @DefaultMessage("[LZ4 compress, size: {0}] {1}.")
+        ILocalizedMessage compress(int size, Object results);
+        @DefaultMessage("[LZ4 decompress, size: {0}] {1}.")
+        ILocalizedMessage decompress(int size, Object results);
+        @DefaultMessage("[Bundle messages, part size: {0}, bundle message count: {1}] {2}.")
+        ILocalizedMessage bundle(int size, int count, Object results);
+        @DefaultMessage("[Unbundle messages, part size: {0}, bundle message count: {1}] {2}.")
+        ILocalizedMessage unbundle(int size, int count, Object results);
+    }
+}
@@ -11,6 +11,7 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -23,7 +24,9 @@ import com.exametrika.common.log.ILogger;
 import com.exametrika.common.log.LogLevel;
 import com.exametrika.common.log.Loggers;
 import com.exametrika.common.perf.Benchmark;
+import com.exametrika.common.perf.IProbe;
 import com.exametrika.common.perf.Probe;
+import com.exametrika.common.perf.StatisticalBenchmark;
 import com.exametrika.common.rawdb.IRawDataFile;
 import com.exametrika.common.rawdb.IRawDataFile.ReadMode;
 import com.exametrika.common.rawdb.IRawOperation;
@@ -1083,6 +1086,46 @@ public class RawDatabasePerfTests
         System.out.println(Times.getCurrentTime() - l);
     }
     
+    @Test
+    public void testPageCache() throws Throwable
+    {
+        final int FILE_COUNT = 16;
+        final int PAGE_COUNT = 1000;
+        final int READ_COUNT = 1000;
+        
+        database.transactionSync(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < FILE_COUNT; i++)
+                    for (int k = 0; k < PAGE_COUNT; k++)
+                        writeRegion(k, transaction.getPage(i, k).getWriteRegion());
+            }
+        });
+        
+        final Random random = new Random(0);
+        logger.log(LogLevel.INFO, messages.separator());
+        logger.log(LogLevel.INFO, messages.randomReadPageCache(new StatisticalBenchmark<IProbe>(new Probe()
+        {
+            @Override
+            public long run()
+            {
+                database.transactionSync(new RawOperation(true)
+                {
+                    @Override
+                    public void run(IRawTransaction transaction)
+                    {
+                        for (int i = 0; i < READ_COUNT; i++)
+                            transaction.getPage(random.nextInt(FILE_COUNT), random.nextInt(PAGE_COUNT)).getReadRegion();
+                    }
+                });
+                
+                return READ_COUNT;
+            }
+        }, 3, 5, 1000000000L)));
+    }
+    
     private void writeRegion(int base, IRawWriteRegion region)
     {
         for (int i = 0; i < region.getLength(); i++)
@@ -1137,6 +1180,8 @@ public class RawDatabasePerfTests
         ILocalizedMessage writeTransaction(Object benchmark);
         @DefaultMessage("Write transaction list ''{0}''.")
         ILocalizedMessage writeTransactionList(Object benchmark);
+        @DefaultMessage("Random read page cache ''{0}''.")
+        ILocalizedMessage randomReadPageCache(Object benchmark);
         @DefaultMessage("====================================================================")
         ILocalizedMessage separator();
     }
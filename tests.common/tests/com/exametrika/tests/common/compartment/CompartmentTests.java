@@ -7,6 +7,8 @@ import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
 
 import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
@@ -21,6 +23,7 @@ import com.exametrika.common.compartment.impl.Compartment;
 import com.exametrika.common.compartment.impl.CompartmentFactory;
 import com.exametrika.common.compartment.impl.CompartmentGroup;
 import com.exametrika.common.compartment.impl.CompartmentGroupFactory;
+import com.exametrika.common.compartment.impl.ConcurrentCompartmentQueue;
 import com.exametrika.common.compartment.impl.SimpleCompartmentQueue;
 import com.exametrika.common.tasks.IFlowController;
 import com.exametrika.common.tasks.ThreadInterruptedException;
@@ -346,6 +349,83 @@ public class CompartmentTests
         dispatcher.close();
     }
     
+    @Test
+    public void testConcurrentQueue() throws Throwable
+    {
+        Parameters parameters = new Parameters();
+        parameters.name = "compartment1";
+        parameters.dispatchPeriod = 100;
+        parameters.queue = new ConcurrentCompartmentQueue();
+        parameters.minLockQueueCapacity = 100;
+        parameters.maxUnlockQueueCapacity = 10;
+        final Compartment compartment = new CompartmentFactory().createCompartment(parameters);
+        ConcurrentCompartmentQueue queue = (ConcurrentCompartmentQueue)parameters.queue;
+        compartment.start();
+        
+        final int producerCount = 4;
+        final int taskCount = 10000;
+        final int[] counters = new int[producerCount];
+        final boolean[] ordered = new boolean[]{true};
+        final CountDownLatch latch = new CountDownLatch(producerCount * taskCount);
+        
+        Thread[] producers = new Thread[producerCount];
+        for (int i = 0; i < producerCount; i++)
+        {
+            final int producer = i;
+            producers[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int k = 0; k < taskCount; k++)
+                    {
+                        final int index = k;
+                        compartment.offer(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                if (counters[producer] != index)
+                                    ordered[0] = false;
+                                
+                                counters[producer]++;
+                                latch.countDown();
+                            }
+                        });
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        
+        for (int i = 0; i < producerCount; i++)
+            producers[i].join();
+        
+        assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+        
+        final int[] result = new int[producerCount];
+        final CountDownLatch resultLatch = new CountDownLatch(1);
+        compartment.offer(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                System.arraycopy(counters, 0, result, 0, counters.length);
+                resultLatch.countDown();
+            }
+        });
+        
+        assertThat(resultLatch.await(10, TimeUnit.SECONDS), is(true));
+        
+        for (int i = 0; i < producerCount; i++)
+            assertThat(result[i], is(taskCount));
+        
+        assertThat(ordered[0], is(true));
+        assertThat(queue.getCapacity(), is(0));
+        
+        compartment.stop();
+    }
+    
     private static class TestFlowController implements IFlowController
     {
         private int lockCount;
@@ -4,14 +4,20 @@
 package com.exametrika.tests.common.expression;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
 import com.exametrika.common.expression.CompileContext;
+import com.exametrika.common.expression.ExpressionCache;
 import com.exametrika.common.expression.Expressions;
 import com.exametrika.common.expression.IExpression;
 import com.exametrika.common.expression.ITemplate;
@@ -234,6 +240,79 @@ public class ExpressionParserTests
         assertThat((Long)expression.execute(Collections.singletonMap("a", 10), Collections.singletonMap("b", 20)), is(30l));
     }
     
+    @Test
+    public void testExpressionCache() throws Throwable
+    {
+        CompileContext compileContext1 = Expressions.createCompileContext(null);
+        CompileContext compileContext2 = Expressions.createCompileContext(null);
+        ExpressionCache cache = new ExpressionCache(2);
+        
+        IExpression expression1 = cache.compile("$root.a + $context.b", compileContext1);
+        assertThat(cache.compile("$root.a + $context.b", compileContext1), sameInstance(expression1));
+        assertThat(cache.compile("$root.a + $context.b", compileContext2), not(sameInstance(expression1)));
+        assertThat(cache.getHitCount(), is(1l));
+        assertThat(cache.getMissCount(), is(2l));
+        assertThat((Long)expression1.execute(Collections.singletonMap("a", 10), Collections.singletonMap("b", 20)), is(30l));
+        
+        cache.compile("$root.a", compileContext1);
+        assertThat(cache.getSize(), is(2));
+        assertThat(cache.compile("$root.a + $context.b", compileContext1), not(sameInstance(expression1)));
+        
+        assertThat((Long)Expressions.evaluate("$root.a + $context.b", Collections.singletonMap("a", 10), 
+            Collections.singletonMap("b", 20)), is(30l));
+        assertThat(Expressions.compileCached("$root.a + $context.b", Expressions.getDefaultCompileContext()), 
+            sameInstance(Expressions.compileCached("$root.a + $context.b", Expressions.getDefaultCompileContext())));
+    }
+    
+    @Test
+    public void testConcurrentExpressionCache() throws Throwable
+    {
+        final CompileContext compileContext = Expressions.createCompileContext(null);
+        final ExpressionCache cache = new ExpressionCache(100);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 4; i++)
+        {
+            Thread thread = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int k = 0; k < 1000; k++)
+                        {
+                            IExpression expression = cache.compile("$root.a + " + (k % 200), compileContext);
+                            assertThat((Long)expression.execute(Collections.singletonMap("a", 10), null), is(10l + k % 200));
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        error.set(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        
+        for (Thread thread : threads)
+            thread.join();
+        
+        if (error.get() != null)
+            throw error.get();
+        
+        assertThat(cache.getSize() <= 100, is(true));
+        assertThat(cache.getHitCount() + cache.getMissCount(), is(4000l));
+        
+        IExpression expression = cache.compile("$root.a + 1", compileContext);
+        assertThat(cache.compile("$root.a + 1", compileContext), sameInstance(expression));
+        
+        cache.clear();
+        assertThat(cache.getSize(), is(0));
+    }
+    
     @Test
     public void testTemplatesFacade() throws Throwable
     {
@@ -14,6 +14,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.Test;
 
@@ -31,10 +32,12 @@ import com.exametrika.common.log.LoggingContext;
 import com.exametrika.common.log.config.AppenderConfiguration;
 import com.exametrika.common.log.config.LoggerConfiguration;
 import com.exametrika.common.log.config.LoggingConfiguration;
+import com.exametrika.common.log.config.LoggingConfiguration.OverflowPolicy;
 import com.exametrika.common.log.config.TextAppenderConfiguration;
 import com.exametrika.common.log.impl.IAppender;
 import com.exametrika.common.log.impl.LogContext;
 import com.exametrika.common.log.impl.LogEvent;
+import com.exametrika.common.log.impl.LogEventQueue;
 import com.exametrika.common.log.impl.LoggingService;
 import com.exametrika.common.log.impl.TextAppender;
 import com.exametrika.common.tests.Tests;
@@ -215,6 +218,72 @@ public class LoggerManagerTests
         assertThat(appender.events.get(0).getStackTrace() != null, is(true));
     }
     
+    @Test
+    public void testEventQueue() throws Throwable
+    {
+        LogEventQueue queue = new LogEventQueue(4);
+        List<LogEvent> events = new ArrayList<LogEvent>();
+        for (int i = 0; i < 4; i++)
+        {
+            LogEvent event = new LogEvent(null, LogLevel.INFO, null, null, null, "test", null, i);
+            events.add(event);
+            assertThat(queue.offer(event), is(true));
+        }
+        
+        assertThat(queue.getSize(), is(4));
+        assertThat(queue.offer(new LogEvent(null, LogLevel.INFO, null, null, null, "test", null, 4)), is(false));
+        
+        LogEvent[] batch = new LogEvent[3];
+        assertThat(queue.drain(batch), is(3));
+        assertThat(Arrays.asList(batch), is(events.subList(0, 3)));
+        assertThat(queue.getSize(), is(1));
+        
+        for (int i = 0; i < 3; i++)
+            assertThat(queue.offer(events.get(i)), is(true));
+        
+        assertThat(queue.drain(batch), is(3));
+        assertThat(Arrays.asList(batch), is(Arrays.asList(events.get(3), events.get(0), events.get(1))));
+        assertThat(queue.drain(batch), is(1));
+        assertThat(batch[0], is(events.get(2)));
+        assertThat(queue.drain(batch), is(0));
+    }
+    
+    @Test
+    public void testOverflowPolicy() throws Throwable
+    {
+        TestAppenderConfiguration appenderConfiguration = new TestAppenderConfiguration("appender", LogLevel.DEBUG, "<%message%>", 
+            Collections.<String>emptyList());
+        LoggerConfiguration root = new LoggerConfiguration("", LogLevel.INFO, Arrays.<String>asList("appender"), 
+            Collections.<String>emptyList(), false);
+        LoggingConfiguration configuration = new LoggingConfiguration(RuntimeMode.DEVELOPMENT, 
+            Arrays.<AppenderConfiguration>asList(appenderConfiguration), root, Arrays.<LoggerConfiguration>asList(), 
+            OverflowPolicy.DROP);
+        
+        LoggingService manager = new LoggingService(configuration);
+        Map<String, IAppender> appenders = Tests.get(manager, "appenders");
+        AppenderMock appender = (AppenderMock)appenders.get("appender");
+        appender.latch = new CountDownLatch(1);
+        
+        ILogger logger1 = manager.createLogger("test");
+        int count = manager.getQueueCapacity() * 2;
+        try
+        {
+            for (int i = 0; i < count; i++)
+                logger1.log(LogLevel.INFO, new NonLocalizedMessage("test message"));
+            
+            assertThat(manager.getOverflowPolicy(), is("DROP"));
+            assertThat(manager.getDroppedEventCount() >= manager.getQueueCapacity() / 2, is(true));
+            assertThat(manager.getBlockedEventCount(), is(0l));
+        }
+        finally
+        {
+            appender.latch.countDown();
+        }
+        
+        manager.stop(false);
+        assertThat(appender.messages.size() + manager.getDroppedEventCount(), is((long)count));
+    }
+    
     @Test
     public void testTextAppender() throws Throwable
     {
@@ -428,6 +497,7 @@ public class LoggerManagerTests
         boolean flushed;
         List<LogEvent> events = new ArrayList<LogEvent>();
         List<String> messages = new ArrayList<String>();
+        volatile CountDownLatch latch;
         
         public AppenderMock(TestAppenderConfiguration configuration, CompileContext compileContext, LogContext context, 
             Map<String, Object> runtimeContext, ITemplateRegistry templateRegistry)
@@ -451,6 +521,18 @@ public class LoggerManagerTests
         @Override
         protected void doAppend(LogEvent event)
         {
+            if (latch != null)
+            {
+                try
+                {
+                    latch.await();
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+            
             events.add(event);
             super.doAppend(event);
         }
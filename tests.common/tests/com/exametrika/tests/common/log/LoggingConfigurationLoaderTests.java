@@ -31,6 +31,7 @@ import com.exametrika.common.log.config.ConsoleAppenderConfiguration.Target;
 import com.exametrika.common.log.config.FileAppenderConfiguration;
 import com.exametrika.common.log.config.LoggerConfiguration;
 import com.exametrika.common.log.config.LoggingConfiguration;
+import com.exametrika.common.log.config.LoggingConfiguration.OverflowPolicy;
 import com.exametrika.common.log.config.TextAppenderConfiguration;
 import com.exametrika.common.log.impl.IAppender;
 import com.exametrika.common.log.impl.LogContext;
@@ -86,6 +87,15 @@ public class LoggingConfigurationLoaderTests
         assertThat(configuration, is(loggerConfiguration));
     }
     
+    @Test
+    public void testOverflowPolicyLoad()
+    {
+        ConfigurationLoader loader = new ConfigurationLoader();
+        LoggingConfiguration configuration = loader.loadConfiguration("classpath:" + getResourcePath() + "/config2.conf").get(LoggingConfiguration.SCHEMA);
+        
+        assertThat(configuration.getOverflowPolicy(), is(OverflowPolicy.SAMPLE));
+    }
+    
     private static String getResourcePath()
     {
         String className = LoggingConfigurationLoaderTests.class.getName();
@@ -6,7 +6,11 @@ package com.exametrika.tests.common.messaging;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 
 import org.junit.Before;
@@ -30,9 +34,11 @@ import com.exametrika.common.messaging.impl.message.MessageFactory;
 import com.exametrika.common.messaging.impl.message.MessageSerializers;
 import com.exametrika.common.messaging.impl.protocols.compression.CompressionMessagePart;
 import com.exametrika.common.messaging.impl.protocols.compression.CompressionProtocol;
+import com.exametrika.common.messaging.impl.protocols.compression.CompressionResetMessagePart;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.ChannelObserver;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.IFailureObserver;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.LiveNodeManager;
+import com.exametrika.common.net.TcpPacket;
 import com.exametrika.common.time.impl.SystemTimeService;
 import com.exametrika.common.utils.ByteArray;
 
@@ -131,6 +137,246 @@ public class CompressionProtocolTests
         assertThat(((ByteArrayPart)receiver.messages.get(0).getPart()).value, is(value));
     }
     
+    @Test
+    public void testCompressionThresholds() throws Exception
+    {
+        byte[] small = new byte[CompressionProtocol.DEFAULT_MIN_COMPRESSION_SIZE / 2];
+        protocol.send(messageFactory.create(node, new ByteArrayPart(new ByteArray(small)), 0));
+        
+        byte[] random = new byte[10000];
+        new Random(0).nextBytes(random);
+        protocol.send(messageFactory.create(node, new ByteArrayPart(new ByteArray(random)), 0));
+        
+        byte[] buffer = new byte[10000];
+        for (int i = 0; i < buffer.length; i++)
+            buffer[i] = (byte)i;
+        ByteArray value = new ByteArray(buffer);
+        protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        
+        assertThat(sender.messages.size(), is(3));
+        assertThat(sender.messages.get(0).getPart() instanceof ByteArrayPart, is(true));
+        assertThat(sender.messages.get(1).getPart() instanceof ByteArrayPart, is(true));
+        assertThat(sender.messages.get(2).getPart() instanceof CompressionMessagePart, is(true));
+        assertThat(sender.messages.get(2).getSize() < buffer.length / 10, is(true));
+        
+        TcpPacket packet = MessageSerializers.serialize(registry, (Message)sender.messages.get(2), 1, null);
+        IMessage message = MessageSerializers.deserialize(registry, localNode, node, packet, 1);
+        
+        protocol.receive(message);
+        assertThat(receiver.messages.size(), is(1));
+        assertThat(receiver.messages.get(0).getFlags(), is(0));
+        assertThat(((ByteArrayPart)receiver.messages.get(0).getPart()).value, is(value));
+    }
+    
+    @Test
+    public void testDictionary() throws Exception
+    {
+        byte[] dictionary = createRecord(0);
+        CompressionProtocol protocol = createProtocol(dictionary, false);
+        CompressionProtocol protocol2 = createProtocol(dictionary, false);
+        
+        ByteArray value = new ByteArray(createRecord(1));
+        protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        this.protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        
+        assertThat(sender.messages.size(), is(3));
+        assertThat(sender.messages.get(0).getPart() instanceof CompressionMessagePart, is(true));
+        assertThat(((CompressionMessagePart)sender.messages.get(0).getPart()).getStreamPosition(), is(-1));
+        assertThat(sender.messages.get(1).getSize(), is(sender.messages.get(0).getSize()));
+        assertThat(sender.messages.get(0).getSize() < sender.messages.get(2).getSize(), is(true));
+        
+        // Dictionary compression is stateless, messages can be received in any order
+        protocol2.receive(serialize(sender.messages.get(1)));
+        protocol2.receive(serialize(sender.messages.get(0)));
+        assertThat(receiver.messages.size(), is(2));
+        assertThat(((ByteArrayPart)receiver.messages.get(0).getPart()).value, is(value));
+        assertThat(((ByteArrayPart)receiver.messages.get(1).getPart()).value, is(value));
+    }
+    
+    @Test
+    public void testStreaming() throws Exception
+    {
+        CompressionProtocol protocol = createProtocol(null, true);
+        CompressionProtocol protocol2 = createProtocol(null, true);
+        
+        ByteArray value = new ByteArray(createRecord(1));
+        for (int i = 0; i < 3; i++)
+            protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        protocol.send(messageFactory.create(node2, new ByteArrayPart(value), 0));
+        
+        assertThat(sender.messages.size(), is(4));
+        int position = 0;
+        for (int i = 0; i < 3; i++)
+        {
+            CompressionMessagePart part = sender.messages.get(i).getPart();
+            assertThat(part.getStreamPosition(), is(position));
+            position += part.getDecompressedSize();
+        }
+        assertThat(((CompressionMessagePart)sender.messages.get(3).getPart()).getStreamPosition(), is(0));
+        assertThat(sender.messages.get(1).getSize() < sender.messages.get(0).getSize() / 4, is(true));
+        
+        for (int i = 0; i < 3; i++)
+            protocol2.receive(serialize(sender.messages.get(i)));
+        assertThat(receiver.messages.size(), is(3));
+        for (int i = 0; i < 3; i++)
+            assertThat(((ByteArrayPart)receiver.messages.get(i).getPart()).value, is(value));
+        
+        // Message received after a gap in compression stream is dropped and stream reset is requested once
+        receiver.messages.clear();
+        List<IMessage> messages = new ArrayList<IMessage>(sender.messages);
+        sender.messages.clear();
+        CompressionProtocol protocol3 = createProtocol(null, true);
+        protocol3.receive(serialize(messages.get(0), node));
+        protocol3.receive(serialize(messages.get(2), node));
+        assertThat(receiver.messages.size(), is(1));
+        assertThat(sender.messages.size(), is(1));
+        IMessage resetRequest = sender.messages.get(0);
+        assertThat(resetRequest.getPart() instanceof CompressionResetMessagePart, is(true));
+        assertThat(resetRequest.getDestination(), is(node));
+        sender.messages.clear();
+        protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        protocol3.receive(serialize(sender.messages.get(0), node));
+        assertThat(receiver.messages.size(), is(1));
+        assertThat(sender.messages.size(), is(1));
+        
+        // Sender restarts compression stream on reset request, receiver resynchronizes on restarted stream
+        sender.messages.clear();
+        protocol.receive(serialize(resetRequest, node));
+        assertThat(receiver.messages.size(), is(1));
+        for (int i = 0; i < 2; i++)
+            protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+        assertThat(((CompressionMessagePart)sender.messages.get(0).getPart()).getStreamPosition(), is(0));
+        for (int i = 0; i < 2; i++)
+            protocol3.receive(serialize(sender.messages.get(i), node));
+        assertThat(receiver.messages.size(), is(3));
+        assertThat(((ByteArrayPart)receiver.messages.get(2).getPart()).value, is(value));
+        assertThat(sender.messages.size(), is(2));
+    }
+    
+    @Test
+    public void testStreamingWithPriorities() throws Exception
+    {
+        CompressionProtocol protocol = createProtocol(null, true);
+        CompressionProtocol protocol2 = createProtocol(null, true);
+        
+        int[] flags = {0, MessageFlags.HIGH_PRIORITY, 0, MessageFlags.LOW_PRIORITY, MessageFlags.PARALLEL, 0};
+        for (int i = 0; i < flags.length; i++)
+            protocol.send(messageFactory.create(node, new ByteArrayPart(new ByteArray(createRecord(i))), flags[i]));
+        
+        // Only messages delivered in order of sending are compressed by stream
+        assertThat(sender.messages.size(), is(flags.length));
+        int position = 0;
+        for (int i = 0; i < flags.length; i++)
+        {
+            CompressionMessagePart part = sender.messages.get(i).getPart();
+            if (flags[i] == 0)
+            {
+                assertThat(part.getStreamPosition(), is(position));
+                position += part.getDecompressedSize();
+            }
+            else
+                assertThat(part.getStreamPosition(), is(-1));
+        }
+        
+        // Prioritized and parallel messages overtake streamed messages without breaking compression stream
+        List<IMessage> messages = new ArrayList<IMessage>(sender.messages);
+        sender.messages.clear();
+        int[] order = {1, 4, 0, 2, 3, 5};
+        for (int i = 0; i < order.length; i++)
+            protocol2.receive(serialize(messages.get(order[i]), node));
+        
+        assertThat(sender.messages.isEmpty(), is(true));
+        assertThat(receiver.messages.size(), is(flags.length));
+        for (int i = 0; i < order.length; i++)
+        {
+            assertThat(receiver.messages.get(i).getFlags(), is(flags[order[i]]));
+            assertThat(((ByteArrayPart)receiver.messages.get(i).getPart()).value, is(new ByteArray(createRecord(order[i]))));
+        }
+        
+        // Compression stream of failed node is removed, stream of new connection begins from position 0
+        receiver.messages.clear();
+        protocol.onNodesFailed(Collections.singleton(node));
+        protocol2.onNodesFailed(Collections.singleton(node));
+        protocol.send(messageFactory.create(node, new ByteArrayPart(new ByteArray(createRecord(0))), 0));
+        assertThat(((CompressionMessagePart)sender.messages.get(0).getPart()).getStreamPosition(), is(0));
+        protocol2.receive(serialize(sender.messages.get(0), node));
+        assertThat(receiver.messages.size(), is(1));
+        assertThat(sender.messages.size(), is(1));
+    }
+    
+    @Test
+    public void testConcurrentStreaming() throws Throwable
+    {
+        final CompressionProtocol protocol = createProtocol(null, true);
+        final ByteArray value = new ByteArray(createRecord(1));
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (int k = 0; k < 1000; k++)
+                        protocol.send(messageFactory.create(node, new ByteArrayPart(value), 0));
+                }
+            });
+            threads[i].start();
+        }
+        
+        for (Thread thread : threads)
+            thread.join();
+        
+        // Messages of compression stream are passed to sender in the order of their stream positions
+        assertThat(sender.messages.size(), is(4000));
+        CompressionProtocol protocol2 = createProtocol(null, true);
+        int position = 0;
+        for (IMessage message : sender.messages)
+        {
+            CompressionMessagePart part = message.getPart();
+            if (part.getStreamPosition() != 0)
+                assertThat(part.getStreamPosition(), is(position));
+            position = part.getStreamPosition() + part.getDecompressedSize();
+            protocol2.receive(serialize(message, node));
+        }
+        assertThat(receiver.messages.size(), is(4000));
+    }
+    
+    private CompressionProtocol createProtocol(byte[] dictionary, boolean streaming)
+    {
+        CompressionProtocol protocol = new CompressionProtocol("test", null, 5, CompressionProtocol.DEFAULT_MIN_COMPRESSION_SIZE,
+            dictionary, streaming, messageFactory, registry);
+        protocol.setSender(sender);
+        protocol.setReceiver(receiver);
+        protocol.setPullableSender(new PullableSenderMock());
+        protocol.setTimeService(new SystemTimeService());
+        protocol.start();
+        
+        return protocol;
+    }
+    
+    private IMessage serialize(IMessage message)
+    {
+        return serialize(message, localNode);
+    }
+    
+    private IMessage serialize(IMessage message, IAddress source)
+    {
+        TcpPacket packet = MessageSerializers.serialize(registry, (Message)message, 1, null);
+        return MessageSerializers.deserialize(registry, source, message.getDestination(), packet, 1);
+    }
+    
+    private byte[] createRecord(int index)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 4; i++)
+            builder.append("{\"id\":" + (index * 4 + i) + ",\"name\":\"metric-" + i + "\",\"type\":\"counter\",\"value\":" + 
+                (index * 31 + i * 7) + ",\"tags\":[\"host\",\"service\"]}");
+        
+        return builder.toString().getBytes();
+    }
+    
     private static class ByteArrayPart implements IMessagePart
     {
         private final ByteArray value;
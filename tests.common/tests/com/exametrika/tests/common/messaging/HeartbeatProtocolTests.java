@@ -28,6 +28,7 @@ import com.exametrika.common.messaging.impl.protocols.failuredetection.Heartbeat
 import com.exametrika.common.messaging.impl.protocols.failuredetection.IFailureObserver;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.INodeAccessTimeProvider;
 import com.exametrika.common.messaging.impl.protocols.failuredetection.LiveNodeManager;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.PhiAccrualFailureDetector;
 import com.exametrika.common.tests.Tests;
 import com.exametrika.tests.common.time.TimeServiceMock;
 
@@ -223,6 +224,122 @@ public class HeartbeatProtocolTests
         assertThat(new TreeSet(liveNodeManager.getLiveNodes()), is(new TreeSet(Arrays.asList(member1, member3, member4))));
     }
     
+    @Test
+    public void testAdaptiveTrack() throws Throwable
+    {
+        HeartbeatProtocol protocol = new HeartbeatProtocol("test", new FullNodeTrackingStrategy(), 
+            new MessageFactory(registry, liveNodeManager), 100, 1000, 200, 60000, 8, 100, 100, 500);
+        protocol.setReceiver(receiver);
+        protocol.setSender(sender);
+        protocol.setPullableSender(new PullableSenderMock());
+        protocol.setFailureObserver(liveNodeManager);
+        protocol.setTimeService(timeService);
+        protocol.setAccessTimeProvider(accessTimeProvider);
+        protocol.start();
+        
+        try
+        {
+            protocol.cleanup(new CleanupManagerMock(liveNodeManager), liveNodeManager, 2000);
+            Map heartbeats = Tests.get(protocol, "heartbeats");
+            PhiAccrualFailureDetector detector = Tests.get(heartbeats.get(member2), "failureDetector");
+            
+            long time = 2000;
+            for (int i = 0; i < 20; i++)
+            {
+                accessTimeProvider.lastReadTimes.put(member2, time);
+                timeService.time = time;
+                protocol.receive(new Message(member2, member1, MessageFlags.PARALLEL | MessageFlags.HIGH_PRIORITY | 
+                    MessageFlags.HEARTBEAT_RESPONSE, registry));
+                assertThat(detector.getLastHeartbeatTime(), is(time));
+                
+                for (int k = 0; k < 11; k++)
+                {
+                    timeService.time = time + k * 100;
+                    protocol.onTimer(timeService.time);
+                }
+                
+                time += 1100 + (i % 3) * 50;
+            }
+            
+            long lastResponseTime = accessTimeProvider.lastReadTimes.get(member2);
+            assertThat(detector.getLastHeartbeatTime(), is(lastResponseTime));
+            
+            for (time = lastResponseTime + 1100; time < lastResponseTime + 2000; time += 100)
+            {
+                timeService.time = time;
+                protocol.onTimer(timeService.time);
+            }
+            
+            Thread.sleep(100);
+            assertThat(liveNodeManager.getLiveNodes().contains(member2), is(true));
+            
+            lastResponseTime = time;
+            accessTimeProvider.lastReadTimes.put(member2, lastResponseTime);
+            timeService.time = time;
+            protocol.onTimer(timeService.time);
+            assertThat(detector.getLastHeartbeatTime(), is(0l));
+            
+            for (; time < lastResponseTime + 2000; time += 100)
+            {
+                timeService.time = time;
+                protocol.onTimer(timeService.time);
+            }
+            
+            Thread.sleep(100);
+            assertThat(liveNodeManager.getLiveNodes().contains(member2), is(true));
+            
+            for (; time < lastResponseTime + 4000; time += 100)
+            {
+                timeService.time = time;
+                protocol.onTimer(timeService.time);
+            }
+            
+            Thread.sleep(100);
+            assertThat(liveNodeManager.getLiveNodes().contains(member2), is(false));
+            assertThat(new TreeSet(liveNodeManager.getLiveNodes()), is(new TreeSet(Arrays.asList(member1, member3, member4))));
+        }
+        finally
+        {
+            protocol.stop();
+        }
+    }
+    
+    @Test
+    public void testPhiAccrualFailureDetector()
+    {
+        PhiAccrualFailureDetector detector = new PhiAccrualFailureDetector(8, 10, 100, 0, 1000);
+        assertThat(detector.getLastHeartbeatTime(), is(0l));
+        assertThat(detector.getPhi(1000, 1000) < 0.1, is(true));
+        assertThat(detector.isAvailable(1000, 2200), is(true));
+        assertThat(detector.getPhi(1000, 2200) < detector.getPhi(1000, 2600), is(true));
+        assertThat(detector.isAvailable(1000, 4000), is(false));
+        
+        detector.onHeartbeat(1000);
+        assertThat(detector.getLastHeartbeatTime(), is(1000l));
+        
+        detector.onHeartbeat(900);
+        assertThat(detector.getLastHeartbeatTime(), is(1000l));
+        
+        long time = 1000;
+        for (int i = 0; i < 10; i++)
+        {
+            time += 3000;
+            detector.onHeartbeat(time);
+        }
+        
+        assertThat(detector.isAvailable(time, time + 3000), is(true));
+        assertThat(detector.isAvailable(time, time + 4000), is(false));
+        
+        detector.reset();
+        assertThat(detector.getLastHeartbeatTime(), is(0l));
+        
+        time += 10000;
+        detector.onHeartbeat(time);
+        assertThat(detector.getLastHeartbeatTime(), is(time));
+        assertThat(detector.isAvailable(time, time + 3000), is(true));
+        assertThat(detector.isAvailable(time, time + 4000), is(false));
+    }
+    
     private void check(Map heartbeats, IAddress node, long requestTime) throws Throwable
     {
         Object info = heartbeats.get(node);
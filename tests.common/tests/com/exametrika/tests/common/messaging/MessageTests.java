@@ -17,19 +17,25 @@ import org.junit.Test;
 import com.exametrika.common.io.IDeserialization;
 import com.exametrika.common.io.ISerialization;
 import com.exametrika.common.io.ISerializationRegistry;
+import com.exametrika.common.io.UnsupportedStreamFormatException;
 import com.exametrika.common.io.impl.AbstractSerializer;
 import com.exametrika.common.io.impl.ByteInputStream;
 import com.exametrika.common.io.impl.ByteOutputStream;
 import com.exametrika.common.io.impl.Deserialization;
 import com.exametrika.common.io.impl.Serialization;
 import com.exametrika.common.io.impl.SerializationRegistry;
+import com.exametrika.common.io.impl.SerializationTypeDictionary;
 import com.exametrika.common.messaging.IAddress;
 import com.exametrika.common.messaging.IMessagePart;
 import com.exametrika.common.messaging.MessageFlags;
 import com.exametrika.common.messaging.impl.message.Message;
 import com.exametrika.common.messaging.impl.message.MessageSerializers;
+import com.exametrika.common.messaging.impl.message.SerializedMessagePart;
 import com.exametrika.common.net.TcpPacket;
+import com.exametrika.common.tests.Expected;
+import com.exametrika.common.utils.ByteArray;
 import com.exametrika.common.utils.IVisitor;
+import com.exametrika.common.utils.Strings;
 
 
 /**
@@ -204,6 +210,115 @@ public class MessageTests
         assertThat(message.getSize() > "test".length(), is(true));
     }
     
+    @Test
+    public void testSharedPartSerializer() throws Throwable
+    {
+        IAddress source = new TestAddress(UUID.randomUUID(), "source");
+        IAddress destination1 = new TestAddress(UUID.randomUUID(), "destination1");
+        IAddress destination2 = new TestAddress(UUID.randomUUID(), "destination2");
+        
+        ISerializationRegistry registry = new SerializationRegistry();
+        registry.register(new Part1Serializer());
+        
+        Part1 largePart = new Part1(Strings.duplicate('a', MessageSerializers.MIN_SHARED_PART_SIZE));
+        SerializedMessagePart sharedPart = MessageSerializers.serialize(registry, largePart);
+        assertThat(sharedPart.getMessagePart() == largePart, is(true));
+        
+        Message message1 = new Message(source, destination1, sharedPart, MessageFlags.NO_COMPRESS, null, registry);
+        assertThat(message1.getPart() == largePart, is(true));
+        message1 = message1.addPart(new Part1("test1"));
+        Message message2 = new Message(source, destination2, sharedPart, 0, null, registry);
+        message2 = message2.addPart(new Part1("test2"));
+        
+        TcpPacket packet1 = MessageSerializers.serialize(registry, message1, 10, null);
+        TcpPacket packet2 = MessageSerializers.serialize(registry, message2, 10, null);
+        assertThat(packet1.getBuffers().size(), is(2));
+        assertThat(packet2.getBuffers().size(), is(2));
+        assertThat(packet1.getBuffers().get(1) == sharedPart.getBuffers().get(0), is(true));
+        assertThat(packet2.getBuffers().get(1) == sharedPart.getBuffers().get(0), is(true));
+        
+        Message message = MessageSerializers.deserialize(registry, source, destination1, join(packet1), 10);
+        assertThat(message.getFlags(), is(MessageFlags.NO_COMPRESS));
+        assertThat(message.getPartCount(), is(2));
+        assertThat(message.getPart(), is((IMessagePart)new Part1("test1")));
+        message = message.removePart();
+        assertThat(message.getPart(), is((IMessagePart)largePart));
+        
+        message = MessageSerializers.deserialize(registry, source, destination2, join(packet2), 10);
+        assertThat(message.getPartCount(), is(2));
+        assertThat(message.getPart(), is((IMessagePart)new Part1("test2")));
+        message = message.removePart();
+        assertThat(message.getPart(), is((IMessagePart)largePart));
+        
+        Message smallMessage = new Message(source, destination1, MessageSerializers.serialize(registry, new Part1("test")), 
+            0, null, registry);
+        TcpPacket packet = MessageSerializers.serialize(registry, smallMessage, 10, null);
+        assertThat(packet.getBuffers().size(), is(1));
+    }
+    
+    @Test
+    public void testTypeDictionary() throws Throwable
+    {
+        final IAddress source = new TestAddress(UUID.randomUUID(), "source");
+        final IAddress destination = new TestAddress(UUID.randomUUID(), "destination");
+        
+        final ISerializationRegistry registry = new SerializationRegistry();
+        registry.register(new Part1Serializer());
+        
+        SerializationTypeDictionary sendDictionary = new SerializationTypeDictionary();
+        SerializationTypeDictionary receiveDictionary = new SerializationTypeDictionary();
+        
+        Message message = new Message(source, destination, new Part1("test1"), registry);
+        message = message.addPart(new Part1("test2"));
+        
+        TcpPacket packet = MessageSerializers.serialize(registry, message, 10, null);
+        final TcpPacket compactPacket = MessageSerializers.serialize(registry, sendDictionary, message, 10, null);
+        assertThat(sendDictionary.getSize(), is(1));
+        assertThat(compactPacket.getSize(), is(packet.getSize() - 2 * 15));
+        
+        receiveDictionary.getTypeId(sendDictionary.getType(0));
+        Message receivedMessage = MessageSerializers.deserialize(registry, receiveDictionary, source, destination, 
+            compactPacket, 10);
+        assertThat(receivedMessage.getPartCount(), is(2));
+        assertThat(receivedMessage.getPart().toString(), is("test2"));
+        assertThat(receivedMessage.removePart().getPart().toString(), is("test1"));
+        
+        // Received parts are reencoded when forwarded
+        receivedMessage = MessageSerializers.deserialize(registry, receiveDictionary, source, destination, 
+            compactPacket, 10);
+        packet = MessageSerializers.serialize(registry, receivedMessage, 10, null);
+        Message forwardedMessage = MessageSerializers.deserialize(registry, source, destination, packet, 10);
+        assertThat(forwardedMessage.getPart().toString(), is("test2"));
+        assertThat(forwardedMessage.removePart().getPart().toString(), is("test1"));
+        
+        receivedMessage = MessageSerializers.deserialize(registry, receiveDictionary, source, destination, 
+            compactPacket, 10);
+        SerializationTypeDictionary forwardDictionary = new SerializationTypeDictionary();
+        packet = MessageSerializers.serialize(registry, forwardDictionary, receivedMessage, 10, null);
+        forwardedMessage = MessageSerializers.deserialize(registry, forwardDictionary, source, destination, packet, 10);
+        assertThat(forwardedMessage.getPart().toString(), is("test2"));
+        assertThat(forwardedMessage.removePart().getPart().toString(), is("test1"));
+        
+        new Expected(UnsupportedStreamFormatException.class, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                MessageSerializers.deserialize(registry, new SerializationTypeDictionary(), source, destination, 
+                    compactPacket, 10);
+            }
+        });
+    }
+    
+    private static TcpPacket join(TcpPacket packet)
+    {
+        ByteOutputStream stream = new ByteOutputStream();
+        for (ByteArray buffer : packet.getBuffers())
+            stream.write(buffer.getBuffer(), buffer.getOffset(), buffer.getLength());
+        
+        return new TcpPacket(new ByteArray(stream.getBuffer(), 0, stream.getLength()));
+    }
+    
     private static class Part1 implements IMessagePart
     {
         private final String value;
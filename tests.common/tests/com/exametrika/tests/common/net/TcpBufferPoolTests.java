@@ -0,0 +1,110 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.common.net;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.exametrika.common.net.nio.TcpBufferPool;
+import com.exametrika.common.utils.ByteArray;
+
+
+
+/**
+ * The {@link TcpBufferPoolTests} are tests for {@link TcpBufferPool}.
+ * 
+ * @see TcpBufferPool
+ * @author Medvedev-A
+ */
+public class TcpBufferPoolTests
+{
+    @Test
+    public void testBufferPool()
+    {
+        TcpBufferPool pool = new TcpBufferPool(0x1000, 0x1800);
+        
+        ByteBuffer buffer1 = pool.acquire(100);
+        assertTrue(buffer1.isDirect());
+        assertThat(buffer1.capacity(), is(0x100));
+        assertThat(buffer1.position(), is(0));
+        assertThat(buffer1.limit(), is(100));
+        
+        ByteBuffer buffer2 = pool.acquire(0x101);
+        assertThat(buffer2.capacity(), is(0x200));
+        ByteBuffer buffer3 = pool.acquire(0x1000);
+        assertThat(buffer3.capacity(), is(0x1000));
+        ByteBuffer buffer4 = pool.acquire(0x1000);
+        assertThat(pool.getMissCount(), is(4l));
+        assertThat(pool.getBorrowedCount(), is(4));
+        
+        buffer1.put((byte)1);
+        pool.release(buffer1);
+        pool.release(buffer2);
+        pool.release(buffer3);
+        pool.release(buffer4);
+        assertThat(pool.getPoolSize(), is(0x1300l));
+        assertThat(pool.getBorrowedCount(), is(0));
+        
+        ByteBuffer buffer = pool.acquire(10);
+        assertTrue(buffer == buffer1);
+        assertThat(buffer.position(), is(0));
+        assertThat(buffer.limit(), is(10));
+        assertTrue(pool.acquire(0x1000) == buffer3);
+        assertThat(pool.acquire(0x1000).capacity(), is(0x1000));
+        assertThat(pool.getHitCount(), is(2l));
+        assertThat(pool.getMissCount(), is(5l));
+        assertThat(pool.getPoolSize(), is(0x200l));
+        
+        pool.clear();
+        assertThat(pool.getPoolSize(), is(0l));
+    }
+    
+    @Test
+    public void testPayloads()
+    {
+        TcpBufferPool pool = new TcpBufferPool(0x1000, 0x1800);
+        
+        ByteBuffer buffer = pool.acquire(100);
+        for (int i = 0; i < 100; i++)
+            buffer.put((byte)i);
+        buffer.flip();
+        
+        ByteArray payload1 = pool.copyPayload(buffer);
+        assertThat(buffer.hasRemaining(), is(false));
+        assertThat(payload1.getLength(), is(100));
+        assertThat(payload1.getOffset(), is(0));
+        assertThat(payload1.getBuffer().length, is(0x800));
+        for (int i = 0; i < 100; i++)
+            assertThat(payload1.get(i), is(i));
+        
+        buffer.rewind();
+        ByteArray payload2 = pool.copyPayload(buffer);
+        assertTrue(payload2.getBuffer() == payload1.getBuffer());
+        assertThat(payload2.getOffset(), is(100));
+        assertThat(payload2, is(payload1));
+        assertThat(pool.getSlabCount(), is(1l));
+        
+        ByteArray payload3 = pool.copyPayload(ByteBuffer.allocate(0x8000));
+        assertThat(payload3.getOffset(), is(0));
+        assertThat(payload3.getBuffer().length, is(0x8000));
+        
+        ByteArray payload4 = null;
+        for (int i = 0; i < 16; i++)
+            payload4 = pool.copyPayload(ByteBuffer.allocate(0x1000));
+        
+        assertThat(payload4.getBuffer().length, is(0x8000));
+        assertThat(payload4.getOffset(), is(0x7000));
+        assertThat(pool.getSlabCount(), is(3l));
+        
+        ByteArray payload5 = pool.copyPayload(ByteBuffer.allocate(50));
+        assertTrue(payload5.getBuffer() == payload1.getBuffer());
+        assertThat(payload5.getOffset(), is(200));
+        pool.release(buffer);
+    }
+}
@@ -86,19 +86,22 @@ public class TcpChannelTests
     private ByteArray packet;
     private TcpPacket multiPacket;
     private final int packetSize;
+    private final int selectorThreadCount;
     private List<File> fileNames = new ArrayList<File>();
 
     @Parameters
     public static Collection<?> parameters()
     {
-        return Arrays.asList(new Object[]{true, 20}, new Object[]{false, 20}, 
-            new Object[]{true, 100000}, new Object[]{false, 100000});
+        return Arrays.asList(new Object[]{true, 20, 0}, new Object[]{false, 20, 0}, 
+            new Object[]{true, 100000, 0}, new Object[]{false, 100000, 0}, 
+            new Object[]{false, 20, 2}, new Object[]{true, 100000, 2});
     }
 
-    public TcpChannelTests(boolean secured, int packetSize) throws IOException
+    public TcpChannelTests(boolean secured, int packetSize, int selectorThreadCount) throws IOException
     {
         this.secured = secured;
         this.packetSize = packetSize;
+        this.selectorThreadCount = selectorThreadCount;
 
         byte[] buffer = new byte[packetSize];
         for (int i = 0; i < buffer.length; i++)
@@ -135,7 +138,8 @@ public class TcpChannelTests
         {
             TcpNioDispatcher dispatcher;
 
-            dispatcher = new TcpNioDispatcher(3000 * multiplier, 5000 * multiplier, "node" + i);
+            dispatcher = new TcpNioDispatcher(3000 * multiplier, 5000 * multiplier, "node" + i, 0x10000, 0x1000000, 
+                selectorThreadCount);
 
             ICompartmentFactory.Parameters compartmentParameters = new ICompartmentFactory.Parameters();
             compartmentParameters.name = "node" + i;
@@ -227,14 +231,23 @@ public class TcpChannelTests
         // Test connections
         for (ITcpFactory dispatcher : dispatchers)
         {
-            Set<SelectionKey> keys = ((TcpNioDispatcher)dispatcher).getSelector().keys();
-            assertThat(keys.size(), is(3));
+            if (selectorThreadCount == 0)
+            {
+                Set<SelectionKey> keys = ((TcpNioDispatcher)dispatcher).getSelector().keys();
+                assertThat(keys.size(), is(3));
+            }
+            else
+            {
+                assertThat(((TcpNioDispatcher)dispatcher).getServerCount(), is(1));
+                assertThat(((TcpNioDispatcher)dispatcher).getChannelCount(), is(2));
+            }
         }
 
         // Test connection cleanup when disconnected
         acceptedChannels[1].disconnect();
 
-        Thread.sleep(2500);
+        for (int k = 0; k < 50 && !clients[0].isDisconnected(); k++)
+            Thread.sleep(50);
 
         assertThat(clients[0].isDisconnected(), is(true));
         assertThat(clients[1].isDisconnected(), is(false));
@@ -310,74 +323,82 @@ public class TcpChannelTests
 
         clients[0].disconnect();
 
-        Thread.sleep(200);
+        ChannelListenerMock listener = getListener(clients[0]);
+        listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
+        assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
-        Set<ITcpChannelListener> listeners = ((TcpAbstractChannel)clients[0]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
-
-        listeners = ((TcpAbstractChannel)acceptedChannels[1]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
+        listener = getListener(acceptedChannels[1]);
+        if (secured)
+            listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
         if (secured)
-            assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
+            assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
         clients[1].disconnect();
 
-        Thread.sleep(200);
+        listener = getListener(clients[1]);
+        listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
+        assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
-        listeners = ((TcpAbstractChannel)clients[1]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
-
-        listeners = ((TcpAbstractChannel)acceptedChannels[2]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
+        listener = getListener(acceptedChannels[2]);
+        listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
+        assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
         clients[2].close();
 
-        Thread.sleep(1000);
-
-        listeners = ((TcpAbstractChannel)clients[2]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(0));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(1));
+        listener = getListener(clients[2]);
+        listener.await(0, 1);
+        assertThat(listener.getConnected(), is(1));
+        assertThat(listener.getDisconnected(), is(0));
+        assertThat(listener.getFailed(), is(1));
 
-        listeners = ((TcpAbstractChannel)acceptedChannels[3]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
+        listener = getListener(acceptedChannels[3]);
+        if (secured)
+            listener.await(0, 1);
+        else
+            listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
         if (secured)
-            assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(1));
+            assertThat(listener.getFailed(), is(1));
         else
-            assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
+            assertThat(listener.getDisconnected(), is(1));
 
         ((ILifecycle)compartments[4]).stop();
 
-        Thread.sleep(200);
+        listener = getListener(clients[4]);
+        listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
+        assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
-        listeners = ((TcpAbstractChannel)clients[4]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
+        listener = getListener(acceptedChannels[4]);
+        listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
+        assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
-        listeners = ((TcpAbstractChannel)acceptedChannels[4]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
-
-        listeners = ((TcpAbstractChannel)clients[3]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
+        listener = getListener(clients[3]);
+        if (secured)
+            listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
         if (secured)
-            assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
+            assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
 
-        listeners = ((TcpAbstractChannel)acceptedChannels[5]).getChannelListeners();
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getConnected(), is(1));
+        listener = getListener(acceptedChannels[5]);
         if (secured)
-            assertThat(((ChannelListenerMock)listeners.iterator().next()).getDisconnected(), is(1));
-        assertThat(((ChannelListenerMock)listeners.iterator().next()).getFailed(), is(0));
+            listener.await(1, 0);
+        assertThat(listener.getConnected(), is(1));
+        if (secured)
+            assertThat(listener.getDisconnected(), is(1));
+        assertThat(listener.getFailed(), is(0));
     }
 
     @Test
@@ -438,6 +459,19 @@ public class TcpChannelTests
         for (Object received : reader.packets)
             assertThat(received, is((Object)message));
 
+        // Test batch
+        reader.reset();
+        writer.init(5, message, null, null);
+        writer.batchCount = 3;
+        clients[1].updateWriteStatus();
+
+        Thread.sleep(500);
+
+        assertThat(reader.packets.size(), is(5));
+        for (Object received : reader.packets)
+            assertThat(received, is((Object)message));
+        writer.batchCount = 0;
+
         // Test max message size
         new Expected(IllegalArgumentException.class, new Runnable()
         {
@@ -590,6 +624,12 @@ public class TcpChannelTests
         }
     }
 
+    private static ChannelListenerMock getListener(ITcpChannel channel)
+    {
+        Set<ITcpChannelListener> listeners = ((TcpAbstractChannel)channel).getChannelListeners();
+        return (ChannelListenerMock)listeners.iterator().next();
+    }
+
     private class ChannelListenerMock implements ITcpChannelListener
     {
         private int connected;
@@ -630,12 +670,27 @@ public class TcpChannelTests
         public synchronized void onDisconnected(ITcpChannel channel)
         {
             disconnected++;
+            notifyAll();
         }
 
         @Override
         public synchronized void onFailed(ITcpChannel channel)
         {
             failed++;
+            notifyAll();
+        }
+
+        public synchronized void await(int disconnected, int failed) throws InterruptedException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (this.disconnected < disconnected || this.failed < failed)
+            {
+                long timeout = deadline - System.currentTimeMillis();
+                if (timeout <= 0)
+                    break;
+
+                wait(timeout);
+            }
         }
     }
 
@@ -674,6 +729,7 @@ public class TcpChannelTests
     private class ChannelWriterMock implements ITcpChannelWriter
     {
         int writeCount;
+        int batchCount;
         Object packet;
         ByteBuffer buffer;
         ByteBuffer[] buffers;
@@ -699,7 +755,16 @@ public class TcpChannelTests
                 return;
 
             ITcpPacketChannel packetChannel = (ITcpPacketChannel)channel;
-            if (packetChannel.write(packet != null ? packet : createMultiPacket(packetSize)))
+            if (batchCount > 0)
+            {
+                List<Object> packets = new ArrayList<Object>();
+                for (int i = 0; i < Math.min(batchCount, writeCount); i++)
+                    packets.add(packet);
+                
+                if (packetChannel.write(packets))
+                    writeCount -= packets.size();
+            }
+            else if (packetChannel.write(packet != null ? packet : createMultiPacket(packetSize)))
                 writeCount--;
         }
 
@@ -12,8 +12,16 @@ import gnu.trove.map.TLongObjectMap;
 
 import java.io.File;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.After;
 import org.junit.Before;
@@ -37,6 +45,7 @@ import com.exametrika.common.rawdb.config.RawDatabaseConfigurationBuilder;
 import com.exametrika.common.rawdb.impl.RawDataFile;
 import com.exametrika.common.rawdb.impl.RawDatabase;
 import com.exametrika.common.rawdb.impl.RawDatabaseFactory;
+import com.exametrika.common.rawdb.impl.RawMappedReadRegion;
 import com.exametrika.common.rawdb.impl.RawPage;
 import com.exametrika.common.rawdb.impl.RawPageCache;
 import com.exametrika.common.rawdb.impl.RawPageManager;
@@ -376,6 +385,256 @@ public class RawDatabaseTests
         });
     }
     
+    @Test
+    public void testBatchPageLoading() throws Throwable
+    {
+        database.transactionSync(new RawOperation(IRawOperation.FLUSH)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                    writeRegion(i, transaction.getPage(1, i).getWriteRegion());
+            }
+        });
+        
+        database.clearCaches();
+        long readCount = Tests.get(database.getFileCache(), "readCount");
+        
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                List<IRawPage> pages = transaction.getPages(1, 0, 40);
+                assertThat(pages.size(), is(40));
+                for (int i = 0; i < 40; i++)
+                {
+                    assertThat(pages.get(i).getIndex(), is((long)i));
+                    checkRegion(pages.get(i).getReadRegion(), createBuffer(i, 0x800));
+                }
+            }
+        });
+        
+        assertTrue((Long)Tests.get(database.getFileCache(), "readCount") - readCount < 10);
+        
+        database.clearCaches();
+        readCount = Tests.get(database.getFileCache(), "readCount");
+        
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                    checkRegion(transaction.getPage(1, i).getReadRegion(), createBuffer(i, 0x800));
+            }
+        });
+        
+        assertTrue((Long)Tests.get(database.getFileCache(), "readCount") - readCount < 25);
+    }
+
+    @Test
+    public void testMemoryMappedPages() throws Throwable
+    {
+        database.stop();
+
+        File tempDir = new File(System.getProperty("java.io.tmpdir"), "db");
+        configuration = new RawDatabaseConfigurationBuilder().addPath(tempDir.getPath()).setFlushPeriod(0x8000)
+            .addPageType("normal", 0x800)
+                .getDefaultPageCategory().setMaxPageIdlePeriod(1000000).setMinPageCachePercentage(90).setMemoryMapped(true).end()
+            .end()
+            .setResourceAllocator(new RootResourceAllocatorConfigurationBuilder().setDefaultPolicy(
+                new FixedAllocationPolicyConfigurationBuilder().addQuota("<default>", 204800).toConfiguration())
+                .toConfiguration()).toConfiguration();
+        database = new RawDatabaseFactory().createDatabase(configuration);
+        database.start();
+
+        database.transactionSync(new RawOperation(IRawOperation.FLUSH)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                    writeRegion(i, transaction.getPage(1, i).getWriteRegion());
+            }
+        });
+
+        database.clearCaches();
+        long readCount = Tests.get(database.getFileCache(), "readCount");
+
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                {
+                    IRawReadRegion region = transaction.getPage(1, i).getReadRegion();
+                    assertTrue(region instanceof RawMappedReadRegion);
+                    checkRegion(region, createBuffer(i, 0x800));
+                }
+            }
+        });
+
+        assertThat((Long)Tests.get(database.getFileCache(), "readCount"), is(readCount));
+
+        database.transactionSync(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 10; i++)
+                {
+                    IRawPage page = transaction.getPage(1, i);
+                    writeRegion(i + 100, page.getWriteRegion());
+                    assertTrue(!(page.getReadRegion() instanceof RawMappedReadRegion));
+                    checkRegion(page.getReadRegion(), createBuffer(i + 100, 0x800));
+                }
+            }
+        });
+
+        new Expected(new ICondition<Throwable>()
+        {
+            @Override
+            public boolean evaluate(Throwable value)
+            {
+                return value.getCause() instanceof RawRollbackException;
+            }
+        }, RawDatabaseException.class, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                database.transactionSync(new RawOperation()
+                {
+                    @Override
+                    public void run(IRawTransaction transaction)
+                    {
+                        writeRegion(200, transaction.getPage(1, 20).getWriteRegion());
+                        throw new RawRollbackException();
+                    }
+                });
+            }
+        });
+
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                {
+                    IRawReadRegion region = transaction.getPage(1, i).getReadRegion();
+                    assertThat(region instanceof RawMappedReadRegion, is(i >= 10));
+                    checkRegion(region, createBuffer(i < 10 ? i + 100 : i, 0x800));
+                }
+            }
+        });
+
+        database.flush();
+        database.clearCaches();
+
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                {
+                    IRawReadRegion region = transaction.getPage(1, i).getReadRegion();
+                    assertTrue(region instanceof RawMappedReadRegion);
+                    checkRegion(region, createBuffer(i < 10 ? i + 100 : i, 0x800));
+                }
+            }
+        });
+
+        database.stop();
+        database = new RawDatabaseFactory().createDatabase(configuration);
+        database.start();
+
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 40; i++)
+                    checkRegion(transaction.getPage(1, i).getReadRegion(), createBuffer(i < 10 ? i + 100 : i, 0x800));
+            }
+        });
+    }
+
+    @Test
+    public void testDurableGroupCommit() throws Throwable
+    {
+        final int threadCount = 4;
+        final int transactionCount = 25;
+        final CountDownLatch latch = new CountDownLatch(threadCount);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final AtomicInteger committedCount = new AtomicInteger();
+        for (int k = 0; k < threadCount; k++)
+        {
+            final int fileIndex = k;
+            new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for (int i = 0; i < transactionCount; i++)
+                        {
+                            final int pageIndex = i;
+                            database.transactionSync(new RawOperation(IRawOperation.DURABLE)
+                            {
+                                @Override
+                                public void run(IRawTransaction transaction)
+                                {
+                                    writeRegion(pageIndex, transaction.getPage(fileIndex, pageIndex).getWriteRegion());
+                                }
+                                
+                                @Override
+                                public void onCommitted()
+                                {
+                                    committedCount.incrementAndGet();
+                                }
+                            });
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(latch.await(60, TimeUnit.SECONDS));
+        assertThat(errors.isEmpty(), is(true));
+        assertThat(committedCount.get(), is(threadCount * transactionCount));
+
+        long syncCount = database.getPageManager().getDurableSyncCount();
+        assertTrue(syncCount > 0 && syncCount < threadCount * transactionCount);
+        assertThat(((List)Tests.get(database.getTransactionManager(), "durableTransactions")).isEmpty(), is(true));
+
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int k = 0; k < threadCount; k++)
+                {
+                    for (int i = 0; i < transactionCount; i++)
+                        checkRegion(transaction.getPage(k, i).getReadRegion(), createBuffer(i, 0x800));
+                }
+            }
+        });
+    }
+
     @Test
     public void testFlush() throws Throwable
     {
@@ -835,6 +1094,215 @@ public class RawDatabaseTests
         });
     }
     
+    @Test
+    public void testConcurrentReadTransactions() throws Throwable
+    {
+        database.stop();
+        
+        configuration = builder.setReaderThreadCount(3).toConfiguration();
+        database = new RawDatabaseFactory().createDatabase(configuration);
+        database.start();
+        
+        database.transactionSync(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                for (int i = 0; i < 10; i++)
+                    writeRegion(i, transaction.getPage(0, i).getWriteRegion());
+            }
+        });
+        
+        final CountDownLatch queuedLatch = new CountDownLatch(1);
+        database.transaction(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                try
+                {
+                    queuedLatch.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+                
+                writeRegion(10, transaction.getPage(0, 10).getWriteRegion());
+            }
+        });
+        
+        final int count = 16;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final CountDownLatch concurrentLatch = new CountDownLatch(2);
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int k = 0; k < count; k++)
+        {
+            database.transaction(new RawOperation(true)
+            {
+                @Override
+                public void run(IRawTransaction transaction)
+                {
+                    try
+                    {
+                        threads.add(Thread.currentThread());
+                        assertThat(transaction.isReadOnly(), is(true));
+                        
+                        for (int i = 0; i <= 10; i++)
+                        {
+                            IRawPage page = transaction.getPage(0, i);
+                            assertThat(page.isReadOnly(), is(true));
+                            checkRegion(page.getReadRegion(), createBuffer(i, 0x800));
+                        }
+                        
+                        concurrentLatch.countDown();
+                        assertTrue(concurrentLatch.await(10, TimeUnit.SECONDS));
+                    }
+                    catch (Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        queuedLatch.countDown();
+        
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertThat(errors.isEmpty(), is(true));
+        assertTrue(threads.size() > 1);
+        
+        database.transactionSync(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                writeRegion(11, transaction.getPage(0, 0).getWriteRegion());
+            }
+        });
+        
+        database.transactionSync(new RawOperation(true)
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                checkRegion(transaction.getPage(0, 0).getReadRegion(), createBuffer(11, 0x800));
+            }
+        });
+    }
+    
+    @Test
+    public void testConcurrentReadTransactionsPageCacheOverflow() throws Throwable
+    {
+        database.stop();
+        
+        File tempDir = new File(System.getProperty("java.io.tmpdir"), "db");
+        configuration = new RawDatabaseConfigurationBuilder().addPath(tempDir.getPath()).setFlushPeriod(0x8000).setReaderThreadCount(3)
+            .addPageType("normal", 0x800)
+                .getDefaultPageCategory().setMaxPageIdlePeriod(1000000).setMinPageCachePercentage(90).setInitialPageCacheSize(20480).end()
+            .end()
+            .setResourceAllocator(new RootResourceAllocatorConfigurationBuilder().setDefaultPolicy(
+                new FixedAllocationPolicyConfigurationBuilder().addQuota("<default>", 20480).toConfiguration())
+                .toConfiguration()).toConfiguration();
+        database = new RawDatabaseFactory().createDatabase(configuration);
+        database.start();
+        
+        final int pageCount = 100;
+        for (int k = 0; k < pageCount; k += 10)
+        {
+            final int start = k;
+            database.transactionSync(new RawOperation()
+            {
+                @Override
+                public void run(IRawTransaction transaction)
+                {
+                    for (int i = start; i < start + 10; i++)
+                        writeRegion(i, transaction.getPage(0, i).getWriteRegion());
+                }
+            });
+        }
+        
+        final RawPageCache pageCache = database.getPageTypeManager().getPageType(0).getExistingPageCache("");
+        
+        final CountDownLatch queuedLatch = new CountDownLatch(1);
+        database.transaction(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+                try
+                {
+                    queuedLatch.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        
+        final int count = 20;
+        final int transactionPageCount = pageCount / count;
+        final CountDownLatch latch = new CountDownLatch(count);
+        final AtomicLong maxPageCacheSize = new AtomicLong();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int k = 0; k < count; k++)
+        {
+            final int start = k * transactionPageCount;
+            database.transaction(new RawOperation(true)
+            {
+                @Override
+                public void run(IRawTransaction transaction)
+                {
+                    try
+                    {
+                        for (int i = start; i < start + transactionPageCount; i++)
+                        {
+                            checkRegion(transaction.getPage(0, i).getReadRegion(), createBuffer(i, 0x800));
+                            
+                            long pageCacheSize = pageCache.getPageCacheSize();
+                            while (true)
+                            {
+                                long size = maxPageCacheSize.get();
+                                if (pageCacheSize <= size || maxPageCacheSize.compareAndSet(size, pageCacheSize))
+                                    break;
+                            }
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        errors.add(e);
+                    }
+                    finally
+                    {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        queuedLatch.countDown();
+        
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertThat(errors.isEmpty(), is(true));
+        
+        database.transactionSync(new RawOperation()
+        {
+            @Override
+            public void run(IRawTransaction transaction)
+            {
+            }
+        });
+        
+        int concurrentCount = configuration.getReaderThreadCount() + 1;
+        assertTrue(maxPageCacheSize.get() <= pageCache.getMaxPageCacheSize() + concurrentCount * transactionPageCount * 0x800);
+        assertTrue(maxPageCacheSize.get() < pageCount * 0x800);
+        assertTrue(pageCache.getPageCacheSize() <= pageCache.getMaxPageCacheSize());
+    }
+    
     @Test
     public void testReadOnlyFiles() throws Throwable
     {
@@ -35,6 +35,8 @@ import com.exametrika.common.rawdb.RawRollbackException;
 import com.exametrika.common.rawdb.RawTransactionReadOnlyException;
 import com.exametrika.common.rawdb.config.RawDatabaseConfiguration;
 import com.exametrika.common.rawdb.config.RawDatabaseConfigurationBuilder;
+import com.exametrika.common.rawdb.config.RawPageCategoryTypeConfiguration;
+import com.exametrika.common.rawdb.config.RawPageCategoryTypeConfiguration.EvictionPolicy;
 import com.exametrika.common.rawdb.impl.RawDataFile;
 import com.exametrika.common.rawdb.impl.RawDatabase;
 import com.exametrika.common.rawdb.impl.RawDatabaseFactory;
@@ -43,6 +45,7 @@ import com.exametrika.common.rawdb.impl.RawHeapReadRegion;
 import com.exametrika.common.rawdb.impl.RawPage;
 import com.exametrika.common.rawdb.impl.RawPageCache;
 import com.exametrika.common.rawdb.impl.RawPageManager;
+import com.exametrika.common.rawdb.impl.RawPageProxy;
 import com.exametrika.common.rawdb.impl.RawTransaction;
 import com.exametrika.common.rawdb.impl.RawTransactionLog.FlushInfo;
 import com.exametrika.common.rawdb.impl.RawTransactionManager;
@@ -578,6 +581,97 @@ public class RawDatabaseUnitTests
         assertTrue(Tests.get(file1, "file") == null);
     }
     
+    @Test
+    public void testPageCacheSegmentedLru() throws Throwable
+    {
+        RawFileCache fileCache = database.getFileCache();
+        RawPageCache pageCache = database.getPageTypeManager().getPageType(0).getExistingPageCache("");
+        pageCache.setConfiguration(new RawPageCategoryTypeConfiguration("", 10000000, 90, 10000, EvictionPolicy.SEGMENTED_LRU, 50, 0));
+        pageCache.setBatchMaxPageCacheSize(20 * 0x800);
+        
+        RawBindInfo info = new RawBindInfo();
+        info.setName("file1");
+        info.setPathIndex(1);
+        RawDataFile file1 = fileCache.bindFile(10, false, info);
+        RawPage[] pages = new RawPage[6];
+        for (int i = 0; i < pages.length; i++)
+            pages[i] = file1.getPage(i, false, true, null);
+        
+        Tests.set(pageCache, "refreshIndex", 100);
+        for (int i = 0; i < 3; i++)
+            pages[i].refresh();
+        
+        for (int i = 0; i < pages.length; i++)
+        {
+            assertThat(pages[i].isProtected(), is(i < 3));
+            assertThat(((SimpleList)Tests.get(pageCache, "protectedPages")).find(pages[i]) != null, is(i < 3));
+            assertThat(((SimpleList)Tests.get(pageCache, "pages")).find(pages[i]) != null, is(i >= 3));
+        }
+        
+        RawPageProxy[] proxies = new RawPageProxy[pages.length];
+        for (int i = 0; i < pages.length; i++)
+            proxies[i] = pages[i].getProxy();
+        
+        for (int i = pages.length; i < 40; i++)
+            file1.getPage(i, false, true, null);
+        
+        assertTrue((Long)Tests.get(pageCache, "pageCacheSize") <= 20 * 0x800);
+        for (int i = 0; i < pages.length; i++)
+            assertThat(proxies[i].isLoaded(), is(i < 3));
+        assertThat((Long)Tests.get(pageCache, "protectedPageCount"), is(3l));
+        
+        for (int i = 0; i < 3; i++)
+            pageCache.removePage(pages[i]);
+        assertThat((Long)Tests.get(pageCache, "protectedPageCount"), is(0l));
+        assertTrue(((SimpleList)Tests.get(pageCache, "protectedPages")).isEmpty());
+    }
+    
+    @Test
+    public void testPageCacheWriteback() throws Throwable
+    {
+        RawFileCache fileCache = database.getFileCache();
+        RawPageManager pageManager = database.getPageManager();
+        pageManager.getTimer().removeTimerListener(pageManager);
+        RawPageCache pageCache = database.getPageTypeManager().getPageType(0).getExistingPageCache("");
+        pageCache.setConfiguration(new RawPageCategoryTypeConfiguration("", 10000000, 90, 1000000, EvictionPolicy.LRU, 80, 50));
+        pageCache.setBatchMaxPageCacheSize(10 * 0x800);
+        
+        RawBindInfo info = new RawBindInfo();
+        info.setName("file1");
+        info.setPathIndex(1);
+        RawDataFile file1 = fileCache.bindFile(10, false, info);
+        RawPage page1 = file1.getPage(0, false, true, null);
+        RawPage page2 = file1.getPage(1, false, true, null);
+        
+        RawTestOperation operation = new RawTestOperation();
+        final RawTransactionManager transactionManager = database.getTransactionManager();
+        RawTransaction transaction = new RawTransaction(operation, transactionManager, new Object());
+        transactionManager.setTransaction(transaction);
+        
+        page1.getWriteRegion().writeLong(0, Long.MAX_VALUE);
+        page2.getWriteRegion().writeLong(0, Long.MIN_VALUE);
+        pageManager.commit(0);
+        
+        pageCache.onTimer(0);
+        assertThat(((SimpleList)Tests.get(pageManager, "committedPages")).isEmpty(), is(false));
+        assertThat((Boolean)Tests.get(pageManager, "writebackRequested"), is(false));
+        
+        for (int i = 2; i < 8; i++)
+            file1.getPage(i, false, true, null);
+        
+        pageCache.onTimer(0);
+        assertThat(((SimpleList)Tests.get(pageManager, "committedPages")).isEmpty(), is(true));
+        assertThat((Boolean)Tests.get(pageManager, "writebackRequested"), is(true));
+        assertThat(((List)Tests.get(pageManager, "flushedPages")).size(), is(2));
+        assertThat(page1.isFlushing(), is(true));
+        
+        pageManager.onTimer();
+        assertThat((Boolean)Tests.get(pageManager, "writebackRequested"), is(false));
+        assertThat(((List)Tests.get(pageManager, "flushedPages")).isEmpty(), is(true));
+        assertThat(page1.isFlushing(), is(false));
+        assertThat(page2.isFlushing(), is(false));
+    }
+    
     @SuppressWarnings("deprecation")
     @Test
     public void testPageCacheFiles() throws Throwable
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2008 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.common.tasks;
+
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.exametrika.common.tasks.impl.TimingWheel;
+import com.exametrika.common.tasks.impl.TimingWheel.Timeout;
+
+
+/**
+ * The {@link TimingWheelTests} are tests for {@link TimingWheel} class.
+ *
+ * @see TimingWheel
+ * @author Medvedev_A
+ */
+public class TimingWheelTests
+{
+    @Test
+    public void testWheel() throws Throwable
+    {
+        TimingWheel<Integer> wheel = new TimingWheel<Integer>(1000);
+        assertThat(wheel.getNextTime(), is(Long.MAX_VALUE));
+
+        wheel.schedule(1, 1010);
+        wheel.schedule(2, 1010);
+        wheel.schedule(3, 5000);
+        Timeout<Integer> timeout4 = wheel.schedule(4, 2000);
+        wheel.schedule(5, 500);
+        assertThat(wheel.getSize(), is(5));
+        assertThat(wheel.getNextTime(), is(1000L));
+
+        List<Integer> expired = new ArrayList<Integer>();
+        wheel.advance(1000, expired);
+        assertThat(expired, is(Arrays.asList(5)));
+        assertThat(wheel.getTime(), is(1001L));
+        expired.clear();
+
+        assertThat(wheel.getNextTime(), is(1010L));
+        wheel.advance(1009, expired);
+        assertThat(expired.isEmpty(), is(true));
+
+        wheel.advance(1010, expired);
+        assertThat(expired, is(Arrays.asList(1, 2)));
+        expired.clear();
+
+        assertThat(wheel.cancel(timeout4), is(true));
+        assertThat(timeout4.isScheduled(), is(false));
+        assertThat(wheel.cancel(timeout4), is(false));
+
+        wheel.reschedule(timeout4, 4000);
+        assertThat(timeout4.isScheduled(), is(true));
+        assertThat(timeout4.getDeadline(), is(4000L));
+
+        wheel.advance(3999, expired);
+        assertThat(expired.isEmpty(), is(true));
+        wheel.advance(4500, expired);
+        assertThat(expired, is(Arrays.asList(4)));
+        expired.clear();
+
+        wheel.advance(10000, expired);
+        assertThat(expired, is(Arrays.asList(3)));
+        assertThat(wheel.isEmpty(), is(true));
+        expired.clear();
+
+        wheel.schedule(6, 100000000000L);
+        wheel.advance(99999999999L, expired);
+        assertThat(expired.isEmpty(), is(true));
+        wheel.advance(100000000000L, expired);
+        assertThat(expired, is(Arrays.asList(6)));
+    }
+
+    @Test
+    public void testRandomTimeouts() throws Throwable
+    {
+        Random random = new Random(12345);
+        long time = 1234567;
+        TimingWheel<Long> wheel = new TimingWheel<Long>(time);
+        List<Timeout<Long>> timeouts = new ArrayList<Timeout<Long>>();
+        List<Long> deadlines = new ArrayList<Long>();
+        for (int i = 0; i < 10000; i++)
+        {
+            long deadline = time + random.nextInt(1 << (1 + random.nextInt(30)));
+            timeouts.add(wheel.schedule(deadline, deadline));
+        }
+
+        for (int i = 0; i < timeouts.size(); i++)
+        {
+            if (i % 3 == 0)
+                wheel.cancel(timeouts.get(i));
+            else
+                deadlines.add(timeouts.get(i).getTask());
+        }
+
+        Collections.sort(deadlines);
+
+        List<Long> expired = new ArrayList<Long>();
+        List<Long> allExpired = new ArrayList<Long>();
+        while (!wheel.isEmpty())
+        {
+            long nextTime = wheel.getNextTime();
+            assertThat(nextTime >= wheel.getTime(), is(true));
+
+            time += random.nextInt(1 << (1 + random.nextInt(24)));
+            wheel.advance(time, expired);
+            for (Long deadline : expired)
+                assertThat(deadline <= time, is(true));
+
+            Collections.sort(expired);
+            allExpired.addAll(expired);
+            expired.clear();
+
+            int expiredCount = 0;
+            while (expiredCount < deadlines.size() && deadlines.get(expiredCount) <= time)
+                expiredCount++;
+            assertThat(allExpired.size(), is(expiredCount));
+        }
+
+        assertThat(allExpired, is(deadlines));
+    }
+}
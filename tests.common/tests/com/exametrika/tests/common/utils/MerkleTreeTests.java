@@ -0,0 +1,141 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.common.utils;
+
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.exametrika.common.utils.MerkleTree;
+
+
+/**
+ * The {@link MerkleTreeTests} are tests for {@link MerkleTree}.
+ * 
+ * @see MerkleTree
+ * @author Medvedev-A
+ */
+public class MerkleTreeTests
+{
+    @Test
+    public void testUpdate() throws Exception
+    {
+        MerkleTree tree1 = new MerkleTree(8);
+        MerkleTree tree2 = new MerkleTree(8);
+        long emptyRoot = tree1.getRoot();
+        assertThat(tree2.getRoot(), is(emptyRoot));
+        assertThat(tree1.getLeafCount(), is(256));
+        
+        List<Integer> keys = new ArrayList<Integer>();
+        for (int i = 0; i < 1000; i++)
+            keys.add(i);
+        
+        for (int key : keys)
+            tree1.add(key, hash(key, 0));
+        
+        Collections.shuffle(keys);
+        for (int key : keys)
+            tree2.add(key, hash(key, 0));
+        
+        assertThat(tree1.getRoot(), is(tree2.getRoot()));
+        assertThat(tree1.getRoot(), not(emptyRoot));
+        
+        tree1.replace(10, hash(10, 0), hash(10, 1));
+        assertThat(tree1.getRoot(), not(tree2.getRoot()));
+        tree2.remove(10, hash(10, 0));
+        tree2.add(10, hash(10, 1));
+        assertThat(tree1.getRoot(), is(tree2.getRoot()));
+        
+        for (int key : keys)
+            tree1.remove(key, key == 10 ? hash(key, 1) : hash(key, 0));
+        assertThat(tree1.getRoot(), is(emptyRoot));
+        
+        tree2.clear();
+        assertThat(tree2.getRoot(), is(emptyRoot));
+        
+        for (int i = 0; i < 1000; i++)
+        {
+            int leaf = tree1.getLeaf(i);
+            assertThat(leaf >= 0 && leaf < tree1.getLeafCount(), is(true));
+        }
+        
+        byte[] buffer = {1, 2, 3, 4};
+        assertThat(MerkleTree.hash(buffer, 0, 4), is(MerkleTree.hash(buffer.clone(), 0, 4)));
+        assertThat(MerkleTree.hash(buffer, 0, 4), not(MerkleTree.hash(buffer, 0, 3)));
+    }
+    
+    @Test
+    public void testDescent() throws Exception
+    {
+        MerkleTree tree1 = new MerkleTree(10);
+        MerkleTree tree2 = new MerkleTree(10);
+        for (int i = 0; i < 10000; i++)
+        {
+            tree1.add(i, hash(i, 0));
+            tree2.add(i, hash(i, 0));
+        }
+        
+        tree2.replace(123, hash(123, 0), hash(123, 1));
+        tree2.remove(4567, hash(4567, 0));
+        
+        List<Integer> indexes = Arrays.asList(0);
+        int comparisonCount = 0;
+        for (int level = 1; level <= tree1.getDepth(); level++)
+        {
+            List<Integer> differingIndexes = new ArrayList<Integer>();
+            for (int index : indexes)
+            {
+                for (int child = 2 * index; child <= 2 * index + 1; child++)
+                {
+                    comparisonCount++;
+                    if (tree1.getHash(level, child) != tree2.getHash(level, child))
+                        differingIndexes.add(child);
+                }
+            }
+            
+            indexes = differingIndexes;
+        }
+        
+        List<Integer> expected = new ArrayList<Integer>(Arrays.asList(tree1.getLeaf(123), tree1.getLeaf(4567)));
+        Collections.sort(expected);
+        assertThat(indexes, is(expected));
+        assertThat(comparisonCount <= 4 * tree1.getDepth(), is(true));
+        assertThat(tree1.getHash(0, 0), is(tree1.getRoot()));
+    }
+    
+    @Test
+    public void testCopy() throws Exception
+    {
+        MerkleTree tree = new MerkleTree(6);
+        for (int i = 0; i < 100; i++)
+            tree.add(i, hash(i, 0));
+        
+        MerkleTree copy = tree.copy();
+        assertThat(copy.getDepth(), is(6));
+        assertThat(copy.getRoot(), is(tree.getRoot()));
+        
+        long root = tree.getRoot();
+        long leafHash = tree.getHash(6, tree.getLeaf(10));
+        tree.replace(10, hash(10, 0), hash(10, 1));
+        assertThat(tree.getRoot(), not(root));
+        assertThat(copy.getRoot(), is(root));
+        assertThat(copy.getHash(6, copy.getLeaf(10)), is(leafHash));
+        
+        copy.replace(10, hash(10, 0), hash(10, 1));
+        assertThat(copy.getRoot(), is(tree.getRoot()));
+    }
+    
+    private static long hash(int key, int version)
+    {
+        byte[] buffer = (key + ":" + version).getBytes();
+        return MerkleTree.hash(buffer, 0, buffer.length);
+    }
+}
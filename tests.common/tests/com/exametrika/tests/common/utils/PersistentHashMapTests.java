@@ -0,0 +1,220 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.common.utils;
+
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.exametrika.common.utils.PersistentHashMap;
+
+
+/**
+ * The {@link PersistentHashMapTests} are tests for {@link PersistentHashMap}.
+ *
+ * @see PersistentHashMap
+ * @author Medvedev-A
+ */
+public class PersistentHashMapTests
+{
+    @Test
+    public void testMap()
+    {
+        PersistentHashMap<Integer, String> map = PersistentHashMap.empty();
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.get(1), nullValue());
+
+        PersistentHashMap<Integer, String> map1 = map.put(1, "1");
+        PersistentHashMap<Integer, String> map2 = map1.put(2, "2");
+        PersistentHashMap<Integer, String> map3 = map2.put(1, "11");
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map1.size(), is(1));
+        assertThat(map1.get(1), is("1"));
+        assertThat(map1.get(2), nullValue());
+        assertThat(map2.size(), is(2));
+        assertThat(map2.get(1), is("1"));
+        assertThat(map2.get(2), is("2"));
+        assertThat(map3.size(), is(2));
+        assertThat(map3.get(1), is("11"));
+        assertThat(map3.put(1, map3.get(1)) == map3, is(true));
+        assertThat(map3.remove(3) == map3, is(true));
+
+        PersistentHashMap<Integer, String> map4 = map3.remove(1);
+        assertThat(map4.size(), is(1));
+        assertThat(map4.get(1), nullValue());
+        assertThat(map3.get(1), is("11"));
+        assertThat(map4.remove(2).isEmpty(), is(true));
+    }
+
+    @Test
+    public void testCollisions()
+    {
+        PersistentHashMap<TestKey, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100; i++)
+            map = map.put(new TestKey(i, i % 3), i);
+
+        assertThat(map.size(), is(100));
+        for (int i = 0; i < 100; i++)
+            assertThat(map.get(new TestKey(i, i % 3)), is(i));
+
+        for (int i = 0; i < 100; i += 2)
+            map = map.remove(new TestKey(i, i % 3));
+
+        assertThat(map.size(), is(50));
+        for (int i = 0; i < 100; i++)
+            assertThat(map.get(new TestKey(i, i % 3)), is(i % 2 == 0 ? null : i));
+
+        assertThat(toMap(map).size(), is(50));
+    }
+
+    @Test
+    public void testRandomOperations()
+    {
+        Random random = new Random(12345);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 100000; i++)
+        {
+            int key = random.nextInt(10000) * (random.nextBoolean() ? 1 : 0x10000);
+            if (random.nextInt(3) == 0)
+            {
+                expected.remove(key);
+                map = map.remove(key);
+            }
+            else
+            {
+                expected.put(key, i);
+                map = map.put(key, i);
+            }
+
+            assertThat(map.size(), is(expected.size()));
+            assertThat(map.get(key), is(expected.get(key)));
+        }
+
+        assertThat(toMap(map), is(expected));
+
+        for (Integer key : expected.keySet())
+            map = map.remove(key);
+
+        assertThat(map.isEmpty(), is(true));
+        assertThat(map.iterator().hasNext(), is(false));
+    }
+
+    @Test
+    public void testDiff()
+    {
+        Random random = new Random(12345);
+        PersistentHashMap<TestKey, Integer> oldMap = PersistentHashMap.empty();
+        for (int i = 0; i < 2000; i++)
+            oldMap = oldMap.put(new TestKey(i, i % 700), i);
+
+        Map<TestKey, Integer> diff = new HashMap<TestKey, Integer>();
+        oldMap.diff(oldMap, new DiffHandler(diff));
+        assertThat(diff.isEmpty(), is(true));
+
+        for (int k = 0; k < 10; k++)
+        {
+            Map<TestKey, Integer> expected = new HashMap<TestKey, Integer>();
+            PersistentHashMap<TestKey, Integer> newMap = oldMap;
+            for (int i = 0; i < 100; i++)
+            {
+                int value = random.nextInt(3000);
+                TestKey key = new TestKey(value, value % 700);
+                if (random.nextInt(3) == 0)
+                    newMap = newMap.remove(key);
+                else
+                    newMap = newMap.put(key, 10000 * (k + 1) + i);
+            }
+
+            Map<TestKey, Integer> oldValues = toMap(oldMap);
+            Map<TestKey, Integer> newValues = toMap(newMap);
+            for (Map.Entry<TestKey, Integer> entry : oldValues.entrySet())
+            {
+                if (!newValues.containsKey(entry.getKey()))
+                    expected.put(entry.getKey(), -entry.getValue() - 1);
+            }
+            for (Map.Entry<TestKey, Integer> entry : newValues.entrySet())
+            {
+                if (!entry.getValue().equals(oldValues.get(entry.getKey())))
+                    expected.put(entry.getKey(), entry.getValue());
+            }
+
+            diff.clear();
+            newMap.diff(oldMap, new DiffHandler(diff));
+            assertThat(diff, is(expected));
+            oldMap = newMap;
+        }
+    }
+
+    private static <K, V> Map<K, V> toMap(PersistentHashMap<K, V> map)
+    {
+        Map<K, V> result = new HashMap<K, V>();
+        for (Map.Entry<K, V> entry : map)
+            assertThat(result.put(entry.getKey(), entry.getValue()), nullValue());
+
+        return result;
+    }
+
+    private static class DiffHandler implements PersistentHashMap.IDiffHandler<TestKey, Integer>
+    {
+        private final Map<TestKey, Integer> diff;
+
+        public DiffHandler(Map<TestKey, Integer> diff)
+        {
+            this.diff = diff;
+        }
+
+        @Override
+        public void onAdded(TestKey key, Integer value)
+        {
+            assertThat(diff.put(key, value), nullValue());
+        }
+
+        @Override
+        public void onRemoved(TestKey key, Integer value)
+        {
+            assertThat(diff.put(key, -value - 1), nullValue());
+        }
+
+        @Override
+        public void onChanged(TestKey key, Integer oldValue, Integer newValue)
+        {
+            assertThat(oldValue.equals(newValue), is(false));
+            assertThat(diff.put(key, newValue), nullValue());
+        }
+    }
+
+    private static class TestKey
+    {
+        private final int value;
+        private final int hash;
+
+        public TestKey(int value, int hash)
+        {
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof TestKey))
+                return false;
+
+            return value == ((TestKey)o).value;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
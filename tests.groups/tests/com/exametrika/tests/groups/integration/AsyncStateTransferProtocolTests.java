@@ -83,6 +83,8 @@ import com.exametrika.spi.groups.cluster.discovery.IDiscoveryStrategy;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateStore;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferClient;
 import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferServer;
+import com.exametrika.spi.groups.cluster.state.IDeltaStateTransferClient;
+import com.exametrika.spi.groups.cluster.state.IDeltaStateTransferServer;
 import com.exametrika.spi.groups.cluster.state.IStateStore;
 import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
 import com.exametrika.tests.common.messaging.ReceiverMock;
@@ -97,6 +99,7 @@ import com.exametrika.tests.groups.mocks.PropertyProviderMock;
 public class AsyncStateTransferProtocolTests
 {
     private static final int COUNT = 10;
+    private static final String CHECKPOINT = "checkpoint";
     private TestGroupChannel[] channels = new TestGroupChannel[COUNT];
     private Sequencer flushSequencer = new Sequencer();
     private Sequencer snapshotSequencer = new Sequencer();
@@ -175,6 +178,28 @@ public class AsyncStateTransferProtocolTests
         checkMembership(channelFactory, Collections.<Integer>asSet());
     }
     
+    @Test
+    public void testDeltaStateTransfer() throws Exception
+    {
+        Set<String> wellKnownAddresses = new ConcurrentHashMap<String, String>().keySet("");
+        TestChannelFactory channelFactory = new TestChannelFactory(new WellKnownAddressesDiscoveryStrategy(wellKnownAddresses));
+        createGroup(wellKnownAddresses, channelFactory, Collections.<Integer>asSet(0, 1));
+         
+        Threads.sleep(10000);
+         
+        checkMembership(channelFactory, Collections.<Integer>asSet(0, 1));
+        
+        channelFactory.stateTransferFactories.get(0).state = createBuffer(0, 100);
+        channels[0].start();
+        channels[1].start();
+        
+        Threads.sleep(10000);
+        
+        checkMembership(channelFactory, Collections.<Integer>asSet());
+        assertThat(channelFactory.stateTransferFactories.get(0).deltaLoaded, is(true));
+        assertThat(channelFactory.stateTransferFactories.get(1).deltaLoaded, is(false));
+    }
+    
     @Test
     public void testClientFailureBeforeFlush() throws Exception
     {
@@ -551,7 +576,7 @@ public class AsyncStateTransferProtocolTests
         }
     }
 
-    private class TestStateTransferServer implements IAsyncStateTransferServer
+    private class TestStateTransferServer implements IDeltaStateTransferServer
     {
         TestStateTransferFactory factory;
         
@@ -575,9 +600,19 @@ public class AsyncStateTransferProtocolTests
             if (factory.state != null)
                 Files.writeBytes(file, factory.state);
         }
+        
+        @Override
+        public boolean saveDelta(String checkpoint, File file)
+        {
+            if (!checkpoint.equals(CHECKPOINT))
+                return false;
+            
+            saveSnapshot(true, file);
+            return true;
+        }
     }
     
-    private class TestStateTransferClient implements IAsyncStateTransferClient
+    private class TestStateTransferClient implements IDeltaStateTransferClient
     {
         TestStateTransferFactory factory;
         
@@ -593,11 +628,28 @@ public class AsyncStateTransferProtocolTests
             if (factory.trackSnapshot)
                 snapshotSequencer.allowSingle();
         }
+        
+        @Override
+        public String getCheckpoint()
+        {
+            if (factory.state != null)
+                return CHECKPOINT;
+            else
+                return null;
+        }
+        
+        @Override
+        public void loadDelta(File file)
+        {
+            factory.deltaLoaded = true;
+            loadSnapshot(true, file);
+        }
     }
     
     private class TestStateTransferFactory implements IStateTransferFactory
     {
         private boolean trackSnapshot;
+        private volatile boolean deltaLoaded;
         private ByteArray state;
         private TestStateStore stateStore;
         
@@ -829,6 +881,7 @@ public class AsyncStateTransferProtocolTests
         private long saveSnapshotPeriod = 10000;
         private long transferLogRecordPeriod = 1000;
         private int transferLogMessagesCount = 2;
+        private int stateTransferChunkSize = 16384;
         private int minLockQueueCapacity = 10000000;
         private List<TestStateTransferFactory> stateTransferFactories = new ArrayList<TestStateTransferFactory>();
         private CoreGroupMembershipTracker membershipTracker;
@@ -890,7 +943,7 @@ public class AsyncStateTransferProtocolTests
             
             AsyncStateTransferServerProtocol stateTransferServerProtocol = new AsyncStateTransferServerProtocol(channelName, 
                 messageFactory, membershipManager, failureDetectionProtocol, stateTransferFactory, serializationRegistry, 
-                saveSnapshotPeriod, transferLogRecordPeriod, transferLogMessagesCount, minLockQueueCapacity,
+                saveSnapshotPeriod, transferLogRecordPeriod, transferLogMessagesCount, stateTransferChunkSize, minLockQueueCapacity,
                 GroupMemberships.CORE_GROUP_ADDRESS, GroupMemberships.CORE_GROUP_ID);
             protocols.add(stateTransferServerProtocol);
             
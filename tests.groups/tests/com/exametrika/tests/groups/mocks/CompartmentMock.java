@@ -0,0 +1,184 @@
+/**
+ * Copyright 2017 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.groups.mocks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.compartment.ICompartmentGroup;
+import com.exametrika.common.compartment.ICompartmentProcessor;
+import com.exametrika.common.compartment.ICompartmentTask;
+import com.exametrika.common.compartment.ICompartmentTimerProcessor;
+
+public class CompartmentMock implements ICompartment
+{
+    public List<Object> tasks = new ArrayList<Object>();
+    public long time;
+
+    public void runTasks()
+    {
+        while (!tasks.isEmpty())
+        {
+            Object task = tasks.remove(0);
+            if (task instanceof Runnable)
+                ((Runnable)task).run();
+            else
+            {
+                ICompartmentTask compartmentTask = (ICompartmentTask)task;
+                Object result;
+                try
+                {
+                    result = compartmentTask.execute();
+                }
+                catch (Throwable e)
+                {
+                    compartmentTask.onFailed(e);
+                    continue;
+                }
+                
+                compartmentTask.onSucceeded(result);
+            }
+        }
+    }
+    
+    @Override
+    public String getName()
+    {
+        return "test";
+    }
+
+    @Override
+    public long getDispatchPeriod()
+    {
+        return 0;
+    }
+
+    @Override
+    public void setDispatchPeriod(long period)
+    {
+    }
+
+    @Override
+    public int getMinLockQueueCapacity()
+    {
+        return 0;
+    }
+
+    @Override
+    public void setMinLockQueueCapacity(int value)
+    {
+    }
+
+    @Override
+    public int getMaxUnlockQueueCapacity()
+    {
+        return 0;
+    }
+
+    @Override
+    public void setMaxUnlockQueueCapacity(int value)
+    {
+    }
+
+    @Override
+    public int getTaskBatchSize()
+    {
+        return 0;
+    }
+
+    @Override
+    public void setTaskBatchSize(int value)
+    {
+    }
+
+    @Override
+    public void start()
+    {
+    }
+
+    @Override
+    public void stop()
+    {
+    }
+
+    @Override
+    public void lockFlow(Object flow)
+    {
+    }
+
+    @Override
+    public void unlockFlow(Object flow)
+    {
+    }
+
+    @Override
+    public long getCurrentTime()
+    {
+        return time;
+    }
+
+    @Override
+    public ICompartmentGroup getGroup()
+    {
+        return null;
+    }
+
+    @Override
+    public void addTimerProcessor(ICompartmentTimerProcessor processor)
+    {
+    }
+
+    @Override
+    public void removeTimerProcessor(ICompartmentTimerProcessor processor)
+    {
+    }
+
+    @Override
+    public void addProcessor(ICompartmentProcessor processor)
+    {
+    }
+
+    @Override
+    public void removeProcessor(ICompartmentProcessor processor)
+    {
+    }
+
+    @Override
+    public void offer(ICompartmentTask task)
+    {
+        tasks.add(task);
+    }
+
+    @Override
+    public void offer(Runnable task)
+    {
+        tasks.add(task);
+    }
+
+    @Override
+    public void offer(List<?> tasks)
+    {
+        this.tasks.addAll(tasks);
+    }
+
+    @Override
+    public boolean execute(ICompartmentTask task)
+    {
+        tasks.add(task);
+        return true;
+    }
+
+    @Override
+    public boolean execute(Runnable task)
+    {
+        tasks.add(task);
+        return true;
+    }
+
+    @Override
+    public void wakeup()
+    {
+    }
+}
@@ -0,0 +1,413 @@
+/**
+ * Copyright 2013 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.groups.unit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.exametrika.common.io.impl.SerializationRegistry;
+import com.exametrika.common.messaging.IAddress;
+import com.exametrika.common.messaging.IMessage;
+import com.exametrika.common.messaging.impl.message.MessageFactory;
+import com.exametrika.common.messaging.impl.protocols.failuredetection.ICleanupManager;
+import com.exametrika.common.tests.Tests;
+import com.exametrika.common.utils.ByteArray;
+import com.exametrika.common.utils.Files;
+import com.exametrika.impl.groups.cluster.membership.GroupAddress;
+import com.exametrika.impl.groups.cluster.state.AsyncStateTransferClientProtocol;
+import com.exametrika.impl.groups.cluster.state.AsyncStateTransferServerProtocol;
+import com.exametrika.impl.groups.cluster.state.SnapshotChunkMessagePart;
+import com.exametrika.impl.groups.cluster.state.SnapshotChunkRequestMessagePart;
+import com.exametrika.spi.groups.cluster.state.IAsyncStateStore;
+import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferClient;
+import com.exametrika.spi.groups.cluster.state.IAsyncStateTransferServer;
+import com.exametrika.spi.groups.cluster.state.IStateStore;
+import com.exametrika.spi.groups.cluster.state.IStateTransferClient;
+import com.exametrika.spi.groups.cluster.state.IStateTransferFactory;
+import com.exametrika.spi.groups.cluster.state.IStateTransferServer;
+import com.exametrika.tests.common.messaging.ReceiverMock;
+import com.exametrika.tests.common.messaging.SenderMock;
+import com.exametrika.tests.groups.mocks.ChannelReconnectorMock;
+import com.exametrika.tests.groups.mocks.CompartmentMock;
+import com.exametrika.tests.groups.mocks.FailureDetectorMock;
+import com.exametrika.tests.groups.mocks.LiveNodeProviderMock;
+import com.exametrika.tests.groups.mocks.MembershipManagerMock;
+
+/**
+ * The {@link AsyncStateTransferProtocolUnitTests} are unit tests for {@link AsyncStateTransferClientProtocol} and
+ * {@link AsyncStateTransferServerProtocol} transferring snapshot in small chunks.
+ *
+ * @see AsyncStateTransferClientProtocol
+ * @see AsyncStateTransferServerProtocol
+ * @author Medvedev-A
+ */
+public class AsyncStateTransferProtocolUnitTests
+{
+    private static final int COUNT = 3;
+    private static final int CHUNK_SIZE = 100;
+    private static final int CHUNK_COUNT = 21;
+    private final GroupAddress groupAddress = new GroupAddress(UUID.randomUUID(), "test");
+    private ByteArray state;
+    private CompartmentMock compartment;
+    private Client client;
+    private List<Server> servers;
+    private Set<IAddress> failedNodes;
+    private Set<Integer> corruptedChunks;
+    private int corruptionCount;
+    private int chunkCount;
+    private final Set<Integer> requestedChunks = new HashSet<Integer>();
+
+    @Before
+    public void setUp()
+    {
+        byte[] buffer = new byte[(CHUNK_COUNT - 1) * CHUNK_SIZE + CHUNK_SIZE / 2];
+        new Random().nextBytes(buffer);
+        state = new ByteArray(buffer);
+
+        SerializationRegistry registry = new SerializationRegistry();
+        compartment = new CompartmentMock();
+        failedNodes = new HashSet<IAddress>();
+        corruptedChunks = new HashSet<Integer>();
+
+        client = new Client(registry);
+        servers = new ArrayList<Server>();
+        for (int i = 0; i < COUNT; i++)
+            servers.add(new Server(registry, "server" + i));
+    }
+
+    @Test
+    public void testMultiChunkTransfer() throws Throwable
+    {
+        start(1);
+
+        routeMessages();
+        for (Server server : servers)
+            assertThat(server.sender.messages.isEmpty(), is(true));
+
+        deliver();
+
+        assertThat(client.stateTransferFactory.loadedState, is(state));
+        assertThat(chunkCount, is(CHUNK_COUNT));
+        assertThat(client.channelReconnector.reconnectRequested, is(false));
+    }
+
+    @Test
+    public void testResume() throws Throwable
+    {
+        start(2);
+
+        while (getReceivedChunks().cardinality() < CHUNK_COUNT / 2)
+            deliverRound();
+
+        IAddress server = Tests.get(getStateTransfer(), "server");
+        BitSet receivedChunks = (BitSet)getReceivedChunks().clone();
+        failedNodes.add(server);
+        client.protocol.cleanup(new CleanupManagerMock(), null, 0);
+        requestedChunks.clear();
+
+        IAddress newServer = Tests.get(getStateTransfer(), "server");
+        assertThat(newServer.equals(server), is(false));
+
+        deliver();
+
+        assertThat(client.stateTransferFactory.loadedState, is(state));
+        assertThat(requestedChunks.size(), is(CHUNK_COUNT - receivedChunks.cardinality()));
+        for (int index : requestedChunks)
+            assertThat(receivedChunks.get(index), is(false));
+        assertThat(client.channelReconnector.reconnectRequested, is(false));
+    }
+
+    @Test
+    public void testHelperFailover() throws Throwable
+    {
+        start(3);
+
+        List<IAddress> helpers = getHelpers();
+        while (helpers.isEmpty() || getHelperRequestedChunks(helpers.get(0)).isEmpty())
+        {
+            deliverRound();
+            helpers = getHelpers();
+        }
+
+        assertThat(helpers.size(), is(2));
+        IAddress helper = helpers.get(0);
+
+        failedNodes.add(helper);
+        client.protocol.cleanup(new CleanupManagerMock(), null, 0);
+        assertThat(getHelpers().contains(helper), is(false));
+
+        deliver();
+
+        assertThat(client.stateTransferFactory.loadedState, is(state));
+        assertThat(client.channelReconnector.reconnectRequested, is(false));
+    }
+
+    @Test
+    public void testInvalidSnapshot() throws Throwable
+    {
+        start(1);
+
+        corruptedChunks.add(3);
+        corruptionCount = 1;
+        deliver();
+
+        assertThat(client.stateTransferFactory.loadedState, is(state));
+        assertThat(chunkCount, is(2 * CHUNK_COUNT));
+        assertThat(client.channelReconnector.reconnectRequested, is(false));
+    }
+
+    @Test
+    public void testRepeatedInvalidSnapshot() throws Throwable
+    {
+        start(1);
+
+        corruptedChunks.add(3);
+        corruptionCount = Integer.MAX_VALUE;
+        deliver();
+
+        assertThat(client.stateTransferFactory.loadedState, nullValue());
+        assertThat(client.channelReconnector.reconnectRequested, is(true));
+    }
+
+    private void start(int serverCount)
+    {
+        List<IAddress> healthyMembers = new ArrayList<IAddress>();
+        for (int i = 0; i < serverCount; i++)
+            healthyMembers.add(servers.get(i).address);
+
+        client.protocol.onGroupDiscovered(healthyMembers);
+    }
+
+    private Object getStateTransfer() throws Throwable
+    {
+        return Tests.get(client.protocol, "stateTransfer");
+    }
+
+    private BitSet getReceivedChunks() throws Throwable
+    {
+        return Tests.get(getStateTransfer(), "receivedChunks");
+    }
+
+    private List<IAddress> getHelpers() throws Throwable
+    {
+        Map<IAddress, Object> sources = Tests.get(getStateTransfer(), "sources");
+        IAddress server = Tests.get(getStateTransfer(), "server");
+
+        List<IAddress> helpers = new ArrayList<IAddress>(sources.keySet());
+        helpers.remove(server);
+        return helpers;
+    }
+
+    private Set<Integer> getHelperRequestedChunks(IAddress helper) throws Throwable
+    {
+        Map<IAddress, Object> sources = Tests.get(getStateTransfer(), "sources");
+        return Tests.get(sources.get(helper), "requestedChunks");
+    }
+
+    private void deliver()
+    {
+        while (routeMessages() || !compartment.tasks.isEmpty())
+            compartment.runTasks();
+    }
+
+    private void deliverRound()
+    {
+        routeMessages();
+        compartment.runTasks();
+    }
+
+    private boolean routeMessages()
+    {
+        List<IMessage> messages = takeMessages(client.sender);
+        for (Server server : servers)
+            messages.addAll(takeMessages(server.sender));
+
+        for (IMessage message : messages)
+        {
+            if (failedNodes.contains(message.getSource()) || failedNodes.contains(message.getDestination()))
+                continue;
+            
+            if (message.getPart() instanceof SnapshotChunkRequestMessagePart)
+                requestedChunks.add(((SnapshotChunkRequestMessagePart)message.getPart()).getIndex());
+
+            if (message.getDestination().equals(client.address))
+            {
+                if (message.getPart() instanceof SnapshotChunkMessagePart)
+                {
+                    chunkCount++;
+                    message = corrupt(message);
+                }
+
+                client.protocol.receive(message);
+            }
+            else
+            {
+                for (Server server : servers)
+                {
+                    if (message.getDestination().equals(server.address))
+                        server.protocol.receive(message);
+                }
+            }
+        }
+
+        return !messages.isEmpty();
+    }
+
+    private IMessage corrupt(IMessage message)
+    {
+        SnapshotChunkMessagePart part = message.getPart();
+        if (corruptionCount == 0 || !corruptedChunks.contains(part.getIndex()))
+            return message;
+
+        corruptionCount--;
+
+        byte[] data = part.getData().toByteArray();
+        data[0]++;
+
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        for (Server server : servers)
+        {
+            if (server.address.equals(message.getSource()))
+                return server.messageFactory.create(client.address, new SnapshotChunkMessagePart(part.getIndex(),
+                    part.getOffset(), new ByteArray(data), crc.getValue()));
+        }
+
+        return message;
+    }
+
+    private List<IMessage> takeMessages(SenderMock sender)
+    {
+        List<IMessage> messages = new ArrayList<IMessage>(sender.messages);
+        sender.messages.clear();
+        return messages;
+    }
+
+    private class Client
+    {
+        private final IAddress address;
+        private final SenderMock sender = new SenderMock();
+        private final ChannelReconnectorMock channelReconnector = new ChannelReconnectorMock();
+        private final StateTransferFactoryMock stateTransferFactory = new StateTransferFactoryMock();
+        private final AsyncStateTransferClientProtocol protocol;
+
+        public Client(SerializationRegistry registry)
+        {
+            LiveNodeProviderMock liveNodeProvider = new LiveNodeProviderMock("client");
+            address = liveNodeProvider.localNode;
+            MessageFactory messageFactory = new MessageFactory(registry, liveNodeProvider);
+
+            protocol = new AsyncStateTransferClientProtocol("client", messageFactory, new MembershipManagerMock(),
+                stateTransferFactory, groupAddress.getId(), registry, Long.MAX_VALUE, 0);
+            protocol.setCompartment(compartment);
+            protocol.setChannelReconnector(channelReconnector);
+            protocol.setTimeService(compartment);
+            protocol.setSender(sender);
+            protocol.setReceiver(new ReceiverMock());
+        }
+    }
+
+    private class Server
+    {
+        private final IAddress address;
+        private final MessageFactory messageFactory;
+        private final SenderMock sender = new SenderMock();
+        private final AsyncStateTransferServerProtocol protocol;
+
+        public Server(SerializationRegistry registry, String name)
+        {
+            LiveNodeProviderMock liveNodeProvider = new LiveNodeProviderMock(name);
+            address = liveNodeProvider.localNode;
+            messageFactory = new MessageFactory(registry, liveNodeProvider);
+
+            protocol = new AsyncStateTransferServerProtocol(name, messageFactory, new MembershipManagerMock(),
+                new FailureDetectorMock(), new StateTransferFactoryMock(), registry, Long.MAX_VALUE, 1000, 100,
+                CHUNK_SIZE, 1000, groupAddress, groupAddress.getId());
+            protocol.setCompartment(compartment);
+            protocol.setTimeService(compartment);
+            protocol.setSender(sender);
+            protocol.setReceiver(new ReceiverMock());
+        }
+    }
+
+    private class CleanupManagerMock implements ICleanupManager
+    {
+        @Override
+        public boolean canCleanup(IAddress node)
+        {
+            return failedNodes.contains(node);
+        }
+    }
+
+    private class StateTransferFactoryMock implements IStateTransferFactory
+    {
+        private ByteArray loadedState;
+
+        @Override
+        public IStateStore createStore(UUID groupId)
+        {
+            return new IAsyncStateStore()
+            {
+                @Override
+                public boolean load(UUID id, File state)
+                {
+                    return false;
+                }
+
+                @Override
+                public void save(UUID id, File state)
+                {
+                }
+            };
+        }
+
+        @Override
+        public IStateTransferServer createServer(UUID groupId)
+        {
+            return new IAsyncStateTransferServer()
+            {
+                @Override
+                public MessageType classifyMessage(IMessage message)
+                {
+                    return MessageType.NON_STATE;
+                }
+
+                @Override
+                public void saveSnapshot(boolean full, File file)
+                {
+                    Files.writeBytes(file, state);
+                }
+            };
+        }
+
+        @Override
+        public IStateTransferClient createClient(UUID groupId)
+        {
+            return new IAsyncStateTransferClient()
+            {
+                @Override
+                public void loadSnapshot(boolean full, File file)
+                {
+                    loadedState = Files.readBytes(file);
+                }
+            };
+        }
+    }
+}
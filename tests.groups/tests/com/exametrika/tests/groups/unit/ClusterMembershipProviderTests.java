@@ -11,8 +11,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.junit.Test;
@@ -27,12 +29,21 @@ import com.exametrika.api.groups.cluster.INode;
 import com.exametrika.common.messaging.impl.transports.UnicastAddress;
 import com.exametrika.common.utils.Enums;
 import com.exametrika.common.utils.Pair;
+import com.exametrika.impl.groups.cluster.feedback.GroupFeedbackProvider;
+import com.exametrika.impl.groups.cluster.feedback.GroupState;
+import com.exametrika.impl.groups.cluster.feedback.IGroupState;
+import com.exametrika.impl.groups.cluster.feedback.INodeState;
+import com.exametrika.impl.groups.cluster.feedback.NodeFeedbackProvider;
+import com.exametrika.impl.groups.cluster.feedback.NodeState;
 import com.exametrika.impl.groups.cluster.membership.ClusterMembership;
 import com.exametrika.impl.groups.cluster.membership.ClusterMembershipDelta;
+import com.exametrika.impl.groups.cluster.membership.ConsistentHashWorkerToCoreMappingStrategy;
+import com.exametrika.impl.groups.cluster.membership.DefaultGroupMappingStrategy;
 import com.exametrika.impl.groups.cluster.membership.DefaultWorkerToCoreMappingStrategy;
 import com.exametrika.impl.groups.cluster.membership.DomainMembership;
 import com.exametrika.impl.groups.cluster.membership.DomainMembershipDelta;
 import com.exametrika.impl.groups.cluster.membership.Group;
+import com.exametrika.impl.groups.cluster.membership.GroupDefinition;
 import com.exametrika.impl.groups.cluster.membership.GroupAddress;
 import com.exametrika.impl.groups.cluster.membership.GroupChange;
 import com.exametrika.impl.groups.cluster.membership.GroupDelta;
@@ -425,8 +436,316 @@ public class ClusterMembershipProviderTests
         assertThat(delta.getNewCoreByWorkerMap(), is(map));
     }
     
+    @Test
+    public void testConsistentHashWorkerToCoreMappingStrategy()
+    {
+        ConsistentHashWorkerToCoreMappingStrategy strategy = new ConsistentHashWorkerToCoreMappingStrategy(100, 1.25);
+        
+        List<INode> coreNodes = new ArrayList<INode>();
+        for (int i = 0; i < 20; i++)
+            coreNodes.add(createNode("core" + i, "core", true));
+        List<INode> workerNodes = new ArrayList<INode>();
+        for (int i = 0; i < 5000; i++)
+            workerNodes.add(createNode("worker" + i, "domain1", true));
+        
+        Map<INode, INode> map = strategy.mapWorkers(coreNodes, workerNodes, null);
+        assertThat(map.size(), is(workerNodes.size()));
+        Map<INode, Integer> counts = getCounts(map);
+        for (INode node : coreNodes)
+            assertTrue(counts.get(node) <= Math.ceil(1.25 * 5000 / 20));
+        
+        assertThat(strategy.mapWorkers(coreNodes, workerNodes, map), is(map));
+        
+        INode joinedCore = createNode("core20", "core", true);
+        coreNodes.add(joinedCore);
+        Map<INode, INode> newMap = strategy.mapWorkers(coreNodes, workerNodes, map);
+        assertThat(newMap.size(), is(workerNodes.size()));
+        int moved = 0;
+        for (INode node : workerNodes)
+        {
+            if (!newMap.get(node).equals(map.get(node)))
+            {
+                assertThat(newMap.get(node), is(joinedCore));
+                moved++;
+            }
+        }
+        counts = getCounts(newMap);
+        assertThat(counts.get(joinedCore), is(moved));
+        assertTrue(moved > 5000 / 21 / 2 && moved <= Math.ceil(5000d / 21));
+        map = newMap;
+        
+        int capacity = (int)Math.ceil(1.25 * 5000 / 21);
+        int overflow = 0;
+        for (int count : getCounts(map).values())
+            overflow += Math.max(count - capacity, 0);
+        newMap = strategy.mapWorkers(coreNodes, workerNodes, map);
+        assertThat(newMap.size(), is(workerNodes.size()));
+        moved = 0;
+        for (INode node : workerNodes)
+        {
+            if (!newMap.get(node).equals(map.get(node)))
+                moved++;
+        }
+        assertTrue(moved <= overflow);
+        for (int count : getCounts(newMap).values())
+            assertTrue(count <= capacity);
+        map = newMap;
+        
+        INode failedCore = coreNodes.remove(0);
+        Map<INode, INode> oldMap = new HashMap<INode, INode>(map);
+        for (INode node : workerNodes)
+        {
+            if (oldMap.get(node).equals(failedCore))
+                oldMap.remove(node);
+        }
+        newMap = strategy.mapWorkers(coreNodes, workerNodes, oldMap);
+        assertThat(newMap.size(), is(workerNodes.size()));
+        for (INode node : workerNodes)
+        {
+            if (oldMap.containsKey(node))
+                assertThat(newMap.get(node), is(oldMap.get(node)));
+            else
+                assertTrue(!newMap.get(node).equals(failedCore));
+        }
+    }
+    
+    @Test
+    public void testDefaultGroupMappingStrategy()
+    {
+        NodeFeedbackProvider nodeFeedbackProvider = new NodeFeedbackProvider();
+        GroupFeedbackProvider groupFeedbackProvider = new GroupFeedbackProvider();
+        DefaultGroupMappingStrategy strategy = new DefaultGroupMappingStrategy(groupFeedbackProvider, nodeFeedbackProvider);
+        
+        List<INode> nodes = new ArrayList<INode>();
+        for (int i = 0; i < 6; i++)
+            nodes.add(createNode("node" + i, "test"));
+        
+        GroupDefinition group1 = new GroupDefinition("test", UUID.randomUUID(), "group1", Enums.of(GroupOption.DURABLE), null, 2, null);
+        GroupDefinition group2 = new GroupDefinition("test", UUID.randomUUID(), "group2", Enums.of(GroupOption.DURABLE), null, 2, null);
+        GroupDefinition group3 = new GroupDefinition("test", UUID.randomUUID(), "group3", Enums.of(GroupOption.DURABLE), null, 2, null);
+        strategy.addGroupDefinition(group1);
+        strategy.addGroupDefinition(group2);
+        strategy.addGroupDefinition(group3);
+        
+        NodesMembershipDelta emptyDelta = new NodesMembershipDelta(Collections.<INode>emptyList(), Collections.<UUID>emptySet(),
+            Collections.<UUID>emptySet());
+        List<Pair<IGroup, IGroupDelta>> groups = strategy.mapGroups(1, "test", new NodesMembership(nodes),
+            new NodesMembershipDelta(nodes, Collections.<UUID>emptySet(), Collections.<UUID>emptySet()), null);
+        assertThat(groups.size(), is(3));
+        GroupsMembership membership = createGroupsMembership(groups);
+        for (int i = 0; i < 3; i++)
+        {
+            assertThat(groups.get(i).getKey().getMembers().size(), is(2));
+            assertThat(groups.get(i).getKey().getChangeId(), is(1l));
+            assertThat(groups.get(i).getValue().getJoinedMembers(), is(groups.get(i).getKey().getMembers()));
+        }
+        for (INode node : nodes)
+            assertThat(membership.findNodeGroups(node.getId()).size(), is(1));
+        
+        assertThat(strategy.mapGroups(2, "test", new NodesMembership(nodes), emptyDelta, membership) == null, is(true));
+        
+        INode failedNode = membership.findGroup(group1.getId()).getMembers().get(0);
+        INode survivedNode = membership.findGroup(group1.getId()).getMembers().get(1);
+        nodes.remove(failedNode);
+        groups = strategy.mapGroups(3, "test", new NodesMembership(nodes), new NodesMembershipDelta(
+            Collections.<INode>emptyList(), Collections.<UUID>emptySet(), Collections.singleton(failedNode.getId())), membership);
+        assertThat(groups.size(), is(3));
+        assertThat(groups.get(1).getValue() == null, is(true));
+        assertThat(groups.get(2).getValue() == null, is(true));
+        IGroup group = groups.get(0).getKey();
+        IGroupDelta delta = groups.get(0).getValue();
+        assertThat(group.getChangeId(), is(2l));
+        assertThat(group.getMembers().size(), is(2));
+        assertThat(group.getCoordinator(), is(survivedNode));
+        assertThat(delta.getFailedMembers(), is(Collections.singleton(failedNode.getId())));
+        assertThat(delta.getJoinedMembers().size(), is(1));
+        assertThat(delta.getLeftMembers().isEmpty(), is(true));
+        membership = createGroupsMembership(groups);
+        
+        GroupDefinition group4 = new GroupDefinition("test", UUID.randomUUID(), "group4", Enums.of(GroupOption.DURABLE),
+            "name like 'filtered*'", 2, null);
+        strategy.addGroupDefinition(group4);
+        INode filteredNode1 = createNode("filtered1", "test");
+        nodes.add(filteredNode1);
+        groups = strategy.mapGroups(4, "test", new NodesMembership(nodes), new NodesMembershipDelta(
+            Arrays.asList(filteredNode1), Collections.<UUID>emptySet(), Collections.<UUID>emptySet()), membership);
+        assertThat(groups.size(), is(4));
+        assertThat(groups.get(3).getKey().getMembers(), is(Arrays.asList(filteredNode1)));
+        membership = createGroupsMembership(groups);
+        
+        INode filteredNode2 = createNode("filtered2", "test");
+        nodes.add(filteredNode2);
+        groups = strategy.mapGroups(5, "test", new NodesMembership(nodes), new NodesMembershipDelta(
+            Arrays.asList(filteredNode2), Collections.<UUID>emptySet(), Collections.<UUID>emptySet()), membership);
+        assertThat(groups.get(3).getKey().getMembers(), is(Arrays.asList(filteredNode1, filteredNode2)));
+        assertThat(groups.get(3).getValue().getJoinedMembers(), is(Arrays.asList(filteredNode2)));
+        assertThat(groups.get(0).getValue() == null, is(true));
+        membership = createGroupsMembership(groups);
+        
+        group = membership.findGroup(group2.getId());
+        INode exitingNode = group.getMembers().get(1);
+        nodeFeedbackProvider.updateNodeState(new NodeState("test", exitingNode.getId(), INodeState.State.GRACEFUL_EXIT_REQUESTED));
+        groupFeedbackProvider.updateGroupState(new GroupState("test", group2.getId(), 5, getIds(group.getMembers()), true,
+            IGroupState.State.NORMAL));
+        groups = strategy.mapGroups(6, "test", new NodesMembership(nodes), emptyDelta, membership);
+        group = groups.get(1).getKey();
+        delta = groups.get(1).getValue();
+        assertThat(group.getMembers().size(), is(3));
+        assertThat(group.getMembers().contains(exitingNode), is(true));
+        assertThat(delta.getJoinedMembers().size(), is(1));
+        assertThat(delta.getLeftMembers().isEmpty(), is(true));
+        membership = createGroupsMembership(groups);
+        
+        groupFeedbackProvider.updateGroupState(new GroupState("test", group2.getId(), 6, getIds(group.getMembers()), true,
+            IGroupState.State.FLUSH));
+        groups = strategy.mapGroups(7, "test", new NodesMembership(nodes), emptyDelta, membership);
+        assertThat(groups.get(1).getValue() == null, is(true));
+        
+        groupFeedbackProvider.updateGroupState(new GroupState("test", group2.getId(), 7, getIds(group.getMembers()), true,
+            IGroupState.State.NORMAL));
+        groups = strategy.mapGroups(8, "test", new NodesMembership(nodes), emptyDelta, membership);
+        group = groups.get(1).getKey();
+        delta = groups.get(1).getValue();
+        assertThat(group.getMembers().size(), is(2));
+        assertThat(group.getMembers().contains(exitingNode), is(false));
+        assertThat(delta.getLeftMembers(), is(Collections.singleton(exitingNode.getId())));
+        membership = createGroupsMembership(groups);
+        
+        strategy.addGroupDefinition(new GroupDefinition("test", group3.getId(), "group3", Enums.of(GroupOption.DURABLE), null, 1, null));
+        INode coordinator = membership.findGroup(group3.getId()).getCoordinator();
+        groups = strategy.mapGroups(9, "test", new NodesMembership(nodes), emptyDelta, membership);
+        group = groups.get(2).getKey();
+        assertThat(group.getMembers(), is(Arrays.asList(coordinator)));
+        assertThat(groups.get(2).getValue().getLeftMembers().size(), is(1));
+        membership = createGroupsMembership(groups);
+        
+        strategy.removeGroupDefinition("test", group4.getId());
+        GroupDefinition group5 = new GroupDefinition("test", UUID.randomUUID(), "group5", Enums.of(GroupOption.DURABLE), null, 2, null);
+        strategy.addGroupDefinition(group5);
+        groups = strategy.mapGroups(10, "test", new NodesMembership(nodes), emptyDelta, membership);
+        assertThat(groups.size(), is(4));
+        group = groups.get(3).getKey();
+        assertThat(group.getId(), is(group5.getId()));
+        for (INode member : group.getMembers())
+        {
+            List<IGroup> nodeGroups = membership.findNodeGroups(member.getId());
+            assertThat(nodeGroups == null || nodeGroups.get(0).getId().equals(group4.getId()), is(true));
+        }
+        membership = createGroupsMembership(groups);
+        
+        group = membership.findGroup(group5.getId());
+        groupFeedbackProvider.updateGroupState(new GroupState("test", group5.getId(), 10, getIds(group.getMembers()), true,
+            IGroupState.State.FLUSH));
+        Set<UUID> failedMembers = new HashSet<UUID>(getIds(group.getMembers()));
+        nodes.removeAll(group.getMembers());
+        groups = strategy.mapGroups(11, "test", new NodesMembership(nodes), new NodesMembershipDelta(
+            Collections.<INode>emptyList(), Collections.<UUID>emptySet(), failedMembers), membership);
+        assertThat(groups.size(), is(4));
+        group = groups.get(3).getKey();
+        delta = groups.get(3).getValue();
+        assertThat(group.getId(), is(group5.getId()));
+        assertThat(group.getMembers().size(), is(2));
+        assertThat(delta.getFailedMembers(), is(failedMembers));
+        assertThat(delta.getJoinedMembers(), is(group.getMembers()));
+        membership = createGroupsMembership(groups);
+        
+        groups = strategy.mapGroups(12, "test", new NodesMembership(Collections.<INode>emptyList()), new NodesMembershipDelta(
+            Collections.<INode>emptyList(), Collections.<UUID>emptySet(), new HashSet<UUID>(getIds(nodes))), membership);
+        assertThat(groups.size(), is(4));
+        for (Pair<IGroup, IGroupDelta> pair : groups)
+        {
+            assertThat(pair.getKey() == membership.findGroup(pair.getKey().getId()), is(true));
+            assertThat(pair.getValue() == null, is(true));
+        }
+    }
+    
+    @Test
+    public void testMembershipUpdate()
+    {
+        INode node1 = createNode("node1", "test");
+        INode node2 = createNode("node2", "test");
+        INode node3 = createNode("node3", "test");
+        INode node4 = createNode("node4", "test");
+        NodesMembership nodesMembership = new NodesMembership(Arrays.asList(node1, node2, node3));
+        assertThat(nodesMembership.update(Collections.<INode>emptyList(), Collections.<UUID>emptySet()) == nodesMembership, is(true));
+        
+        NodesMembership newNodesMembership = nodesMembership.update(Arrays.asList(node4), Collections.singleton(node2.getId()));
+        assertThat(newNodesMembership.getNodes(), is(Arrays.asList(node1, node3, node4)));
+        assertThat(newNodesMembership.findNode(node2.getId()) == null, is(true));
+        assertThat(newNodesMembership.findNode(node2.getAddress()) == null, is(true));
+        assertThat(newNodesMembership.findNode(node4.getId()), is(node4));
+        assertThat(newNodesMembership.findNode(node4.getAddress()), is(node4));
+        assertThat(nodesMembership.getNodes(), is(Arrays.asList(node1, node2, node3)));
+        assertThat(nodesMembership.findNode(node2.getId()), is(node2));
+        assertThat(nodesMembership.findNode(node4.getId()) == null, is(true));
+        
+        IGroup group1 = new Group(new GroupAddress(UUID.randomUUID(), "group1"), true, Arrays.asList(node1, node2),
+            Enums.of(GroupOption.DURABLE), 1);
+        IGroup group2 = new Group(new GroupAddress(UUID.randomUUID(), "group2"), true, Arrays.asList(node2, node3),
+            Enums.of(GroupOption.DURABLE), 1);
+        IGroup group3 = new Group(new GroupAddress(UUID.randomUUID(), "group3"), true, Arrays.asList(node3),
+            Enums.of(GroupOption.DURABLE), 1);
+        GroupsMembership groupsMembership = new GroupsMembership(Arrays.asList(group1, group2, group3));
+        assertThat(groupsMembership.findNodeGroups(node2.getId()), is(Arrays.asList(group1, group2)));
+        
+        IGroup changedGroup1 = new Group((GroupAddress)group1.getAddress(), true, Arrays.asList(node1, node4),
+            Enums.of(GroupOption.DURABLE), 2);
+        IGroup group4 = new Group(new GroupAddress(UUID.randomUUID(), "group4"), true, Arrays.asList(node4, node3),
+            Enums.of(GroupOption.DURABLE), 1);
+        GroupsMembership newGroupsMembership = groupsMembership.update(Arrays.asList(group4, changedGroup1),
+            Collections.singleton(group2.getId()));
+        assertThat(newGroupsMembership.getGroups(), is(Arrays.asList(changedGroup1, group3, group4)));
+        assertThat(newGroupsMembership.findGroup(group1.getId()), is(changedGroup1));
+        assertThat(newGroupsMembership.findGroup(group1.getAddress()), is(changedGroup1));
+        assertThat(newGroupsMembership.findGroup(group2.getId()) == null, is(true));
+        assertThat(newGroupsMembership.findGroup(group2.getAddress()) == null, is(true));
+        assertThat(newGroupsMembership.findNodeGroups(node1.getId()), is(Arrays.<IGroup>asList(changedGroup1)));
+        assertThat(newGroupsMembership.findNodeGroups(node2.getId()) == null, is(true));
+        assertThat(newGroupsMembership.findNodeGroups(node3.getId()), is(Arrays.asList(group3, group4)));
+        assertThat(newGroupsMembership.findNodeGroups(node4.getId()), is(Arrays.asList(group4, changedGroup1)));
+        assertThat(groupsMembership.getGroups(), is(Arrays.asList(group1, group2, group3)));
+        assertThat(groupsMembership.findGroup(group1.getId()), is(group1));
+        assertThat(groupsMembership.findNodeGroups(node2.getId()), is(Arrays.asList(group1, group2)));
+    }
+    
+    private GroupsMembership createGroupsMembership(List<Pair<IGroup, IGroupDelta>> groups)
+    {
+        List<IGroup> list = new ArrayList<IGroup>();
+        for (Pair<IGroup, IGroupDelta> pair : groups)
+            list.add(pair.getKey());
+        
+        return new GroupsMembership(list);
+    }
+    
+    private List<UUID> getIds(List<INode> nodes)
+    {
+        List<UUID> ids = new ArrayList<UUID>();
+        for (INode node : nodes)
+            ids.add(node.getId());
+        
+        return ids;
+    }
+    
+    private Map<INode, Integer> getCounts(Map<INode, INode> coreByWorkerMap)
+    {
+        Map<INode, Integer> counts = new HashMap<INode, Integer>();
+        for (INode coreNode : coreByWorkerMap.values())
+        {
+            Integer count = counts.get(coreNode);
+            counts.put(coreNode, count != null ? count + 1 : 1);
+        }
+        
+        return counts;
+    }
+    
     private INode createNode(String name, String domain)
     {
-        return new Node(new UnicastAddress(UUID.randomUUID(), name), Collections.<String, Object>emptyMap(), domain);
+        return createNode(name, domain, false);
+    }
+    
+    private INode createNode(String name, String domain, boolean stableId)
+    {
+        UUID id = stableId ? UUID.nameUUIDFromBytes(name.getBytes()) : UUID.randomUUID();
+        return new Node(new UnicastAddress(id, name), Collections.<String, Object>emptyMap(), domain);
     }
 }
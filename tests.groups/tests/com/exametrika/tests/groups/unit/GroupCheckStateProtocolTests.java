@@ -0,0 +1,276 @@
+/**
+ * Copyright 2007 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.groups.unit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.exametrika.common.io.impl.SerializationRegistry;
+import com.exametrika.common.messaging.IAddress;
+import com.exametrika.common.messaging.IMessage;
+import com.exametrika.common.messaging.impl.message.MessageFactory;
+import com.exametrika.common.tests.Tests;
+import com.exametrika.common.utils.ICompletionHandler;
+import com.exametrika.common.utils.MerkleTree;
+import com.exametrika.impl.groups.cluster.check.GroupCheckStateProtocol;
+import com.exametrika.impl.groups.cluster.check.IGroupStateHashProvider;
+import com.exametrika.impl.groups.cluster.check.IGroupStateHashTreeProvider;
+import com.exametrika.impl.groups.cluster.check.StateHashRequestMessagePart;
+import com.exametrika.impl.groups.cluster.check.StateHashResponseMessagePart;
+import com.exametrika.impl.groups.cluster.check.StateHashTreeRequestMessagePart;
+import com.exametrika.impl.groups.cluster.membership.GroupAddress;
+import com.exametrika.impl.groups.cluster.membership.Node;
+import com.exametrika.tests.common.messaging.ReceiverMock;
+import com.exametrika.tests.common.messaging.SenderMock;
+import com.exametrika.tests.groups.mocks.DataLossFeedbackProviderMock;
+import com.exametrika.tests.groups.mocks.FailureDetectorMock;
+import com.exametrika.tests.groups.mocks.LiveNodeProviderMock;
+import com.exametrika.tests.groups.mocks.MembershipManagerMock;
+
+/**
+ * The {@link GroupCheckStateProtocolTests} are unit tests for {@link GroupCheckStateProtocol}.
+ *
+ * @see GroupCheckStateProtocol
+ * @author Medvedev-A
+ */
+public class GroupCheckStateProtocolTests
+{
+    private static final int COUNT = 3;
+    private static final long CHECK_PERIOD = 1000;
+    private final GroupAddress groupAddress = new GroupAddress(UUID.randomUUID(), "test");
+    private List<Member> members;
+    private FailureDetectorMock failureDetector;
+    private DataLossFeedbackProviderMock dataLossFeedback;
+    private int treeRequestCount;
+
+    @Before
+    public void setUp()
+    {
+        SerializationRegistry registry = new SerializationRegistry();
+        failureDetector = new FailureDetectorMock();
+        dataLossFeedback = new DataLossFeedbackProviderMock();
+
+        members = new ArrayList<Member>();
+        for (int i = 0; i < COUNT; i++)
+        {
+            Member member = new Member(registry, "member" + i);
+            members.add(member);
+            failureDetector.healthyNodes.add(member.membershipManager.localNode);
+
+            for (int k = 0; k < 100; k++)
+                member.stateHashProvider.tree.add(k, hash(k, 0));
+        }
+
+        failureDetector.currentCoordinator = members.get(0).membershipManager.localNode;
+    }
+
+    @Test
+    public void testMatchingState() throws Throwable
+    {
+        Member coordinator = members.get(0);
+        coordinator.protocol.onTimer(CHECK_PERIOD + 1);
+        deliver(null);
+
+        assertThat(dataLossFeedback.getState(), nullValue());
+        assertThat(treeRequestCount, is(0));
+        checkCompleted(coordinator);
+    }
+
+    @Test
+    public void testMismatchingState() throws Throwable
+    {
+        members.get(2).stateHashProvider.tree.replace(10, hash(10, 0), hash(10, 1));
+
+        Member coordinator = members.get(0);
+        coordinator.protocol.onTimer(CHECK_PERIOD + 1);
+        deliver(null);
+
+        assertThat(dataLossFeedback.getState(), notNullValue());
+        assertThat(treeRequestCount > 1, is(true));
+        checkCompleted(coordinator);
+    }
+
+    @Test
+    public void testInFlightStateChanges() throws Throwable
+    {
+        Member coordinator = members.get(0);
+        coordinator.protocol.onTimer(CHECK_PERIOD + 1);
+
+        // Change ordered before check request is delivered after coordinator has started check
+        for (Member member : members)
+            member.stateHashProvider.tree.replace(10, hash(10, 0), hash(10, 1));
+
+        List<IMessage> requests = takeMessages(coordinator);
+        assertThat(requests.size(), is(1));
+        for (Member member : members)
+            member.protocol.receive(requests.get(0));
+
+        // Changes ordered after check request, applied by some members before they respond
+        coordinator.stateHashProvider.tree.replace(20, hash(20, 0), hash(20, 1));
+        members.get(1).stateHashProvider.tree.replace(20, hash(20, 0), hash(20, 1));
+
+        deliver(null);
+
+        assertThat(dataLossFeedback.getState(), nullValue());
+        assertThat(treeRequestCount, is(0));
+        checkCompleted(coordinator);
+    }
+
+    @Test
+    public void testInFlightStateChangesDuringDescent() throws Throwable
+    {
+        members.get(2).stateHashProvider.tree.replace(10, hash(10, 0), hash(10, 1));
+
+        Member coordinator = members.get(0);
+        coordinator.protocol.onTimer(CHECK_PERIOD + 1);
+        List<IMessage> requests = takeMessages(coordinator);
+        for (Member member : members)
+            member.protocol.receive(requests.get(0));
+
+        // Change ordered after check request must not affect comparison of tree snapshots
+        coordinator.stateHashProvider.tree.replace(10, hash(10, 0), hash(10, 1));
+
+        deliver(null);
+
+        assertThat(dataLossFeedback.getState(), notNullValue());
+        assertThat(treeRequestCount > 1, is(true));
+        checkCompleted(coordinator);
+    }
+
+    @Test
+    public void testCheckTimeout() throws Throwable
+    {
+        Member coordinator = members.get(0);
+        Member member2 = members.get(2);
+
+        coordinator.protocol.onTimer(CHECK_PERIOD + 1);
+        deliver(member2.address);
+
+        Set<IAddress> respondingNodes = Tests.get(coordinator.protocol, "respondingNodes");
+        assertThat(respondingNodes, is(Collections.singleton(member2.address)));
+
+        coordinator.protocol.onTimer(CHECK_PERIOD + 500);
+        assertThat(coordinator.sender.messages.isEmpty(), is(true));
+
+        coordinator.protocol.onTimer(2 * CHECK_PERIOD + 2);
+        List<IMessage> requests = takeMessages(coordinator);
+        assertThat(requests.size(), is(1));
+        assertThat(((StateHashRequestMessagePart)requests.get(0).getPart()).getRequestId(), is(2l));
+
+        for (Member member : members)
+            member.protocol.receive(requests.get(0));
+        deliver(null);
+        checkCompleted(coordinator);
+
+        // Late response to abandoned request is ignored
+        coordinator.protocol.receive(member2.messageFactory.create(coordinator.address,
+            new StateHashResponseMessagePart(1, "bad")));
+        assertThat(dataLossFeedback.getState(), nullValue());
+        assertThat(coordinator.sender.messages.isEmpty(), is(true));
+    }
+
+    private void checkCompleted(Member coordinator) throws Throwable
+    {
+        Set<IAddress> respondingNodes = Tests.get(coordinator.protocol, "respondingNodes");
+        Set<IAddress> checkingNodes = Tests.get(coordinator.protocol, "checkingNodes");
+        assertThat(respondingNodes.isEmpty(), is(true));
+        assertThat(checkingNodes.isEmpty(), is(true));
+    }
+
+    private void deliver(IAddress failedNode)
+    {
+        while (true)
+        {
+            boolean found = false;
+            for (Member member : members)
+            {
+                List<IMessage> messages = takeMessages(member);
+                if (messages.isEmpty() || member.address.equals(failedNode))
+                    continue;
+
+                found = true;
+                for (IMessage message : messages)
+                {
+                    if (message.getPart() instanceof StateHashTreeRequestMessagePart)
+                        treeRequestCount++;
+
+                    for (Member receiver : members)
+                    {
+                        if (message.getDestination().equals(groupAddress) || message.getDestination().equals(receiver.address))
+                            receiver.protocol.receive(message);
+                    }
+                }
+            }
+
+            if (!found)
+                break;
+        }
+    }
+
+    private List<IMessage> takeMessages(Member member)
+    {
+        List<IMessage> messages = new ArrayList<IMessage>(member.sender.messages);
+        member.sender.messages.clear();
+        return messages;
+    }
+
+    private static long hash(int key, int version)
+    {
+        byte[] buffer = (key + ":" + version).getBytes();
+        return MerkleTree.hash(buffer, 0, buffer.length);
+    }
+
+    private class Member
+    {
+        private final IAddress address;
+        private final MessageFactory messageFactory;
+        private final MembershipManagerMock membershipManager = new MembershipManagerMock();
+        private final StateHashProviderMock stateHashProvider = new StateHashProviderMock();
+        private final SenderMock sender = new SenderMock();
+        private final GroupCheckStateProtocol protocol;
+
+        public Member(SerializationRegistry registry, String name)
+        {
+            LiveNodeProviderMock liveNodeProvider = new LiveNodeProviderMock(name);
+            address = liveNodeProvider.localNode;
+            messageFactory = new MessageFactory(registry, liveNodeProvider);
+            membershipManager.localNode = new Node(address, Collections.<String, Object>emptyMap(), "core");
+
+            protocol = new GroupCheckStateProtocol(name, messageFactory, membershipManager, dataLossFeedback,
+                CHECK_PERIOD, groupAddress.getId(), groupAddress, "test");
+            protocol.setFailureDetector(failureDetector);
+            protocol.setStateHashProvider(stateHashProvider);
+            protocol.setSender(sender);
+            protocol.setReceiver(new ReceiverMock());
+        }
+    }
+
+    private static class StateHashProviderMock implements IGroupStateHashProvider, IGroupStateHashTreeProvider
+    {
+        private final MerkleTree tree = new MerkleTree(6);
+
+        @Override
+        public void computeStateHash(ICompletionHandler<String> completionHandler)
+        {
+            completionHandler.onFailed(new UnsupportedOperationException());
+        }
+
+        @Override
+        public MerkleTree getStateHashTree()
+        {
+            return tree;
+        }
+    }
+}
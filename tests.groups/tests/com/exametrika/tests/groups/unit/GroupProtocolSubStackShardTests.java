@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.groups.unit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.compartment.ICompartmentFactory;
+import com.exametrika.common.compartment.impl.CompartmentFactory;
+import com.exametrika.common.compartment.impl.ConcurrentCompartmentQueue;
+import com.exametrika.impl.groups.cluster.membership.GroupProtocolSubStackShard;
+
+/**
+ * The {@link GroupProtocolSubStackShardTests} are tests for {@link GroupProtocolSubStackShard}.
+ *
+ * @see GroupProtocolSubStackShard
+ * @author Medvedev-A
+ */
+public class GroupProtocolSubStackShardTests
+{
+    @Test
+    public void testExecute() throws Throwable
+    {
+        ICompartmentFactory.Parameters parameters = new ICompartmentFactory.Parameters();
+        parameters.name = "test-groups-0";
+        parameters.queue = new ConcurrentCompartmentQueue();
+        ICompartment compartment = new CompartmentFactory().createCompartment(parameters);
+
+        final GroupProtocolSubStackShard shard = new GroupProtocolSubStackShard(compartment, true);
+        shard.start();
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        final AtomicBoolean inline = new AtomicBoolean();
+        shard.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                thread.set(Thread.currentThread());
+                
+                final AtomicBoolean executed = new AtomicBoolean();
+                shard.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        executed.set(Thread.currentThread() == thread.get());
+                    }
+                });
+                
+                inline.set(executed.get());
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertThat(thread.get() != Thread.currentThread(), is(true));
+        assertThat(thread.get().getName().contains("test-groups-0"), is(true));
+        assertThat(inline.get(), is(true));
+
+        shard.stop();
+
+        shard.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                thread.set(Thread.currentThread());
+            }
+        });
+
+        assertThat(thread.get() == Thread.currentThread(), is(true));
+    }
+}
@@ -0,0 +1,618 @@
+/**
+ * Copyright 2010 Andrey Medvedev. All rights reserved.
+ */
+package com.exametrika.tests.groups.unit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.exametrika.api.groups.cluster.ClusterMembershipEvent;
+import com.exametrika.api.groups.cluster.GroupOption;
+import com.exametrika.api.groups.cluster.IClusterMembership;
+import com.exametrika.api.groups.cluster.IClusterMembershipElementChange;
+import com.exametrika.api.groups.cluster.IClusterMembershipListener;
+import com.exametrika.api.groups.cluster.IClusterMembershipService;
+import com.exametrika.api.groups.cluster.IDomainMembership;
+import com.exametrika.api.groups.cluster.IDomainMembershipChange;
+import com.exametrika.api.groups.cluster.IGroup;
+import com.exametrika.api.groups.cluster.IGroupChange;
+import com.exametrika.api.groups.cluster.IGroupMembership;
+import com.exametrika.api.groups.cluster.INode;
+import com.exametrika.common.compartment.ICompartment;
+import com.exametrika.common.compartment.ICompartmentProcessor;
+import com.exametrika.common.io.impl.SerializationRegistry;
+import com.exametrika.common.messaging.IAddress;
+import com.exametrika.common.messaging.IConnectionProvider;
+import com.exametrika.common.messaging.IMessage;
+import com.exametrika.common.messaging.IMessagePart;
+import com.exametrika.common.messaging.IReceiver;
+import com.exametrika.common.messaging.ISender;
+import com.exametrika.common.messaging.impl.message.MessageFactory;
+import com.exametrika.common.messaging.impl.protocols.AbstractProtocol;
+import com.exametrika.common.tests.Tests;
+import com.exametrika.common.utils.Enums;
+import com.exametrika.impl.groups.cluster.discovery.IGroupNodeDiscoverer;
+import com.exametrika.impl.groups.cluster.flush.IFlushManager;
+import com.exametrika.impl.groups.cluster.membership.ClusterMembership;
+import com.exametrika.impl.groups.cluster.membership.ClusterMembershipChange;
+import com.exametrika.impl.groups.cluster.membership.DomainMembership;
+import com.exametrika.impl.groups.cluster.membership.DomainMembershipChange;
+import com.exametrika.impl.groups.cluster.membership.Group;
+import com.exametrika.impl.groups.cluster.membership.GroupAddress;
+import com.exametrika.impl.groups.cluster.membership.GroupChange;
+import com.exametrika.impl.groups.cluster.membership.GroupMembershipManager;
+import com.exametrika.impl.groups.cluster.membership.GroupMessagePart;
+import com.exametrika.impl.groups.cluster.membership.GroupProtocolSubStack;
+import com.exametrika.impl.groups.cluster.membership.GroupProtocolSubStackShard;
+import com.exametrika.impl.groups.cluster.membership.GroupsMembership;
+import com.exametrika.impl.groups.cluster.membership.GroupsMembershipChange;
+import com.exametrika.impl.groups.cluster.membership.IGroupMembershipDelta;
+import com.exametrika.impl.groups.cluster.membership.IGroupProtocolSubStackFactory;
+import com.exametrika.impl.groups.cluster.membership.IPreparedGroupMembershipListener;
+import com.exametrika.impl.groups.cluster.membership.LocalNodeProvider;
+import com.exametrika.impl.groups.cluster.membership.WorkerGroupMembershipProtocol;
+import com.exametrika.tests.common.messaging.PullableSenderMock;
+import com.exametrika.tests.common.messaging.ReceiverMock;
+import com.exametrika.tests.common.messaging.SenderMock;
+import com.exametrika.tests.groups.mocks.CompartmentMock;
+import com.exametrika.tests.groups.mocks.DataLossFeedbackProviderMock;
+import com.exametrika.tests.groups.mocks.LiveNodeProviderMock;
+import com.exametrika.tests.groups.mocks.PropertyProviderMock;
+import com.exametrika.tests.groups.mocks.TestMemberships;
+
+/**
+ * The {@link WorkerGroupMembershipProtocolTests} are tests for {@link WorkerGroupMembershipProtocol} with sharded group
+ * sub-stacks.
+ *
+ * @see WorkerGroupMembershipProtocol
+ * @author Medvedev-A
+ */
+public class WorkerGroupMembershipProtocolTests
+{
+    private static final String DOMAIN = "test";
+    private static final int SHARD_COUNT = 2;
+    private static final long REMOVE_DELAY = 1000;
+    private CompartmentMock compartment;
+    private LiveNodeProviderMock liveNodeProvider;
+    private LocalNodeProvider localNodeProvider;
+    private MessageFactory messageFactory;
+    private ClusterMembershipServiceMock membershipService;
+    private SubStackFactory subStackFactory;
+    private SenderMock sender;
+    private ReceiverMock receiver;
+    private WorkerGroupMembershipProtocol protocol;
+    private List<IGroup> groups;
+
+    @Before
+    public void setUp()
+    {
+        compartment = new CompartmentMock();
+        compartment.time = 1000;
+        liveNodeProvider = new LiveNodeProviderMock("worker");
+        localNodeProvider = new LocalNodeProvider(liveNodeProvider, new PropertyProviderMock(), DOMAIN);
+        messageFactory = new MessageFactory(new SerializationRegistry(), liveNodeProvider);
+        membershipService = new ClusterMembershipServiceMock(localNodeProvider.getLocalNode());
+        subStackFactory = new SubStackFactory();
+        sender = new SenderMock();
+        receiver = new ReceiverMock();
+
+        protocol = new WorkerGroupMembershipProtocol("test", messageFactory, membershipService, subStackFactory,
+            REMOVE_DELAY, 100, SHARD_COUNT, 10);
+        protocol.setCompartment(compartment);
+        protocol.setTimeService(compartment);
+        protocol.setConnectionProvider(new ConnectionProviderMock());
+        protocol.setSender(sender);
+        protocol.setReceiver(receiver);
+        protocol.setPullableSender(new PullableSenderMock());
+        protocol.start();
+
+        groups = createGroups();
+        membershipService.membership = createMembership(1, groups);
+    }
+
+    @After
+    public void tearDown()
+    {
+        if (protocol != null)
+            protocol.stop();
+    }
+
+    @Test
+    public void testShardRouting() throws Throwable
+    {
+        for (IGroup group : groups)
+        {
+            protocol.receive(createMessage(group, 0));
+            protocol.receive(createMessage(group, 1));
+        }
+
+        protocol.onJoined();
+        waitShards();
+
+        for (IGroup group : groups)
+        {
+            TestProtocol groupProtocol = subStackFactory.protocols.get(group.getId());
+            assertThat(subStackFactory.compartments.get(group.getId()).getName(), is(getShardName(group)));
+            assertThat(groupProtocol.getEvents(), is(Arrays.asList("install:1", "receive:0", "receive:1")));
+            assertThat(groupProtocol.getThreads(), is(Collections.singleton(getShardThreadName(group))));
+        }
+
+        for (IGroup group : groups)
+        {
+            protocol.receive(createMessage(group, 2));
+            protocol.send(messageFactory.create(group.getAddress(), new TestMessagePart(3)));
+        }
+
+        waitShards();
+
+        for (IGroup group : groups)
+        {
+            TestProtocol groupProtocol = subStackFactory.protocols.get(group.getId());
+            assertThat(groupProtocol.getEvents(), is(Arrays.asList("install:1", "receive:0", "receive:1", "receive:2",
+                "send:3")));
+            assertThat(groupProtocol.getThreads(), is(Collections.singleton(getShardThreadName(group))));
+        }
+
+        assertThat(receiver.messages.isEmpty(), is(true));
+        assertThat(sender.messages.isEmpty(), is(true));
+
+        compartment.runTasks();
+
+        assertThat(receiver.messages.size(), is(groups.size() * 3));
+        assertThat(sender.messages.size(), is(groups.size()));
+        Set<UUID> groupIds = new HashSet<UUID>();
+        for (IMessage message : sender.messages)
+        {
+            assertThat(((TestMessagePart)message.removePart().getPart()).value, is(3));
+            groupIds.add(((GroupMessagePart)message.getPart()).getGroupId());
+        }
+        assertThat(groupIds.size(), is(groups.size()));
+    }
+
+    @Test
+    public void testMembershipChange() throws Throwable
+    {
+        protocol.onJoined();
+        waitShards();
+
+        IGroup changedGroup = groups.get(0);
+        IGroup removedGroup = groups.get(1);
+        IGroup newGroup = createGroup(groups.size());
+
+        INode joinedNode = TestMemberships.createNode("joined", DOMAIN);
+        List<INode> members = new ArrayList<INode>(changedGroup.getMembers());
+        members.add(joinedNode);
+        IGroup group = new Group((GroupAddress)changedGroup.getAddress(), true, members,
+            Enums.noneOf(GroupOption.class), 2);
+
+        List<IGroup> newGroups = new ArrayList<IGroup>(groups);
+        newGroups.set(0, group);
+        newGroups.remove(removedGroup);
+        newGroups.add(newGroup);
+
+        protocol.receive(createMessage(newGroup, 0));
+
+        GroupsMembershipChange groupsChange = new GroupsMembershipChange(Arrays.asList(newGroup),
+            Collections.<IGroupChange>singleton(new GroupChange(group, changedGroup, Arrays.asList(joinedNode),
+                Collections.<INode>emptySet(), Collections.<INode>emptySet())), Collections.singleton(removedGroup));
+        IDomainMembershipChange domainChange = new DomainMembershipChange(DOMAIN,
+            Arrays.<IClusterMembershipElementChange>asList(groupsChange));
+        IClusterMembership oldMembership = membershipService.membership;
+        membershipService.membership = createMembership(2, newGroups);
+        protocol.onMembershipChanged(new ClusterMembershipEvent(oldMembership, membershipService.membership,
+            new ClusterMembershipChange(Collections.<IDomainMembership>emptyList(),
+                Arrays.asList(domainChange), Collections.<IDomainMembership>emptySet(), null)));
+        waitShards();
+
+        TestProtocol newProtocol = subStackFactory.protocols.get(newGroup.getId());
+        assertThat(newProtocol.getEvents(), is(Arrays.asList("install:1", "receive:0", "membershipChanged")));
+        assertThat(newProtocol.getThreads(), is(Collections.singleton(getShardThreadName(newGroup))));
+
+        TestProtocol changedProtocol = subStackFactory.protocols.get(changedGroup.getId());
+        changedProtocol.discoveredNodes.add(joinedNode);
+        long startTime = System.currentTimeMillis();
+        while (!changedProtocol.getEvents().contains("install:2"))
+        {
+            assertTrue(System.currentTimeMillis() < startTime + 10000);
+            Thread.sleep(10);
+        }
+        assertThat(changedProtocol.getThreads(), is(Collections.singleton(getShardThreadName(changedGroup))));
+
+        TestProtocol removedProtocol = subStackFactory.protocols.get(removedGroup.getId());
+        protocol.onTimer(compartment.time + REMOVE_DELAY);
+        waitShards();
+        assertThat(removedProtocol.getEvents().contains("stop"), is(false));
+
+        protocol.onTimer(compartment.time + REMOVE_DELAY + 1);
+        waitShards();
+        assertThat(removedProtocol.getEvents().get(removedProtocol.getEvents().size() - 1), is("stop"));
+        assertThat(removedProtocol.getThreads(), is(Collections.singleton(getShardThreadName(removedGroup))));
+        assertThat(((Map)Tests.get(protocol, "groupsStacks")).containsKey(removedGroup.getId()), is(false));
+    }
+
+    @Test
+    public void testTimers() throws Throwable
+    {
+        protocol.onJoined();
+        waitShards();
+
+        long startTime = System.currentTimeMillis();
+        for (IGroup group : groups)
+        {
+            TestProtocol groupProtocol = subStackFactory.protocols.get(group.getId());
+            while (groupProtocol.getTimerThreads().isEmpty())
+            {
+                assertTrue(System.currentTimeMillis() < startTime + 10000);
+                Thread.sleep(10);
+            }
+        }
+
+        for (IGroup group : groups)
+        {
+            TestProtocol groupProtocol = subStackFactory.protocols.get(group.getId());
+            assertThat(groupProtocol.getTimerThreads(), is(Collections.singleton(getShardThreadName(group))));
+        }
+    }
+
+    @Test
+    public void testStop() throws Throwable
+    {
+        protocol.onJoined();
+        waitShards();
+
+        List<GroupProtocolSubStackShard> shards = Tests.get(protocol, "shards");
+        assertThat(shards.size(), is(SHARD_COUNT));
+
+        protocol.stop();
+        protocol = null;
+
+        for (GroupProtocolSubStackShard shard : shards)
+            assertThat((Boolean)Tests.get(shard, "started"), is(false));
+
+        for (IGroup group : groups)
+        {
+            List<String> events = subStackFactory.protocols.get(group.getId()).getEvents();
+            assertThat(events.get(events.size() - 1), is("stop"));
+        }
+
+        for (Thread thread : Thread.getAllStackTraces().keySet())
+            assertThat(thread.getName().startsWith("[test-groups-"), is(false));
+
+        final Thread[] thread = new Thread[1];
+        shards.get(0).execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                thread[0] = Thread.currentThread();
+            }
+        });
+        assertThat(thread[0] == Thread.currentThread(), is(true));
+    }
+
+    private List<IGroup> createGroups()
+    {
+        List<IGroup> groups = new ArrayList<IGroup>();
+        int[] shardGroupCounts = new int[SHARD_COUNT];
+        for (int i = 0; ; i++)
+        {
+            IGroup group = createGroup(i);
+            int shardIndex = getShardIndex(group);
+            if (shardGroupCounts[shardIndex] == 2)
+                continue;
+
+            shardGroupCounts[shardIndex]++;
+            groups.add(group);
+
+            if (groups.size() == 2 * SHARD_COUNT)
+                break;
+        }
+
+        return groups;
+    }
+
+    private IGroup createGroup(int index)
+    {
+        List<INode> members = new ArrayList<INode>();
+        members.add(localNodeProvider.getLocalNode());
+        members.add(TestMemberships.createNode("member" + index, DOMAIN));
+        return new Group(new GroupAddress(UUID.randomUUID(), "group" + index), true, members,
+            Enums.noneOf(GroupOption.class), 1);
+    }
+
+    private IClusterMembership createMembership(long id, List<IGroup> groups)
+    {
+        DomainMembership domain = new DomainMembership(DOMAIN, Arrays.asList(new GroupsMembership(groups)));
+        return new ClusterMembership(id, Arrays.asList(domain), null);
+    }
+
+    private IMessage createMessage(IGroup group, int value)
+    {
+        return messageFactory.create(liveNodeProvider.getLocalNode(), new TestMessagePart(value)).addPart(
+            new GroupMessagePart(group.getId()));
+    }
+
+    private void waitShards() throws Throwable
+    {
+        List<GroupProtocolSubStackShard> shards = Tests.get(protocol, "shards");
+        final CountDownLatch latch = new CountDownLatch(shards.size());
+        for (GroupProtocolSubStackShard shard : shards)
+        {
+            shard.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    private static int getShardIndex(IGroup group)
+    {
+        return (group.getId().hashCode() & Integer.MAX_VALUE) % SHARD_COUNT;
+    }
+
+    private static String getShardName(IGroup group)
+    {
+        return "test-groups-" + getShardIndex(group);
+    }
+
+    private static String getShardThreadName(IGroup group)
+    {
+        return "[" + getShardName(group) + "] compartment main thread";
+    }
+
+    private static class ClusterMembershipServiceMock implements IClusterMembershipService
+    {
+        private final INode localNode;
+        private volatile IClusterMembership membership;
+
+        public ClusterMembershipServiceMock(INode localNode)
+        {
+            this.localNode = localNode;
+        }
+
+        @Override
+        public INode getLocalNode()
+        {
+            return localNode;
+        }
+
+        @Override
+        public IClusterMembership getMembership()
+        {
+            return membership;
+        }
+
+        @Override
+        public void addMembershipListener(IClusterMembershipListener listener)
+        {
+        }
+
+        @Override
+        public void removeMembershipListener(IClusterMembershipListener listener)
+        {
+        }
+
+        @Override
+        public void removeAllMembershipListeners()
+        {
+        }
+    }
+
+    private static class ConnectionProviderMock implements IConnectionProvider
+    {
+        @Override
+        public void connect(String connection)
+        {
+        }
+
+        @Override
+        public void connect(IAddress connection)
+        {
+        }
+
+        @Override
+        public void disconnect(String connection)
+        {
+        }
+
+        @Override
+        public void disconnect(IAddress connection)
+        {
+        }
+
+        @Override
+        public String canonicalize(String connection)
+        {
+            return connection;
+        }
+    }
+
+    private class SubStackFactory implements IGroupProtocolSubStackFactory
+    {
+        private final Map<UUID, TestProtocol> protocols = Collections.synchronizedMap(new HashMap<UUID, TestProtocol>());
+        private final Map<UUID, ICompartment> compartments = Collections.synchronizedMap(
+            new HashMap<UUID, ICompartment>());
+
+        @Override
+        public GroupProtocolSubStack createProtocolSubStack(IGroup group, ICompartment compartment)
+        {
+            GroupMembershipManager membershipManager = new GroupMembershipManager("test", localNodeProvider,
+                Collections.<IPreparedGroupMembershipListener>emptySet(),
+                Collections.<com.exametrika.api.groups.cluster.IGroupMembershipListener>emptySet());
+            TestProtocol protocol = new TestProtocol(messageFactory, membershipManager);
+            List<IClusterMembershipListener> clusterMembershipListeners = new ArrayList<IClusterMembershipListener>();
+            clusterMembershipListeners.add(protocol);
+
+            protocols.put(group.getId(), protocol);
+            compartments.put(group.getId(), compartment);
+
+            return new GroupProtocolSubStack("test", messageFactory, group.getId(), Arrays.asList(protocol),
+                membershipManager, new DataLossFeedbackProviderMock(), 10, clusterMembershipListeners,
+                Collections.<ICompartmentProcessor>emptyList());
+        }
+    }
+
+    private static class TestProtocol extends AbstractProtocol implements IFlushManager, IGroupNodeDiscoverer,
+        IClusterMembershipListener
+    {
+        private final GroupMembershipManager membershipManager;
+        private final List<String> events = new ArrayList<String>();
+        private final Set<String> threads = new LinkedHashSet<String>();
+        private final Set<String> timerThreads = new LinkedHashSet<String>();
+        private final Set<INode> discoveredNodes = Collections.synchronizedSet(new HashSet<INode>());
+        private volatile boolean started;
+
+        public TestProtocol(MessageFactory messageFactory, GroupMembershipManager membershipManager)
+        {
+            super("test", messageFactory);
+
+            this.membershipManager = membershipManager;
+        }
+
+        public synchronized List<String> getEvents()
+        {
+            return new ArrayList<String>(events);
+        }
+
+        public synchronized Set<String> getThreads()
+        {
+            return new LinkedHashSet<String>(threads);
+        }
+
+        public synchronized Set<String> getTimerThreads()
+        {
+            return new LinkedHashSet<String>(timerThreads);
+        }
+
+        @Override
+        public void start()
+        {
+            super.start();
+
+            started = true;
+        }
+
+        @Override
+        public synchronized void onTimer(long currentTime)
+        {
+            timerThreads.add(Thread.currentThread().getName());
+        }
+
+        @Override
+        public void stop()
+        {
+            if (started)
+                addEvent("stop");
+
+            super.stop();
+        }
+
+        @Override
+        public boolean isFlushInProgress()
+        {
+            return false;
+        }
+
+        @Override
+        public void install(IGroupMembership membership, IGroupMembershipDelta membershipDelta)
+        {
+            if (membership.getId() == 1)
+            {
+                membershipManager.prepareInstallMembership(membership);
+                membershipManager.commitMembership();
+            }
+
+            addEvent("install:" + membership.getId());
+        }
+
+        @Override
+        public Set<INode> getDiscoveredNodes()
+        {
+            return discoveredNodes;
+        }
+
+        @Override
+        public void onJoined()
+        {
+        }
+
+        @Override
+        public void onLeft(LeaveReason reason)
+        {
+        }
+
+        @Override
+        public void onMembershipChanged(ClusterMembershipEvent event)
+        {
+            addEvent("membershipChanged");
+        }
+
+        @Override
+        protected void doSend(ISender sender, IMessage message)
+        {
+            addEvent("send:" + ((TestMessagePart)message.removePart().getPart()).value);
+
+            sender.send(message);
+        }
+
+        @Override
+        protected void doReceive(IReceiver receiver, IMessage message)
+        {
+            addEvent("receive:" + ((TestMessagePart)message.getPart()).value);
+
+            receiver.receive(message);
+        }
+
+        private synchronized void addEvent(String event)
+        {
+            events.add(event);
+            threads.add(Thread.currentThread().getName());
+        }
+    }
+
+    private static final class TestMessagePart implements IMessagePart
+    {
+        private final int value;
+
+        public TestMessagePart(int value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        public int getSize()
+        {
+            return 4;
+        }
+
+        @Override
+        public String toString()
+        {
+            return Integer.toString(value);
+        }
+    }
+}